@@ -0,0 +1,53 @@
+LOCAL_PATH := $(call my-dir)
+include $(CLEAR_VARS)
+
+# Benchmarks of the suggestion engine, run on a desktop JVM against the host build of
+# libjni_latinime:
+#   java -Djava.library.path=$ANDROID_HOST_OUT/lib -jar LatinIMEBenchmarks.jar --dict main.dict
+# The typing replay checks a run against the committed baseline of the test dictionary:
+#   java -Djava.library.path=$ANDROID_HOST_OUT/lib -cp LatinIMEBenchmarks.jar \
+#       com.android.inputmethod.latin.TypingReplay --dict tests/res/raw/test.dict \
+#       --corpus tests/res/raw/testtext.txt --baseline benchmarks/replay_baseline.properties
+# The glide typing decoder is replayed on the words of a text, or on recorded strokes, with:
+#   java -Djava.library.path=$ANDROID_HOST_OUT/lib -cp LatinIMEBenchmarks.jar \
+#       com.android.inputmethod.latin.GlideReplay --dict tests/res/raw/test.dict \
+#       --corpus tests/res/raw/testtext.txt
+# Touch events are played through the pointer tracker, the key detector and the suggestions on
+# the clock of the events, tapping the words of a text or reading recorded events, with:
+#   java -Djava.library.path=$ANDROID_HOST_OUT/lib -cp LatinIMEBenchmarks.jar \
+#       com.android.inputmethod.latin.KeyboardPlayback --dict tests/res/raw/test.dict \
+#       --corpus tests/res/raw/testtext.txt
+# The event log that LatinImeLogger writes when logging is enabled is decoded with:
+#   java -cp LatinIMEBenchmarks.jar com.android.inputmethod.latin.EventLogDecoder event_log.bin
+# The engine, the key detector and the pointer tracker are built from the sources of the
+# application, with host stand-ins for the few Android classes they use.
+
+LATINIME_SRC := ../java/src/com/android/inputmethod/latin
+
+LOCAL_SRC_FILES := \
+	$(call all-java-files-under, src) \
+	$(call all-java-files-under, stubs) \
+	$(LATINIME_SRC)/BigramPrefetcher.java \
+	$(LATINIME_SRC)/BinaryDictionary.java \
+	$(LATINIME_SRC)/Dictionary.java \
+	$(LATINIME_SRC)/ExpandableDictionary.java \
+	$(LATINIME_SRC)/GestureDecoder.java \
+	$(LATINIME_SRC)/KeyDetector.java \
+	$(LATINIME_SRC)/LatencyTracer.java \
+	$(LATINIME_SRC)/LatinImeLogger.java \
+	$(LATINIME_SRC)/PointerTracker.java \
+	$(LATINIME_SRC)/ProximityKeyDetector.java \
+	$(LATINIME_SRC)/SearchStats.java \
+	$(LATINIME_SRC)/Suggest.java \
+	$(LATINIME_SRC)/SuggestionsCache.java \
+	$(LATINIME_SRC)/ValidWordCache.java \
+	$(LATINIME_SRC)/WordComposer.java \
+	$(LATINIME_SRC)/WordFilter.java
+
+LOCAL_JAR_MANIFEST := manifest.txt
+
+LOCAL_MODULE := LatinIMEBenchmarks
+
+LOCAL_MODULE_TAGS := optional
+
+include $(BUILD_HOST_JAVA_LIBRARY)
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.android.inputmethod.latin;
+
+import java.io.IOException;
+
+/**
+ * One operation of the suggestion engine measured by {@link BenchmarkRunner}, such as a
+ * dictionary lookup. The runner calls {@link #setUp} once for each combination of parameters,
+ * then {@link #run} many times, then {@link #tearDown}.
+ */
+abstract class Benchmark {
+    final String name;
+    final boolean usesDictionarySize;
+    final boolean usesWordLength;
+
+    Benchmark(String name, boolean usesDictionarySize, boolean usesWordLength) {
+        this.name = name;
+        this.usesDictionarySize = usesDictionarySize;
+        this.usesWordLength = usesWordLength;
+    }
+
+    /**
+     * Returns why the benchmark cannot run in this environment, or null if it can.
+     */
+    String getUnavailableReason(BenchmarkRunner.Options options) {
+        return null;
+    }
+
+    /**
+     * Builds the dictionaries and the inputs of the operation. Anything allocated here is not
+     * counted against the operation.
+     * @param dictionarySize the number of words of the generated dictionaries
+     * @param wordLength the number of keystrokes of each input
+     */
+    abstract void setUp(BenchmarkRunner.Options options, int dictionarySize, int wordLength)
+            throws IOException;
+
+    /**
+     * Runs the operation once.
+     * @param i the index of the call, to pick the input
+     * @return a value depending on the result, so that the work cannot be optimized away
+     */
+    abstract int run(int i);
+
+    void tearDown() {
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.android.inputmethod.latin;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Runs the benchmarks of the suggestion engine on a desktop JVM and prints, for each benchmark
+ * and combination of parameters, the throughput, the average and tail latencies of one
+ * operation and the bytes allocated by it.
+ *
+ * Each combination is first run for a few warmup iterations, so that the JIT has compiled the
+ * code, then for a few measured iterations of fixed duration. Every operation is timed, which
+ * adds the cost of two calls to System.nanoTime() to the latencies. Allocations are those of
+ * the calling thread only, as reported by the JVM, so the work of background threads such as the
+ * bigram prefetcher is not included.
+ *
+ * Usage: java -Djava.library.path=DIR -jar LatinIMEBenchmarks.jar [options], where DIR holds the
+ * host build of libjni_latinime. Without it, the benchmarks of BinaryDictionary are skipped.
+ */
+public class BenchmarkRunner {
+    // Enough for a few seconds of the fastest operations; later operations are not recorded
+    private static final int MAX_SAMPLES = 1 << 22;
+
+    static class Options {
+        Pattern filter = Pattern.compile(".*");
+        int[] dictionarySizes = { 1000, 10000, 100000 };
+        int[] wordLengths = { 2, 4, 7 };
+        // Binary dictionary files, concatenated like the raw resources of a split dictionary
+        String[] dictionaryFiles;
+        // Text whose words are typed, instead of words generated like the dictionaries
+        String corpusFile;
+        int warmupIterations = 3;
+        int iterations = 5;
+        long iterationMillis = 1000;
+    }
+
+    private final Options mOptions;
+    private final PrintStream mOut;
+    private final long[] mSamples = new long[MAX_SAMPLES];
+    private final ThreadMXBean mThreadBean = ManagementFactory.getThreadMXBean();
+
+    BenchmarkRunner(Options options, PrintStream out) {
+        mOptions = options;
+        mOut = out;
+    }
+
+    public static void main(String[] args) throws IOException {
+        final Options options;
+        try {
+            options = parseOptions(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            printUsage();
+            System.exit(1);
+            return;
+        }
+        new BenchmarkRunner(options, System.out).runAll(EngineBenchmarks.create());
+    }
+
+    void runAll(List<Benchmark> benchmarks) throws IOException {
+        mOut.println(String.format("%-36s %7s %4s %12s %7s %9s %9s %9s %9s %9s %8s %8s",
+                "Benchmark", "size", "len", "ops/s", "+-%", "avg(us)", "p50(us)", "p99(us)",
+                "p99.9(us)", "max(us)", "B/op", "MB/s"));
+        for (Benchmark benchmark : benchmarks) {
+            if (!mOptions.filter.matcher(benchmark.name).find()) continue;
+            final String reason = benchmark.getUnavailableReason(mOptions);
+            if (reason != null) {
+                mOut.println(String.format("%-36s skipped: %s", benchmark.name, reason));
+                continue;
+            }
+            final int[] sizes = benchmark.usesDictionarySize
+                    ? mOptions.dictionarySizes : new int[] { 0 };
+            final int[] lengths = benchmark.usesWordLength
+                    ? mOptions.wordLengths : new int[] { 0 };
+            for (int size : sizes) {
+                for (int length : lengths) {
+                    benchmark.setUp(mOptions, size, length);
+                    try {
+                        run(benchmark, size, length);
+                    } finally {
+                        benchmark.tearDown();
+                    }
+                }
+            }
+        }
+    }
+
+    private void run(Benchmark benchmark, int size, int length) {
+        int sink = 0;
+        int call = 0;
+        for (int i = 0; i < mOptions.warmupIterations; i++) {
+            final long end = System.nanoTime() + mOptions.iterationMillis * 1000000L;
+            do {
+                sink += benchmark.run(call++);
+            } while (System.nanoTime() < end);
+        }
+
+        final double[] throughputs = new double[mOptions.iterations];
+        int samples = 0;
+        long operations = 0;
+        long elapsed = 0;
+        long allocated = 0;
+        for (int i = 0; i < mOptions.iterations; i++) {
+            final long allocatedBefore = getAllocatedBytes();
+            final long start = System.nanoTime();
+            final long end = start + mOptions.iterationMillis * 1000000L;
+            long now = start;
+            long count = 0;
+            do {
+                final long before = now;
+                sink += benchmark.run(call++);
+                now = System.nanoTime();
+                if (samples < MAX_SAMPLES) mSamples[samples++] = now - before;
+                count++;
+            } while (now < end);
+            allocated += getAllocatedBytes() - allocatedBefore;
+            throughputs[i] = count * 1e9 / (now - start);
+            operations += count;
+            elapsed += now - start;
+        }
+
+        Arrays.sort(mSamples, 0, samples);
+        double mean = 0;
+        for (double throughput : throughputs) mean += throughput;
+        mean /= throughputs.length;
+        double variance = 0;
+        for (double throughput : throughputs) {
+            variance += (throughput - mean) * (throughput - mean);
+        }
+        final double deviation = Math.sqrt(variance / throughputs.length);
+        final boolean hasAllocations = allocated >= 0 && isAllocationCountingSupported();
+        mOut.println(String.format(
+                "%-36s %7s %4s %12.0f %7.1f %9.2f %9.2f %9.2f %9.2f %9.2f %8s %8s",
+                benchmark.name, benchmark.usesDictionarySize ? size : "-",
+                benchmark.usesWordLength ? length : "-", mean, 100 * deviation / mean,
+                elapsed / 1000.0 / operations, getPercentile(samples, 0.5) / 1000.0,
+                getPercentile(samples, 0.99) / 1000.0, getPercentile(samples, 0.999) / 1000.0,
+                mSamples[samples - 1] / 1000.0,
+                hasAllocations ? String.format("%.1f", (double) allocated / operations) : "n/a",
+                hasAllocations ? String.format("%.2f", allocated * 1e3 / elapsed / (1 << 20))
+                        : "n/a"));
+        // Makes the results observable, so that the JIT keeps the work
+        if (sink == 42) mOut.print("");
+    }
+
+    private long getPercentile(int samples, double percentile) {
+        return mSamples[Math.min(samples - 1, (int) (samples * percentile))];
+    }
+
+    private boolean isAllocationCountingSupported() {
+        return mThreadBean instanceof com.sun.management.ThreadMXBean;
+    }
+
+    private long getAllocatedBytes() {
+        if (!isAllocationCountingSupported()) return 0;
+        return ((com.sun.management.ThreadMXBean) mThreadBean).getThreadAllocatedBytes(
+                Thread.currentThread().getId());
+    }
+
+    static Options parseOptions(String[] args) {
+        final Options options = new Options();
+        for (int i = 0; i < args.length; i++) {
+            final String arg = args[i];
+            if (i + 1 == args.length) throw new IllegalArgumentException("Missing value: " + arg);
+            final String value = args[++i];
+            try {
+                if ("--benchmark".equals(arg)) {
+                    options.filter = Pattern.compile(value);
+                } else if ("--sizes".equals(arg)) {
+                    options.dictionarySizes = parseInts(value);
+                } else if ("--lengths".equals(arg)) {
+                    options.wordLengths = parseInts(value);
+                } else if ("--dict".equals(arg)) {
+                    options.dictionaryFiles = value.split(",");
+                } else if ("--corpus".equals(arg)) {
+                    options.corpusFile = value;
+                } else if ("--warmup".equals(arg)) {
+                    options.warmupIterations = Integer.parseInt(value);
+                } else if ("--iterations".equals(arg)) {
+                    options.iterations = Integer.parseInt(value);
+                } else if ("--time".equals(arg)) {
+                    options.iterationMillis = Long.parseLong(value);
+                } else {
+                    throw new IllegalArgumentException("Unknown option: " + arg);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Bad value for " + arg + ": " + value);
+            }
+        }
+        if (options.iterations < 1) throw new IllegalArgumentException("No iterations");
+        return options;
+    }
+
+    private static int[] parseInts(String value) {
+        final String[] parts = value.split(",");
+        final int[] values = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            values[i] = Integer.parseInt(parts[i].trim());
+        }
+        return values;
+    }
+
+    private static void printUsage() {
+        System.err.println("Options:\n"
+                + "  --benchmark REGEX    only run the benchmarks whose name matches\n"
+                + "  --sizes N,...        words of the generated dictionaries (1000,10000,100000)\n"
+                + "  --lengths N,...      keystrokes of each typed input (2,4,7)\n"
+                + "  --dict FILE,...      binary main dictionary, needed by BinaryDictionary\n"
+                + "  --corpus FILE        text whose words are typed, instead of generated words\n"
+                + "  --warmup N           warmup iterations (3)\n"
+                + "  --iterations N       measured iterations (5)\n"
+                + "  --time MS            duration of each iteration (1000)");
+    }
+}
@@ -0,0 +1,444 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.android.inputmethod.latin;
+
+import android.inputmethodservice.Keyboard;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The benchmarks of the suggestion engine. The dictionaries of the expandable benchmarks are
+ * generated with a given number of words, drawn with the letter frequencies of English so that
+ * their tries have a realistic shape. The inputs are prefixes of a given length of the words of
+ * the corpus, or of the generated words, typed in the center of the keys of the QWERTY layout,
+ * with the alternatives the keyboard would send. The key detector is measured on the same layout,
+ * with the keyboard of the application looking up the keys near a touch as it does on the device.
+ */
+class EngineBenchmarks {
+    // Distinct inputs of each run, more than Suggest caches, so that lookups are not all hits
+    private static final int INPUT_COUNT = 512;
+    private static final int BIGRAMS_PER_WORD = 3;
+    private static final long SEED = 0x1a71;
+
+    // Relative frequencies of the letters a to z in English text, in tenths of a percent
+    private static final int[] LETTER_WEIGHTS = {
+        82, 15, 28, 43, 127, 22, 20, 61, 70, 2, 8, 40, 24,
+        67, 75, 19, 1, 60, 63, 91, 28, 10, 24, 2, 20, 1
+    };
+    // Relative frequencies of word lengths 1 to 12
+    private static final int[] LENGTH_WEIGHTS = { 3, 17, 21, 16, 11, 9, 8, 6, 4, 3, 1, 1 };
+
+    private static final KeyboardLayout QWERTY = KeyboardLayout.createQwerty();
+
+    static List<Benchmark> create() {
+        final List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+        benchmarks.add(new ExpandableGetWords());
+        benchmarks.add(new ExpandableGetBigrams());
+        benchmarks.add(new ExpandableAddWord());
+        benchmarks.add(new SuggestGetSuggestions());
+        benchmarks.add(new BinaryGetWords());
+        benchmarks.add(new BinaryGetBigrams());
+        benchmarks.add(new DetectKey("ProximityKeyDetector.mdpi", 160));
+        benchmarks.add(new DetectKey("ProximityKeyDetector.hdpi", 240));
+        return benchmarks;
+    }
+
+    private static class ExpandableGetWords extends Benchmark {
+        private ExpandableDictionary mDictionary;
+        private WordComposer[] mInputs;
+        private final Dictionary.ResultBlock mResults =
+                new Dictionary.ResultBlock(64, BinaryDictionary.MAX_WORD_LENGTH);
+
+        ExpandableGetWords() {
+            super("ExpandableDictionary.getWords", true, true);
+        }
+
+        @Override
+        void setUp(BenchmarkRunner.Options options, int dictionarySize, int wordLength)
+                throws IOException {
+            final String[] words = generateWords(dictionarySize);
+            mDictionary = createDictionary(words);
+            mInputs = createInputs(options, words, wordLength);
+        }
+
+        @Override
+        int run(int i) {
+            mDictionary.getWords(mInputs[i % mInputs.length], mResults, null);
+            return mResults.count;
+        }
+    }
+
+    private static class ExpandableGetBigrams extends Benchmark {
+        private ExpandableDictionary mDictionary;
+        private String[] mPrevWords;
+        private final WordComposer mEmptyComposer = new WordComposer();
+        private final Dictionary.ResultBlock mResults =
+                new Dictionary.ResultBlock(64, BinaryDictionary.MAX_WORD_LENGTH);
+
+        ExpandableGetBigrams() {
+            super("ExpandableDictionary.getBigrams", true, false);
+        }
+
+        @Override
+        void setUp(BenchmarkRunner.Options options, int dictionarySize, int wordLength) {
+            final String[] words = generateWords(dictionarySize);
+            mDictionary = createDictionary(words);
+            final Random random = new Random(SEED);
+            for (String word : words) {
+                for (int i = 0; i < BIGRAMS_PER_WORD; i++) {
+                    mDictionary.setBigram(word, words[random.nextInt(words.length)],
+                            UserBigramDictionary.SUGGEST_THRESHOLD + random.nextInt(100));
+                }
+            }
+            mPrevWords = pick(words, INPUT_COUNT, random);
+        }
+
+        @Override
+        int run(int i) {
+            mDictionary.getBigrams(mEmptyComposer, mPrevWords[i % mPrevWords.length], mResults,
+                    null);
+            return mResults.count;
+        }
+    }
+
+    private static class ExpandableAddWord extends Benchmark {
+        private ExpandableDictionary mDictionary;
+        // Half of them are already in the dictionary, so both insertions and updates are timed
+        private String[] mWords;
+
+        ExpandableAddWord() {
+            super("ExpandableDictionary.addWord", true, false);
+        }
+
+        @Override
+        void setUp(BenchmarkRunner.Options options, int dictionarySize, int wordLength) {
+            final String[] words = generateWords(dictionarySize * 2);
+            final String[] initialWords = new String[dictionarySize];
+            System.arraycopy(words, 0, initialWords, 0, dictionarySize);
+            mDictionary = createDictionary(initialWords);
+            final Random random = new Random(SEED);
+            mWords = new String[dictionarySize * 2];
+            for (int i = 0; i < mWords.length; i++) {
+                mWords[i] = words[random.nextInt(words.length)];
+            }
+        }
+
+        @Override
+        int run(int i) {
+            final String word = mWords[i % mWords.length];
+            mDictionary.addWord(word, 1);
+            return word.length();
+        }
+    }
+
+    /**
+     * The whole lookup of the candidates shown for a keystroke, with a main dictionary if one is
+     * given and the generated dictionary as the user dictionary.
+     */
+    private static class SuggestGetSuggestions extends Benchmark {
+        private Suggest mSuggest;
+        private WordComposer[] mInputs;
+
+        SuggestGetSuggestions() {
+            super("Suggest.getSuggestions", true, true);
+        }
+
+        @Override
+        void setUp(BenchmarkRunner.Options options, int dictionarySize, int wordLength)
+                throws IOException {
+            final String[] words = generateWords(dictionarySize);
+            mSuggest = new Suggest();
+            if (options.dictionaryFiles != null && isNativeLibraryAvailable()) {
+                mSuggest.loadMainDictionary(openFiles(options.dictionaryFiles));
+            }
+            mSuggest.setAutoTextEnabled(false);
+            mSuggest.setCorrectionMode(Suggest.CORRECTION_FULL);
+            mSuggest.setUserDictionary(createDictionary(words));
+            mInputs = createInputs(options, words, wordLength);
+        }
+
+        @Override
+        int run(int i) {
+            return mSuggest.getSuggestions(null, mInputs[i % mInputs.length], false, null).size();
+        }
+
+        @Override
+        void tearDown() {
+            mSuggest.close();
+        }
+    }
+
+    private static abstract class BinaryBenchmark extends Benchmark {
+        BinaryDictionary mDictionary;
+
+        BinaryBenchmark(String name, boolean usesWordLength) {
+            super(name, false, usesWordLength);
+        }
+
+        @Override
+        String getUnavailableReason(BenchmarkRunner.Options options) {
+            if (options.dictionaryFiles == null) return "no --dict given";
+            if (!isNativeLibraryAvailable()) return "jni_latinime not in java.library.path";
+            return null;
+        }
+
+        void loadDictionary(BenchmarkRunner.Options options) throws IOException {
+            mDictionary = new BinaryDictionary(Suggest.DIC_MAIN);
+            mDictionary.loadDictionary(openFiles(options.dictionaryFiles));
+            if (mDictionary.getReadiness() != Dictionary.Readiness.READY) {
+                throw new IOException("Cannot open the dictionary");
+            }
+        }
+
+        @Override
+        void tearDown() {
+            mDictionary.close();
+        }
+    }
+
+    private static class BinaryGetWords extends BinaryBenchmark {
+        private WordComposer[] mInputs;
+        private final Dictionary.ResultBlock mResults =
+                new Dictionary.ResultBlock(64, BinaryDictionary.MAX_WORD_LENGTH);
+
+        BinaryGetWords() {
+            super("BinaryDictionary.getWords", true);
+        }
+
+        @Override
+        void setUp(BenchmarkRunner.Options options, int dictionarySize, int wordLength)
+                throws IOException {
+            loadDictionary(options);
+            mInputs = createInputs(options, generateWords(INPUT_COUNT), wordLength);
+        }
+
+        @Override
+        int run(int i) {
+            mDictionary.getWords(mInputs[i % mInputs.length], mResults, null);
+            return mResults.count;
+        }
+    }
+
+    private static class BinaryGetBigrams extends BinaryBenchmark {
+        private String[] mPrevWords;
+        private final WordComposer mEmptyComposer = new WordComposer();
+        private final Dictionary.ResultBlock mResults =
+                new Dictionary.ResultBlock(64, BinaryDictionary.MAX_WORD_LENGTH);
+
+        BinaryGetBigrams() {
+            super("BinaryDictionary.getBigrams", false);
+        }
+
+        @Override
+        void setUp(BenchmarkRunner.Options options, int dictionarySize, int wordLength)
+                throws IOException {
+            loadDictionary(options);
+            final String[] words = options.corpusFile != null
+                    ? readCorpus(options.corpusFile) : generateWords(INPUT_COUNT);
+            mPrevWords = pick(words, INPUT_COUNT, new Random(SEED));
+        }
+
+        @Override
+        int run(int i) {
+            mDictionary.getBigrams(mEmptyComposer, mPrevWords[i % mPrevWords.length], mResults,
+                    null);
+            return mResults.count;
+        }
+    }
+
+    /**
+     * The lookup of the key touched and of the keys near it, for each touch event of the
+     * keyboard view, on the QWERTY layout at a given screen density. The touches land around the
+     * centers of the keys drawn with the letter frequencies of English, some of them far enough
+     * to be on a neighbor or off the keyboard.
+     */
+    private static class DetectKey extends Benchmark {
+        // Standard deviation of the distance of a touch from the center of its key, in key widths
+        private static final float TOUCH_NOISE = 0.4f;
+
+        private final float mPixelsPerInch;
+        private final ProximityKeyDetector mDetector = new ProximityKeyDetector();
+        private final int[] mCodes = mDetector.newCodeArray();
+        private int[] mTouchX;
+        private int[] mTouchY;
+
+        DetectKey(String name, float pixelsPerInch) {
+            super(name, false, false);
+            mPixelsPerInch = pixelsPerInch;
+        }
+
+        @Override
+        void setUp(BenchmarkRunner.Options options, int dictionarySize, int wordLength) {
+            final Keyboard keyboard = QWERTY.createKeyboard(mPixelsPerInch);
+            final Keyboard.Key[] keys = mDetector.setKeyboard(keyboard, 0, 0);
+            // As in LatinKeyboardBaseView.computeProximityThreshold, the keys having no gap below
+            int dimensionSum = 0;
+            for (Keyboard.Key key : keys) {
+                dimensionSum += Math.min(key.width, key.height) + key.gap;
+            }
+            mDetector.setProximityThreshold((int) (dimensionSum * 1.4f / keys.length));
+            mDetector.setProximityCorrectionEnabled(true);
+
+            final Random random = new Random(SEED);
+            mTouchX = new int[INPUT_COUNT];
+            mTouchY = new int[INPUT_COUNT];
+            for (int i = 0; i < INPUT_COUNT; i++) {
+                final int code = 'a' + draw(LETTER_WEIGHTS, random);
+                Keyboard.Key target = keys[0];
+                for (Keyboard.Key key : keys) {
+                    if (key.codes[0] == code) target = key;
+                }
+                mTouchX[i] = target.x + target.width / 2
+                        + (int) (random.nextGaussian() * TOUCH_NOISE * target.width);
+                mTouchY[i] = target.y + target.height / 2
+                        + (int) (random.nextGaussian() * TOUCH_NOISE * target.width);
+            }
+        }
+
+        @Override
+        int run(int i) {
+            final int index = i % INPUT_COUNT;
+            return mDetector.getKeyIndexAndNearbyCodes(mTouchX[index], mTouchY[index], mCodes)
+                    + mCodes[0];
+        }
+    }
+
+    private static ExpandableDictionary createDictionary(String[] words) {
+        final ExpandableDictionary dictionary = new ExpandableDictionary(null, Suggest.DIC_USER);
+        final Random random = new Random(SEED);
+        for (String word : words) {
+            dictionary.addWord(word, 1 + random.nextInt(255));
+        }
+        return dictionary;
+    }
+
+    /**
+     * Generates distinct lower case words. The same count always gives the same words.
+     */
+    static String[] generateWords(int count) {
+        final Random random = new Random(SEED);
+        final HashSet<String> words = new HashSet<String>();
+        final String[] result = new String[count];
+        final StringBuilder sb = new StringBuilder();
+        int i = 0;
+        while (i < count) {
+            sb.setLength(0);
+            final int length = 1 + draw(LENGTH_WEIGHTS, random);
+            for (int j = 0; j < length; j++) {
+                sb.append((char) ('a' + draw(LETTER_WEIGHTS, random)));
+            }
+            final String word = sb.toString();
+            if (words.add(word)) result[i++] = word;
+        }
+        return result;
+    }
+
+    /**
+     * Types the first keystrokes of words of the corpus if there is one, else of the given
+     * words. Words shorter than the length are typed whole.
+     */
+    private static WordComposer[] createInputs(BenchmarkRunner.Options options, String[] words,
+            int length) throws IOException {
+        final String[] source = options.corpusFile != null
+                ? readCorpus(options.corpusFile) : words;
+        final String[] picked = pick(source, INPUT_COUNT, new Random(SEED));
+        final WordComposer[] inputs = new WordComposer[picked.length];
+        for (int i = 0; i < picked.length; i++) {
+            final String word = picked[i];
+            inputs[i] = createWordComposer(word.substring(0, Math.min(length, word.length())));
+        }
+        return inputs;
+    }
+
+    static WordComposer createWordComposer(CharSequence s) {
+        final WordComposer word = new WordComposer();
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            word.add(c, QWERTY.getCodes(c));
+        }
+        return word;
+    }
+
+    /**
+     * Reads the words of a text file, lower cased, skipping anything but letters.
+     */
+    static String[] readCorpus(String file) throws IOException {
+        final List<String> words = new ArrayList<String>();
+        final BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            final StringBuilder sb = new StringBuilder();
+            int c;
+            do {
+                c = reader.read();
+                if (Character.isLetter(c)) {
+                    sb.append(Character.toLowerCase((char) c));
+                } else if (sb.length() > 0) {
+                    words.add(sb.toString());
+                    sb.setLength(0);
+                }
+            } while (c != -1);
+        } finally {
+            reader.close();
+        }
+        if (words.isEmpty()) throw new IOException("No words in " + file);
+        return words.toArray(new String[words.size()]);
+    }
+
+    private static String[] pick(String[] words, int count, Random random) {
+        final String[] picked = new String[count];
+        for (int i = 0; i < count; i++) {
+            picked[i] = words[random.nextInt(words.length)];
+        }
+        return picked;
+    }
+
+    private static int draw(int[] weights, Random random) {
+        int total = 0;
+        for (int weight : weights) total += weight;
+        int value = random.nextInt(total);
+        int i = 0;
+        while (value >= weights[i]) {
+            value -= weights[i++];
+        }
+        return i;
+    }
+
+    static InputStream[] openFiles(String[] files) throws IOException {
+        final InputStream[] streams = new InputStream[files.length];
+        for (int i = 0; i < files.length; i++) {
+            streams[i] = new FileInputStream(files[i]);
+        }
+        return streams;
+    }
+
+    static boolean isNativeLibraryAvailable() {
+        try {
+            System.loadLibrary("jni_latinime");
+            return true;
+        } catch (UnsatisfiedLinkError e) {
+            return false;
+        }
+    }
+}
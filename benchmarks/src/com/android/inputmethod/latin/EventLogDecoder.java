@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.android.inputmethod.latin;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Decodes the event log written by LatinImeLogger, pulled from the device with
+ *   adb pull /data/data/com.android.inputmethod.latin/files/event_log.bin
+ * and prints one line per event, or with --summary the number of events of each type.
+ *
+ * The words are logged as hashes. With --words, they are resolved against a list of words, one
+ * per line followed by anything after a space, as written by makedict's word lists. Each word
+ * is also tried lowercase and capitalized. The others are printed as #hash.
+ *
+ * Usage: java -cp LatinIMEBenchmarks.jar com.android.inputmethod.latin.EventLogDecoder
+ * [--words FILE] [--summary] event_log.bin
+ */
+public class EventLogDecoder {
+    private final Map<Integer, String> mWords = new HashMap<Integer, String>();
+    private final SimpleDateFormat mDateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+    private final int[] mEventCounts = new int[LatinImeLogger.EVENT_NAMES.length];
+    private int mUnknownEvents;
+    private long mLostEvents;
+
+    private static void usage() {
+        System.err.println("Usage: EventLogDecoder [--words FILE] [--summary] event_log.bin");
+        System.exit(2);
+    }
+
+    public static void main(String[] args) throws IOException {
+        String wordsFile = null;
+        String logFile = null;
+        boolean summary = false;
+        for (int i = 0; i < args.length; i++) {
+            if ("--words".equals(args[i]) && i + 1 < args.length) {
+                wordsFile = args[++i];
+            } else if ("--summary".equals(args[i])) {
+                summary = true;
+            } else if (!args[i].startsWith("--") && logFile == null) {
+                logFile = args[i];
+            } else {
+                usage();
+            }
+        }
+        if (logFile == null) usage();
+
+        final EventLogDecoder decoder = new EventLogDecoder();
+        if (wordsFile != null) decoder.readWords(wordsFile);
+        decoder.decode(logFile, !summary);
+        if (summary) decoder.printSummary();
+    }
+
+    private void readWords(String file) throws IOException {
+        final BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final int end = line.indexOf(' ');
+                final String word = (end < 0 ? line : line.substring(0, end)).trim();
+                if (word.length() == 0) continue;
+                addWord(word);
+                addWord(word.toLowerCase());
+                addWord(Character.toUpperCase(word.charAt(0)) + word.substring(1));
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void addWord(String word) {
+        if (!mWords.containsKey(word.hashCode())) mWords.put(word.hashCode(), word);
+    }
+
+    private String formatWord(int hash) {
+        final String word = mWords.get(hash);
+        return word != null ? word : "#" + Integer.toHexString(hash);
+    }
+
+    private void decode(String file, boolean print) throws IOException {
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file)));
+        try {
+            if (in.readInt() != LatinImeLogger.MAGIC) {
+                throw new IOException(file + " is not an event log");
+            }
+            final int version = in.readUnsignedByte();
+            if (version != LatinImeLogger.VERSION) {
+                throw new IOException(file + " has version " + version + ", expected "
+                        + LatinImeLogger.VERSION);
+            }
+            while (true) {
+                final int count;
+                try {
+                    count = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                long time = in.readLong();
+                final long lost = readVarint(in);
+                mLostEvents += lost;
+                if (print && lost > 0) {
+                    System.out.println(mDateFormat.format(new Date(time)) + " lost " + lost
+                            + " events");
+                }
+                for (int i = 0; i < count; i++) {
+                    final int type = in.readUnsignedByte();
+                    final int flags = in.readUnsignedByte();
+                    time += readVarint(in);
+                    final int dicType = (flags & LatinImeLogger.FIELD_DIC_TYPE) != 0
+                            ? (int) readVarint(in) : 0;
+                    final int a = (flags & LatinImeLogger.FIELD_A) != 0 ? (int) readVarint(in) : 0;
+                    final int b = (flags & LatinImeLogger.FIELD_B) != 0 ? (int) readVarint(in) : 0;
+                    final int word = (flags & LatinImeLogger.FIELD_WORD) != 0 ? in.readInt() : 0;
+                    final int word2 = (flags & LatinImeLogger.FIELD_WORD2) != 0 ? in.readInt() : 0;
+                    final boolean known = type > 0 && type < mEventCounts.length;
+                    if (known) {
+                        mEventCounts[type]++;
+                    } else {
+                        mUnknownEvents++;
+                    }
+                    if (!print) continue;
+                    final StringBuilder line = new StringBuilder(
+                            mDateFormat.format(new Date(time)));
+                    line.append(' ').append(known ? LatinImeLogger.EVENT_NAMES[type]
+                            : "event" + type);
+                    if ((flags & LatinImeLogger.FIELD_DIC_TYPE) != 0) {
+                        line.append(" dic=").append(dicType);
+                    }
+                    if ((flags & LatinImeLogger.FIELD_A) != 0) line.append(" a=").append(a);
+                    if ((flags & LatinImeLogger.FIELD_B) != 0) line.append(" b=").append(b);
+                    if ((flags & LatinImeLogger.FIELD_WORD) != 0) {
+                        line.append(" word=").append(formatWord(word));
+                    }
+                    if ((flags & LatinImeLogger.FIELD_WORD2) != 0) {
+                        line.append(" word2=").append(formatWord(word2));
+                    }
+                    System.out.println(line);
+                }
+            }
+        } catch (EOFException e) {
+            // The last block was being written when the log was pulled
+            System.err.println(file + " is truncated");
+        } finally {
+            in.close();
+        }
+    }
+
+    private static long readVarint(DataInputStream in) throws IOException {
+        long zigzag = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.readUnsignedByte();
+            zigzag |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+
+    private void printSummary() {
+        for (int type = 1; type < mEventCounts.length; type++) {
+            System.out.println(LatinImeLogger.EVENT_NAMES[type] + " " + mEventCounts[type]);
+        }
+        if (mUnknownEvents > 0) System.out.println("unknown " + mUnknownEvents);
+        System.out.println("lost " + mLostEvents);
+    }
+}
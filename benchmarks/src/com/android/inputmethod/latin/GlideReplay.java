@@ -0,0 +1,357 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.android.inputmethod.latin;
+
+import android.inputmethodservice.Keyboard;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Replays glides through GestureDecoder and Suggest, the way PointerTracker drives them, and
+ * measures how often the glided word is the one committed, how many times the words are
+ * searched while the finger moves, and how long the decoder takes once it lifts, which is the
+ * delay before the word is committed.
+ *
+ * The glides are either drawn for each word of a text, in straight lines from the center of a
+ * letter key to the next at a steady speed, with the letters optionally scattered around the
+ * key centers, or read from a file of recorded strokes. A stroke file has one stroke per line:
+ * the intended word, then the points as x,y,t in pixels of the QWERTY layout of KeyboardLayout
+ * at PIXELS_PER_INCH and in milliseconds. --write-strokes saves the drawn glides in this format.
+ *
+ * Usage: java -Djava.library.path=DIR -cp LatinIMEBenchmarks.jar
+ * com.android.inputmethod.latin.GlideReplay --dict main.dict (--corpus text.txt | --strokes FILE)
+ * [options]
+ */
+public class GlideReplay {
+    private static final long SEED = 0x911de;
+    // A medium density screen
+    private static final float PIXELS_PER_INCH = 160;
+    // Speed of the finger, in inches per second, and time between two motion events
+    private static final float FINGER_SPEED = 4;
+    private static final int EVENT_INTERVAL = 16;
+
+    static class Options {
+        String[] dictionaryFiles;
+        String corpusFile;
+        String strokesFile;
+        String writeStrokesFile;
+        // Standard deviation of the letters around the key centers, in key widths
+        float noise;
+        int warmupPasses = 2;
+    }
+
+    /**
+     * A recorded or drawn glide.
+     */
+    private static class Stroke {
+        final String word;
+        final int[] x;
+        final int[] y;
+        final long[] time;
+
+        Stroke(String word, int[] x, int[] y, long[] time) {
+            this.word = word;
+            this.x = x;
+            this.y = y;
+            this.time = time;
+        }
+    }
+
+    private final Suggest mSuggest;
+    private final GestureDecoder mDecoder = new GestureDecoder();
+    private final ProximityKeyDetector mDetector = new ProximityKeyDetector();
+    private final Keyboard.Key[] mKeys;
+
+    GlideReplay(Suggest suggest) {
+        mSuggest = suggest;
+        mKeys = mDetector.setKeyboard(KeyboardLayout.createQwerty().createKeyboard(
+                PIXELS_PER_INCH), 0, 0);
+        mDecoder.setSuggest(suggest);
+        mDecoder.setKeyboard(mKeys);
+    }
+
+    public static void main(String[] args) throws IOException {
+        final Options options;
+        try {
+            options = parseOptions(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            printUsage();
+            System.exit(1);
+            return;
+        }
+        if (!EngineBenchmarks.isNativeLibraryAvailable()) {
+            System.err.println("jni_latinime is not in java.library.path");
+            System.exit(1);
+        }
+        final Suggest suggest = new Suggest();
+        suggest.loadMainDictionary(EngineBenchmarks.openFiles(options.dictionaryFiles));
+        if (suggest.getMainDictionaryReadiness() != Dictionary.Readiness.READY) {
+            System.err.println("Cannot open the dictionary");
+            System.exit(1);
+        }
+        final GlideReplay replay = new GlideReplay(suggest);
+        final List<Stroke> strokes = options.strokesFile != null
+                ? readStrokes(options.strokesFile)
+                : replay.drawStrokes(TypingReplay.readText(options.corpusFile), options.noise);
+        if (options.writeStrokesFile != null) {
+            writeStrokes(strokes, options.writeStrokesFile);
+        }
+        for (int i = 0; i < options.warmupPasses; i++) {
+            replay.run(strokes);
+        }
+        final Map<String, Double> metrics = replay.run(strokes);
+        suggest.close();
+        TypingReplay.printMetrics(metrics, System.out);
+    }
+
+    /**
+     * Glides all the strokes once.
+     */
+    private Map<String, Double> run(List<Stroke> strokes) {
+        final int count = strokes.size();
+        final long[] endLatencies = new long[count];
+        final long[] decodeLatencies = new long[count];
+        long decodes = 0;
+        long keys = 0;
+        int top1 = 0;
+        int top3 = 0;
+        int knownWords = 0;
+        for (int i = 0; i < count; i++) {
+            final Stroke stroke = strokes.get(i);
+            final int last = stroke.x.length - 1;
+            mDecoder.begin(stroke.x[0], stroke.y[0], stroke.time[0],
+                    getKeyIndex(stroke.x[0], stroke.y[0]));
+            long slowestDecode = 0;
+            for (int j = 1; j < last; j++) {
+                final long start = System.nanoTime();
+                if (mDecoder.addPoint(stroke.x[j], stroke.y[j], stroke.time[j],
+                        getKeyIndex(stroke.x[j], stroke.y[j]))) {
+                    slowestDecode = Math.max(slowestDecode, System.nanoTime() - start);
+                }
+            }
+            final long start = System.nanoTime();
+            final List<CharSequence> words = mDecoder.end(stroke.x[last], stroke.y[last],
+                    stroke.time[last], getKeyIndex(stroke.x[last], stroke.y[last]));
+            endLatencies[i] = System.nanoTime() - start;
+            decodeLatencies[i] = slowestDecode;
+            decodes += mDecoder.getDecodeCount();
+            keys += mDecoder.getPath().size;
+
+            if (!mSuggest.isValidWord(stroke.word)) continue;
+            knownWords++;
+            for (int j = 0; j < words.size() && j < 3; j++) {
+                if (!stroke.word.equalsIgnoreCase(words.get(j).toString())) continue;
+                if (j == 0) top1++;
+                top3++;
+                break;
+            }
+        }
+
+        final Map<String, Double> metrics = new LinkedHashMap<String, Double>();
+        metrics.put("strokes", (double) count);
+        metrics.put("knownWords", (double) knownWords);
+        metrics.put("top1Percent", knownWords == 0 ? 0 : 100.0 * top1 / knownWords);
+        metrics.put("top3Percent", knownWords == 0 ? 0 : 100.0 * top3 / knownWords);
+        metrics.put("pathKeysMean", count == 0 ? 0 : (double) keys / count);
+        metrics.put("decodesPerStrokeMean", count == 0 ? 0 : (double) decodes / count);
+        Arrays.sort(endLatencies);
+        Arrays.sort(decodeLatencies);
+        metrics.put("endLatencyP50Micros", getPercentile(endLatencies, 0.50) / 1000.0);
+        metrics.put("endLatencyP95Micros", getPercentile(endLatencies, 0.95) / 1000.0);
+        metrics.put("endLatencyP99Micros", getPercentile(endLatencies, 0.99) / 1000.0);
+        // The slowest search while the finger moves, which delays the next motion event
+        metrics.put("decodeLatencyP99Micros", getPercentile(decodeLatencies, 0.99) / 1000.0);
+        return metrics;
+    }
+
+    private int getKeyIndex(int x, int y) {
+        return mDetector.getKeyIndexAndNearbyCodes(x, y, null);
+    }
+
+    /**
+     * Draws a glide for each word of the text that is typed on the letter keys.
+     */
+    private List<Stroke> drawStrokes(String text, float noise) {
+        final Random random = new Random(SEED);
+        final List<Stroke> strokes = new ArrayList<Stroke>();
+        for (String token : text.split("\\s+")) {
+            int start = 0;
+            while (start < token.length() && !Character.isLetter(token.charAt(start))) start++;
+            int end = token.length();
+            while (end > start && !Character.isLetter(token.charAt(end - 1))) end--;
+            if (end - start < 2 || end - start > GestureDecoder.MAX_PATH_LENGTH) continue;
+            final Stroke stroke = drawStroke(token.substring(start, end), noise, random);
+            if (stroke != null) strokes.add(stroke);
+        }
+        return strokes;
+    }
+
+    /**
+     * Draws the glide of a word, or returns null if one of its letters has no key.
+     */
+    private Stroke drawStroke(String word, float noise, Random random) {
+        final float[] letterX = new float[word.length()];
+        final float[] letterY = new float[word.length()];
+        for (int i = 0; i < word.length(); i++) {
+            final Keyboard.Key key = findKey(Character.toLowerCase(word.charAt(i)));
+            if (key == null) return null;
+            letterX[i] = key.x + key.width / 2f;
+            letterY[i] = key.y + key.height / 2f;
+            if (noise > 0) {
+                letterX[i] += (float) random.nextGaussian() * noise * key.width;
+                letterY[i] += (float) random.nextGaussian() * noise * key.width;
+            }
+        }
+        final float step = FINGER_SPEED * PIXELS_PER_INCH * EVENT_INTERVAL / 1000;
+        final List<int[]> points = new ArrayList<int[]>();
+        points.add(new int[] { Math.round(letterX[0]), Math.round(letterY[0]) });
+        for (int i = 1; i < word.length(); i++) {
+            final float dx = letterX[i] - letterX[i - 1];
+            final float dy = letterY[i] - letterY[i - 1];
+            final int steps = Math.max(1, (int) Math.ceil(Math.sqrt(dx * dx + dy * dy) / step));
+            for (int j = 1; j <= steps; j++) {
+                points.add(new int[] { Math.round(letterX[i - 1] + dx * j / steps),
+                        Math.round(letterY[i - 1] + dy * j / steps) });
+            }
+        }
+        final int[] x = new int[points.size()];
+        final int[] y = new int[points.size()];
+        final long[] time = new long[points.size()];
+        for (int i = 0; i < x.length; i++) {
+            x[i] = points.get(i)[0];
+            y[i] = points.get(i)[1];
+            time[i] = (long) i * EVENT_INTERVAL;
+        }
+        return new Stroke(word, x, y, time);
+    }
+
+    private Keyboard.Key findKey(int code) {
+        for (Keyboard.Key key : mKeys) {
+            if (key.codes[0] == code) return key;
+        }
+        return null;
+    }
+
+    private static long getPercentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) return 0;
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * percentile))];
+    }
+
+    private static List<Stroke> readStrokes(String file) throws IOException {
+        final List<Stroke> strokes = new ArrayList<Stroke>();
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), "UTF-8"));
+        try {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                final String[] fields = line.trim().split("\\s+");
+                if (fields.length < 3 || fields[0].startsWith("#")) continue;
+                final int count = fields.length - 1;
+                final int[] x = new int[count];
+                final int[] y = new int[count];
+                final long[] time = new long[count];
+                try {
+                    for (int i = 0; i < count; i++) {
+                        final String[] point = fields[i + 1].split(",");
+                        x[i] = Integer.parseInt(point[0]);
+                        y[i] = Integer.parseInt(point[1]);
+                        time[i] = Long.parseLong(point[2]);
+                    }
+                } catch (RuntimeException e) {
+                    throw new IOException(file + ":" + lineNumber + ": bad point");
+                }
+                strokes.add(new Stroke(fields[0], x, y, time));
+            }
+        } finally {
+            reader.close();
+        }
+        return strokes;
+    }
+
+    private static void writeStrokes(List<Stroke> strokes, String file) throws IOException {
+        final PrintStream out = new PrintStream(new FileOutputStream(file), false, "UTF-8");
+        try {
+            for (Stroke stroke : strokes) {
+                final StringBuilder line = new StringBuilder(stroke.word);
+                for (int i = 0; i < stroke.x.length; i++) {
+                    line.append(' ').append(stroke.x[i]).append(',').append(stroke.y[i])
+                            .append(',').append(stroke.time[i]);
+                }
+                out.println(line);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    static Options parseOptions(String[] args) {
+        final Options options = new Options();
+        for (int i = 0; i < args.length; i++) {
+            final String arg = args[i];
+            if (i + 1 == args.length) throw new IllegalArgumentException("Missing value: " + arg);
+            final String value = args[++i];
+            try {
+                if ("--dict".equals(arg)) {
+                    options.dictionaryFiles = value.split(",");
+                } else if ("--corpus".equals(arg)) {
+                    options.corpusFile = value;
+                } else if ("--strokes".equals(arg)) {
+                    options.strokesFile = value;
+                } else if ("--write-strokes".equals(arg)) {
+                    options.writeStrokesFile = value;
+                } else if ("--noise".equals(arg)) {
+                    options.noise = Float.parseFloat(value);
+                } else if ("--warmup".equals(arg)) {
+                    options.warmupPasses = Integer.parseInt(value);
+                } else {
+                    throw new IllegalArgumentException("Unknown option: " + arg);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Bad value for " + arg + ": " + value);
+            }
+        }
+        if (options.dictionaryFiles == null) throw new IllegalArgumentException("No --dict");
+        if ((options.corpusFile == null) == (options.strokesFile == null)) {
+            throw new IllegalArgumentException("One of --corpus and --strokes is needed");
+        }
+        return options;
+    }
+
+    private static void printUsage() {
+        System.err.println("Options:\n"
+                + "  --dict FILE,...          binary main dictionary\n"
+                + "  --corpus FILE            text whose words are glided\n"
+                + "  --strokes FILE           recorded strokes to replay instead\n"
+                + "  --write-strokes FILE     save the strokes replayed\n"
+                + "  --noise N                spread of the letters, in key widths (0)\n"
+                + "  --warmup N               passes over the strokes before measuring (2)");
+    }
+}
@@ -0,0 +1,336 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.android.inputmethod.latin;
+
+import android.inputmethodservice.Keyboard;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+/**
+ * The geometry of the character keys of a keyboard, used to type text on the host with the
+ * alternatives the keyboard view would send: each touch carries the codes of the keys whose
+ * centers are within the proximity threshold of LatinKeyboardBaseView, nearest first.
+ *
+ * Layouts are read from the keyboard XML files of the application. Only the widths in percents
+ * of the keyboard and the labels or codes of the keys are used; the keyboard is taken to be
+ * PHONE_WIDTH wide, with the key height and gap of res/values/dimens.xml.
+ */
+class KeyboardLayout {
+    // In inches, a portrait phone
+    private static final float PHONE_WIDTH = 2.0f;
+    private static final float KEY_HEIGHT = 0.290f;
+    private static final float KEY_BOTTOM_GAP = 0.035f;
+    // As in LatinKeyboardBaseView.computeProximityThreshold
+    private static final float PROXIMITY_THRESHOLD_FACTOR = 1.4f;
+    private static final int MAX_NEARBY_KEYS = 12;
+    private static final String ANDROID_NS = "android:";
+    // As in res/values/keycodes.xml
+    private static final int KEYCODE_F1 = -103;
+
+    private static class Key {
+        final int code;
+        final float x;
+        final float y;
+        final float width;
+        final float height;
+
+        Key(int code, float x, float y, float width, float height) {
+            this.code = code;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+        }
+
+        boolean isInside(float touchX, float touchY) {
+            return touchX >= x && touchX < x + width && touchY >= y && touchY < y + height;
+        }
+
+        float squaredDistanceFrom(float touchX, float touchY) {
+            final float dx = x + width / 2 - touchX;
+            final float dy = y + height / 2 - touchY;
+            return dx * dx + dy * dy;
+        }
+    }
+
+    private final Key[] mKeys;
+    private final float mProximityThresholdSquare;
+    private final float mKeyWidth;
+    private final float[] mDistances = new float[MAX_NEARBY_KEYS];
+    private final double[] mLikelihoods = new double[MAX_NEARBY_KEYS];
+
+    private KeyboardLayout(List<Key> keys) {
+        mKeys = keys.toArray(new Key[keys.size()]);
+        float dimensionSum = 0;
+        for (Key key : mKeys) {
+            dimensionSum += Math.min(key.width, key.height + KEY_BOTTOM_GAP);
+        }
+        final float threshold = dimensionSum * PROXIMITY_THRESHOLD_FACTOR / mKeys.length;
+        mProximityThresholdSquare = threshold * threshold;
+        mKeyWidth = dimensionSum / mKeys.length;
+    }
+
+    /**
+     * Returns the letter rows of the QWERTY keyboard, as laid out by res/xml/kbd_qwerty.xml.
+     */
+    static KeyboardLayout createQwerty() {
+        return new KeyboardLayout(getQwertyLetterKeys());
+    }
+
+    /**
+     * Returns the whole QWERTY keyboard of the normal mode, as laid out by
+     * res/xml/kbd_qwerty.xml: the letter rows, with the shift and delete keys around the third
+     * one, and the bottom row of the symbols, F1, space, period and enter keys.
+     */
+    static KeyboardLayout createFullQwerty() {
+        final List<Key> keys = getQwertyLetterKeys();
+        final float rowHeight = KEY_HEIGHT + KEY_BOTTOM_GAP;
+        // Code, row, left and width of each key, in percents of the keyboard width
+        final int[][] specialKeys = {
+            { Keyboard.KEYCODE_SHIFT, 2, 0, 15 },
+            { Keyboard.KEYCODE_DELETE, 2, 85, 15 },
+            { Keyboard.KEYCODE_MODE_CHANGE, 3, 0, 20 },
+            { KEYCODE_F1, 3, 20, 10 },
+            { ' ', 3, 30, 40 },
+            { '.', 3, 70, 10 },
+            { '\n', 3, 80, 20 },
+        };
+        for (int[] key : specialKeys) {
+            keys.add(new Key(key[0], PHONE_WIDTH * key[2] / 100, key[1] * rowHeight,
+                    PHONE_WIDTH * key[3] / 100, KEY_HEIGHT));
+        }
+        // In the order of the keyboard, row by row
+        Collections.sort(keys, new Comparator<Key>() {
+            public int compare(Key a, Key b) {
+                return a.y != b.y ? Float.compare(a.y, b.y) : Float.compare(a.x, b.x);
+            }
+        });
+        return new KeyboardLayout(keys);
+    }
+
+    private static List<Key> getQwertyLetterKeys() {
+        final String[] rows = { "qwertyuiop", "asdfghjkl", "zxcvbnm" };
+        // Left gap of each row, in percents of the keyboard width
+        final float[] offsets = { 0, 5, 15 };
+        final List<Key> keys = new ArrayList<Key>();
+        final float width = PHONE_WIDTH / 10;
+        for (int row = 0; row < rows.length; row++) {
+            for (int i = 0; i < rows[row].length(); i++) {
+                keys.add(new Key(rows[row].charAt(i), PHONE_WIDTH * offsets[row] / 100
+                        + i * width, row * (KEY_HEIGHT + KEY_BOTTOM_GAP), width, KEY_HEIGHT));
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Reads a keyboard XML file of the application. Rows specific to a keyboard mode other
+     * than the normal one are skipped.
+     */
+    static KeyboardLayout parse(File file) throws IOException {
+        final Document document;
+        try {
+            document = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(file);
+        } catch (Exception e) {
+            throw new IOException("Cannot parse " + file + ": " + e.getMessage());
+        }
+        final Element keyboard = document.getDocumentElement();
+        final float keyboardKeyWidth = getPercent(keyboard, "keyWidth", 10);
+        final float keyboardGap = getPercent(keyboard, "horizontalGap", 0);
+        final List<Key> keys = new ArrayList<Key>();
+        final NodeList rows = keyboard.getElementsByTagName("Row");
+        float y = 0;
+        for (int i = 0; i < rows.getLength(); i++) {
+            final Element row = (Element) rows.item(i);
+            final String mode = row.getAttribute(ANDROID_NS + "keyboardMode");
+            if (mode.length() > 0 && !mode.endsWith("/mode_normal")) continue;
+            final float rowKeyWidth = getPercent(row, "keyWidth", keyboardKeyWidth);
+            final float rowGap = getPercent(row, "horizontalGap", keyboardGap);
+            float x = 0;
+            for (Node node = row.getFirstChild(); node != null; node = node.getNextSibling()) {
+                if (!(node instanceof Element) || !"Key".equals(node.getNodeName())) continue;
+                final Element key = (Element) node;
+                x += getPercent(key, "horizontalGap", rowGap);
+                final float width = getPercent(key, "keyWidth", rowKeyWidth);
+                final int code = getCode(key);
+                if (code > ' ') {
+                    keys.add(new Key(code, PHONE_WIDTH * x / 100, y,
+                            PHONE_WIDTH * width / 100, KEY_HEIGHT));
+                }
+                x += width;
+            }
+            y += KEY_HEIGHT + KEY_BOTTOM_GAP;
+        }
+        if (keys.isEmpty()) throw new IOException("No character keys in " + file);
+        return new KeyboardLayout(keys);
+    }
+
+    /**
+     * Touches the key of the given character, as a finger landing at a random distance from its
+     * center would.
+     * @param noise the standard deviation of the distance of the touch from the center of the
+     * key, in key widths
+     * @param codes receives the codes of the keys near the touch, nearest first, ending with -1
+     * if there are less than MAX_NEARBY_KEYS of them
+     * @param likelihoods if not null, receives the likelihood of each of the codes, as
+     * KeyDetector.getNearbyLikelihoods computes them
+     * @return the code of the key touched, or the character itself if no key has it
+     */
+    int touch(char c, float noise, Random random, int[] codes, int[] likelihoods) {
+        final Key target = findKey(Character.toLowerCase(c));
+        Arrays.fill(codes, -1);
+        if (likelihoods != null) Arrays.fill(likelihoods, 0);
+        if (target == null) {
+            codes[0] = c;
+            if (likelihoods != null) likelihoods[0] = WordComposer.MAX_LIKELIHOOD;
+            return c;
+        }
+        float touchX = target.x + target.width / 2;
+        float touchY = target.y + target.height / 2;
+        if (noise > 0) {
+            touchX += (float) random.nextGaussian() * noise * mKeyWidth;
+            touchY += (float) random.nextGaussian() * noise * mKeyWidth;
+        }
+        Arrays.fill(mDistances, Float.MAX_VALUE);
+        Key primary = null;
+        Key closest = null;
+        float closestDistance = Float.MAX_VALUE;
+        for (Key key : mKeys) {
+            final float distance = key.squaredDistanceFrom(touchX, touchY);
+            final boolean isInside = key.isInside(touchX, touchY);
+            if (isInside) primary = key;
+            if (distance >= mProximityThresholdSquare && !isInside) continue;
+            if (distance < closestDistance) {
+                closestDistance = distance;
+                closest = key;
+            }
+            for (int j = 0; j < MAX_NEARBY_KEYS; j++) {
+                if (mDistances[j] > distance) {
+                    System.arraycopy(mDistances, j, mDistances, j + 1, MAX_NEARBY_KEYS - j - 1);
+                    System.arraycopy(codes, j, codes, j + 1, MAX_NEARBY_KEYS - j - 1);
+                    mDistances[j] = distance;
+                    codes[j] = key.code;
+                    break;
+                }
+            }
+        }
+        if (primary == null) primary = closest;
+        // Off the keyboard: the character is typed as if the key was hit in the center
+        if (primary == null) return touch(c, 0, random, codes, likelihoods);
+        if (likelihoods != null) computeLikelihoods(touchX, touchY, codes, likelihoods);
+        return primary.code;
+    }
+
+    private void computeLikelihoods(float touchX, float touchY, int[] codes, int[] likelihoods) {
+        double max = 0;
+        for (int i = 0; i < codes.length && codes[i] != -1; i++) {
+            final Key key = findKey(codes[i]);
+            mLikelihoods[i] = KeyDetector.getTouchLikelihood(
+                    (touchX - key.x - key.width / 2) / key.width,
+                    (touchY - key.y - key.height / 2) / key.height);
+            max = Math.max(max, mLikelihoods[i]);
+        }
+        for (int i = 0; i < codes.length && codes[i] != -1; i++) {
+            likelihoods[i] = max == 0 ? WordComposer.MAX_LIKELIHOOD
+                    : (int) Math.round(mLikelihoods[i] * WordComposer.MAX_LIKELIHOOD / max);
+        }
+    }
+
+    /**
+     * Returns the codes sent for a touch in the center of the key of the given character.
+     */
+    int[] getCodes(char c) {
+        final int[] codes = new int[MAX_NEARBY_KEYS];
+        touch(c, 0, null, codes, null);
+        int count = 0;
+        while (count < codes.length && codes[count] != -1) count++;
+        return Arrays.copyOf(codes, count);
+    }
+
+    static int[] newCodesArray() {
+        return new int[MAX_NEARBY_KEYS];
+    }
+
+    /**
+     * Returns the keyboard of the application with the keys of this layout, for the key
+     * detectors. The first and last keys of each row and the top and bottom rows are on the edges
+     * of the keyboard.
+     * @param pixelsPerInch the density of the screen
+     */
+    Keyboard createKeyboard(float pixelsPerInch) {
+        float bottom = 0;
+        for (Key key : mKeys) {
+            bottom = Math.max(bottom, key.y);
+        }
+        final List<Keyboard.Key> keys = new ArrayList<Keyboard.Key>();
+        for (int i = 0; i < mKeys.length; i++) {
+            final Key key = mKeys[i];
+            int edgeFlags = 0;
+            if (i == 0 || mKeys[i - 1].y != key.y) edgeFlags |= Keyboard.EDGE_LEFT;
+            if (i == mKeys.length - 1 || mKeys[i + 1].y != key.y) edgeFlags |= Keyboard.EDGE_RIGHT;
+            if (key.y == 0) edgeFlags |= Keyboard.EDGE_TOP;
+            if (key.y == bottom) edgeFlags |= Keyboard.EDGE_BOTTOM;
+            keys.add(new Keyboard.Key(key.code, Math.round(key.x * pixelsPerInch),
+                    Math.round(key.y * pixelsPerInch), Math.round(key.width * pixelsPerInch),
+                    Math.round(key.height * pixelsPerInch), edgeFlags));
+        }
+        return new Keyboard(keys, Math.round(PHONE_WIDTH * pixelsPerInch),
+                Math.round((bottom + KEY_HEIGHT + KEY_BOTTOM_GAP) * pixelsPerInch),
+                Math.round(mKeyWidth * pixelsPerInch));
+    }
+
+    private Key findKey(int code) {
+        for (Key key : mKeys) {
+            if (key.code == code) return key;
+        }
+        return null;
+    }
+
+    private static float getPercent(Element element, String name, float defaultValue) {
+        final String value = element.getAttribute(ANDROID_NS + name);
+        if (!value.endsWith("%p")) return defaultValue;
+        return Float.parseFloat(value.substring(0, value.length() - 2));
+    }
+
+    private static int getCode(Element key) {
+        final String codes = key.getAttribute(ANDROID_NS + "codes");
+        if (codes.length() > 0) {
+            try {
+                return Integer.parseInt(codes.split(",")[0].trim());
+            } catch (NumberFormatException e) {
+                // A reference to a resource, which is never a character here
+                return 0;
+            }
+        }
+        final String label = key.getAttribute(ANDROID_NS + "keyLabel");
+        return label.length() == 1 ? label.charAt(0) : 0;
+    }
+}
@@ -0,0 +1,688 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.android.inputmethod.latin;
+
+import android.content.res.Resources;
+import android.inputmethodservice.Keyboard;
+import android.view.MotionEvent;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Plays touch events back through PointerTracker and the key detector, and the keys they send
+ * through the part of LatinIME.onKey that feeds Suggest, without a view and on the clock of the
+ * events, and measures how many keystrokes per second the whole input stack handles and where
+ * their time goes.
+ *
+ * Unlike LatinKeyboardView.startPlaying, which posts its touches to the view in real time, the
+ * events are handled back to back, each at the time written for it: the key repeat and long
+ * press timers of the pointer, and the update of the suggestions that LatinIME delays until the
+ * typing pauses, run when the time of the events goes past theirs. A run is thus the same on any
+ * machine, and only the time the code takes is measured. A keystroke, from a touch down to the
+ * next one, is timed in three stages: the touch, in PointerTracker and the key detector; the
+ * key, in the handling of onKey or onGlide; and the suggestions, in getSuggestions.
+ *
+ * The keys are handled as LatinIME does when predicting: a letter is added to the composing word
+ * with the likelihoods of the keys near the touch, and the suggestions updated
+ * UPDATE_SUGGESTIONS_DELAY later unless another key comes first; a separator completes a pending
+ * update and commits the default suggestion, as pickDefaultSuggestion does; delete removes the
+ * last letter, or the last character committed. The bigrams of a word committed with a space
+ * are prefetched, and waited for before the next event, untimed, as TypingReplay does. Shift and
+ * the other function keys are ignored, as there is a single keyboard on the host.
+ *
+ * The events are either synthesized by tapping the words of a text, each followed by the space
+ * key, at a steady pace and optionally scattered around the key centers, or read from a trace
+ * file. A trace file has one event per line: down, move, up or cancel, then x and y in pixels
+ * of the keyboard of KeyboardLayout.createFullQwerty at PIXELS_PER_INCH, and the time in
+ * milliseconds; lines starting with # are comments. --write-trace saves the events played.
+ *
+ * Usage: java -Djava.library.path=DIR -cp LatinIMEBenchmarks.jar
+ * com.android.inputmethod.latin.KeyboardPlayback --dict main.dict (--corpus text.txt |
+ * --trace FILE) [options]
+ */
+public class KeyboardPlayback {
+    private static final long SEED = 0x7a95;
+    // A medium density screen
+    private static final float PIXELS_PER_INCH = 160;
+    // As res/values/dimens.xml, in inches
+    private static final float KEY_HYSTERESIS_DISTANCE = 0.05f;
+    // As LatinIME.postUpdateSuggestions, in milliseconds
+    private static final int UPDATE_SUGGESTIONS_DELAY = 100;
+    // Time a synthesized tap stays down, in milliseconds
+    private static final int TAP_DURATION = 60;
+    private static final long NEVER = LatinKeyboardBaseView.UIHandler.NEVER;
+    // Indexed by the MotionEvent actions
+    private static final String[] ACTION_NAMES = { "down", "up", "move", "cancel" };
+
+    static class Options {
+        String[] dictionaryFiles;
+        String corpusFile;
+        String traceFile;
+        String writeTraceFile;
+        // Standard deviation of the taps around the key centers, in key widths
+        float noise;
+        // Time from a tap to the next, in milliseconds: 200 is 60 words per minute
+        int interval = 200;
+        int updateDelay = UPDATE_SUGGESTIONS_DELAY;
+        boolean glide;
+        int warmupPasses = 2;
+    }
+
+    /**
+     * The touch events played, and the words they type if they were synthesized from a text.
+     */
+    private static class Trace {
+        final List<String> words = new ArrayList<String>();
+        int count;
+        int[] actions = new int[1024];
+        int[] xs = new int[1024];
+        int[] ys = new int[1024];
+        long[] times = new long[1024];
+
+        void add(int action, int x, int y, long time) {
+            if (count == actions.length) {
+                actions = Arrays.copyOf(actions, count * 2);
+                xs = Arrays.copyOf(xs, count * 2);
+                ys = Arrays.copyOf(ys, count * 2);
+                times = Arrays.copyOf(times, count * 2);
+            }
+            actions[count] = action;
+            xs[count] = x;
+            ys[count] = y;
+            times[count] = time;
+            count++;
+        }
+    }
+
+    /**
+     * What was measured for each keystroke of a pass.
+     */
+    private static class Results {
+        int keystrokes;
+        long[] touchNanos = new long[1024];
+        long[] keyNanos = new long[1024];
+        long[] suggestNanos = new long[1024];
+
+        void add(long touch, long key, long suggest) {
+            if (keystrokes == touchNanos.length) {
+                touchNanos = Arrays.copyOf(touchNanos, keystrokes * 2);
+                keyNanos = Arrays.copyOf(keyNanos, keystrokes * 2);
+                suggestNanos = Arrays.copyOf(suggestNanos, keystrokes * 2);
+            }
+            touchNanos[keystrokes] = touch;
+            keyNanos[keystrokes] = key;
+            suggestNanos[keystrokes] = suggest;
+            keystrokes++;
+        }
+    }
+
+    /**
+     * Stands for the keyboard view, which has nothing to draw on the host.
+     */
+    private class Proxy implements PointerTracker.UIProxy {
+        public void invalidateKey(Keyboard.Key key) {
+            mInvalidatedKeys++;
+        }
+
+        public void showPreview(int keyIndex, PointerTracker tracker) {
+        }
+
+        public boolean hasDistinctMultitouch() {
+            return true;
+        }
+    }
+
+    /**
+     * Stands for LatinIME, handling the keys the way it does when predicting.
+     */
+    private class Listener implements LatinKeyboardBaseView.OnKeyboardActionListener {
+        public void onPress(int primaryCode) {
+        }
+
+        public void onRelease(int primaryCode) {
+        }
+
+        public void onKey(int primaryCode, int[] keyCodes, int x, int y) {
+            final long start = System.nanoTime();
+            final long suggestNanos = mSuggestNanos;
+            mKeysSent++;
+            if (primaryCode == Keyboard.KEYCODE_DELETE) {
+                handleBackspace();
+            } else if (Character.isLetter(primaryCode)) {
+                handleCharacter(primaryCode, keyCodes, x, y);
+            } else if (primaryCode >= 0) {
+                handleSeparator(primaryCode);
+            }
+            mKeyNanos += System.nanoTime() - start - (mSuggestNanos - suggestNanos);
+        }
+
+        public void onText(CharSequence text) {
+            final long start = System.nanoTime();
+            commitTyped();
+            mText.append(text);
+            mKeyNanos += System.nanoTime() - start;
+        }
+
+        public void onGlide(List<CharSequence> words) {
+            if (words.isEmpty()) return;
+            final long start = System.nanoTime();
+            mGlides++;
+            commitTyped();
+            // With the automatic space of LatinIME.onGlide
+            final String word = words.get(0).toString();
+            mText.append(word).append(' ');
+            prefetchBigrams(word);
+            mKeyNanos += System.nanoTime() - start;
+        }
+
+        public void onCancel() {
+        }
+    }
+
+    private final Suggest mSuggest;
+    private final ProximityKeyDetector mDetector = new ProximityKeyDetector();
+    private final Keyboard.Key[] mKeys;
+    private final int mWidth;
+    private final int mHeight;
+    private final LatinKeyboardBaseView.UIHandler mHandler =
+            new LatinKeyboardBaseView.UIHandler();
+    private final PointerTracker mTracker;
+    private final int mUpdateDelay;
+
+    // The state of the listener, as in LatinIME
+    private final WordComposer mComposer = new WordComposer();
+    private final StringBuilder mText = new StringBuilder();
+    private boolean mPredicting;
+    private CharSequence mBestWord;
+    private CharSequence mPrevWord;
+    private boolean mBigramsPending;
+    private long mNow;
+    private long mUpdateTime = NEVER;
+
+    // The time of the stages of the current keystroke
+    private long mTouchNanos;
+    private long mKeyNanos;
+    private long mSuggestNanos;
+
+    private int mKeysSent;
+    private int mGlides;
+    private int mSuggestionUpdates;
+    private int mInvalidatedKeys;
+
+    KeyboardPlayback(Suggest suggest, boolean glide, int updateDelay) {
+        mSuggest = suggest;
+        mUpdateDelay = updateDelay;
+        final Keyboard keyboard = KeyboardLayout.createFullQwerty().createKeyboard(
+                PIXELS_PER_INCH);
+        mKeys = mDetector.setKeyboard(keyboard, 0, 0);
+        mWidth = keyboard.getMinWidth();
+        mHeight = keyboard.getHeight();
+        // As in LatinKeyboardBaseView.computeProximityThreshold, the keys having no gap below
+        int dimensionSum = 0;
+        for (Keyboard.Key key : mKeys) {
+            dimensionSum += Math.min(key.width, key.height) + key.gap;
+            key.repeatable = key.codes[0] == Keyboard.KEYCODE_DELETE;
+        }
+        mDetector.setProximityThreshold((int) (dimensionSum * 1.4f / mKeys.length));
+        mDetector.setProximityCorrectionEnabled(true);
+
+        mTracker = new PointerTracker(0, mHandler, mDetector, new Proxy(), new Resources());
+        mTracker.setKeyboard(mKeys, KEY_HYSTERESIS_DISTANCE * PIXELS_PER_INCH);
+        mTracker.setOnKeyboardActionListener(new Listener());
+        if (glide) {
+            final GestureDecoder decoder = new GestureDecoder();
+            decoder.setSuggest(suggest);
+            decoder.setKeyboard(mKeys);
+            mTracker.setGestureDecoder(decoder);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        final Options options;
+        try {
+            options = parseOptions(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            printUsage();
+            System.exit(1);
+            return;
+        }
+        if (!EngineBenchmarks.isNativeLibraryAvailable()) {
+            System.err.println("jni_latinime is not in java.library.path");
+            System.exit(1);
+        }
+        final Suggest suggest = new Suggest();
+        suggest.loadMainDictionary(EngineBenchmarks.openFiles(options.dictionaryFiles));
+        if (suggest.getMainDictionaryReadiness() != Dictionary.Readiness.READY) {
+            System.err.println("Cannot open the dictionary");
+            System.exit(1);
+        }
+        suggest.setAutoTextEnabled(false);
+        suggest.setCorrectionMode(Suggest.CORRECTION_FULL_BIGRAM);
+        final KeyboardPlayback playback = new KeyboardPlayback(suggest, options.glide,
+                options.updateDelay);
+        final Trace trace = options.traceFile != null
+                ? readTrace(options.traceFile)
+                : playback.synthesizeTrace(TypingReplay.readText(options.corpusFile),
+                        options.noise, options.interval);
+        if (options.writeTraceFile != null) {
+            writeTrace(trace, options.writeTraceFile);
+        }
+        for (int i = 0; i < options.warmupPasses; i++) {
+            playback.run(trace);
+        }
+        final Map<String, Double> metrics = playback.getMetrics(trace, playback.run(trace));
+        suggest.close();
+        TypingReplay.printMetrics(metrics, System.out);
+    }
+
+    /**
+     * Plays all the events of the trace once.
+     */
+    private Results run(Trace trace) {
+        final Results results = new Results();
+        mText.setLength(0);
+        mComposer.reset();
+        mPredicting = false;
+        mBestWord = null;
+        mPrevWord = null;
+        mUpdateTime = NEVER;
+        mHandler.cancelKeyTimers();
+        mKeysSent = 0;
+        mGlides = 0;
+        mSuggestionUpdates = 0;
+        mInvalidatedKeys = 0;
+        boolean inKeystroke = false;
+        for (int i = 0; i < trace.count; i++) {
+            final long time = trace.times[i];
+            runMessagesUntil(time);
+            if (mBigramsPending) {
+                // The user takes much longer than that to go on to the next word
+                mSuggest.waitForBigramPrefetch();
+                mBigramsPending = false;
+            }
+            final int action = trace.actions[i];
+            if (action == MotionEvent.ACTION_DOWN) {
+                if (inKeystroke) endKeystroke(results);
+                inKeystroke = true;
+            }
+            mNow = time;
+            mHandler.setTime(time);
+            final long start = System.nanoTime();
+            final long listenerNanos = mKeyNanos + mSuggestNanos;
+            mTracker.onTouchEvent(action, trace.xs[i], trace.ys[i], time);
+            mTouchNanos += System.nanoTime() - start - (mKeyNanos + mSuggestNanos - listenerNanos);
+        }
+        if (trace.count > 0) {
+            // The suggestions of the last keystroke, but not the repeats of a key left down
+            runMessagesUntil(trace.times[trace.count - 1] + mUpdateDelay);
+        }
+        if (inKeystroke) endKeystroke(results);
+        if (mBigramsPending) {
+            mSuggest.waitForBigramPrefetch();
+            mBigramsPending = false;
+        }
+        return results;
+    }
+
+    /**
+     * Runs the timers of the pointer and the update of the suggestions that are due by the
+     * given time, in order.
+     */
+    private void runMessagesUntil(long time) {
+        while (true) {
+            final long messageTime = mHandler.getNextMessageTime();
+            final long next = Math.min(messageTime, mUpdateTime);
+            if (next > time) break;
+            mNow = next;
+            if (next == mUpdateTime) {
+                mUpdateTime = NEVER;
+                updateSuggestions();
+            } else {
+                // A repeated key is sent by the pointer, as its touch is
+                final long start = System.nanoTime();
+                final long listenerNanos = mKeyNanos + mSuggestNanos;
+                mHandler.runNextMessage();
+                mTouchNanos += System.nanoTime() - start
+                        - (mKeyNanos + mSuggestNanos - listenerNanos);
+            }
+        }
+    }
+
+    private void endKeystroke(Results results) {
+        results.add(mTouchNanos, mKeyNanos, mSuggestNanos);
+        mTouchNanos = 0;
+        mKeyNanos = 0;
+        mSuggestNanos = 0;
+    }
+
+    private void handleCharacter(int primaryCode, int[] keyCodes, int x, int y) {
+        if (!mPredicting) {
+            mPredicting = true;
+            mComposer.reset();
+        }
+        mComposer.add(primaryCode, keyCodes, getNearbyLikelihoods(keyCodes, x, y));
+        postUpdateSuggestions();
+    }
+
+    private void handleBackspace() {
+        if (mPredicting && mComposer.size() > 0) {
+            mComposer.deleteLast();
+            if (mComposer.size() == 0) mPredicting = false;
+            postUpdateSuggestions();
+        } else if (mText.length() > 0) {
+            mText.setLength(mText.length() - 1);
+        }
+    }
+
+    private void handleSeparator(int primaryCode) {
+        CharSequence committedWord = null;
+        if (mPredicting) {
+            // As pickDefaultSuggestion, with the pending update completed first
+            if (mUpdateTime != NEVER) {
+                mUpdateTime = NEVER;
+                updateSuggestions();
+            }
+            committedWord = mBestWord != null && mBestWord.length() > 0
+                    ? mBestWord : mComposer.getTypedWord();
+            mText.append(committedWord);
+            mPredicting = false;
+        }
+        mText.append((char) primaryCode);
+        if (primaryCode == ' ' && committedWord != null) {
+            prefetchBigrams(committedWord.toString());
+        } else {
+            mPrevWord = null;
+        }
+    }
+
+    private void commitTyped() {
+        if (!mPredicting) return;
+        mUpdateTime = NEVER;
+        mText.append(mComposer.getTypedWord());
+        mPredicting = false;
+    }
+
+    private void prefetchBigrams(String word) {
+        mPrevWord = word;
+        mSuggest.prefetchBigrams(word);
+        mBigramsPending = true;
+    }
+
+    private int[] getNearbyLikelihoods(int[] keyCodes, int x, int y) {
+        if (keyCodes == null || keyCodes.length < 2
+                || keyCodes[1] == LatinKeyboardBaseView.NOT_A_KEY) {
+            return null;
+        }
+        final int[] likelihoods = new int[keyCodes.length];
+        mDetector.getNearbyLikelihoods(x, y, keyCodes, likelihoods);
+        return likelihoods;
+    }
+
+    private void postUpdateSuggestions() {
+        mUpdateTime = mNow + mUpdateDelay;
+    }
+
+    private void updateSuggestions() {
+        if (!mPredicting) {
+            mBestWord = null;
+            return;
+        }
+        final long start = System.nanoTime();
+        final List<CharSequence> suggestions =
+                mSuggest.getSuggestions(null, mComposer, false, mPrevWord);
+        mBestWord = TypingReplay.getBestWord(mSuggest, mComposer, suggestions);
+        mSuggestNanos += System.nanoTime() - start;
+        mSuggestionUpdates++;
+    }
+
+    private Map<String, Double> getMetrics(Trace trace, Results results) {
+        final int count = results.keystrokes;
+        final long[] touch = Arrays.copyOf(results.touchNanos, count);
+        final long[] key = Arrays.copyOf(results.keyNanos, count);
+        final long[] suggest = Arrays.copyOf(results.suggestNanos, count);
+        final long[] total = new long[count];
+        long totalNanos = 0;
+        for (int i = 0; i < count; i++) {
+            total[i] = touch[i] + key[i] + suggest[i];
+            totalNanos += total[i];
+        }
+
+        final Map<String, Double> metrics = new LinkedHashMap<String, Double>();
+        metrics.put("events", (double) trace.count);
+        metrics.put("keystrokes", (double) count);
+        metrics.put("keysSent", (double) mKeysSent);
+        metrics.put("glides", (double) mGlides);
+        metrics.put("suggestionUpdates", (double) mSuggestionUpdates);
+        metrics.put("longPresses", (double) mHandler.getLongPressCount());
+        metrics.put("invalidatedKeys", (double) mInvalidatedKeys);
+        if (!trace.words.isEmpty()) {
+            metrics.put("words", (double) trace.words.size());
+            metrics.put("wordAccuracyPercent", 100.0 * countTypedWords(trace.words)
+                    / trace.words.size());
+        }
+        metrics.put("keystrokesPerSecond", totalNanos == 0 ? 0 : count * 1e9 / totalNanos);
+        Arrays.sort(total);
+        metrics.put("latencyP50Micros", getPercentile(total, 0.50) / 1000.0);
+        metrics.put("latencyP95Micros", getPercentile(total, 0.95) / 1000.0);
+        metrics.put("latencyP99Micros", getPercentile(total, 0.99) / 1000.0);
+        metrics.put("latencyMaxMicros", getPercentile(total, 1) / 1000.0);
+        putStage(metrics, "touch", touch);
+        putStage(metrics, "key", key);
+        putStage(metrics, "suggest", suggest);
+        return metrics;
+    }
+
+    private static void putStage(Map<String, Double> metrics, String stage, long[] nanos) {
+        double sum = 0;
+        for (long value : nanos) sum += value;
+        metrics.put(stage + "MeanMicros", nanos.length == 0 ? 0 : sum / nanos.length / 1000);
+        Arrays.sort(nanos);
+        metrics.put(stage + "P50Micros", getPercentile(nanos, 0.50) / 1000.0);
+        metrics.put(stage + "P99Micros", getPercentile(nanos, 0.99) / 1000.0);
+    }
+
+    /**
+     * Counts the words intended that were typed, in order, so that a word split in two or two
+     * words merged by a missed space only count as the words they lose.
+     */
+    private int countTypedWords(List<String> words) {
+        final String[] typed = mText.toString().trim().split("\\s+");
+        // The longest common subsequence of the words, one row of its table at a time
+        int[] previous = new int[typed.length + 1];
+        int[] current = new int[typed.length + 1];
+        for (String word : words) {
+            for (int j = 0; j < typed.length; j++) {
+                current[j + 1] = word.equalsIgnoreCase(typed[j]) ? previous[j] + 1
+                        : Math.max(previous[j + 1], current[j]);
+            }
+            final int[] row = previous;
+            previous = current;
+            current = row;
+        }
+        return previous[typed.length];
+    }
+
+    /**
+     * Taps each word of the text that is typed on the letter keys, and the space key after it.
+     */
+    private Trace synthesizeTrace(String text, float noise, int interval) {
+        final Random random = new Random(SEED);
+        final Keyboard.Key space = findKey(' ');
+        // The spread of the taps is in widths of a letter key, whatever the key
+        final float spread = noise * findKey('a').width;
+        final Trace trace = new Trace();
+        long time = 0;
+        for (String token : text.split("\\s+")) {
+            int start = 0;
+            while (start < token.length() && !Character.isLetter(token.charAt(start))) start++;
+            int end = token.length();
+            while (end > start && !Character.isLetter(token.charAt(end - 1))) end--;
+            final String word = token.substring(start, end).toLowerCase();
+            final Keyboard.Key[] keys = new Keyboard.Key[word.length()];
+            boolean typeable = keys.length > 0;
+            for (int i = 0; i < keys.length && typeable; i++) {
+                keys[i] = findKey(word.charAt(i));
+                typeable = keys[i] != null;
+            }
+            if (!typeable) continue;
+            trace.words.add(word);
+            for (Keyboard.Key key : keys) {
+                tap(trace, key, spread, random, time);
+                time += interval;
+            }
+            tap(trace, space, spread, random, time);
+            time += interval;
+        }
+        return trace;
+    }
+
+    private void tap(Trace trace, Keyboard.Key key, float spread, Random random, long time) {
+        // Within the keyboard, as the touches the view gets
+        final int x = Math.max(0, Math.min(mWidth - 1, key.x + key.width / 2
+                + Math.round((float) random.nextGaussian() * spread)));
+        final int y = Math.max(0, Math.min(mHeight - 1, key.y + key.height / 2
+                + Math.round((float) random.nextGaussian() * spread)));
+        trace.add(MotionEvent.ACTION_DOWN, x, y, time);
+        // The finger rolls a little while it is down
+        trace.add(MotionEvent.ACTION_MOVE, x + 1, y + 1, time + TAP_DURATION / 2);
+        trace.add(MotionEvent.ACTION_UP, x + 1, y + 1, time + TAP_DURATION);
+    }
+
+    private Keyboard.Key findKey(int code) {
+        for (Keyboard.Key key : mKeys) {
+            if (key.codes[0] == code) return key;
+        }
+        return null;
+    }
+
+    private static long getPercentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) return 0;
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * percentile))];
+    }
+
+    private static Trace readTrace(String file) throws IOException {
+        final Trace trace = new Trace();
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), "UTF-8"));
+        try {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                final String[] fields = line.trim().split("\\s+");
+                if (fields[0].length() == 0 || fields[0].startsWith("#")) continue;
+                final int action = Arrays.asList(ACTION_NAMES).indexOf(fields[0]);
+                try {
+                    if (action < 0 || fields.length != 4) throw new IllegalArgumentException();
+                    final long time = Long.parseLong(fields[3]);
+                    if (trace.count > 0 && time < trace.times[trace.count - 1]) {
+                        throw new IllegalArgumentException();
+                    }
+                    trace.add(action, Integer.parseInt(fields[1]), Integer.parseInt(fields[2]),
+                            time);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException(file + ":" + lineNumber + ": bad event");
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return trace;
+    }
+
+    private static void writeTrace(Trace trace, String file) throws IOException {
+        final PrintStream out = new PrintStream(new FileOutputStream(file), false, "UTF-8");
+        try {
+            out.println("# Touch events of KeyboardPlayback: action x y time");
+            for (int i = 0; i < trace.count; i++) {
+                out.println(ACTION_NAMES[trace.actions[i]] + " " + trace.xs[i] + " "
+                        + trace.ys[i] + " " + trace.times[i]);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    static Options parseOptions(String[] args) {
+        final Options options = new Options();
+        for (int i = 0; i < args.length; i++) {
+            final String arg = args[i];
+            if (i + 1 == args.length) throw new IllegalArgumentException("Missing value: " + arg);
+            final String value = args[++i];
+            try {
+                if ("--dict".equals(arg)) {
+                    options.dictionaryFiles = value.split(",");
+                } else if ("--corpus".equals(arg)) {
+                    options.corpusFile = value;
+                } else if ("--trace".equals(arg)) {
+                    options.traceFile = value;
+                } else if ("--write-trace".equals(arg)) {
+                    options.writeTraceFile = value;
+                } else if ("--noise".equals(arg)) {
+                    options.noise = Float.parseFloat(value);
+                } else if ("--interval".equals(arg)) {
+                    options.interval = Integer.parseInt(value);
+                } else if ("--update-delay".equals(arg)) {
+                    options.updateDelay = Integer.parseInt(value);
+                } else if ("--glide".equals(arg)) {
+                    options.glide = Boolean.parseBoolean(value);
+                } else if ("--warmup".equals(arg)) {
+                    options.warmupPasses = Integer.parseInt(value);
+                } else {
+                    throw new IllegalArgumentException("Unknown option: " + arg);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Bad value for " + arg + ": " + value);
+            }
+        }
+        if (options.dictionaryFiles == null) throw new IllegalArgumentException("No --dict");
+        if ((options.corpusFile == null) == (options.traceFile == null)) {
+            throw new IllegalArgumentException("One of --corpus and --trace is needed");
+        }
+        if (options.interval <= TAP_DURATION) {
+            throw new IllegalArgumentException("--interval must be over " + TAP_DURATION);
+        }
+        if (options.updateDelay < 0) throw new IllegalArgumentException("Bad --update-delay");
+        return options;
+    }
+
+    private static void printUsage() {
+        System.err.println("Options:\n"
+                + "  --dict FILE,...          binary main dictionary\n"
+                + "  --corpus FILE            text whose words are tapped\n"
+                + "  --trace FILE             recorded touch events to play instead\n"
+                + "  --write-trace FILE       save the touch events played\n"
+                + "  --noise N                spread of the taps, in key widths (0)\n"
+                + "  --interval MS            time from a tap to the next (200)\n"
+                + "  --update-delay MS        delay of the suggestions after a key ("
+                + UPDATE_SUGGESTIONS_DELAY + ")\n"
+                + "  --glide true|false       decode glides over the letters (false)\n"
+                + "  --warmup N               passes over the events before measuring (2)");
+    }
+}
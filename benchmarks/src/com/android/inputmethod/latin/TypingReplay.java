@@ -0,0 +1,513 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.android.inputmethod.latin;
+
+import android.text.TextUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * Replays the typing of a text through WordComposer and Suggest, the way LatinIME drives them,
+ * and measures every keystroke: the latency of getSuggestions, the number of candidate words
+ * the dictionaries offered, the trie nodes they visited and the bytes it allocated. It prints
+ * their percentiles and the keystroke savings, and can compare them with a baseline to catch
+ * regressions.
+ *
+ * Each word of the text is typed one key at a time on a keyboard layout, with the alternatives
+ * the keyboard view would send for the touch, and optionally with touches scattered around the
+ * keys. After each keystroke, the default suggestion is picked as LatinIME.showSuggestions does.
+ * The user is assumed to stop typing and press space as soon as it is the intended word, which
+ * is how the keystroke savings are counted, like in SuggestPerformanceTests. A word that is not
+ * the default suggestion once fully typed counts as a wrong correction. The previous word is
+ * passed for bigrams as EditingUtil.getPreviousWord would find it, and the bigrams following a
+ * word committed with a space are prefetched while the user moves on to the next word.
+ *
+ * Characters before the first and after the last letter of each space separated token, such as
+ * quotes and punctuation, are not typed, as LatinIME does not predict them.
+ *
+ * With --write-trace, the dictionary queries of the measured pass are also written in the trace
+ * format of native/host/dictionary_replay, to profile the native search without the JVM.
+ *
+ * Usage: java -Djava.library.path=DIR -cp LatinIMEBenchmarks.jar
+ * com.android.inputmethod.latin.TypingReplay --dict main.dict --corpus text.txt [options]
+ */
+public class TypingReplay {
+    private static final String SENTENCE_SEPARATORS = ".,!?)";
+    private static final long SEED = 0x1a71;
+
+    // The metrics, with how much worse than the baseline they may be before a run fails.
+    // Latencies depend on the machine, so they only get a relative tolerance from the options.
+    private static final String KEYSTROKE_SAVINGS = "keystrokeSavingsPercent";
+    private static final String WRONG_CORRECTIONS = "wrongCorrections";
+    private static final String CANDIDATES_MEAN = "candidatesMean";
+    private static final String CANDIDATES_P99 = "candidatesP99";
+    private static final String ALLOCATED_MEAN = "allocatedBytesMean";
+    private static final String ALLOCATED_P99 = "allocatedBytesP99";
+    private static final String LATENCY_P50 = "latencyP50Micros";
+    private static final String LATENCY_P95 = "latencyP95Micros";
+    private static final String LATENCY_P99 = "latencyP99Micros";
+    private static final double SAVINGS_TOLERANCE = 0.1;
+    private static final double CANDIDATES_TOLERANCE = 0.02;
+    // The JIT does not always remove the same allocations
+    private static final double ALLOCATED_TOLERANCE_BYTES = 64;
+
+    static class Options {
+        String[] dictionaryFiles;
+        String corpusFile;
+        // Keyboard XML file of the application, else the QWERTY layout
+        String layoutFile;
+        // Standard deviation of the touches around the key centers, in key widths
+        float noise;
+        boolean bigrams = true;
+        int warmupPasses = 2;
+        String baselineFile;
+        String writeBaselineFile;
+        // How much slower than the baseline the latency percentiles may be, as a fraction
+        double latencyTolerance = 0.5;
+        // Trace of the dictionary queries for native/host/dictionary_replay
+        String traceFile;
+    }
+
+    /**
+     * What was measured for each keystroke of a pass.
+     */
+    private static class Results {
+        int keystrokes;
+        int words;
+        int characters;
+        int typedCharacters;
+        int wrongCorrections;
+        long[] latencies = new long[1024];
+        long[] candidates = new long[1024];
+        long[] allocations = new long[1024];
+        long[] nodes = new long[1024];
+
+        void add(long latency, long candidateCount, long allocated, long nodesVisited) {
+            if (keystrokes == latencies.length) {
+                latencies = Arrays.copyOf(latencies, keystrokes * 2);
+                candidates = Arrays.copyOf(candidates, keystrokes * 2);
+                allocations = Arrays.copyOf(allocations, keystrokes * 2);
+                nodes = Arrays.copyOf(nodes, keystrokes * 2);
+            }
+            latencies[keystrokes] = latency;
+            candidates[keystrokes] = candidateCount;
+            allocations[keystrokes] = allocated;
+            nodes[keystrokes] = nodesVisited;
+            keystrokes++;
+        }
+    }
+
+    private final Options mOptions;
+    private final Suggest mSuggest;
+    private final KeyboardLayout mLayout;
+    private final String mText;
+    private final ThreadMXBean mThreadBean = ManagementFactory.getThreadMXBean();
+    private Random mRandom;
+    private PrintStream mTrace;
+
+    TypingReplay(Options options, Suggest suggest, KeyboardLayout layout, String text) {
+        mOptions = options;
+        mSuggest = suggest;
+        mLayout = layout;
+        mText = text;
+    }
+
+    public static void main(String[] args) throws IOException {
+        final Options options;
+        try {
+            options = parseOptions(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            printUsage();
+            System.exit(1);
+            return;
+        }
+        if (!EngineBenchmarks.isNativeLibraryAvailable()) {
+            System.err.println("jni_latinime is not in java.library.path");
+            System.exit(1);
+        }
+        final Suggest suggest = new Suggest();
+        suggest.loadMainDictionary(EngineBenchmarks.openFiles(options.dictionaryFiles));
+        if (suggest.getMainDictionaryReadiness() != Dictionary.Readiness.READY) {
+            System.err.println("Cannot open the dictionary");
+            System.exit(1);
+        }
+        suggest.setAutoTextEnabled(false);
+        suggest.setCorrectionMode(options.bigrams
+                ? Suggest.CORRECTION_FULL_BIGRAM : Suggest.CORRECTION_FULL);
+        final KeyboardLayout layout = options.layoutFile != null
+                ? KeyboardLayout.parse(new File(options.layoutFile))
+                : KeyboardLayout.createQwerty();
+        final TypingReplay replay = new TypingReplay(options, suggest, layout,
+                readText(options.corpusFile));
+
+        for (int i = 0; i < options.warmupPasses; i++) {
+            replay.run();
+        }
+        if (options.traceFile != null) {
+            replay.mTrace = new PrintStream(new FileOutputStream(options.traceFile), false,
+                    "UTF-8");
+            replay.mTrace.println("# Queries of TypingReplay on " + options.corpusFile);
+        }
+        final Map<String, Double> metrics = getMetrics(replay.run());
+        if (replay.mTrace != null) replay.mTrace.close();
+        suggest.close();
+        printMetrics(metrics, System.out);
+
+        boolean passed = true;
+        if (options.baselineFile != null) {
+            passed = compareWithBaseline(metrics, loadProperties(options.baselineFile),
+                    options.latencyTolerance, System.out);
+        }
+        if (options.writeBaselineFile != null) {
+            writeBaseline(metrics, options.writeBaselineFile);
+        }
+        if (!passed) System.exit(1);
+    }
+
+    /**
+     * Types the whole text once.
+     */
+    private Results run() {
+        final Results results = new Results();
+        // The same touches on every pass
+        mRandom = new Random(SEED);
+        String prevWord = null;
+        for (String token : mText.split("\\s+")) {
+            int start = 0;
+            while (start < token.length() && !Character.isLetter(token.charAt(start))) start++;
+            int end = token.length();
+            while (end > start && !Character.isLetter(token.charAt(end - 1))) end--;
+            if (start < end) {
+                typeWord(token.substring(start, end), start == 0 ? prevWord : null, results);
+            }
+            // What EditingUtil.getPreviousWord finds once the token and a space are committed
+            if (token.length() == 0
+                    || SENTENCE_SEPARATORS.indexOf(token.charAt(token.length() - 1)) >= 0) {
+                prevWord = null;
+            } else {
+                prevWord = token;
+                // As LatinIME does once a word is committed with a space. The bigrams are in by
+                // the time the next word is started, as the user takes much longer than that.
+                if (start < end) {
+                    mSuggest.prefetchBigrams(prevWord);
+                    mSuggest.waitForBigramPrefetch();
+                }
+            }
+        }
+        return results;
+    }
+
+    private void typeWord(String word, CharSequence prevWord, Results results) {
+        final WordComposer composer = new WordComposer();
+        results.words++;
+        results.characters += word.length();
+        CharSequence bestWord = null;
+        for (int i = 0; i < word.length(); i++) {
+            final char c = word.charAt(i);
+            // A new array for each keystroke, as the composer keeps them
+            final int[] codes = KeyboardLayout.newCodesArray();
+            final int[] likelihoods = KeyboardLayout.newCodesArray();
+            int primaryCode = mLayout.touch(c, mOptions.noise, mRandom, codes, likelihoods);
+            if (Character.isUpperCase(c)) {
+                primaryCode = Character.toUpperCase(primaryCode);
+                if (i == 0) composer.setFirstCharCapitalized(true);
+            }
+            composer.add(primaryCode, codes, likelihoods);
+            if (mTrace != null) writeTrace(composer, prevWord);
+
+            final long allocatedBefore = getAllocatedBytes();
+            final long start = System.nanoTime();
+            final List<CharSequence> suggestions =
+                    mSuggest.getSuggestions(null, composer, false, prevWord);
+            final long latency = System.nanoTime() - start;
+            final long allocated = getAllocatedBytes() - allocatedBefore;
+            results.add(latency, mSuggest.getCandidateCount(), allocated,
+                    mSuggest.getLastSearchStats().nodesVisited);
+
+            bestWord = getBestWord(mSuggest, composer, suggestions);
+            if (TextUtils.equals(bestWord, word)) {
+                results.typedCharacters += i + 1;
+                return;
+            }
+        }
+        results.typedCharacters += word.length();
+        results.wrongCorrections++;
+    }
+
+    /**
+     * Writes the query of the dictionaries that getSuggestions makes for this keystroke: the
+     * bigrams of the previous word on the first one, the words on the following ones.
+     */
+    private void writeTrace(WordComposer composer, CharSequence prevWord) {
+        final StringBuilder line = new StringBuilder();
+        if (composer.size() == 1) {
+            if (!mOptions.bigrams || TextUtils.isEmpty(prevWord)) return;
+            // As Suggest.getPrevWordForBigramLookup
+            final String lowerPrevWord = prevWord.toString().toLowerCase();
+            line.append("b ").append(mSuggest.isValidWord(lowerPrevWord)
+                    ? lowerPrevWord : prevWord);
+        } else {
+            line.append('w');
+        }
+        for (int i = 0; i < composer.size(); i++) {
+            line.append(' ');
+            for (int code : composer.getCodesAt(i)) {
+                if (code == -1) break;
+                line.appendCodePoint(code);
+            }
+        }
+        mTrace.println(line);
+        // The bigrams are not filtered by likelihood
+        if (composer.size() == 1) return;
+        line.setLength(0);
+        line.append('l');
+        for (int i = 0; i < composer.size(); i++) {
+            final int[] codes = composer.getCodesAt(i);
+            final int[] likelihoods = composer.getLikelihoodsAt(i);
+            line.append(' ');
+            for (int j = 0; j < codes.length && codes[j] != -1; j++) {
+                if (j > 0) line.append(',');
+                line.append(likelihoods != null ? likelihoods[j] : -1);
+            }
+        }
+        mTrace.println(line);
+    }
+
+    /**
+     * Returns the word that the space key would commit, as chosen by LatinIME.showSuggestions.
+     */
+    static CharSequence getBestWord(Suggest suggest, WordComposer composer,
+            List<CharSequence> suggestions) {
+        if (suggestions.isEmpty()) return null;
+        final CharSequence typedWord = composer.getTypedWord();
+        final boolean typedWordValid = suggest.isValidWord(typedWord)
+                || (composer.isFirstCharCapitalized()
+                        && suggest.isValidWord(typedWord.toString().toLowerCase()));
+        boolean correctionAvailable = suggest.hasMinimalCorrection() || typedWordValid;
+        correctionAvailable &= !composer.isMostlyCaps();
+        if (correctionAvailable && !typedWordValid && suggestions.size() > 1) {
+            return suggestions.get(1);
+        }
+        return typedWord;
+    }
+
+    private long getAllocatedBytes() {
+        if (!(mThreadBean instanceof com.sun.management.ThreadMXBean)) return 0;
+        return ((com.sun.management.ThreadMXBean) mThreadBean).getThreadAllocatedBytes(
+                Thread.currentThread().getId());
+    }
+
+    private static Map<String, Double> getMetrics(Results results) {
+        final Map<String, Double> metrics = new LinkedHashMap<String, Double>();
+        metrics.put("keystrokes", (double) results.keystrokes);
+        metrics.put("words", (double) results.words);
+        metrics.put(KEYSTROKE_SAVINGS, 100.0 * (results.characters - results.typedCharacters)
+                / results.characters);
+        metrics.put(WRONG_CORRECTIONS, (double) results.wrongCorrections);
+        final long[] latencies = Arrays.copyOf(results.latencies, results.keystrokes);
+        final long[] candidates = Arrays.copyOf(results.candidates, results.keystrokes);
+        final long[] allocations = Arrays.copyOf(results.allocations, results.keystrokes);
+        final long[] nodes = Arrays.copyOf(results.nodes, results.keystrokes);
+        Arrays.sort(latencies);
+        Arrays.sort(candidates);
+        Arrays.sort(allocations);
+        Arrays.sort(nodes);
+        metrics.put(LATENCY_P50, getPercentile(latencies, 0.50) / 1000.0);
+        metrics.put(LATENCY_P95, getPercentile(latencies, 0.95) / 1000.0);
+        metrics.put(LATENCY_P99, getPercentile(latencies, 0.99) / 1000.0);
+        metrics.put("latencyMaxMicros", latencies[latencies.length - 1] / 1000.0);
+        metrics.put(CANDIDATES_MEAN, getMean(candidates));
+        metrics.put("candidatesP50", (double) getPercentile(candidates, 0.50));
+        metrics.put("candidatesP95", (double) getPercentile(candidates, 0.95));
+        metrics.put(CANDIDATES_P99, (double) getPercentile(candidates, 0.99));
+        metrics.put(ALLOCATED_MEAN, getMean(allocations));
+        metrics.put("allocatedBytesP50", (double) getPercentile(allocations, 0.50));
+        metrics.put("allocatedBytesP95", (double) getPercentile(allocations, 0.95));
+        metrics.put(ALLOCATED_P99, (double) getPercentile(allocations, 0.99));
+        metrics.put("nodesVisitedMean", getMean(nodes));
+        metrics.put("nodesVisitedP99", (double) getPercentile(nodes, 0.99));
+        return metrics;
+    }
+
+    private static long getPercentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) return 0;
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * percentile))];
+    }
+
+    private static double getMean(long[] values) {
+        if (values.length == 0) return 0;
+        double sum = 0;
+        for (long value : values) sum += value;
+        return sum / values.length;
+    }
+
+    static void printMetrics(Map<String, Double> metrics, PrintStream out) {
+        for (Map.Entry<String, Double> metric : metrics.entrySet()) {
+            out.println(String.format("%-26s %12.2f", metric.getKey(), metric.getValue()));
+        }
+    }
+
+    /**
+     * Prints the metrics that are worse than in the baseline by more than their tolerance.
+     * @return true if there are none
+     */
+    static boolean compareWithBaseline(Map<String, Double> metrics, Properties baseline,
+            double latencyTolerance, PrintStream out) {
+        boolean passed = true;
+        for (Map.Entry<String, Double> metric : metrics.entrySet()) {
+            final String name = metric.getKey();
+            final String value = baseline.getProperty(name);
+            if (value == null) continue;
+            final double expected = Double.parseDouble(value);
+            final double actual = metric.getValue();
+            final double limit;
+            if (name.equals(KEYSTROKE_SAVINGS)) {
+                limit = expected - SAVINGS_TOLERANCE;
+                if (actual >= limit) continue;
+            } else {
+                if (name.equals(WRONG_CORRECTIONS)) {
+                    limit = expected;
+                } else if (name.equals(CANDIDATES_MEAN) || name.equals(CANDIDATES_P99)) {
+                    limit = expected * (1 + CANDIDATES_TOLERANCE);
+                } else if (name.equals(ALLOCATED_MEAN) || name.equals(ALLOCATED_P99)) {
+                    limit = expected + ALLOCATED_TOLERANCE_BYTES;
+                } else if (name.equals(LATENCY_P50) || name.equals(LATENCY_P95)
+                        || name.equals(LATENCY_P99)) {
+                    limit = expected * (1 + latencyTolerance);
+                } else {
+                    // Describes the run rather than its quality
+                    continue;
+                }
+                if (actual <= limit) continue;
+            }
+            out.println(String.format("REGRESSION %s: %.2f, baseline %.2f, limit %.2f",
+                    name, actual, expected, limit));
+            passed = false;
+        }
+        if (passed) out.println("No regression against the baseline");
+        return passed;
+    }
+
+    private static void writeBaseline(Map<String, Double> metrics, String file)
+            throws IOException {
+        final PrintStream out = new PrintStream(new FileOutputStream(file));
+        try {
+            out.println("# Baseline of TypingReplay, written with --write-baseline");
+            for (Map.Entry<String, Double> metric : metrics.entrySet()) {
+                out.println(String.format("%s=%.2f", metric.getKey(), metric.getValue()));
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static Properties loadProperties(String file) throws IOException {
+        final Properties properties = new Properties();
+        final InputStream in = new FileInputStream(file);
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+        return properties;
+    }
+
+    static String readText(String file) throws IOException {
+        final InputStream in = new FileInputStream(file);
+        try {
+            final byte[] bytes = new byte[(int) new File(file).length()];
+            int read = 0;
+            while (read < bytes.length) {
+                final int count = in.read(bytes, read, bytes.length - read);
+                if (count < 0) break;
+                read += count;
+            }
+            return new String(bytes, 0, read, "UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+    static Options parseOptions(String[] args) {
+        final Options options = new Options();
+        for (int i = 0; i < args.length; i++) {
+            final String arg = args[i];
+            if ("--no-bigrams".equals(arg)) {
+                options.bigrams = false;
+                continue;
+            }
+            if (i + 1 == args.length) throw new IllegalArgumentException("Missing value: " + arg);
+            final String value = args[++i];
+            try {
+                if ("--dict".equals(arg)) {
+                    options.dictionaryFiles = value.split(",");
+                } else if ("--corpus".equals(arg)) {
+                    options.corpusFile = value;
+                } else if ("--layout".equals(arg)) {
+                    options.layoutFile = value;
+                } else if ("--noise".equals(arg)) {
+                    options.noise = Float.parseFloat(value);
+                } else if ("--warmup".equals(arg)) {
+                    options.warmupPasses = Integer.parseInt(value);
+                } else if ("--baseline".equals(arg)) {
+                    options.baselineFile = value;
+                } else if ("--write-baseline".equals(arg)) {
+                    options.writeBaselineFile = value;
+                } else if ("--latency-tolerance".equals(arg)) {
+                    options.latencyTolerance = Double.parseDouble(value);
+                } else if ("--write-trace".equals(arg)) {
+                    options.traceFile = value;
+                } else {
+                    throw new IllegalArgumentException("Unknown option: " + arg);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Bad value for " + arg + ": " + value);
+            }
+        }
+        if (options.dictionaryFiles == null) throw new IllegalArgumentException("No --dict");
+        if (options.corpusFile == null) throw new IllegalArgumentException("No --corpus");
+        return options;
+    }
+
+    private static void printUsage() {
+        System.err.println("Options:\n"
+                + "  --dict FILE,...          binary main dictionary\n"
+                + "  --corpus FILE            text to type\n"
+                + "  --layout FILE            keyboard XML of the application (QWERTY)\n"
+                + "  --noise N                spread of the touches, in key widths (0)\n"
+                + "  --no-bigrams             use CORRECTION_FULL instead of bigrams\n"
+                + "  --warmup N               passes over the text before measuring (2)\n"
+                + "  --baseline FILE          fail if worse than this baseline\n"
+                + "  --write-baseline FILE    save the metrics as a baseline\n"
+                + "  --latency-tolerance F    allowed latency increase, as a fraction (0.5)\n"
+                + "  --write-trace FILE       save the queries for native/host/dictionary_replay");
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package android.content.res;
+
+import java.io.InputStream;
+
+/**
+ * Host stand-in for the Android class, with only what the suggestion engine and PointerTracker
+ * use. There is no resource table on the host: the ids of the integers of the R stand-in are
+ * their values.
+ */
+public class Resources {
+    public int getInteger(int id) {
+        return id;
+    }
+
+    public InputStream openRawResource(int id) {
+        throw new UnsupportedOperationException("No resources on the host");
+    }
+}
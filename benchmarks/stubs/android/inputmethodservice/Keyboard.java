@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package android.inputmethodservice;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Host stand-in for the Android class, with only what the suggestion engine, the key detectors
+ * and PointerTracker use. The keys are given to the constructor instead of read from XML, and
+ * their nearest keys are looked up in the same grid as on the device.
+ */
+public class Keyboard {
+    public static final int EDGE_LEFT = 0x01;
+    public static final int EDGE_RIGHT = 0x02;
+    public static final int EDGE_TOP = 0x04;
+    public static final int EDGE_BOTTOM = 0x08;
+
+    public static final int KEYCODE_SHIFT = -1;
+    public static final int KEYCODE_MODE_CHANGE = -2;
+    public static final int KEYCODE_DELETE = -5;
+
+    private static final int GRID_WIDTH = 10;
+    private static final int GRID_HEIGHT = 5;
+    private static final int GRID_SIZE = GRID_WIDTH * GRID_HEIGHT;
+    private static final float SEARCH_DISTANCE = 1.8f;
+
+    public static class Key {
+        public int[] codes;
+        public int width;
+        public int height;
+        public int gap;
+        public int x;
+        public int y;
+        public int edgeFlags;
+        public CharSequence label;
+        public CharSequence text;
+        public boolean repeatable;
+        public boolean pressed;
+
+        public Key(int code, int x, int y, int width, int height, int edgeFlags) {
+            this.codes = new int[] { code };
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            this.edgeFlags = edgeFlags;
+        }
+
+        public void onPressed() {
+            pressed = !pressed;
+        }
+
+        public void onReleased(boolean inside) {
+            pressed = !pressed;
+        }
+
+        public boolean isInside(int x, int y) {
+            final boolean leftEdge = (edgeFlags & EDGE_LEFT) > 0;
+            final boolean rightEdge = (edgeFlags & EDGE_RIGHT) > 0;
+            final boolean topEdge = (edgeFlags & EDGE_TOP) > 0;
+            final boolean bottomEdge = (edgeFlags & EDGE_BOTTOM) > 0;
+            return (x >= this.x || (leftEdge && x <= this.x + this.width))
+                    && (x < this.x + this.width || (rightEdge && x >= this.x))
+                    && (y >= this.y || (topEdge && y <= this.y + this.height))
+                    && (y < this.y + this.height || (bottomEdge && y >= this.y));
+        }
+
+        public int squaredDistanceFrom(int x, int y) {
+            final int xDist = this.x + width / 2 - x;
+            final int yDist = this.y + height / 2 - y;
+            return xDist * xDist + yDist * yDist;
+        }
+    }
+
+    private final List<Key> mKeys;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mProximityThreshold;
+    private int mCellWidth;
+    private int mCellHeight;
+    private int[][] mGridNeighbors;
+
+    public Keyboard() {
+        this(new ArrayList<Key>(), 0, 0, 0);
+    }
+
+    public Keyboard(List<Key> keys, int width, int height, int defaultKeyWidth) {
+        mKeys = keys;
+        mWidth = width;
+        mHeight = height;
+        final int threshold = (int) (defaultKeyWidth * SEARCH_DISTANCE);
+        mProximityThreshold = threshold * threshold;
+    }
+
+    public List<Key> getKeys() {
+        return mKeys;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getMinWidth() {
+        return mWidth;
+    }
+
+    private void computeNearestNeighbors() {
+        mCellWidth = (getMinWidth() + GRID_WIDTH - 1) / GRID_WIDTH;
+        mCellHeight = (getHeight() + GRID_HEIGHT - 1) / GRID_HEIGHT;
+        mGridNeighbors = new int[GRID_SIZE][];
+        final int[] indices = new int[mKeys.size()];
+        final int gridWidth = GRID_WIDTH * mCellWidth;
+        final int gridHeight = GRID_HEIGHT * mCellHeight;
+        for (int x = 0; x < gridWidth; x += mCellWidth) {
+            for (int y = 0; y < gridHeight; y += mCellHeight) {
+                int count = 0;
+                for (int i = 0; i < mKeys.size(); i++) {
+                    final Key key = mKeys.get(i);
+                    if (key.squaredDistanceFrom(x, y) < mProximityThreshold
+                            || key.squaredDistanceFrom(x + mCellWidth - 1, y)
+                                    < mProximityThreshold
+                            || key.squaredDistanceFrom(x + mCellWidth - 1, y + mCellHeight - 1)
+                                    < mProximityThreshold
+                            || key.squaredDistanceFrom(x, y + mCellHeight - 1)
+                                    < mProximityThreshold) {
+                        indices[count++] = i;
+                    }
+                }
+                final int[] cell = new int[count];
+                System.arraycopy(indices, 0, cell, 0, count);
+                mGridNeighbors[(y / mCellHeight) * GRID_WIDTH + (x / mCellWidth)] = cell;
+            }
+        }
+    }
+
+    public int[] getNearestKeys(int x, int y) {
+        if (mGridNeighbors == null) computeNearestNeighbors();
+        if (x >= 0 && x < getMinWidth() && y >= 0 && y < getHeight()) {
+            final int index = (y / mCellHeight) * GRID_WIDTH + (x / mCellWidth);
+            if (index < GRID_SIZE) return mGridNeighbors[index];
+        }
+        return new int[0];
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.android.inputmethod.latin;
+
+import java.util.List;
+
+/**
+ * Host stand-in for the class of the application, which needs the Android view system. Only what
+ * the key detectors and PointerTracker use is kept, with the same values.
+ */
+class LatinKeyboardBaseView {
+    static final int NOT_A_KEY = -1;
+    // As in res/values/config.xml
+    private static final int KEY_REPEAT_INTERVAL = 50;
+
+    interface OnKeyboardActionListener {
+        void onPress(int primaryCode);
+
+        void onRelease(int primaryCode);
+
+        void onKey(int primaryCode, int[] keyCodes, int x, int y);
+
+        void onText(CharSequence text);
+
+        void onGlide(List<CharSequence> words);
+
+        void onCancel();
+    }
+
+    /**
+     * The key repeat and long press timers of the pointers, on a clock that the caller moves
+     * forward instead of a looper: the caller sets the time of each event and runs the messages
+     * that are due before it. A long press is only counted, as there are no popup keyboards on
+     * the host.
+     */
+    static class UIHandler {
+        static final long NEVER = Long.MAX_VALUE;
+
+        private long mNow;
+        private long mRepeatTime = NEVER;
+        private int mRepeatKeyIndex;
+        private PointerTracker mRepeatTracker;
+        private long mLongPressTime = NEVER;
+        private int mLongPressCount;
+
+        void setTime(long now) {
+            mNow = now;
+        }
+
+        long getNextMessageTime() {
+            return Math.min(mRepeatTime, mLongPressTime);
+        }
+
+        /**
+         * Runs the earliest message, at its time.
+         */
+        void runNextMessage() {
+            if (mRepeatTime == NEVER && mLongPressTime == NEVER) return;
+            if (mRepeatTime <= mLongPressTime) {
+                mNow = mRepeatTime;
+                mRepeatTracker.repeatKey(mRepeatKeyIndex);
+                startKeyRepeatTimer(KEY_REPEAT_INTERVAL, mRepeatKeyIndex, mRepeatTracker);
+            } else {
+                mNow = mLongPressTime;
+                mLongPressTime = NEVER;
+                mLongPressCount++;
+            }
+        }
+
+        int getLongPressCount() {
+            return mLongPressCount;
+        }
+
+        public void cancelPopupPreview() {
+        }
+
+        public void startKeyRepeatTimer(long delay, int keyIndex, PointerTracker tracker) {
+            mRepeatTime = mNow + delay;
+            mRepeatKeyIndex = keyIndex;
+            mRepeatTracker = tracker;
+        }
+
+        public void cancelKeyRepeatTimer() {
+            mRepeatTime = NEVER;
+            mRepeatTracker = null;
+        }
+
+        public void startLongPressTimer(long delay, int keyIndex, PointerTracker tracker) {
+            mLongPressTime = mNow + delay;
+        }
+
+        public void cancelLongPressTimer() {
+            mLongPressTime = NEVER;
+        }
+
+        public void cancelKeyTimers() {
+            cancelKeyRepeatTimer();
+            cancelLongPressTimer();
+        }
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package com.android.inputmethod.latin;
+
+/**
+ * Host stand-in for the resource ids of the application, with only the integers that
+ * PointerTracker reads. There is no resource table on the host, so the id of each integer is its
+ * value in res/values/config.xml, which the Resources stand-in returns as is.
+ */
+final class R {
+    static final class integer {
+        static final int config_delay_before_key_repeat_start = 400;
+        static final int config_long_press_key_timeout = 400;
+        static final int config_multi_tap_key_timeout = 800;
+    }
+}
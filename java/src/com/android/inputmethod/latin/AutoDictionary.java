@@ -19,6 +19,7 @@ package com.android.inputmethod.latin;
 import java.util.HashMap;
 import java.util.Set;
 import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import android.content.ContentValues;
 import android.content.Context;
@@ -55,6 +56,9 @@ public class AutoDictionary extends ExpandableDictionary {
 
     private HashMap<String,Integer> mPendingWrites = new HashMap<String,Integer>();
     private final Object mPendingWritesLock = new Object();
+    // The writes of this dictionary's words to the database in progress, counted before their
+    // words leave mPendingWrites so that the dictionary is not unloaded before they are written
+    private final AtomicInteger mWritesInProgress = new AtomicInteger();
 
     private static final String DATABASE_NAME = "auto_dict.db";
     private static final int DATABASE_VERSION = 1;
@@ -113,6 +117,13 @@ public class AutoDictionary extends ExpandableDictionary {
         super.close();
     }
 
+    @Override
+    protected boolean canUnload() {
+        synchronized (mPendingWritesLock) {
+            return mPendingWrites.isEmpty() && mWritesInProgress.get() == 0;
+        }
+    }
+
     @Override
     public void loadDictionaryAsync() {
         // Load the words that correspond to the current input locale
@@ -169,7 +180,9 @@ public class AutoDictionary extends ExpandableDictionary {
             // Nothing pending? Return
             if (mPendingWrites.isEmpty()) return;
             // Create a background thread to write the pending entries
-            new UpdateDbTask(getContext(), sOpenHelper, mPendingWrites, mLocale).execute();
+            mWritesInProgress.incrementAndGet();
+            new UpdateDbTask(getContext(), sOpenHelper, mPendingWrites, mLocale,
+                    mWritesInProgress).execute();
             // Create a new map for writing new entries into while the old one is written to db
             mPendingWrites = new HashMap<String, Integer>();
         }
@@ -223,16 +236,28 @@ public class AutoDictionary extends ExpandableDictionary {
         private final HashMap<String, Integer> mMap;
         private final DatabaseHelper mDbHelper;
         private final String mLocale;
+        private final AtomicInteger mWritesInProgress;
 
         public UpdateDbTask(Context context, DatabaseHelper openHelper,
-                HashMap<String, Integer> pendingWrites, String locale) {
+                HashMap<String, Integer> pendingWrites, String locale,
+                AtomicInteger writesInProgress) {
             mMap = pendingWrites;
             mLocale = locale;
             mDbHelper = openHelper;
+            mWritesInProgress = writesInProgress;
         }
 
         @Override
         protected Void doInBackground(Void... v) {
+            try {
+                writeWords();
+            } finally {
+                mWritesInProgress.decrementAndGet();
+            }
+            return null;
+        }
+
+        private void writeWords() {
             SQLiteDatabase db = mDbHelper.getWritableDatabase();
             // Write all the entries to the db
             Set<Entry<String,Integer>> mEntries = mMap.entrySet();
@@ -245,7 +270,6 @@ public class AutoDictionary extends ExpandableDictionary {
                             getContentValues(entry.getKey(), freq, mLocale));
                 }
             }
-            return null;
         }
 
         private ContentValues getContentValues(String word, int frequency, String locale) {
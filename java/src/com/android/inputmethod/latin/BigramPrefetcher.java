@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.android.inputmethod.latin;
+
+import android.text.TextUtils;
+
+/**
+ * Looks up, on a background thread, the words that may follow a word that was just committed,
+ * so that the first keystroke of the next word only has to filter them rather than search the
+ * dictionaries. The lookup is done with an empty composer, so it is not restricted to any first
+ * letter.
+ *
+ * The candidates of the last few committed words are kept. Each entry remembers the generation
+ * of the bigram dictionaries it was computed with, and is only returned for that generation.
+ * Requests made while the thread is busy replace each other, as only the latest one matters.
+ */
+class BigramPrefetcher {
+    private static final String TAG = "BigramPrefetcher";
+
+    // Index of each dictionary's results in an entry, in the order Suggest adds them
+    static final int USER_BIGRAM = 0;
+    static final int CONTACTS = 1;
+    static final int MAIN = 2;
+    private static final int DICTIONARY_COUNT = 3;
+
+    static class Entry {
+        private String mPrevWord;
+        private int mGeneration;
+        private long mLastUsed;
+        final Dictionary.ResultBlock[] results = new Dictionary.ResultBlock[DICTIONARY_COUNT];
+
+        Entry(int capacity) {
+            for (int i = 0; i < DICTIONARY_COUNT; i++) {
+                results[i] = new Dictionary.ResultBlock(capacity,
+                        BinaryDictionary.MAX_WORD_LENGTH);
+            }
+        }
+    }
+
+    private final Object mLock = new Object();
+    private final Entry[] mEntries;
+    // Filled by the background thread, then swapped with the entry it replaces
+    private Entry mSpare;
+    private long mUseCounter;
+    // Bumped by clear(), so that a lookup started before is not stored afterwards
+    private int mClearCount;
+
+    private String mPendingPrevWord;
+    private int mPendingGeneration;
+    private final Dictionary[] mPendingDictionaries = new Dictionary[DICTIONARY_COUNT];
+    private final Dictionary[] mDictionaries = new Dictionary[DICTIONARY_COUNT];
+    private final WordComposer mEmptyComposer = new WordComposer();
+    private Thread mThread;
+    private boolean mLookingUp;
+    private boolean mClosed;
+
+    BigramPrefetcher(int size, int capacity) {
+        mEntries = new Entry[size];
+        for (int i = 0; i < size; i++) {
+            mEntries[i] = new Entry(capacity);
+        }
+        mSpare = new Entry(capacity);
+    }
+
+    /**
+     * Schedules the lookup of the words that may follow the given one. Any of the dictionaries
+     * may be null.
+     * @param prevWord the previous word, as it will be passed to
+     * {@link Dictionary#getBigrams} when the next word is typed
+     * @param generation the current generation of the given dictionaries
+     */
+    void prefetch(CharSequence prevWord, Dictionary userBigramDictionary,
+            Dictionary contactsDictionary, Dictionary mainDictionary, int generation) {
+        synchronized (mLock) {
+            if (mClosed || findLocked(prevWord, generation) != null) return;
+            mPendingPrevWord = prevWord.toString();
+            mPendingGeneration = generation;
+            mPendingDictionaries[USER_BIGRAM] = userBigramDictionary;
+            mPendingDictionaries[CONTACTS] = contactsDictionary;
+            mPendingDictionaries[MAIN] = mainDictionary;
+            if (mThread == null) {
+                mThread = new Thread(TAG) {
+                    @Override
+                    public void run() {
+                        runLookups();
+                    }
+                };
+                mThread.start();
+            } else {
+                mLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Returns the candidates looked up for the given previous word at the given generation, or
+     * null if there are none. The entry must only be read while holding {@link #getLock}, as
+     * the background thread recycles entries.
+     */
+    Entry get(CharSequence prevWord, int generation) {
+        final Entry entry = findLocked(prevWord, generation);
+        if (entry != null) entry.mLastUsed = ++mUseCounter;
+        return entry;
+    }
+
+    /**
+     * Used only for testing purposes
+     * This function will wait for the scheduled lookups to be done
+     */
+    void waitForLookups() {
+        synchronized (mLock) {
+            while ((mPendingPrevWord != null || mLookingUp) && !mClosed) {
+                try {
+                    mLock.wait();
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    Object getLock() {
+        return mLock;
+    }
+
+    void clear() {
+        synchronized (mLock) {
+            for (Entry entry : mEntries) {
+                entry.mPrevWord = null;
+            }
+            mPendingPrevWord = null;
+            clearPendingDictionariesLocked();
+            mClearCount++;
+        }
+    }
+
+    void close() {
+        synchronized (mLock) {
+            clear();
+            mClosed = true;
+            mLock.notifyAll();
+        }
+    }
+
+    private Entry findLocked(CharSequence prevWord, int generation) {
+        for (Entry entry : mEntries) {
+            if (entry.mPrevWord != null && entry.mGeneration == generation
+                    && TextUtils.equals(entry.mPrevWord, prevWord)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private void clearPendingDictionariesLocked() {
+        for (int i = 0; i < DICTIONARY_COUNT; i++) {
+            mPendingDictionaries[i] = null;
+        }
+    }
+
+    private void runLookups() {
+        while (true) {
+            final String prevWord;
+            final int generation;
+            final int clearCount;
+            final Entry entry;
+            synchronized (mLock) {
+                while (mPendingPrevWord == null && !mClosed) {
+                    try {
+                        mLock.wait();
+                    } catch (InterruptedException e) {
+                        // Keep waiting until closed
+                    }
+                }
+                if (mClosed) return;
+                prevWord = mPendingPrevWord;
+                generation = mPendingGeneration;
+                clearCount = mClearCount;
+                System.arraycopy(mPendingDictionaries, 0, mDictionaries, 0, DICTIONARY_COUNT);
+                mPendingPrevWord = null;
+                clearPendingDictionariesLocked();
+                entry = mSpare;
+                mLookingUp = true;
+            }
+            for (int i = 0; i < DICTIONARY_COUNT; i++) {
+                final Dictionary dictionary = mDictionaries[i];
+                mDictionaries[i] = null;
+                if (dictionary == null) {
+                    entry.results[i].clear();
+                    continue;
+                }
+                dictionary.getBigrams(mEmptyComposer, prevWord, entry.results[i], null);
+            }
+            synchronized (mLock) {
+                mLookingUp = false;
+                mLock.notifyAll();
+                if (clearCount != mClearCount || mClosed) continue;
+                entry.mPrevWord = prevWord;
+                entry.mGeneration = generation;
+                entry.mLastUsed = ++mUseCounter;
+                int oldest = 0;
+                for (int i = 1; i < mEntries.length; i++) {
+                    if (mEntries[i].mLastUsed < mEntries[oldest].mLastUsed) oldest = i;
+                }
+                mSpare = mEntries[oldest];
+                mSpare.mPrevWord = null;
+                mEntries[oldest] = entry;
+            }
+        }
+    }
+}
@@ -24,6 +24,7 @@ import java.nio.channels.Channels;
 import java.util.Arrays;
 
 import android.content.Context;
+import android.text.TextUtils;
 import android.util.Log;
 
 /**
@@ -40,21 +41,41 @@ public class BinaryDictionary extends Dictionary {
     protected static final int MAX_WORD_LENGTH = 48;
 
     private static final String TAG = "BinaryDictionary";
-    private static final int MAX_ALTERNATIVES = 16;
+    static final int MAX_ALTERNATIVES = 16;
     private static final int MAX_WORDS = 18;
-    private static final int MAX_BIGRAMS = 60;
+    static final int MAX_BIGRAMS = 60;
 
     private static final int TYPED_LETTER_MULTIPLIER = 2;
     private static final boolean ENABLE_MISSED_CHARACTERS = true;
 
     private int mDicTypeId;
-    private int mNativeDict;
+    // The address of the native dictionary, which takes 64 bits on a 64-bit host
+    private volatile long mNativeDict;
     private int mDictLength;
+    // Set while the data is still to be read by loadDictionary(InputStream[])
+    private volatile boolean mLoading;
+    private boolean mClosed;
     private int[] mInputCodes = new int[MAX_WORD_LENGTH * MAX_ALTERNATIVES];
+    // The likelihoods of the input codes, -1 where the alternatives are not weighted
+    private int[] mInputLikelihoods = new int[MAX_WORD_LENGTH * MAX_ALTERNATIVES];
     private char[] mOutputChars = new char[MAX_WORD_LENGTH * MAX_WORDS];
     private char[] mOutputChars_bigrams = new char[MAX_WORD_LENGTH * MAX_BIGRAMS];
     private int[] mFrequencies = new int[MAX_WORDS];
     private int[] mFrequencies_bigrams = new int[MAX_BIGRAMS];
+    private int[] mLengths = new int[MAX_WORDS];
+    private int[] mLengths_bigrams = new int[MAX_BIGRAMS];
+    private char[] mValidWordChars = new char[MAX_WORD_LENGTH];
+    private char[] mPrevWordChars = new char[MAX_WORD_LENGTH];
+    // Filled by each native search with the counters of its work
+    private final int[] mNativeStats = new int[SearchStats.NATIVE_STATS_COUNT];
+    // Set once buildWordFilter() has finished
+    private volatile WordFilter mWordFilter;
+    // Guards the hand-over of the native dictionary between close() and the filter thread
+    private final Object mWordFilterLock = new Object();
+    // Set while the filter thread walks the native dictionary. If the dictionary is closed
+    // meanwhile, the thread closes the native dictionary once done, rather than close() waiting
+    // for the walk.
+    private boolean mBuildingWordFilter;
     // Keep a reference to the native dict direct buffer in Java to avoid
     // unexpected deallocation of the direct buffer.
     private ByteBuffer mNativeDictDirectBuffer;
@@ -79,6 +100,16 @@ public class BinaryDictionary extends Dictionary {
         mDicTypeId = dicTypeId;
     }
 
+    /**
+     * Create a dictionary whose data is read later by {@link #loadDictionary(InputStream[])},
+     * possibly on another thread. Until then the dictionary is {@link Readiness#LOADING} and
+     * finds no words.
+     */
+    public BinaryDictionary(int dicTypeId) {
+        mDicTypeId = dicTypeId;
+        mLoading = true;
+    }
+
     /**
      * Create a dictionary from a byte buffer. This is used for testing.
      * @param context application context for reading resources
@@ -100,110 +131,228 @@ public class BinaryDictionary extends Dictionary {
         mDicTypeId = dicTypeId;
     }
 
-    private native int openNative(ByteBuffer bb, int typedLetterMultiplier,
+    private native long openNative(ByteBuffer bb, int typedLetterMultiplier,
             int fullWordMultiplier);
-    private native void closeNative(int dict);
-    private native boolean isValidWordNative(int nativeData, char[] word, int wordLength);
-    private native int getSuggestionsNative(int dict, int[] inputCodes, int codesSize, 
-            char[] outputChars, int[] frequencies, int maxWordLength, int maxWords,
-            int maxAlternatives, int skipPos, int[] nextLettersFrequencies, int nextLettersSize);
-    private native int getBigramsNative(int dict, char[] prevWord, int prevWordLength,
+    private native void closeNative(long dict);
+    private native boolean isValidWordNative(long nativeData, char[] word, int wordLength);
+    private native int getSuggestionsNative(long dict, int[] inputCodes, int[] inputLikelihoods,
+            int codesSize, char[] outputChars, int[] frequencies, int[] lengths, int maxWordLength,
+            int maxWords, int maxAlternatives, int skipPos, int[] nextLettersFrequencies,
+            int nextLettersSize, int[] stats);
+    private native int getBigramsNative(long dict, char[] prevWord, int prevWordLength,
             int[] inputCodes, int inputCodesLength, char[] outputChars, int[] frequencies,
-            int maxWordLength, int maxBigrams, int maxAlternatives);
+            int[] lengths, int maxWordLength, int maxBigrams, int maxAlternatives, int[] stats);
+    private native int getGestureWordsNative(long dict, int[] pathCodes, boolean[] pathCorners,
+            int pathLength, char[] outputChars, int[] frequencies, int[] lengths,
+            int maxWordLength, int maxWords, int[] stats);
+    private native int getWordCountNative(long dict);
+    private native void fillWordFilterNative(long dict, int[] bits, int numBits, int numHashes);
 
     private final void loadDictionary(Context context, int[] resId) {
-        InputStream[] is = null;
+        InputStream[] is = new InputStream[resId.length];
+        for (int i = 0; i < resId.length; i++) {
+            is[i] = context.getResources().openRawResource(resId[i]);
+        }
+        loadDictionary(is);
+    }
+
+    /**
+     * Reads the dictionary from the streams of its raw resources, and closes them. This lets the
+     * resources be opened for a given locale on the UI thread and read on another one.
+     * @param is the streams of the resources containing the raw binary dictionary, or null if
+     * there is no dictionary, which leaves this one {@link Readiness#UNAVAILABLE}
+     */
+    public void loadDictionary(InputStream[] is) {
+        if (is == null) {
+            finishLoading();
+            return;
+        }
         try {
             // merging separated dictionary into one if dictionary is separated
             int total = 0;
-            is = new InputStream[resId.length];
-            for (int i = 0; i < resId.length; i++) {
-                is[i] = context.getResources().openRawResource(resId[i]);
+            for (int i = 0; i < is.length; i++) {
                 total += is[i].available();
             }
 
-            mNativeDictDirectBuffer =
+            final ByteBuffer buffer =
                 ByteBuffer.allocateDirect(total).order(ByteOrder.nativeOrder());
             int got = 0;
-            for (int i = 0; i < resId.length; i++) {
-                 got += Channels.newChannel(is[i]).read(mNativeDictDirectBuffer);
+            for (int i = 0; i < is.length; i++) {
+                 got += Channels.newChannel(is[i]).read(buffer);
             }
             if (got != total) {
                 Log.e(TAG, "Read " + got + " bytes, expected " + total);
             } else {
-                mNativeDict = openNative(mNativeDictDirectBuffer,
+                final long nativeDict = openNative(buffer,
                         TYPED_LETTER_MULTIPLIER, FULL_WORD_FREQ_MULTIPLIER);
-                mDictLength = total;
+                synchronized (this) {
+                    if (mClosed) {
+                        closeNative(nativeDict);
+                    } else {
+                        mNativeDictDirectBuffer = buffer;
+                        mNativeDict = nativeDict;
+                        mDictLength = total;
+                    }
+                }
             }
         } catch (IOException e) {
             Log.w(TAG, "No available memory for binary dictionary");
         } finally {
             try {
-                if (is != null) {
-                    for (int i = 0; i < is.length; i++) {
-                        is[i].close();
-                    }
+                for (int i = 0; i < is.length; i++) {
+                    is[i].close();
                 }
             } catch (IOException e) {
                 Log.w(TAG, "Failed to close input stream");
             }
+            finishLoading();
+        }
+    }
+
+    private void finishLoading() {
+        if (mLoading) {
+            mLoading = false;
+            bumpGeneration();
         }
     }
 
 
     @Override
-    public void getBigrams(final WordComposer codes, final CharSequence previousWord,
+    public synchronized void getBigrams(final WordComposer codes, final CharSequence previousWord,
             final WordCallback callback, int[] nextLettersFrequencies) {
+        final int count = lookUpBigrams(codes, previousWord);
+        for (int j = 0; j < count; j++) {
+            if (mFrequencies_bigrams[j] < 1) break;
+            if (mLengths_bigrams[j] > 0) {
+                callback.addWord(mOutputChars_bigrams, j * MAX_WORD_LENGTH, mLengths_bigrams[j],
+                        mFrequencies_bigrams[j], mDicTypeId, DataType.BIGRAM);
+            }
+        }
+    }
 
-        char[] chars = previousWord.toString().toCharArray();
-        Arrays.fill(mOutputChars_bigrams, (char) 0);
+    @Override
+    public synchronized void getBigrams(final WordComposer codes, final CharSequence previousWord,
+            final ResultBlock results, int[] nextLettersFrequencies) {
+        results.clear();
+        final int count = lookUpBigrams(codes, previousWord);
+        for (int j = 0; j < count; j++) {
+            if (mFrequencies_bigrams[j] < 1) break;
+            if (mLengths_bigrams[j] > 0) {
+                results.addWord(mOutputChars_bigrams, j * MAX_WORD_LENGTH, mLengths_bigrams[j],
+                        mFrequencies_bigrams[j], mDicTypeId, DataType.BIGRAM);
+            }
+        }
+    }
+
+    /**
+     * Fills mOutputChars_bigrams, mFrequencies_bigrams and mLengths_bigrams with the words that
+     * may follow the previous word, and returns their count. Only the words starting with one of
+     * the alternatives of the first keystroke are returned, or all of them if the composer is
+     * empty.
+     */
+    private int lookUpBigrams(final WordComposer codes, final CharSequence previousWord) {
+        // May be called while loading, or from the bigram prefetch thread once closed
+        if (mNativeDict == 0) return 0;
+        final int prevWordLength = previousWord.length();
+        if (prevWordLength > mPrevWordChars.length) {
+            mPrevWordChars = new char[prevWordLength];
+        }
+        TextUtils.getChars(previousWord, 0, prevWordLength, mPrevWordChars, 0);
         Arrays.fill(mFrequencies_bigrams, 0);
+        Arrays.fill(mLengths_bigrams, 0);
 
         int codesSize = codes.size();
         Arrays.fill(mInputCodes, -1);
-        int[] alternatives = codes.getCodesAt(0);
-        System.arraycopy(alternatives, 0, mInputCodes, 0,
-                Math.min(alternatives.length, MAX_ALTERNATIVES));
+        if (codesSize > 0) {
+            int[] alternatives = codes.getCodesAt(0);
+            System.arraycopy(alternatives, 0, mInputCodes, 0,
+                    Math.min(alternatives.length, MAX_ALTERNATIVES));
+        }
 
-        int count = getBigramsNative(mNativeDict, chars, chars.length, mInputCodes, codesSize,
-                mOutputChars_bigrams, mFrequencies_bigrams, MAX_WORD_LENGTH, MAX_BIGRAMS,
-                MAX_ALTERNATIVES);
+        final int count = getBigramsNative(mNativeDict, mPrevWordChars, prevWordLength,
+                mInputCodes, codesSize, mOutputChars_bigrams, mFrequencies_bigrams,
+                mLengths_bigrams, MAX_WORD_LENGTH, MAX_BIGRAMS, MAX_ALTERNATIVES, mNativeStats);
+        mSearchStats.addNativeCall(mNativeStats);
+        return count;
+    }
 
+    @Override
+    public synchronized void getWords(final WordComposer codes, final WordCallback callback,
+            int[] nextLettersFrequencies) {
+        final int count = lookUpWords(codes, nextLettersFrequencies);
         for (int j = 0; j < count; j++) {
-            if (mFrequencies_bigrams[j] < 1) break;
-            int start = j * MAX_WORD_LENGTH;
-            int len = 0;
-            while (mOutputChars_bigrams[start + len] != 0) {
-                len++;
-            }
-            if (len > 0) {
-                callback.addWord(mOutputChars_bigrams, start, len, mFrequencies_bigrams[j],
-                        mDicTypeId, DataType.BIGRAM);
+            if (mFrequencies[j] < 1) break;
+            if (mLengths[j] > 0) {
+                callback.addWord(mOutputChars, j * MAX_WORD_LENGTH, mLengths[j], mFrequencies[j],
+                        mDicTypeId, DataType.UNIGRAM);
             }
         }
     }
 
     @Override
-    public void getWords(final WordComposer codes, final WordCallback callback,
+    public synchronized void getWords(final WordComposer codes, final ResultBlock results,
             int[] nextLettersFrequencies) {
+        results.clear();
+        final int count = lookUpWords(codes, nextLettersFrequencies);
+        for (int j = 0; j < count; j++) {
+            if (mFrequencies[j] < 1) break;
+            if (mLengths[j] > 0) {
+                results.addWord(mOutputChars, j * MAX_WORD_LENGTH, mLengths[j], mFrequencies[j],
+                        mDicTypeId, DataType.UNIGRAM);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void getWordsOnPath(final GestureDecoder.Path path,
+            final ResultBlock results) {
+        results.clear();
+        if (path.size == 0 || path.size > MAX_WORD_LENGTH - 1 || mNativeDict == 0) return;
+        Arrays.fill(mFrequencies, 0);
+        Arrays.fill(mLengths, 0);
+        final int count = getGestureWordsNative(mNativeDict, path.codes, path.corners, path.size,
+                mOutputChars, mFrequencies, mLengths, MAX_WORD_LENGTH, MAX_WORDS, mNativeStats);
+        mSearchStats.addNativeCall(mNativeStats);
+        for (int j = 0; j < count; j++) {
+            if (mFrequencies[j] < 1) break;
+            if (mLengths[j] > 0) {
+                results.addWord(mOutputChars, j * MAX_WORD_LENGTH, mLengths[j], mFrequencies[j],
+                        mDicTypeId, DataType.UNIGRAM);
+            }
+        }
+    }
+
+    /**
+     * Fills mOutputChars, mFrequencies and mLengths with the words matching the composer, and
+     * returns their count.
+     */
+    private int lookUpWords(final WordComposer codes, int[] nextLettersFrequencies) {
         final int codesSize = codes.size();
-        // Won't deal with really long words.
-        if (codesSize > MAX_WORD_LENGTH - 1) return;
+        // Won't deal with really long words, nor with a dictionary still loading.
+        if (codesSize > MAX_WORD_LENGTH - 1 || mNativeDict == 0) return 0;
         
         Arrays.fill(mInputCodes, -1);
+        Arrays.fill(mInputLikelihoods, -1);
         for (int i = 0; i < codesSize; i++) {
             int[] alternatives = codes.getCodesAt(i);
             System.arraycopy(alternatives, 0, mInputCodes, i * MAX_ALTERNATIVES,
                     Math.min(alternatives.length, MAX_ALTERNATIVES));
+            int[] likelihoods = codes.getLikelihoodsAt(i);
+            if (likelihoods != null) {
+                System.arraycopy(likelihoods, 0, mInputLikelihoods, i * MAX_ALTERNATIVES,
+                        Math.min(likelihoods.length, MAX_ALTERNATIVES));
+            }
         }
-        Arrays.fill(mOutputChars, (char) 0);
         Arrays.fill(mFrequencies, 0);
+        Arrays.fill(mLengths, 0);
 
-        int count = getSuggestionsNative(mNativeDict, mInputCodes, codesSize,
-                mOutputChars, mFrequencies,
+        int count = getSuggestionsNative(mNativeDict, mInputCodes, mInputLikelihoods, codesSize,
+                mOutputChars, mFrequencies, mLengths,
                 MAX_WORD_LENGTH, MAX_WORDS, MAX_ALTERNATIVES, -1,
                 nextLettersFrequencies,
-                nextLettersFrequencies != null ? nextLettersFrequencies.length : 0);
+                nextLettersFrequencies != null ? nextLettersFrequencies.length : 0,
+                mNativeStats);
+        mSearchStats.addNativeCall(mNativeStats);
 
         // If there aren't sufficient suggestions, search for words by allowing wild cards at
         // the different character positions. This feature is not ready for prime-time as we need
@@ -211,45 +360,124 @@ public class BinaryDictionary extends Dictionary {
         // completions.
         if (ENABLE_MISSED_CHARACTERS && count < 5) {
             for (int skip = 0; skip < codesSize; skip++) {
-                int tempCount = getSuggestionsNative(mNativeDict, mInputCodes, codesSize,
-                        mOutputChars, mFrequencies,
+                int tempCount = getSuggestionsNative(mNativeDict, mInputCodes,
+                        mInputLikelihoods, codesSize,
+                        mOutputChars, mFrequencies, mLengths,
                         MAX_WORD_LENGTH, MAX_WORDS, MAX_ALTERNATIVES, skip,
-                        null, 0);
+                        null, 0, mNativeStats);
+                mSearchStats.addNativeCall(mNativeStats);
+                mSearchStats.addSkipPass();
                 count = Math.max(count, tempCount);
                 if (tempCount > 0) break;
             }
         }
+        return count;
+    }
 
-        for (int j = 0; j < count; j++) {
-            if (mFrequencies[j] < 1) break;
-            int start = j * MAX_WORD_LENGTH;
-            int len = 0;
-            while (mOutputChars[start + len] != 0) {
-                len++;
-            }
-            if (len > 0) {
-                callback.addWord(mOutputChars, start, len, mFrequencies[j], mDicTypeId,
-                        DataType.UNIGRAM);
+    /**
+     * Builds a Bloom filter over all the words of the dictionary on a background thread. Once it
+     * is ready, {@link #isValidWord} rejects most unknown words without calling into the native
+     * code. This costs about 10 bits per word, so it is only worth it for the main dictionary.
+     */
+    public void buildWordFilter() {
+        if (mNativeDict == 0 || mWordFilter != null) return;
+        new Thread("buildWordFilter") {
+            @Override
+            public void run() {
+                final long nativeDict;
+                synchronized (mWordFilterLock) {
+                    if (mNativeDict == 0 || mWordFilter != null || mBuildingWordFilter) return;
+                    nativeDict = mNativeDict;
+                    mBuildingWordFilter = true;
+                }
+                WordFilter filter = null;
+                try {
+                    final int wordCount = getWordCountNative(nativeDict);
+                    if (wordCount > 0) {
+                        filter = new WordFilter(wordCount);
+                        fillWordFilterNative(nativeDict, filter.getBits(), filter.getNumBits(),
+                                WordFilter.NUM_HASHES);
+                    }
+                } catch (OutOfMemoryError e) {
+                    Log.w(TAG, "No available memory for the word filter");
+                    filter = null;
+                } finally {
+                    synchronized (mWordFilterLock) {
+                        mBuildingWordFilter = false;
+                        if (mNativeDict != nativeDict) {
+                            // Closed meanwhile, which left the native dictionary to this thread
+                            closeNative(nativeDict);
+                        } else {
+                            mWordFilter = filter;
+                        }
+                    }
+                }
             }
-        }
+        }.start();
     }
 
     @Override
     public boolean isValidWord(CharSequence word) {
-        if (word == null) return false;
-        char[] chars = word.toString().toCharArray();
-        return isValidWordNative(mNativeDict, chars, chars.length);
+        if (word == null || mNativeDict == 0) return false;
+        final WordFilter filter = mWordFilter;
+        if (filter != null && !filter.mightContain(word)) return false;
+        final int length = word.length();
+        if (length > mValidWordChars.length) {
+            mValidWordChars = new char[length];
+        }
+        TextUtils.getChars(word, 0, length, mValidWordChars, 0);
+        return isValidWordNative(mNativeDict, mValidWordChars, length);
+    }
+
+    @Override
+    public Readiness getReadiness() {
+        if (mLoading) return Readiness.LOADING;
+        return mNativeDict != 0 ? Readiness.READY : Readiness.UNAVAILABLE;
     }
 
     public int getSize() {
         return mDictLength; // This value is initialized on the call to openNative()
     }
 
+    /**
+     * Returns the size that {@link #getSize} would return for a dictionary created from the
+     * given raw resources, without reading them. Only the resources are opened, so this is
+     * cheap enough to probe many locales.
+     * @param context application context for reading resources
+     * @param resId the resources containing the raw binary dictionary
+     * @return the total length of the resources in bytes, or 0 if there is no dictionary
+     */
+    public static int getDictionarySize(Context context, int[] resId) {
+        if (resId == null || resId.length == 0 || resId[0] == 0) return 0;
+        int total = 0;
+        for (int i = 0; i < resId.length; i++) {
+            InputStream is = context.getResources().openRawResource(resId[i]);
+            try {
+                total += is.available();
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to get the size of the dictionary");
+                return 0;
+            } finally {
+                try {
+                    is.close();
+                } catch (IOException e) {
+                    Log.w(TAG, "Failed to close input stream");
+                }
+            }
+        }
+        return total;
+    }
+
     @Override
     public synchronized void close() {
-        if (mNativeDict != 0) {
-            closeNative(mNativeDict);
-            mNativeDict = 0;
+        mClosed = true;
+        synchronized (mWordFilterLock) {
+            if (mNativeDict != 0) {
+                if (!mBuildingWordFilter) closeNative(mNativeDict);
+                mNativeDict = 0;
+                mWordFilter = null;
+                bumpGeneration();
+            }
         }
     }
 
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.inputmethod.latin;
+
+import android.util.Log;
+import android.util.Printer;
+
+import java.util.ArrayList;
+
+/**
+ * Keeps track of the caches that can be dropped when memory runs low, so that they are shed
+ * before an allocation fails rather than after.
+ *
+ * Caches register with a tier, and are shed a tier at a time, the cheapest ones to rebuild
+ * first: when the system reports low memory all of them are, and when the free heap drops
+ * below a fraction of its limit, only as many tiers as needed to get it back, judging from the
+ * size the caches estimate. {@link #ensureHeadroom} is checked before the large allocations,
+ * such as making a keyboard or inflating the keyboard view. The registry keeps accounting of
+ * the sheds, which the dump of the IME prints.
+ *
+ * Caches are registered and shed on the UI thread, while the dump reads their estimates from a
+ * binder thread, so the estimates must not need a lock.
+ */
+class CacheRegistry {
+    private static final String TAG = "CacheRegistry";
+
+    /**
+     * A cache that can drop what it holds, and rebuild it when it is needed again.
+     */
+    interface Cache {
+        /**
+         * Returns an estimate of the bytes the cache holds.
+         */
+        long getSizeEstimate();
+
+        /**
+         * Drops what the cache holds, as far as it can.
+         */
+        void shed();
+    }
+
+    // The tiers, in the order they are shed. The caches of the suggestions only cost lookups.
+    static final int TIER_SUGGESTIONS = 0;
+    // What is not shown or in use: the other keyboards, the drawing buffers of hidden keyboard
+    // views, and the dictionaries kept for the other languages
+    static final int TIER_UNUSED = 1;
+    // The tries of the dictionaries in use that are learned on the device, reloaded from where
+    // they are stored
+    static final int TIER_IN_USE = 2;
+    static final int TIER_COUNT = 3;
+    private static final String[] TIER_NAMES = { "suggestions", "unused", "inUse" };
+
+    // Caches are shed when less than this fraction of the maximum heap is free
+    private static final float MIN_HEADROOM_RATIO = 0.2f;
+
+    private static final CacheRegistry sInstance = new CacheRegistry();
+
+    private static class Entry {
+        final String mName;
+        final int mTier;
+        final Cache mCache;
+        int mShedCount;
+        long mShedBytes;
+
+        Entry(String name, int tier, Cache cache) {
+            mName = name;
+            mTier = tier;
+            mCache = cache;
+        }
+    }
+
+    private final ArrayList<Entry> mEntries = new ArrayList<Entry>();
+    private int mLowMemoryCount;
+    private int mHeadroomShedCount;
+    private final int[] mTierShedCounts = new int[TIER_COUNT];
+
+    static CacheRegistry getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Registers a cache, unless it already is.
+     * @param name the name of the cache in the dump
+     * @param tier one of the TIER_* values
+     */
+    synchronized void register(String name, int tier, Cache cache) {
+        for (Entry entry : mEntries) {
+            if (entry.mCache == cache) return;
+        }
+        mEntries.add(new Entry(name, tier, cache));
+    }
+
+    synchronized void unregister(Cache cache) {
+        for (int i = mEntries.size() - 1; i >= 0; i--) {
+            if (mEntries.get(i).mCache == cache) mEntries.remove(i);
+        }
+    }
+
+    /**
+     * Sheds all the caches, as the system is running low on memory.
+     */
+    synchronized void onLowMemory() {
+        mLowMemoryCount++;
+        for (int tier = 0; tier < TIER_COUNT; tier++) {
+            shedTier(tier);
+        }
+    }
+
+    /**
+     * Sheds the caches, a tier at a time, until the free heap is expected to be back over
+     * MIN_HEADROOM_RATIO of its limit. Does nothing if it already is.
+     * @return whether any cache was shed
+     */
+    synchronized boolean ensureHeadroom() {
+        final Runtime runtime = Runtime.getRuntime();
+        final long maxMemory = runtime.maxMemory();
+        final long minHeadroom = (long) (maxMemory * MIN_HEADROOM_RATIO);
+        long headroom = maxMemory - (runtime.totalMemory() - runtime.freeMemory());
+        if (headroom >= minHeadroom) return false;
+        mHeadroomShedCount++;
+        Log.i(TAG, "Shedding caches, free heap " + headroom / 1024 + "K of "
+                + maxMemory / 1024 + "K");
+        for (int tier = 0; tier < TIER_COUNT && headroom < minHeadroom; tier++) {
+            headroom += shedTier(tier);
+        }
+        return true;
+    }
+
+    /**
+     * Sheds the caches of the given tier.
+     * @return the estimate of the bytes freed
+     */
+    private long shedTier(int tier) {
+        long freed = 0;
+        for (Entry entry : mEntries) {
+            if (entry.mTier != tier) continue;
+            final long size = entry.mCache.getSizeEstimate();
+            entry.mCache.shed();
+            final long shed = Math.max(0, size - entry.mCache.getSizeEstimate());
+            entry.mShedCount++;
+            entry.mShedBytes += shed;
+            freed += shed;
+        }
+        mTierShedCounts[tier]++;
+        return freed;
+    }
+
+    /**
+     * Returns the estimate of the bytes all the caches of the given tier hold.
+     */
+    synchronized long getSizeEstimate(int tier) {
+        long size = 0;
+        for (Entry entry : mEntries) {
+            if (entry.mTier == tier) size += entry.mCache.getSizeEstimate();
+        }
+        return size;
+    }
+
+    synchronized void dump(Printer p) {
+        final Runtime runtime = Runtime.getRuntime();
+        p.println("  Heap: used=" + (runtime.totalMemory() - runtime.freeMemory()) / 1024
+                + "K max=" + runtime.maxMemory() / 1024 + "K");
+        p.println("  Caches shed: lowMemory=" + mLowMemoryCount
+                + " lowHeadroom=" + mHeadroomShedCount);
+        for (int tier = 0; tier < TIER_COUNT; tier++) {
+            p.println("    " + TIER_NAMES[tier] + ": size=" + getSizeEstimate(tier) / 1024
+                    + "K shed=" + mTierShedCounts[tier]);
+            for (Entry entry : mEntries) {
+                if (entry.mTier != tier) continue;
+                p.println("      " + entry.mName + ": size="
+                        + entry.mCache.getSizeEstimate() / 1024 + "K shed=" + entry.mShedCount
+                        + " freed=" + entry.mShedBytes / 1024 + "K");
+            }
+        }
+    }
+}
@@ -207,6 +207,7 @@ public class CandidateView extends View {
     protected void onDraw(Canvas canvas) {
         if (canvas != null) {
             super.onDraw(canvas);
+            LatencyTracer.mark(LatencyTracer.STAGE_DRAW);
         }
         mTotalWidth = 0;
         
@@ -315,6 +316,7 @@ public class CandidateView extends View {
     
     public void setSuggestions(List<CharSequence> suggestions, boolean completions,
             boolean typedWordValid, boolean haveMinimalSuggestion) {
+        LatencyTracer.mark(LatencyTracer.STAGE_SET_SUGGESTIONS);
         clear();
         if (suggestions != null) {
             int insertCount = Math.min(suggestions.size(), MAX_SUGGESTIONS);
@@ -80,6 +80,14 @@ public class ContactsDictionary extends ExpandableDictionary {
         }
     }
 
+    @Override
+    boolean unload() {
+        if (!super.unload()) return false;
+        // The contacts must be loaded again on the next lookup, however recently they were
+        mLastLoadedContacts = 0;
+        return true;
+    }
+
     @Override
     public void loadDictionaryAsync() {
         try {
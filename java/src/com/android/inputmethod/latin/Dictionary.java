@@ -16,6 +16,8 @@
 
 package com.android.inputmethod.latin;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Abstract base class for a dictionary that can do a fuzzy search for words based on a set of key
  * strokes.
@@ -35,6 +37,25 @@ abstract public class Dictionary {
         UNIGRAM, BIGRAM
     }
 
+    /**
+     * Whether a dictionary can be searched yet. A dictionary that is still loading finds no
+     * words, and bumps its generation once it is ready.
+     */
+    public static enum Readiness {
+        LOADING, READY, UNAVAILABLE
+    }
+
+    /**
+     * Incremented every time the contents of the dictionary change, so that callers caching
+     * results derived from this dictionary can tell when they have gone stale.
+     */
+    private final AtomicInteger mGeneration = new AtomicInteger();
+
+    /**
+     * Counters of the work done by the searches of this dictionary, which subclasses update.
+     */
+    protected final SearchStats mSearchStats = new SearchStats();
+
     /**
      * Interface to be implemented by classes requesting words to be fetched from the dictionary.
      * @see #getWords(WordComposer, WordCallback)
@@ -56,6 +77,80 @@ abstract public class Dictionary {
                 DataType dataType);
     }
 
+    /**
+     * A block of words returned by a dictionary in one go, so that the caller can merge them in a
+     * single pass instead of taking one callback per word. Word i is made of lengths[i]
+     * characters starting at offsets[i] in chars. The caller owns the block and reuses it across
+     * lookups; it grows if a dictionary returns more than it was sized for.
+     */
+    public static class ResultBlock implements WordCallback {
+        public char[] chars;
+        public int[] offsets;
+        public int[] lengths;
+        public int[] scores;
+        public int[] dicTypeIds;
+        public DataType[] dataTypes;
+        public int count;
+        private int mCharsUsed;
+
+        /**
+         * @param capacity the number of words the block can hold before growing
+         * @param maxWordLength the expected maximum length of a word
+         */
+        public ResultBlock(int capacity, int maxWordLength) {
+            chars = new char[capacity * maxWordLength];
+            offsets = new int[capacity];
+            lengths = new int[capacity];
+            scores = new int[capacity];
+            dicTypeIds = new int[capacity];
+            dataTypes = new DataType[capacity];
+        }
+
+        public void clear() {
+            count = 0;
+            mCharsUsed = 0;
+        }
+
+        /**
+         * Appends a word to the block. Always returns true, so that it can be used as the
+         * callback of the per-word methods.
+         */
+        public boolean addWord(char[] word, int wordOffset, int wordLength, int frequency,
+                int dicTypeId, DataType dataType) {
+            if (count == offsets.length) {
+                final int capacity = count * 2;
+                offsets = grow(offsets, capacity);
+                lengths = grow(lengths, capacity);
+                scores = grow(scores, capacity);
+                dicTypeIds = grow(dicTypeIds, capacity);
+                final DataType[] grownTypes = new DataType[capacity];
+                System.arraycopy(dataTypes, 0, grownTypes, 0, count);
+                dataTypes = grownTypes;
+            }
+            if (mCharsUsed + wordLength > chars.length) {
+                final char[] grownChars = new char[Math.max(chars.length * 2,
+                        mCharsUsed + wordLength)];
+                System.arraycopy(chars, 0, grownChars, 0, mCharsUsed);
+                chars = grownChars;
+            }
+            System.arraycopy(word, wordOffset, chars, mCharsUsed, wordLength);
+            offsets[count] = mCharsUsed;
+            lengths[count] = wordLength;
+            scores[count] = frequency;
+            dicTypeIds[count] = dicTypeId;
+            dataTypes[count] = dataType;
+            mCharsUsed += wordLength;
+            count++;
+            return true;
+        }
+
+        private static int[] grow(int[] array, int capacity) {
+            final int[] grown = new int[capacity];
+            System.arraycopy(array, 0, grown, 0, array.length);
+            return grown;
+        }
+    }
+
     /**
      * Searches for words in the dictionary that match the characters in the composer. Matched 
      * words are added through the callback object.
@@ -85,6 +180,42 @@ abstract public class Dictionary {
         // empty base implementation
     }
 
+    /**
+     * Same as {@link #getWords(WordComposer, WordCallback, int[])}, but returns all the matched
+     * words at once in the given block, which is cleared first. Dictionaries that hold their
+     * results in arrays should override this to copy them over directly.
+     */
+    public void getWords(final WordComposer composer, final ResultBlock results,
+            int[] nextLettersFrequencies) {
+        results.clear();
+        getWords(composer, (WordCallback) results, nextLettersFrequencies);
+    }
+
+    /**
+     * Same as {@link #getBigrams(WordComposer, CharSequence, WordCallback, int[])}, but returns
+     * all the words at once in the given block, which is cleared first.
+     */
+    public void getBigrams(final WordComposer composer, final CharSequence previousWord,
+            final ResultBlock results, int[] nextLettersFrequencies) {
+        results.clear();
+        getBigrams(composer, previousWord, (WordCallback) results, nextLettersFrequencies);
+    }
+
+    /**
+     * Searches for the words that can be glided along the given path of keys, and returns them
+     * in the given block, which is cleared first. A word matches if its first and last letters
+     * are on the first and last keys of the path, and its other letters are on keys in between,
+     * in order, without skipping a corner of the path. A doubled letter may be on a single key.
+     * The score is the frequency of the word, times one plus the number of keys it matched
+     * that are not corners, so that of two words the one that explains more of the path wins.
+     * The base implementation finds no words.
+     * @param path the keys the stroke passed over
+     * @param results the block to return the words in
+     */
+    public void getWordsOnPath(final GestureDecoder.Path path, final ResultBlock results) {
+        results.clear();
+    }
+
     /**
      * Checks if the given word occurs in the dictionary
      * @param word the word to search for. The search should be case-insensitive.
@@ -112,6 +243,40 @@ abstract public class Dictionary {
         return true;
     }
 
+    /**
+     * Returns the current generation of the dictionary contents. The value changes whenever words
+     * are added, removed or reloaded.
+     * @return the generation counter
+     */
+    public int getGeneration() {
+        return mGeneration.get();
+    }
+
+    /**
+     * Subclasses must call this whenever the results of {@link #getWords}, {@link #getBigrams}
+     * or {@link #isValidWord} may have changed.
+     */
+    protected void bumpGeneration() {
+        mGeneration.incrementAndGet();
+    }
+
+    /**
+     * Returns the counters of the work done by the searches of this dictionary so far. They
+     * stay at zero for dictionaries that do not count their work.
+     */
+    public SearchStats getSearchStats() {
+        return mSearchStats;
+    }
+
+    /**
+     * Returns whether the dictionary can be searched yet.
+     * @return the readiness of the dictionary. Dictionaries that load synchronously are always
+     * {@link Readiness#READY}.
+     */
+    public Readiness getReadiness() {
+        return Readiness.READY;
+    }
+
     /**
      * Override to clean up any resources.
      */
@@ -0,0 +1,364 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.android.inputmethod.latin;
+
+import android.content.res.Resources;
+import android.os.Handler;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+
+/**
+ * Keeps the dictionaries of recently used input languages open, so that switching back to one
+ * only swaps references instead of reloading the main dictionary and the learned dictionaries
+ * from their databases. The sets not in use are closed in least recently used order once their
+ * main and learned dictionaries take more than the memory budget.
+ *
+ * A set is loaded in stages, so that the keyboard never waits for it: its main dictionary is
+ * read on a background thread, then its learned dictionaries, which load themselves
+ * asynchronously, are created back on the UI thread. Until then its {@link Suggest} only
+ * suggests what the dictionaries loaded so far know. The IME is told once the set in use is
+ * complete. The sets of the languages next to the current one can be loaded the same way ahead
+ * of time.
+ *
+ * All the methods must be called on the UI thread.
+ */
+class DictionarySetCache {
+    private static final String TAG = "DictionarySetCache";
+
+    /**
+     * The dictionaries of one input language, wired into their own {@link Suggest}. The contacts
+     * dictionary does not depend on the language, so it is not part of the set. The learned
+     * dictionaries are null until the main dictionary has been loaded.
+     */
+    static class DictionarySet {
+        final String locale;
+        final Suggest suggest;
+        UserDictionary userDictionary;
+        AutoDictionary autoDictionary;
+        UserBigramDictionary userBigramDictionary;
+        boolean closed;
+
+        DictionarySet(String locale, Suggest suggest) {
+            this.locale = locale;
+            this.suggest = suggest;
+        }
+
+        void loadLearnedDictionaries(LatinIME ime) {
+            userDictionary = new UserDictionary(ime, locale);
+            autoDictionary = new AutoDictionary(ime, ime, locale, Suggest.DIC_AUTO);
+            userBigramDictionary = new UserBigramDictionary(ime, ime, locale, Suggest.DIC_USER);
+            suggest.setUserBigramDictionary(userBigramDictionary);
+            suggest.setUserDictionary(userDictionary);
+            suggest.setAutoDictionary(autoDictionary);
+        }
+
+        int getSize() {
+            return suggest.getMainDictionarySize();
+        }
+
+        long getLearnedSize() {
+            long size = 0;
+            if (userDictionary != null) size += userDictionary.getSizeEstimate();
+            if (autoDictionary != null) size += autoDictionary.getSizeEstimate();
+            if (userBigramDictionary != null) size += userBigramDictionary.getSizeEstimate();
+            return size;
+        }
+
+        /**
+         * Drops the words of the learned dictionaries that can be reloaded from their storage.
+         */
+        void unloadLearnedDictionaries() {
+            if (userDictionary != null) userDictionary.unload();
+            if (autoDictionary != null) autoDictionary.unload();
+            if (userBigramDictionary != null) userBigramDictionary.unload();
+        }
+
+        void flushPendingWrites() {
+            if (autoDictionary != null) autoDictionary.flushPendingWrites();
+            if (userBigramDictionary != null) userBigramDictionary.flushPendingWrites();
+        }
+
+        void close() {
+            closed = true;
+            suggest.close();
+            if (userDictionary != null) userDictionary.close();
+            if (autoDictionary != null) autoDictionary.close();
+            if (userBigramDictionary != null) userBigramDictionary.close();
+        }
+    }
+
+    private final LatinIME mIme;
+    private final int mBudget;
+    private final Handler mHandler = new Handler();
+    // Sets not in use, in access order
+    private final LinkedHashMap<String, DictionarySet> mSets =
+            new LinkedHashMap<String, DictionarySet>(4, 0.75f, true);
+    // Sets being preloaded, which are neither in use nor kept yet
+    private final HashMap<String, DictionarySet> mLoading = new HashMap<String, DictionarySet>();
+    // Languages found to have no dictionary, which are not worth switching the resources to
+    // again for preloading
+    private final HashSet<String> mNoDictionary = new HashSet<String>();
+    private DictionarySet mCurrent;
+    private boolean mClosed;
+    // The size of the sets kept, as of the last trim
+    private long mKeptSize;
+
+    // The caches that are shed when memory runs low: the sets kept, and the caches of the
+    // suggestions and the learned words of the set in use
+    private final CacheRegistry.Cache mKeptSetsCache = new CacheRegistry.Cache() {
+        public long getSizeEstimate() {
+            return mKeptSize;
+        }
+
+        public void shed() {
+            closeKeptSets();
+        }
+    };
+    private final CacheRegistry.Cache mSuggestionsCache = new CacheRegistry.Cache() {
+        public long getSizeEstimate() {
+            final DictionarySet current = mCurrent;
+            return current == null ? 0 : current.suggest.getCacheSizeEstimate();
+        }
+
+        public void shed() {
+            if (mCurrent != null) mCurrent.suggest.trimCaches();
+        }
+    };
+    private final CacheRegistry.Cache mLearnedWordsCache = new CacheRegistry.Cache() {
+        public long getSizeEstimate() {
+            final DictionarySet current = mCurrent;
+            return current == null ? 0 : current.getLearnedSize();
+        }
+
+        public void shed() {
+            if (mCurrent != null) mCurrent.unloadLearnedDictionaries();
+        }
+    };
+
+    /**
+     * @param budget the number of bytes of main and learned dictionaries that may be kept open
+     * for the languages not in use
+     */
+    DictionarySetCache(LatinIME ime, int budget) {
+        mIme = ime;
+        mBudget = budget;
+        final CacheRegistry registry = CacheRegistry.getInstance();
+        registry.register("other languages", CacheRegistry.TIER_UNUSED, mKeptSetsCache);
+        registry.register("suggestions", CacheRegistry.TIER_SUGGESTIONS, mSuggestionsCache);
+        registry.register("learned words", CacheRegistry.TIER_IN_USE, mLearnedWordsCache);
+    }
+
+    /**
+     * Returns the dictionaries of the given language, and keeps the ones in use until now for
+     * later. Unless they are kept or being preloaded, the dictionaries start loading, so the
+     * resources of the IME must be configured for the language. The IME is told by
+     * {@link LatinIME#onDictionarySetLoaded} once they are complete.
+     */
+    DictionarySet obtain(String locale) {
+        if (mCurrent != null) {
+            if (mCurrent.locale.equals(locale)) return mCurrent;
+            mCurrent.flushPendingWrites();
+            mSets.put(mCurrent.locale, mCurrent);
+        }
+        DictionarySet set = mSets.remove(locale);
+        if (set == null) set = mLoading.remove(locale);
+        if (set == null) {
+            set = new DictionarySet(locale, new Suggest());
+            final InputStream[] streams = openDictionaryStreams(mIme.getResources(), locale);
+            if (streams == null) mNoDictionary.add(locale);
+            load(set, streams);
+        }
+        mCurrent = set;
+        trim();
+        return set;
+    }
+
+    /**
+     * Starts loading the dictionaries of the given languages in the background, unless they are
+     * in use, kept, already loading or known to have none. Switching the configuration of the
+     * resources is costly, so they are switched to each of the languages left in turn and back
+     * only once, and not at all if none is left.
+     */
+    void preload(String... locales) {
+        if (mClosed || mBudget <= 0) return;
+        final ArrayList<String> needed = new ArrayList<String>(locales.length);
+        for (String locale : locales) {
+            if (locale == null || needed.contains(locale) || mNoDictionary.contains(locale)
+                    || mLoading.containsKey(locale) || mSets.containsKey(locale)
+                    || (mCurrent != null && mCurrent.locale.equals(locale))) {
+                continue;
+            }
+            needed.add(locale);
+        }
+        final int count = needed.size();
+        if (count == 0) return;
+        final Resources res = mIme.getResources();
+        final InputStream[][] streams = new InputStream[count][];
+        final Locale saveLocale =
+                LatinIMEUtil.ResourcesLocale.switchTo(res, new Locale(needed.get(0)));
+        try {
+            for (int i = 0; i < count; i++) {
+                if (i > 0) {
+                    LatinIMEUtil.ResourcesLocale.switchAgain(res, new Locale(needed.get(i)));
+                }
+                streams[i] = openDictionaryStreams(res, needed.get(i));
+            }
+        } finally {
+            LatinIMEUtil.ResourcesLocale.restore(res, saveLocale);
+        }
+        for (int i = 0; i < count; i++) {
+            final String locale = needed.get(i);
+            if (streams[i] == null) {
+                mNoDictionary.add(locale);
+                continue;
+            }
+            final DictionarySet set = new DictionarySet(locale, new Suggest());
+            mLoading.put(locale, set);
+            load(set, streams[i]);
+        }
+    }
+
+    /**
+     * Closes all the dictionaries, including the ones in use.
+     */
+    void close() {
+        mClosed = true;
+        final CacheRegistry registry = CacheRegistry.getInstance();
+        registry.unregister(mKeptSetsCache);
+        registry.unregister(mSuggestionsCache);
+        registry.unregister(mLearnedWordsCache);
+        closeKeptSets();
+        if (mCurrent != null) {
+            mCurrent.close();
+            mCurrent = null;
+        }
+    }
+
+    /**
+     * Reads the main dictionary of the set on a background thread, then completes the set on
+     * the UI thread.
+     */
+    private void load(final DictionarySet set, final InputStream[] streams) {
+        new Thread("loadDictionary") {
+            @Override
+            public void run() {
+                // Without streams, only marks the main dictionary as unavailable
+                try {
+                    set.suggest.loadMainDictionary(streams);
+                } catch (OutOfMemoryError e) {
+                    Log.w(TAG, "No available memory for the dictionary of " + set.locale);
+                }
+                mHandler.post(new Runnable() {
+                    public void run() {
+                        onMainDictionaryLoaded(set);
+                    }
+                });
+            }
+        }.start();
+    }
+
+    private void onMainDictionaryLoaded(DictionarySet set) {
+        // Evicted while loading
+        if (set.closed) return;
+        if (mClosed) {
+            set.close();
+            return;
+        }
+        if (set != mCurrent && mLoading.get(set.locale) == set) {
+            mLoading.remove(set.locale);
+            // Not worth keeping around without its main dictionary
+            if (set.suggest.getMainDictionaryReadiness() != Dictionary.Readiness.READY) {
+                set.close();
+                return;
+            }
+            mSets.put(set.locale, set);
+        }
+        set.loadLearnedDictionaries(mIme);
+        if (set == mCurrent) {
+            mIme.onDictionarySetLoaded(set);
+        } else {
+            trim();
+        }
+    }
+
+    private void trim() {
+        long total = 0;
+        for (DictionarySet set : mSets.values()) {
+            total += set.getSize() + set.getLearnedSize();
+        }
+        // Iterates from the least recently used set
+        final Iterator<DictionarySet> it = mSets.values().iterator();
+        while (total > mBudget && it.hasNext()) {
+            final DictionarySet set = it.next();
+            it.remove();
+            total -= set.getSize() + set.getLearnedSize();
+            set.close();
+        }
+        mKeptSize = total;
+    }
+
+    private void closeKeptSets() {
+        for (DictionarySet set : mSets.values()) {
+            set.close();
+        }
+        mSets.clear();
+        mKeptSize = 0;
+    }
+
+    /**
+     * Opens the resources of the main dictionary, as resolved with the current configuration of
+     * the given resources. Reading them is left to the caller.
+     * @return the opened streams, or null if there is no dictionary
+     */
+    private static InputStream[] openDictionaryStreams(Resources res, String locale) {
+        InputStream[] streams = null;
+        try {
+            final int[] resId = LatinIME.getDictionary(res);
+            if (resId.length > 0 && resId[0] != 0) {
+                streams = new InputStream[resId.length];
+                for (int i = 0; i < resId.length; i++) {
+                    streams[i] = res.openRawResource(resId[i]);
+                }
+            }
+        } catch (Resources.NotFoundException e) {
+            Log.w(TAG, "No dictionary for " + locale);
+            closeStreams(streams);
+            streams = null;
+        }
+        return streams;
+    }
+
+    private static void closeStreams(InputStream[] streams) {
+        if (streams == null) return;
+        for (InputStream is : streams) {
+            if (is == null) continue;
+            try {
+                is.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to close input stream");
+            }
+        }
+    }
+}
@@ -36,9 +36,13 @@ public class ExpandableDictionary extends Dictionary {
     private char[] mWordBuilder = new char[MAX_WORD_LENGTH];
     private int mDicTypeId;
     private int mMaxDepth;
+    // Counters of the work done by the current search, see SearchStats
+    private int mNodesVisited;
+    private int mDepthPruned;
+    private int mWordsFound;
     private int mInputLength;
     private int[] mNextLettersFrequencies;
-    private StringBuilder sb = new StringBuilder(MAX_WORD_LENGTH);
+    private char[] mLookedUpWord = new char[MAX_WORD_LENGTH];
 
     private static final char QUOTE = '\'';
 
@@ -91,14 +95,24 @@ public class ExpandableDictionary extends Dictionary {
     }
 
 
+    // Held by every change of the trie, and by the lookups that may run on another thread than
+    // the changes, such as the bigrams prefetched in the background. It is taken last, in the
+    // order mUpdatingLock -> mTrieLock, by unload() through clearDictionary(), and this ->
+    // mTrieLock, by the synchronized methods of subclasses. No lock is taken while it is held.
+    private final Object mTrieLock = new Object();
     private NodeArray mRoots;
+    // Nodes and bigram links of the trie, for estimating its size
+    private int mNodeCount;
 
     private int[][] mCodes;
+    // The likelihoods of the codes, null for the keystrokes whose alternatives are not weighted
+    private int[][] mLikelihoods;
 
     ExpandableDictionary(Context context, int dicTypeId) {
         mContext = context;
         clearDictionary();
         mCodes = new int[MAX_WORD_LENGTH][];
+        mLikelihoods = new int[MAX_WORD_LENGTH][];
         mDicTypeId = dicTypeId;
     }
 
@@ -112,6 +126,7 @@ public class ExpandableDictionary extends Dictionary {
         if (!mUpdatingDictionary) {
             mUpdatingDictionary = true;
             mRequiresReload = false;
+            bumpGeneration();
             new LoadDictionaryTask().execute();
         }
     }
@@ -120,12 +135,21 @@ public class ExpandableDictionary extends Dictionary {
         synchronized (mUpdatingLock) {
             mRequiresReload = reload;
         }
+        // A pending reload is only triggered by a lookup, so cached results must not hide it
+        if (reload) bumpGeneration();
     }
 
     public boolean getRequiresReload() {
         return mRequiresReload;
     }
 
+    @Override
+    public Readiness getReadiness() {
+        synchronized (mUpdatingLock) {
+            return mUpdatingDictionary || mRequiresReload ? Readiness.LOADING : Readiness.READY;
+        }
+    }
+
     /** Override to load your dictionary here, on a background thread. */
     public void loadDictionaryAsync() {
     }
@@ -139,7 +163,10 @@ public class ExpandableDictionary extends Dictionary {
     }
 
     public void addWord(String word, int frequency) {
-        addWordRec(mRoots, word, 0, frequency, null);
+        synchronized (mTrieLock) {
+            addWordRec(mRoots, word, 0, frequency, null);
+        }
+        bumpGeneration();
     }
 
     private void addWordRec(NodeArray children, final String word, final int depth,
@@ -162,6 +189,7 @@ public class ExpandableDictionary extends Dictionary {
             childNode.code = c;
             childNode.parent = parentNode;
             children.add(childNode);
+            mNodeCount++;
         }
         if (wordLength == depth + 1) {
             // Terminate this word
@@ -188,16 +216,96 @@ public class ExpandableDictionary extends Dictionary {
 
         mInputLength = codes.size();
         mNextLettersFrequencies = nextLettersFrequencies;
-        if (mCodes.length < mInputLength) mCodes = new int[mInputLength][];
+        if (mCodes.length < mInputLength) {
+            mCodes = new int[mInputLength][];
+            mLikelihoods = new int[mInputLength][];
+        }
         // Cache the codes so that we don't have to lookup an array list
         for (int i = 0; i < mInputLength; i++) {
             mCodes[i] = codes.getCodesAt(i);
+            mLikelihoods[i] = codes.getLikelihoodsAt(i);
         }
         mMaxDepth = mInputLength * 3;
+        mNodesVisited = 0;
+        mDepthPruned = 0;
+        mWordsFound = 0;
         getWordsRec(mRoots, codes, mWordBuilder, 0, false, 1, 0, -1, callback);
         for (int i = 0; i < mInputLength; i++) {
             getWordsRec(mRoots, codes, mWordBuilder, 0, false, 1, 0, i, callback);
         }
+        mSearchStats.addSearch(mNodesVisited, mDepthPruned, mWordsFound, mInputLength);
+    }
+
+    @Override
+    public void getWordsOnPath(final GestureDecoder.Path path, final ResultBlock results) {
+        results.clear();
+        synchronized (mUpdatingLock) {
+            // If we need to update, start off a background task
+            if (mRequiresReload) startDictionaryLoadingTaskLocked();
+            // Currently updating contacts, don't return any results.
+            if (mUpdatingDictionary) return;
+        }
+        if (path.size == 0) return;
+        mNodesVisited = 0;
+        mWordsFound = 0;
+        getWordsOnPathRec(mRoots, path, mWordBuilder, 0, -1, 0, results);
+        mSearchStats.addSearch(mNodesVisited, 0, mWordsFound, 0);
+    }
+
+    /**
+     * Recursively traverse the tree for the words that can be glided along the path. See
+     * {@link Dictionary#getWordsOnPath}.
+     * @param pathIndex the index in the path of the key the last letter is on, or -1 at the root
+     * @param passes the number of keys matched that are not corners
+     */
+    private void getWordsOnPathRec(NodeArray roots, final GestureDecoder.Path path,
+            final char[] word, final int depth, final int pathIndex, final int passes,
+            final ResultBlock results) {
+        if (depth >= MAX_WORD_LENGTH) return;
+        final int count = roots.length;
+        final int pathSize = path.size;
+        mNodesVisited += count;
+        for (int i = 0; i < count; i++) {
+            final Node node = roots.data[i];
+            final char c = node.code;
+            final NodeArray children = node.children;
+            word[depth] = c;
+            if (c == QUOTE) {
+                if (children != null) {
+                    getWordsOnPathRec(children, path, word, depth + 1, pathIndex, passes,
+                            results);
+                }
+                continue;
+            }
+            final char lowerC = toLowerCase(c);
+            int next = -1;
+            int nextPasses = passes;
+            if (pathIndex < 0) {
+                if (path.codes[0] == lowerC) next = 0;
+            } else if (path.codes[pathIndex] == lowerC && depth > 0
+                    && toLowerCase(word[depth - 1]) == lowerC) {
+                // A doubled letter on a single key
+                next = pathIndex;
+            } else {
+                for (int k = pathIndex + 1; k < pathSize; k++) {
+                    if (path.codes[k] == lowerC) {
+                        next = k;
+                        if (!path.corners[k]) nextPasses++;
+                        break;
+                    }
+                    if (path.corners[k]) break;
+                }
+            }
+            if (next < 0) continue;
+            if (node.terminal && next == pathSize - 1) {
+                mWordsFound++;
+                results.addWord(word, 0, depth + 1, node.frequency * (1 + nextPasses),
+                        mDicTypeId, DataType.UNIGRAM);
+            }
+            if (children != null) {
+                getWordsOnPathRec(children, path, word, depth + 1, next, nextPasses, results);
+            }
+        }
     }
 
     @Override
@@ -215,8 +323,10 @@ public class ExpandableDictionary extends Dictionary {
      * Returns the word's frequency or -1 if not found
      */
     public int getWordFrequency(CharSequence word) {
-        Node node = searchNode(mRoots, word, 0, word.length());
-        return (node == null) ? -1 : node.frequency;
+        synchronized (mTrieLock) {
+            Node node = searchNode(mRoots, word, 0, word.length());
+            return (node == null) ? -1 : node.frequency;
+        }
     }
 
     /**
@@ -245,13 +355,17 @@ public class ExpandableDictionary extends Dictionary {
         final int codeSize = mInputLength;
         // Optimization: Prune out words that are too long compared to how much was typed.
         if (depth > mMaxDepth) {
+            mDepthPruned++;
             return;
         }
+        mNodesVisited += count;
         int[] currentChars = null;
+        int[] currentLikelihoods = null;
         if (codeSize <= inputIndex) {
             completion = true;
         } else {
             currentChars = mCodes[inputIndex];
+            currentLikelihoods = mLikelihoods[inputIndex];
         }
 
         for (int i = 0; i < count; i++) {
@@ -264,6 +378,7 @@ public class ExpandableDictionary extends Dictionary {
             if (completion) {
                 word[depth] = c;
                 if (terminal) {
+                    mWordsFound++;
                     if (!callback.addWord(word, 0, depth + 1, freq * snr, mDicTypeId,
                                 DataType.UNIGRAM)) {
                         return;
@@ -289,11 +404,17 @@ public class ExpandableDictionary extends Dictionary {
                 // Don't use alternatives if we're looking for missing characters
                 final int alternativesSize = skipPos >= 0? 1 : currentChars.length;
                 for (int j = 0; j < alternativesSize; j++) {
-                    final int addedAttenuation = (j > 0 ? 1 : 2);
+                    // Alternatives about as likely as the key typed are weighted as it is, and
+                    // the unlikely ones are not tried
+                    final int likelihood = currentLikelihoods != null
+                            ? currentLikelihoods[j] : WordComposer.MAX_LIKELIHOOD;
+                    final int addedAttenuation = (j == 0 || (currentLikelihoods != null
+                            && likelihood >= WordComposer.TIE_LIKELIHOOD) ? 2 : 1);
                     final int currentChar = currentChars[j];
                     if (currentChar == -1) {
                         break;
                     }
+                    if (likelihood < WordComposer.MIN_LIKELIHOOD) continue;
                     if (currentChar == lowerC || currentChar == c) {
                         word[depth] = c;
 
@@ -303,6 +424,7 @@ public class ExpandableDictionary extends Dictionary {
                                         || !same(word, depth + 1, codes.getTypedWord())) {
                                     int finalFreq = freq * snr * addedAttenuation;
                                     if (skipPos < 0) finalFreq *= FULL_WORD_FREQ_MULTIPLIER;
+                                    mWordsFound++;
                                     callback.addWord(word, 0, depth + 1, finalFreq, mDicTypeId,
                                             DataType.UNIGRAM);
                                 }
@@ -337,7 +459,16 @@ public class ExpandableDictionary extends Dictionary {
      * @param addFrequency if true, it adds to current frequency
      * @return returns the final frequency
      */
-    private int addOrSetBigram(String word1, String word2, int frequency, boolean addFrequency) {
+    private int addOrSetBigram(String word1, String word2, int frequency,
+            boolean addFrequency) {
+        bumpGeneration();
+        synchronized (mTrieLock) {
+            return addOrSetBigramLocked(word1, word2, frequency, addFrequency);
+        }
+    }
+
+    private int addOrSetBigramLocked(String word1, String word2, int frequency,
+            boolean addFrequency) {
         Node firstWord = searchWord(mRoots, word1, 0, null);
         Node secondWord = searchWord(mRoots, word2, 0, null);
         LinkedList<NextWord> bigram = firstWord.ngrams;
@@ -357,6 +488,7 @@ public class ExpandableDictionary extends Dictionary {
             }
         }
         NextWord nw = new NextWord(secondWord, frequency);
+        mNodeCount++;
         firstWord.ngrams.add(nw);
         return frequency;
     }
@@ -384,6 +516,7 @@ public class ExpandableDictionary extends Dictionary {
             childNode.code = c;
             childNode.parent = parentNode;
             children.add(childNode);
+            mNodeCount++;
         }
         if (wordLength == depth + 1) {
             // Terminate this word
@@ -407,9 +540,11 @@ public class ExpandableDictionary extends Dictionary {
     }
 
     private void runReverseLookUp(final CharSequence previousWord, final WordCallback callback) {
-        Node prevWord = searchNode(mRoots, previousWord, 0, previousWord.length());
-        if (prevWord != null && prevWord.ngrams != null) {
-            reverseLookUp(prevWord.ngrams, callback);
+        synchronized (mTrieLock) {
+            Node prevWord = searchNode(mRoots, previousWord, 0, previousWord.length());
+            if (prevWord != null && prevWord.ngrams != null) {
+                reverseLookUp(prevWord.ngrams, callback);
+            }
         }
     }
 
@@ -436,7 +571,7 @@ public class ExpandableDictionary extends Dictionary {
 
     /**
      * reverseLookUp retrieves the full word given a list of terminal nodes and adds those words
-     * through callback.
+     * through callback. Called with mTrieLock held.
      * @param terminalNodes list of terminal nodes we want to add
      */
     private void reverseLookUp(LinkedList<NextWord> terminalNodes,
@@ -448,15 +583,16 @@ public class ExpandableDictionary extends Dictionary {
             freq = nextWord.frequency;
             // TODO Not the best way to limit suggestion threshold
             if (freq >= UserBigramDictionary.SUGGEST_THRESHOLD) {
-                sb.setLength(0);
-                do {
-                    sb.insert(0, node.code);
+                int length = 0;
+                for (Node n = node; n != null; n = n.parent) {
+                    length++;
+                }
+                if (mLookedUpWord.length < length) mLookedUpWord = new char[length];
+                for (int i = length - 1; i >= 0; i--) {
+                    mLookedUpWord[i] = node.code;
                     node = node.parent;
-                } while(node != null);
-
-                // TODO better way to feed char array?
-                callback.addWord(sb.toString().toCharArray(), 0, sb.length(), freq, mDicTypeId,
-                        DataType.BIGRAM);
+                }
+                callback.addWord(mLookedUpWord, 0, length, freq, mDicTypeId, DataType.BIGRAM);
             }
         }
     }
@@ -489,7 +625,41 @@ public class ExpandableDictionary extends Dictionary {
     }
 
     protected void clearDictionary() {
-        mRoots = new NodeArray();
+        synchronized (mTrieLock) {
+            mRoots = new NodeArray();
+            mNodeCount = 0;
+        }
+        bumpGeneration();
+    }
+
+    /**
+     * Returns an estimate of the bytes held by the trie: a node with its slot in the array of
+     * its siblings, and the array of its children, or a bigram link, is about 64 bytes.
+     */
+    long getSizeEstimate() {
+        return mNodeCount * 64L;
+    }
+
+    /**
+     * Returns whether the words can be dropped and loaded again from where
+     * {@link #loadDictionaryAsync} reads them, that is if none was added since and not written.
+     */
+    protected boolean canUnload() {
+        return true;
+    }
+
+    /**
+     * Drops the words to free their memory, if they can be loaded again. They are reloaded by
+     * the next lookup, which finds no words until then.
+     * @return whether the words were dropped
+     */
+    boolean unload() {
+        synchronized (mUpdatingLock) {
+            if (mUpdatingDictionary || mRequiresReload || !canUnload()) return false;
+            clearDictionary();
+            mRequiresReload = true;
+            return true;
+        }
     }
 
     private class LoadDictionaryTask extends AsyncTask<Void, Void, Void> {
@@ -499,6 +669,7 @@ public class ExpandableDictionary extends Dictionary {
             synchronized (mUpdatingLock) {
                 mUpdatingDictionary = false;
             }
+            bumpGeneration();
             return null;
         }
     }
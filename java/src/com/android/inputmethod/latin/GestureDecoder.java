@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.android.inputmethod.latin;
+
+import android.inputmethodservice.Keyboard.Key;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Decodes a glide, where the finger slides over the letters of a word without lifting, into the
+ * words of the dictionaries.
+ *
+ * The points of the stroke are reduced to the path of the letter keys it passes over as they
+ * come in. The keys where the stroke turns or lingers are the corners of the path, as are its
+ * first and last keys: a word has to have a letter on each of them, while the keys only crossed
+ * on the way from a letter to the next may be skipped. See {@link Dictionary#getWordsOnPath}.
+ *
+ * The decoding is streamed: each time the path reaches a new key, the dictionaries are searched
+ * as if the stroke ended there. The finger nearly always lifts on the last key the path reached,
+ * so the words are known by then, and {@link #end} only has to search again when it does not.
+ *
+ * A decoder is used from the UI thread, by one pointer at a time.
+ */
+class GestureDecoder {
+    // The longest path decoded. A stroke going over more keys is not a word.
+    static final int MAX_PATH_LENGTH = BinaryDictionary.MAX_WORD_LENGTH - 1;
+    // A key is a corner if the stroke turns on it by more than this angle, in degrees...
+    private static final double CORNER_ANGLE = 50;
+    // ... or stays on it at least this long, in milliseconds
+    private static final int CORNER_DWELL_TIME = 150;
+    private static final double CORNER_COSINE = Math.cos(Math.toRadians(CORNER_ANGLE));
+
+    /**
+     * The letter keys a stroke passed over, in order. Keys passed over several times in a row,
+     * such as when the stroke grazes a neighbor and comes back, are entered each time.
+     */
+    static class Path {
+        // The lowercase code of each key
+        final int[] codes = new int[MAX_PATH_LENGTH];
+        // Whether each key is a corner. The first and last keys always are.
+        final boolean[] corners = new boolean[MAX_PATH_LENGTH];
+        int size;
+
+        // Where the stroke went over each key, as the sums of the coordinates of its points
+        private final long[] mSumX = new long[MAX_PATH_LENGTH];
+        private final long[] mSumY = new long[MAX_PATH_LENGTH];
+        private final int[] mPointCounts = new int[MAX_PATH_LENGTH];
+        private final long[] mEnterTimes = new long[MAX_PATH_LENGTH];
+        private final long[] mLeaveTimes = new long[MAX_PATH_LENGTH];
+
+        void clear() {
+            size = 0;
+        }
+
+        /**
+         * Adds a point of the stroke on the key of the given code.
+         * @return whether the path reached a new key, or false if it is full
+         */
+        boolean add(int code, int x, int y, long eventTime) {
+            if (size > 0 && codes[size - 1] == code) {
+                addPoint(size - 1, x, y, eventTime);
+                return false;
+            }
+            if (size == MAX_PATH_LENGTH) return false;
+            codes[size] = code;
+            corners[size] = true;
+            mSumX[size] = 0;
+            mSumY[size] = 0;
+            mPointCounts[size] = 0;
+            mEnterTimes[size] = eventTime;
+            addPoint(size, x, y, eventTime);
+            size++;
+            // The key before the last is settled now that the stroke left it
+            if (size >= 3) corners[size - 2] = isCorner(size - 2);
+            return true;
+        }
+
+        private void addPoint(int index, int x, int y, long eventTime) {
+            mSumX[index] += x;
+            mSumY[index] += y;
+            mPointCounts[index]++;
+            mLeaveTimes[index] = eventTime;
+        }
+
+        private boolean isCorner(int index) {
+            if (mLeaveTimes[index] - mEnterTimes[index] >= CORNER_DWELL_TIME) return true;
+            final double inX = getX(index) - getX(index - 1);
+            final double inY = getY(index) - getY(index - 1);
+            final double outX = getX(index + 1) - getX(index);
+            final double outY = getY(index + 1) - getY(index);
+            final double lengths = Math.sqrt((inX * inX + inY * inY) * (outX * outX + outY * outY));
+            if (lengths == 0) return true;
+            return (inX * outX + inY * outY) / lengths < CORNER_COSINE;
+        }
+
+        private double getX(int index) {
+            return (double) mSumX[index] / mPointCounts[index];
+        }
+
+        private double getY(int index) {
+            return (double) mSumY[index] / mPointCounts[index];
+        }
+    }
+
+    private final Path mPath = new Path();
+    private Suggest mSuggest;
+    private Key[] mKeys;
+    private boolean mActive;
+    // The size of the path the words were last searched for, or -1 if they were not
+    private int mDecodedSize = -1;
+    private List<CharSequence> mWords = Collections.emptyList();
+    private int mDecodeCount;
+
+    void setSuggest(Suggest suggest) {
+        mSuggest = suggest;
+    }
+
+    void setKeyboard(Key[] keys) {
+        mKeys = keys;
+        cancel();
+    }
+
+    /**
+     * Starts a stroke, unless one is already being decoded.
+     * @param keyIndex the index of the key under the point in the keys of the keyboard
+     * @return whether the stroke may be a glide, as it starts on a letter
+     */
+    boolean begin(int x, int y, long eventTime, int keyIndex) {
+        if (mActive || mSuggest == null) return false;
+        mPath.clear();
+        mDecodedSize = -1;
+        mWords = Collections.emptyList();
+        mDecodeCount = 0;
+        addPoint(x, y, eventTime, keyIndex);
+        mActive = mPath.size > 0;
+        return mActive;
+    }
+
+    /**
+     * Adds a point of the stroke, and searches the words for the path if it reached a new key.
+     * @return whether the path reached a new key
+     */
+    boolean addPoint(int x, int y, long eventTime, int keyIndex) {
+        final int code = getLetter(keyIndex);
+        if (code == 0 || !mPath.add(code, x, y, eventTime)) return false;
+        if (isGlide()) decode();
+        return true;
+    }
+
+    /**
+     * Returns whether the stroke is a glide rather than a tap, as it went over more than one key.
+     */
+    boolean isGlide() {
+        return mActive && mPath.size > 1;
+    }
+
+    boolean isActive() {
+        return mActive;
+    }
+
+    /**
+     * Ends the stroke.
+     * @return the words for the glide, best first, which are overwritten by the next search of
+     * the suggestions. Empty if the stroke was not a glide.
+     */
+    List<CharSequence> end(int x, int y, long eventTime, int keyIndex) {
+        if (!mActive) return Collections.emptyList();
+        addPoint(x, y, eventTime, keyIndex);
+        mActive = false;
+        if (mPath.size < 2) return Collections.emptyList();
+        if (mDecodedSize != mPath.size) decode();
+        return mWords;
+    }
+
+    void cancel() {
+        mActive = false;
+        mPath.clear();
+    }
+
+    Path getPath() {
+        return mPath;
+    }
+
+    /**
+     * Returns how many times the words were searched for the last stroke.
+     */
+    int getDecodeCount() {
+        return mDecodeCount;
+    }
+
+    private void decode() {
+        mWords = mSuggest.getGestureSuggestions(mPath);
+        mDecodedSize = mPath.size;
+        mDecodeCount++;
+    }
+
+    private int getLetter(int keyIndex) {
+        if (mKeys == null || keyIndex < 0 || keyIndex >= mKeys.length) return 0;
+        final int code = mKeys[keyIndex].codes[0];
+        return Character.isLetter(code) ? ExpandableDictionary.toLowerCase((char) code) : 0;
+    }
+}
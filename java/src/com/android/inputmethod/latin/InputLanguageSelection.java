@@ -23,7 +23,6 @@ import java.util.Locale;
 
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.Editor;
-import android.content.res.Configuration;
 import android.content.res.Resources;
 import android.os.Bundle;
 import android.preference.CheckBoxPreference;
@@ -94,23 +93,20 @@ public class InputLanguageSelection extends PreferenceActivity {
 
     private boolean hasDictionary(Locale locale) {
         Resources res = getResources();
-        Configuration conf = res.getConfiguration();
-        Locale saveLocale = conf.locale;
         boolean haveDictionary = false;
-        conf.locale = locale;
-        res.updateConfiguration(conf, res.getDisplayMetrics());
-
-        int[] dictionaries = LatinIME.getDictionary(res);
-        BinaryDictionary bd = new BinaryDictionary(this, dictionaries, Suggest.DIC_MAIN);
-
-        // Is the dictionary larger than a placeholder? Arbitrarily chose a lower limit of
-        // 4000-5000 words, whereas the LARGE_DICTIONARY is about 20000+ words.
-        if (bd.getSize() > Suggest.LARGE_DICTIONARY_THRESHOLD / 4) {
-            haveDictionary = true;
+        Locale saveLocale = LatinIMEUtil.ResourcesLocale.switchTo(res, locale);
+        try {
+            int[] dictionaries = LatinIME.getDictionary(res);
+
+            // Is the dictionary larger than a placeholder? Arbitrarily chose a lower limit of
+            // 4000-5000 words, whereas the LARGE_DICTIONARY is about 20000+ words.
+            if (BinaryDictionary.getDictionarySize(this, dictionaries)
+                    > Suggest.LARGE_DICTIONARY_THRESHOLD / 4) {
+                haveDictionary = true;
+            }
+        } finally {
+            LatinIMEUtil.ResourcesLocale.restore(res, saveLocale);
         }
-        bd.close();
-        conf.locale = saveLocale;
-        res.updateConfiguration(conf, res.getDisplayMetrics());
         return haveDictionary;
     }
 
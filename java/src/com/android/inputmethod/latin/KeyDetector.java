@@ -23,6 +23,10 @@ import java.util.Arrays;
 import java.util.List;
 
 abstract class KeyDetector {
+    // The spread of the touches around the center of the key meant, as the standard deviation
+    // of a normal distribution, in key widths across and key heights down
+    private static final float TOUCH_SPREAD = 0.5f;
+
     protected Keyboard mKeyboard;
 
     private Key[] mKeys;
@@ -35,6 +39,9 @@ abstract class KeyDetector {
 
     protected int mProximityThresholdSquare;
 
+    // working area of getNearbyLikelihoods
+    private double[] mLikelihoods = new double[0];
+
     public Key[] setKeyboard(Keyboard keyboard, float correctionX, float correctionY) {
         if (keyboard == null)
             throw new NullPointerException();
@@ -74,6 +81,62 @@ abstract class KeyDetector {
         mProximityThresholdSquare = threshold * threshold;
     }
 
+    /**
+     * Returns how likely a touch at the given offset from the center of a key is to be meant for
+     * that key, relative to a touch in its center.
+     * @param dx the horizontal offset, in key widths
+     * @param dy the vertical offset, in key heights
+     */
+    static double getTouchLikelihood(float dx, float dy) {
+        return Math.exp(-(dx * dx + dy * dy) / (2 * TOUCH_SPREAD * TOUCH_SPREAD));
+    }
+
+    /**
+     * Computes how likely each of the codes sent for a touch is to be the one meant, from how far
+     * the touch is from the center of its key, for the dictionaries to weight and cut the
+     * alternatives with. Codes of no key of the keyboard, such as those of a popup keyboard, are
+     * taken to be as likely as the most likely one.
+     *
+     * @param x The x-coordinate of the touch point
+     * @param y The y-coordinate of the touch point
+     * @param codes The codes sent for the touch, ending with
+     *        {@link com.android.inputmethod.latin.LatinKeyboardView.NOT_A_KEY} if there are less
+     *        than its length
+     * @param likelihoods Receives the likelihood of each code, in percent of the most likely one,
+     *        see {@link WordComposer#MAX_LIKELIHOOD}
+     */
+    public void getNearbyLikelihoods(int x, int y, int[] codes, int[] likelihoods) {
+        final Key[] keys = getKeys();
+        final int touchX = getTouchX(x);
+        final int touchY = getTouchY(y);
+        if (mLikelihoods.length < codes.length) mLikelihoods = new double[codes.length];
+        final double[] keyLikelihoods = mLikelihoods;
+        double max = 0;
+        for (int i = 0; i < codes.length; i++) {
+            // Not a key of this keyboard, unless one is found
+            keyLikelihoods[i] = -1;
+            if (codes[i] == LatinKeyboardBaseView.NOT_A_KEY) continue;
+            for (Key key : keys) {
+                if (key.codes[0] != codes[i] || key.width <= 0 || key.height <= 0) continue;
+                keyLikelihoods[i] = getTouchLikelihood(
+                        (touchX - key.x - key.width / 2f) / key.width,
+                        (touchY - key.y - key.height / 2f) / key.height);
+                max = Math.max(max, keyLikelihoods[i]);
+                break;
+            }
+        }
+        for (int i = 0; i < codes.length; i++) {
+            if (codes[i] == LatinKeyboardBaseView.NOT_A_KEY) {
+                likelihoods[i] = 0;
+            } else if (keyLikelihoods[i] < 0 || max == 0) {
+                likelihoods[i] = WordComposer.MAX_LIKELIHOOD;
+            } else {
+                likelihoods[i] = (int) Math.round(
+                        keyLikelihoods[i] * WordComposer.MAX_LIKELIHOOD / max);
+            }
+        }
+    }
+
     /**
      * Allocates array that can hold all key indices returned by {@link #getKeyIndexAndNearbyCodes}
      * method. The maximum size of the array should be computed by {@link #getMaxNearbyKeys}.
@@ -110,4 +173,25 @@ abstract class KeyDetector {
      * @return The nearest key index
      */
     abstract public int getKeyIndexAndNearbyCodes(int x, int y, int[] allKeys);
+
+    /**
+     * Finds the nearest key index of each of a batch of touch points, as
+     * {@link #getKeyIndexAndNearbyCodes} does without the nearby codes. A point at the position
+     * of the one before it, which panels sampling faster than the finger moves report often,
+     * takes the key of that point without another search.
+     *
+     * @param xs The x-coordinates of the touch points
+     * @param ys The y-coordinates of the touch points
+     * @param count The number of touch points
+     * @param keyIndices Receives the nearest key index of each touch point
+     */
+    public void getKeyIndices(int[] xs, int[] ys, int count, int[] keyIndices) {
+        for (int i = 0; i < count; i++) {
+            if (i > 0 && xs[i] == xs[i - 1] && ys[i] == ys[i - 1]) {
+                keyIndices[i] = keyIndices[i - 1];
+            } else {
+                keyIndices[i] = getKeyIndexAndNearbyCodes(xs[i], ys[i], null);
+            }
+        }
+    }
 }
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.android.inputmethod.latin;
+
+import android.graphics.Bitmap;
+import android.graphics.drawable.Drawable;
+import android.inputmethodservice.Keyboard.Key;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the faces of the keys drawn by a keyboard view, their background, label and icon, in
+ * bitmaps, so that drawing a key whose face was drawn before is a blit.
+ *
+ * A face is looked up by its key, which also stands for the keyboard and the place of the key
+ * in it, and by what the drawing depends on that can change: the drawable state of the key,
+ * whether the keyboard is shifted, and the label and icon of the key, which LatinKeyboard
+ * replaces on the enter, shift and space keys. The colors and sizes of the theme are those of
+ * the view, which is inflated again when the theme changes, so the faces of a view are never
+ * of two themes; they are cleared as the view closes.
+ *
+ * The least recently used faces are dropped once their bitmaps are over the byte limit.
+ */
+class KeyFaceCache {
+    private static final class FaceId {
+        Key mKey;
+        int[] mState;
+        boolean mShifted;
+        CharSequence mLabel;
+        Drawable mIcon;
+
+        void set(Key key, int[] state, boolean shifted) {
+            mKey = key;
+            mState = state;
+            mShifted = shifted;
+            mLabel = key.label;
+            mIcon = key.icon;
+        }
+
+        @Override
+        public int hashCode() {
+            // The key and its state alone, the rest seldom differs
+            return System.identityHashCode(mKey) * 31 + System.identityHashCode(mState);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof FaceId)) return false;
+            final FaceId other = (FaceId) o;
+            return mKey == other.mKey && mState == other.mState && mShifted == other.mShifted
+                    && mLabel == other.mLabel && mIcon == other.mIcon;
+        }
+    }
+
+    // The faces, least recently used first
+    private final LinkedHashMap<FaceId, Bitmap> mFaces =
+            new LinkedHashMap<FaceId, Bitmap>(16, 0.75f, true);
+    // The id looked up, reused rather than allocated for each key drawn
+    private final FaceId mProbe = new FaceId();
+    private long mMaxBytes;
+    // Read by the dump from another thread
+    private volatile long mBytes;
+
+    /**
+     * Sets the limit of the bytes of the bitmaps, dropping the least recently used faces to
+     * get under it.
+     */
+    void setMaxBytes(long maxBytes) {
+        mMaxBytes = maxBytes;
+        trimTo(maxBytes);
+    }
+
+    /**
+     * Returns the face of a key in its current state, or null if it has to be drawn.
+     * @param state the drawable state of the key
+     * @param shifted whether the keyboard of the key is shifted
+     */
+    Bitmap get(Key key, int[] state, boolean shifted) {
+        mProbe.set(key, state, shifted);
+        return mFaces.get(mProbe);
+    }
+
+    /**
+     * Makes the bitmap of the face of a key in its current state, for the caller to draw it in,
+     * or returns null if it would not fit under the limit.
+     * @param state the drawable state of the key
+     * @param shifted whether the keyboard of the key is shifted
+     * @param width the width of the face
+     * @param height the height of the face
+     */
+    Bitmap put(Key key, int[] state, boolean shifted, int width, int height) {
+        final long bytes = (long) width * height * 4;
+        if (width <= 0 || height <= 0 || bytes > mMaxBytes) return null;
+        trimTo(mMaxBytes - bytes);
+        final Bitmap face = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        final FaceId id = new FaceId();
+        id.set(key, state, shifted);
+        mFaces.put(id, face);
+        mBytes += getBytes(face);
+        return face;
+    }
+
+    void clear() {
+        trimTo(0);
+    }
+
+    long getSizeEstimate() {
+        return mBytes;
+    }
+
+    private void trimTo(long maxBytes) {
+        final Iterator<Map.Entry<FaceId, Bitmap>> it = mFaces.entrySet().iterator();
+        while (mBytes > maxBytes && it.hasNext()) {
+            final Bitmap face = it.next().getValue();
+            it.remove();
+            mBytes -= getBytes(face);
+            face.recycle();
+        }
+    }
+
+    private static long getBytes(Bitmap face) {
+        return (long) face.getRowBytes() * face.getHeight();
+    }
+}
@@ -16,18 +16,26 @@
 
 package com.android.inputmethod.latin;
 
+import android.content.Context;
 import android.content.SharedPreferences;
-import android.content.res.Configuration;
 import android.content.res.Resources;
+import android.os.Process;
+import android.os.SystemClock;
 import android.preference.PreferenceManager;
+import android.util.Log;
 import android.view.InflateException;
 
 import java.lang.ref.SoftReference;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Locale;
+import java.util.Map;
 
 public class KeyboardSwitcher implements SharedPreferences.OnSharedPreferenceChangeListener {
+    private static final String TAG = "KeyboardSwitcher";
 
     public static final int MODE_NONE = 0;
     public static final int MODE_TEXT = 1;
@@ -105,7 +113,44 @@ public class KeyboardSwitcher implements SharedPreferences.OnSharedPreferenceCha
     private KeyboardId mSymbolsShiftedId;
 
     private KeyboardId mCurrentId;
-    private final HashMap<KeyboardId, SoftReference<LatinKeyboard>> mKeyboards;
+    // The keyboards kept, the least recently used first. Besides the current one, only up to
+    // mMaxKeptKeyboards of them are, and only softly once memory runs low: the others are moved
+    // to mSoftKeyboards, where they stay for as long as the garbage collector lets them.
+    private final LinkedHashMap<KeyboardId, LatinKeyboard> mKeyboards;
+    private final HashMap<KeyboardId, SoftReference<LatinKeyboard>> mSoftKeyboards;
+    private final int mMaxKeptKeyboards;
+    // A keyboard with its keys, their labels and icons, and its popup characters
+    private static final int KEYBOARD_SIZE_ESTIMATE = 16 * 1024;
+    // The share of the heap the keyboards kept can take, and the number kept whatever the heap:
+    // the alphabet, symbols and shifted symbols keyboards
+    private static final float KEPT_KEYBOARDS_HEAP_RATIO = 1 / 128f;
+    private static final int MIN_KEPT_KEYBOARDS = 3;
+    private final CacheRegistry.Cache mKeyboardCache = new CacheRegistry.Cache() {
+        public long getSizeEstimate() {
+            return (long) mKeyboards.size() * KEYBOARD_SIZE_ESTIMATE;
+        }
+
+        public void shed() {
+            trimKeyboards(0);
+        }
+    };
+
+    // Bumped as the keyboards are dropped, for those made in the background to be dropped too
+    private int mKeyboardsGeneration;
+    private boolean mPrebuilding;
+    private final Runnable mPrebuildKeyboards = new Runnable() {
+        public void run() {
+            prebuildKeyboards();
+        }
+    };
+
+    // Counts of the keyboards asked for, and how they were found, for the dump
+    private int mKeyboardRequests;
+    private int mSoftKeyboardHits;
+    private int mKeyboardsBuilt;
+    private int mKeyboardsPrebuilt;
+    private long mBuildMillis;
+    private long mMaxBuildMillis;
 
     private int mMode = MODE_NONE; /** One of the MODE_XXX values */
     private int mImeOptions;
@@ -141,11 +186,29 @@ public class KeyboardSwitcher implements SharedPreferences.OnSharedPreferenceCha
         updateSettingsKeyState(prefs);
         prefs.registerOnSharedPreferenceChangeListener(this);
 
-        mKeyboards = new HashMap<KeyboardId, SoftReference<LatinKeyboard>>();
+        mKeyboards = new LinkedHashMap<KeyboardId, LatinKeyboard>(16, 0.75f, true);
+        mSoftKeyboards = new HashMap<KeyboardId, SoftReference<LatinKeyboard>>();
+        mMaxKeptKeyboards = Math.max(MIN_KEPT_KEYBOARDS, (int) (Runtime.getRuntime().maxMemory()
+                * KEPT_KEYBOARDS_HEAP_RATIO / KEYBOARD_SIZE_ESTIMATE));
+        CacheRegistry.getInstance().register("keyboards", CacheRegistry.TIER_UNUSED,
+                mKeyboardCache);
+        CacheRegistry.getInstance().register("space bars", CacheRegistry.TIER_UNUSED,
+                LatinKeyboard.getSpaceBarCache());
         mSymbolsId = makeSymbolsId(false);
         mSymbolsShiftedId = makeSymbolsShiftedId(false);
     }
 
+    /**
+     * Unregisters the keyboards and the space bars from the {@link CacheRegistry}, as the IME is
+     * destroyed, and drops the space bars, which would otherwise outlive it.
+     */
+    public void onDestroy() {
+        CacheRegistry.getInstance().unregister(mKeyboardCache);
+        CacheRegistry.getInstance().unregister(LatinKeyboard.getSpaceBarCache());
+        LatinKeyboard.getSpaceBarCache().shed();
+        mInputMethodService.mHandler.removeCallbacks(mPrebuildKeyboards);
+    }
+
     /**
      * Sets the input locale, when there are multiple locales for input.
      * If no locale switching is required, then the locale should be set to null.
@@ -173,14 +236,20 @@ public class KeyboardSwitcher implements SharedPreferences.OnSharedPreferenceCha
         mSymbolsId = makeSymbolsId(mHasVoice && !mVoiceOnPrimary);
         mSymbolsShiftedId = makeSymbolsShiftedId(mHasVoice && !mVoiceOnPrimary);
 
-        if (forceCreate) mKeyboards.clear();
+        if (forceCreate) clearKeyboards();
         // Configuration change is coming after the keyboard gets recreated. So don't rely on that.
         // If keyboards have already been made, check if we have a screen width change and 
         // create the keyboard layouts again at the correct orientation
         int displayWidth = mInputMethodService.getMaxWidth();
         if (displayWidth == mLastDisplayWidth) return;
         mLastDisplayWidth = displayWidth;
-        if (!forceCreate) mKeyboards.clear();
+        if (!forceCreate) clearKeyboards();
+    }
+
+    private void clearKeyboards() {
+        mKeyboards.clear();
+        mSoftKeyboards.clear();
+        mKeyboardsGeneration++;
     }
 
     /**
@@ -231,7 +300,7 @@ public class KeyboardSwitcher implements SharedPreferences.OnSharedPreferenceCha
 
     public void setVoiceMode(boolean enableVoice, boolean voiceOnPrimary) {
         if (enableVoice != mHasVoice || voiceOnPrimary != mVoiceOnPrimary) {
-            mKeyboards.clear();
+            clearKeyboards();
         }
         mHasVoice = enableVoice;
         mVoiceOnPrimary = voiceOnPrimary;
@@ -282,33 +351,191 @@ public class KeyboardSwitcher implements SharedPreferences.OnSharedPreferenceCha
         keyboard.setColorOfSymbolIcons(mIsAutoCompletionActive, isBlackSym());
         // Update the settings key state because number of enabled IMEs could have been changed
         updateSettingsKeyState(PreferenceManager.getDefaultSharedPreferences(mInputMethodService));
+        schedulePrebuildKeyboards();
     }
 
     private LatinKeyboard getKeyboard(KeyboardId id) {
-        SoftReference<LatinKeyboard> ref = mKeyboards.get(id);
-        LatinKeyboard keyboard = (ref == null) ? null : ref.get();
+        mKeyboardRequests++;
+        LatinKeyboard keyboard = getKeptKeyboard(id);
         if (keyboard == null) {
-            Resources orig = mInputMethodService.getResources();
-            Configuration conf = orig.getConfiguration();
-            Locale saveLocale = conf.locale;
-            conf.locale = mInputLocale;
-            orig.updateConfiguration(conf, null);
-            keyboard = new LatinKeyboard(mInputMethodService, id.mXml, id.mKeyboardMode);
-            keyboard.setVoiceMode(hasVoiceButton(id.mXml == R.xml.kbd_symbols
-                    || id.mXml == R.xml.kbd_symbols_black), mHasVoice);
-            keyboard.setLanguageSwitcher(mLanguageSwitcher, mIsAutoCompletionActive, isBlackSym());
-
-            if (id.mEnableShiftLock) {
-                keyboard.enableShiftLock();
+            final long start = SystemClock.uptimeMillis();
+            CacheRegistry.getInstance().ensureHeadroom();
+            // Keyboards are made with the resources switched to the input locale
+            final Resources orig = mInputMethodService.getResources();
+            final Locale saveLocale = LatinIMEUtil.ResourcesLocale.switchTo(orig, mInputLocale);
+            try {
+                keyboard = makeKeyboard(mInputMethodService, id, hasVoiceButton(isSymbols(id)),
+                        mHasVoice);
+                keyboard.setLanguageSwitcher(mLanguageSwitcher, mIsAutoCompletionActive,
+                        isBlackSym());
+            } finally {
+                LatinIMEUtil.ResourcesLocale.restore(orig, saveLocale);
             }
-            mKeyboards.put(id, new SoftReference<LatinKeyboard>(keyboard));
+            keepKeyboard(id, keyboard);
+            final long elapsed = SystemClock.uptimeMillis() - start;
+            mKeyboardsBuilt++;
+            mBuildMillis += elapsed;
+            mMaxBuildMillis = Math.max(mMaxBuildMillis, elapsed);
+        }
+        return keyboard;
+    }
 
-            conf.locale = saveLocale;
-            orig.updateConfiguration(conf, null);
+    /**
+     * Makes the keyboard from its layout, which may be done on a background thread. The
+     * language switcher, which the UI thread changes, is left for the caller to set on the
+     * UI thread.
+     */
+    private static LatinKeyboard makeKeyboard(Context context, KeyboardId id,
+            boolean hasVoiceButton, boolean hasVoice) {
+        final LatinKeyboard keyboard = new LatinKeyboard(context, id.mXml, id.mKeyboardMode);
+        keyboard.setVoiceMode(hasVoiceButton, hasVoice);
+        if (id.mEnableShiftLock) {
+            keyboard.enableShiftLock();
         }
         return keyboard;
     }
 
+    private static boolean isSymbols(KeyboardId id) {
+        return id.mXml == R.xml.kbd_symbols || id.mXml == R.xml.kbd_symbols_black;
+    }
+
+    /**
+     * Returns a keyboard kept, strongly or softly, or null if it has to be made.
+     */
+    private LatinKeyboard getKeptKeyboard(KeyboardId id) {
+        final LatinKeyboard keyboard = mKeyboards.get(id);
+        if (keyboard != null) return keyboard;
+        final SoftReference<LatinKeyboard> ref = mSoftKeyboards.remove(id);
+        final LatinKeyboard softKeyboard = ref == null ? null : ref.get();
+        if (softKeyboard != null) {
+            mSoftKeyboardHits++;
+            keepKeyboard(id, softKeyboard);
+        }
+        return softKeyboard;
+    }
+
+    private void keepKeyboard(KeyboardId id, LatinKeyboard keyboard) {
+        mKeyboards.put(id, keyboard);
+        trimKeyboards(mMaxKeptKeyboards);
+    }
+
+    /**
+     * Keeps only up to the given number of the keyboards besides the current one, the most
+     * recently used, and keeps the others softly.
+     */
+    private void trimKeyboards(int maxKept) {
+        int excess = mKeyboards.size() - maxKept - (mKeyboards.containsKey(mCurrentId) ? 1 : 0);
+        final Iterator<Map.Entry<KeyboardId, LatinKeyboard>> it = mKeyboards.entrySet().iterator();
+        while (excess > 0 && it.hasNext()) {
+            final Map.Entry<KeyboardId, LatinKeyboard> entry = it.next();
+            if (entry.getKey().equals(mCurrentId)) continue;
+            mSoftKeyboards.put(entry.getKey(), new SoftReference<LatinKeyboard>(entry.getValue()));
+            it.remove();
+            excess--;
+        }
+    }
+
+    private void schedulePrebuildKeyboards() {
+        mInputMethodService.mHandler.removeCallbacks(mPrebuildKeyboards);
+        mInputMethodService.mHandler.post(mPrebuildKeyboards);
+    }
+
+    /**
+     * Makes the keyboards likely to be switched to from the current one on a background thread,
+     * the alphabet, symbols and shifted symbols keyboards of the mode, unless they are kept.
+     * Keyboards of another locale than that of the resources are left to be made when needed,
+     * as the resources would have to be switched to it for all their readers. The UI thread never
+     * waits for this thread: the keyboards made while it switched the resources are dropped.
+     */
+    private void prebuildKeyboards() {
+        if (mPrebuilding || mInputView == null || mCurrentId == null) return;
+        final Resources res = mInputMethodService.getResources();
+        if (mInputLocale != null && !mInputLocale.equals(res.getConfiguration().locale)) return;
+        final ArrayList<KeyboardId> ids = new ArrayList<KeyboardId>(3);
+        addPrebuiltId(ids, getKeyboardId(mMode, mImeOptions, false));
+        addPrebuiltId(ids, getKeyboardId(mMode, mImeOptions, true));
+        if (mMode != MODE_PHONE) addPrebuiltId(ids, mSymbolsShiftedId);
+        final int count = ids.size();
+        if (count == 0) return;
+        final boolean[] hasVoiceButtons = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            hasVoiceButtons[i] = hasVoiceButton(isSymbols(ids.get(i)));
+        }
+        final Context context = mInputMethodService;
+        final boolean hasVoice = mHasVoice;
+        final int generation = mKeyboardsGeneration;
+        mPrebuilding = true;
+        new Thread("prebuildKeyboards") {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                final LatinKeyboard[] keyboards = new LatinKeyboard[count];
+                try {
+                    for (int i = 0; i < count; i++) {
+                        // Dropped if the UI thread switches the locale of the resources while it
+                        // is made, instead of the UI thread waiting for it
+                        final int stamp = LatinIMEUtil.ResourcesLocale.startReading();
+                        if (stamp < 0) break;
+                        final LatinKeyboard keyboard = makeKeyboard(context, ids.get(i),
+                                hasVoiceButtons[i], hasVoice);
+                        if (!LatinIMEUtil.ResourcesLocale.isReadValid(stamp)) break;
+                        keyboards[i] = keyboard;
+                    }
+                } catch (OutOfMemoryError e) {
+                    Log.w(TAG, "No available memory to make the next keyboards");
+                } catch (InflateException e) {
+                    Log.w(TAG, "Could not make the next keyboards", e);
+                } catch (Resources.NotFoundException e) {
+                    Log.w(TAG, "Could not make the next keyboards", e);
+                } finally {
+                    // Lets the next keyboards be made again whatever happened
+                    mInputMethodService.mHandler.post(new Runnable() {
+                        public void run() {
+                            onKeyboardsPrebuilt(generation, ids, keyboards);
+                        }
+                    });
+                }
+            }
+        }.start();
+    }
+
+    private void addPrebuiltId(ArrayList<KeyboardId> ids, KeyboardId id) {
+        if (id == null || id.equals(mCurrentId) || ids.contains(id)) return;
+        if (mKeyboards.containsKey(id)) return;
+        final SoftReference<LatinKeyboard> ref = mSoftKeyboards.get(id);
+        if (ref != null && ref.get() != null) return;
+        ids.add(id);
+    }
+
+    private void onKeyboardsPrebuilt(int generation, ArrayList<KeyboardId> ids,
+            LatinKeyboard[] keyboards) {
+        mPrebuilding = false;
+        // Made for settings since changed
+        if (generation != mKeyboardsGeneration) return;
+        for (int i = 0; i < keyboards.length; i++) {
+            final KeyboardId id = ids.get(i);
+            // Made on demand in the meantime
+            if (keyboards[i] == null || mKeyboards.containsKey(id)) continue;
+            keyboards[i].setLanguageSwitcher(mLanguageSwitcher, mIsAutoCompletionActive,
+                    isBlackSym());
+            mSoftKeyboards.remove(id);
+            keepKeyboard(id, keyboards[i]);
+            mKeyboardsPrebuilt++;
+        }
+    }
+
+    /**
+     * Returns the counts of the keyboards asked for, and of those that had to be made then, with
+     * the time it took, for the dump.
+     */
+    String getKeyboardStats() {
+        return "requests=" + mKeyboardRequests + " softHits=" + mSoftKeyboardHits
+                + " built=" + mKeyboardsBuilt + " prebuilt=" + mKeyboardsPrebuilt
+                + " buildMs=" + mBuildMillis + " maxBuildMs=" + mMaxBuildMillis
+                + " kept=" + mKeyboards.size() + "/" + mMaxKeptKeyboards
+                + " soft=" + mSoftKeyboards.size();
+    }
+
     private KeyboardId getKeyboardId(int mode, int imeOptions, boolean isSymbols) {
         boolean hasVoice = hasVoiceButton(isSymbols);
         int charColorId = getCharColorId();
@@ -408,6 +635,7 @@ public class KeyboardSwitcher implements SharedPreferences.OnSharedPreferenceCha
             symbolsKeyboard.setShifted(false);
             symbolsKeyboard.setImeOptions(mInputMethodService.getResources(), mMode, mImeOptions);
         }
+        schedulePrebuildKeyboards();
     }
 
     public void toggleSymbols() {
@@ -451,7 +679,17 @@ public class KeyboardSwitcher implements SharedPreferences.OnSharedPreferenceCha
         changeLatinKeyboardView(mLayoutId, true);
     }
 
+    /**
+     * Drops the space bars drawn, as the configuration they were drawn with, such as the font
+     * scale, changed.
+     */
+    public void onConfigurationChanged() {
+        LatinKeyboard.getSpaceBarCache().shed();
+    }
+
     private void changeLatinKeyboardView(int newLayout, boolean forceReset) {
+        // The space bars are drawn with the theme
+        if (mLayoutId != newLayout) LatinKeyboard.getSpaceBarCache().shed();
         if (mLayoutId != newLayout || mInputView == null || forceReset) {
             if (mInputView != null) {
                 mInputView.closing();
@@ -460,6 +698,7 @@ public class KeyboardSwitcher implements SharedPreferences.OnSharedPreferenceCha
                 newLayout = Integer.valueOf(DEFAULT_LAYOUT_ID);
             }
 
+            CacheRegistry.getInstance().ensureHeadroom();
             LatinIMEUtil.GCUtils.getInstance().reset();
             boolean tryGC = true;
             for (int i = 0; i < LatinIMEUtil.GCUtils.GC_TRY_LOOP_MAX && tryGC; ++i) {
@@ -114,6 +114,26 @@ public class LanguageSwitcher {
         return mSelectedLanguageArray[mCurrentIndex];
     }
     
+    /**
+     * Returns the next input language code in the list, wrapping around like
+     * {@link #getNextInputLocale}.
+     */
+    public String getNextInputLanguage() {
+        if (getLocaleCount() == 0) return mDefaultInputLanguage;
+
+        return mSelectedLanguageArray[(mCurrentIndex + 1) % mLocales.length];
+    }
+
+    /**
+     * Returns the previous input language code in the list, wrapping around like
+     * {@link #getPrevInputLocale}.
+     */
+    public String getPrevInputLanguage() {
+        if (getLocaleCount() == 0) return mDefaultInputLanguage;
+
+        return mSelectedLanguageArray[(mCurrentIndex - 1 + mLocales.length) % mLocales.length];
+    }
+
     /**
      * Returns the list of enabled language codes.
      */
@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.inputmethod.latin;
+
+import android.os.SystemClock;
+import android.util.Printer;
+
+/**
+ * Traces the time each keystroke takes to go through the input pipeline, from the touch event
+ * to the candidate strip being drawn.
+ *
+ * Each touch that can send a key starts a new keystroke, and every stage reached until the next
+ * one is recorded with its id, the first time only. As the suggestions are updated after a
+ * delay, a keystroke that is quickly followed by another one never reaches the last stages.
+ * The records go into a fixed ring buffer of primitives, and the time since the touch of each
+ * stage into a histogram, so that tracing does not allocate. When it is off, a trace point only
+ * reads a flag.
+ *
+ * The stages are recorded without locking by the UI thread, the one that turned tracing on, and
+ * those reached on other threads are ignored, as the ring buffer has a single writer, like the
+ * one of {@link LatinImeLogger}. The dump, from a binder thread, copies the published records
+ * out and drops those the writer may have reused meanwhile. It reads the histograms as they are
+ * being counted, so they may be off by the keystroke in progress.
+ */
+class LatencyTracer {
+    // The touch event, as timed by the input system
+    static final int STAGE_EVENT = 0;
+    static final int STAGE_TOUCH_EVENT = 1;
+    static final int STAGE_KEY_DETECTED = 2;
+    static final int STAGE_ON_KEY = 3;
+    static final int STAGE_HANDLE_CHARACTER = 4;
+    static final int STAGE_UPDATE_SUGGESTIONS = 5;
+    static final int STAGE_GET_SUGGESTIONS = 6;
+    static final int STAGE_GOT_SUGGESTIONS = 7;
+    static final int STAGE_SET_SUGGESTIONS = 8;
+    static final int STAGE_DRAW = 9;
+    private static final int STAGE_COUNT = 10;
+    private static final String[] STAGE_NAMES = {
+        "event", "onTouchEvent", "keyDetected", "onKey", "handleCharacter",
+        "updateSuggestions", "getSuggestions", "gotSuggestions", "setSuggestions", "onDraw"
+    };
+
+    // A power of two
+    private static final int RING_SIZE = 1024;
+    // Bucket i counts the stages reached less than 2^i microseconds after the touch, and the
+    // last one all the later ones
+    private static final int HISTOGRAM_BUCKETS = 21;
+    private static final int DUMPED_KEYSTROKES = 10;
+
+    private static volatile boolean sEnabled;
+    private static Thread sWriterThread;
+
+    private static final int[] sRingIds = new int[RING_SIZE];
+    private static final byte[] sRingStages = new byte[RING_SIZE];
+    private static final long[] sRingTimes = new long[RING_SIZE];
+    // Records published by the writer. Only the writer increments it, after filling the record.
+    private static volatile int sRecordCount;
+    // The record count when tracing was last turned on, before which the records are stale
+    private static volatile int sFirstRecord;
+
+    // Only the writer changes them
+    private static volatile int sKeystrokeId;
+    private static long sKeystrokeStart;
+    private static final int[] sLastIdOfStage = new int[STAGE_COUNT];
+    private static final int[][] sHistograms = new int[STAGE_COUNT][HISTOGRAM_BUCKETS];
+
+    private LatencyTracer() {
+    }
+
+    static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * Turns tracing on or off, on the UI thread, which becomes the writer. The traces are cleared
+     * when it is turned on, and kept when it is turned off so that they can still be dumped.
+     */
+    static void setEnabled(boolean enabled) {
+        if (enabled && !sEnabled) {
+            sWriterThread = Thread.currentThread();
+            sFirstRecord = sRecordCount;
+            sKeystrokeId = 0;
+            for (int i = 0; i < STAGE_COUNT; i++) {
+                sLastIdOfStage[i] = 0;
+                for (int j = 0; j < HISTOGRAM_BUCKETS; j++) sHistograms[i][j] = 0;
+            }
+        }
+        sEnabled = enabled;
+    }
+
+    /**
+     * Starts a new keystroke, for a touch event that can send a key.
+     * @param eventTime the time of the event, in the uptimeMillis base
+     */
+    static void startKeystroke(long eventTime) {
+        if (!sEnabled || Thread.currentThread() != sWriterThread) return;
+        final long now = System.nanoTime();
+        final long age = Math.max(0, SystemClock.uptimeMillis() - eventTime);
+        sKeystrokeId++;
+        sKeystrokeStart = now - age * 1000000;
+        record(STAGE_EVENT, sKeystrokeStart);
+        record(STAGE_TOUCH_EVENT, now);
+    }
+
+    /**
+     * Records that the current keystroke reached the given stage, unless it already did.
+     */
+    static void mark(int stage) {
+        if (!sEnabled || Thread.currentThread() != sWriterThread) return;
+        final int id = sKeystrokeId;
+        if (id == 0 || sLastIdOfStage[stage] == id) return;
+        record(stage, System.nanoTime());
+    }
+
+    private static void record(int stage, long time) {
+        final int count = sRecordCount;
+        final int index = count & (RING_SIZE - 1);
+        sRingIds[index] = sKeystrokeId;
+        sRingStages[index] = (byte) stage;
+        sRingTimes[index] = time;
+        // Publishes the record to the dump
+        sRecordCount = count + 1;
+        sLastIdOfStage[stage] = sKeystrokeId;
+        final long micros = (time - sKeystrokeStart) / 1000;
+        final int bucket = micros <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(micros);
+        sHistograms[stage][Math.min(bucket, HISTOGRAM_BUCKETS - 1)]++;
+    }
+
+    /**
+     * Prints the histogram of the time from the touch to each stage, and the last keystrokes.
+     */
+    static void dump(Printer p) {
+        final int keystrokeCount = sKeystrokeId;
+        p.println("  Latency tracing " + (sEnabled ? "on" : "off")
+                + ", " + keystrokeCount + " keystrokes");
+        if (keystrokeCount == 0) return;
+        p.println("  Time from the touch to each stage, in ms:");
+        for (int stage = 1; stage < STAGE_COUNT; stage++) {
+            final int[] histogram = sHistograms[stage];
+            int count = 0;
+            for (int bucket : histogram) count += bucket;
+            if (count == 0) continue;
+            final StringBuilder line = new StringBuilder();
+            line.append(String.format("    %-18s n=%-6d p50<%-8s p95<%-8s p99<%-8s",
+                    STAGE_NAMES[stage], count, formatBucket(histogram, count * 50 / 100),
+                    formatBucket(histogram, count * 95 / 100),
+                    formatBucket(histogram, count * 99 / 100)));
+            for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+                if (histogram[i] == 0) continue;
+                line.append(' ').append(i == HISTOGRAM_BUCKETS - 1 ? ">=" : "<")
+                        .append(formatMillis(getBucketLimit(i))).append(':').append(histogram[i]);
+            }
+            p.println(line.toString());
+        }
+
+        // Copies the published records out, then drops those the writer may have reused while
+        // they were copied, including the one it may be filling
+        final int end = sRecordCount;
+        final int begin = end - Math.min(end - sFirstRecord, RING_SIZE);
+        final int[] ids = new int[end - begin];
+        final byte[] stages = new byte[ids.length];
+        final long[] times = new long[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            final int index = (begin + i) & (RING_SIZE - 1);
+            ids[i] = sRingIds[index];
+            stages[i] = sRingStages[index];
+            times[i] = sRingTimes[index];
+        }
+        final int overwritten = Math.max(0, sRecordCount - RING_SIZE + 1 - begin);
+
+        // The records of a keystroke are contiguous, as only the current one is recorded
+        int first = ids.length - 1;
+        int keystrokes = 0;
+        while (first > overwritten) {
+            if (ids[first - 1] != ids[first] && ++keystrokes == DUMPED_KEYSTROKES) break;
+            first--;
+        }
+        p.println("  Last keystrokes, in ms since the touch:");
+        StringBuilder line = null;
+        long start = 0;
+        for (int i = Math.max(first, overwritten); i < ids.length; i++) {
+            if (line == null || ids[i] != ids[i - 1]) {
+                if (line != null) p.println(line.toString());
+                line = new StringBuilder("    #").append(ids[i]);
+                start = times[i];
+            }
+            line.append(' ').append(STAGE_NAMES[stages[i]]).append('+')
+                    .append(formatMillis((times[i] - start) / 1000));
+        }
+        if (line != null) p.println(line.toString());
+    }
+
+    private static long getBucketLimit(int bucket) {
+        return bucket == HISTOGRAM_BUCKETS - 1 ? 1L << (bucket - 1) : 1L << bucket;
+    }
+
+    /**
+     * Returns the upper limit of the bucket holding the given rank.
+     */
+    private static String formatBucket(int[] histogram, int rank) {
+        int count = 0;
+        for (int i = 0; i < HISTOGRAM_BUCKETS - 1; i++) {
+            count += histogram[i];
+            if (count > rank) return formatMillis(getBucketLimit(i));
+        }
+        return "inf";
+    }
+
+    private static String formatMillis(long micros) {
+        return String.format(micros < 1000 ? "%.3f" : "%.1f", micros / 1000f);
+    }
+}
@@ -130,6 +130,9 @@ public class LatinIME extends InputMethodService
     public static final String PREF_SELECTED_LANGUAGES = "selected_languages";
     public static final String PREF_INPUT_LANGUAGE = "input_language";
     private static final String PREF_RECORRECTION_ENABLED = "recorrection_enabled";
+    private static final String PREF_GLIDE_TYPING = "glide_typing";
+    // In the debug settings
+    private static final String PREF_LATENCY_TRACING = "latency_tracing";
 
     private static final int MSG_UPDATE_SUGGESTIONS = 0;
     private static final int MSG_START_TUTORIAL = 1;
@@ -141,6 +144,9 @@ public class LatinIME extends InputMethodService
     private static final int DELETE_ACCELERATE_AT = 20;
     // Key events coming any faster than this are long-presses.
     private static final int QUICK_PRESS = 200;
+    // Bytes of main and learned dictionaries kept open for the input languages not in use, so
+    // that switching back to one of them is instant.
+    private static final int DICTIONARY_SET_CACHE_BUDGET = 4 * 1024 * 1024;
 
     static final int KEYCODE_ENTER = '\n';
     static final int KEYCODE_SPACE = ' ';
@@ -165,6 +171,19 @@ public class LatinIME extends InputMethodService
     private UserBigramDictionary mUserBigramDictionary;
     private ContactsDictionary mContactsDictionary;
     private AutoDictionary mAutoDictionary;
+    // Dictionaries of the current and recently used input languages
+    private DictionarySetCache mDictionarySets;
+    // Drops the words of the contacts dictionary when memory runs low, until the next lookup
+    private final CacheRegistry.Cache mContactsCache = new CacheRegistry.Cache() {
+        public long getSizeEstimate() {
+            final ContactsDictionary dictionary = mContactsDictionary;
+            return dictionary == null ? 0 : dictionary.getSizeEstimate();
+        }
+
+        public void shed() {
+            if (mContactsDictionary != null) mContactsDictionary.unload();
+        }
+    };
 
     private Hints mHints;
 
@@ -176,7 +195,10 @@ public class LatinIME extends InputMethodService
 
     private StringBuilder mComposing = new StringBuilder();
     private WordComposer mWord = new WordComposer();
+    private final GestureDecoder mGestureDecoder = new GestureDecoder();
     private int mCommittedLength;
+    // The last word committed from the composing text or the suggestions
+    private String mLastCommittedWord;
     private boolean mPredicting;
     private boolean mRecognizing;
     private boolean mAfterVoiceInput;
@@ -203,6 +225,7 @@ public class LatinIME extends InputMethodService
     private boolean mPopupOn;
     private boolean mAutoCap;
     private boolean mQuickFixes;
+    private boolean mGlideTyping;
     private boolean mHasUsedVoiceInput;
     private boolean mHasUsedVoiceInputUnsupportedLocale;
     private boolean mLocaleSupportedForVoiceInput;
@@ -225,6 +248,11 @@ public class LatinIME extends InputMethodService
     private CharSequence mJustRevertedSeparator;
     private int mDeleteCount;
     private long mLastKeyTime;
+    // For logging the startup stages and the first keystroke
+    private long mCreateTime;
+    private boolean mHadInputView;
+    private boolean mHadKeystroke;
+    private boolean mStartupComplete;
 
     // Modifier keys state
     private ModifierKeyState mShiftKeyState = new ModifierKeyState();
@@ -284,6 +312,28 @@ public class LatinIME extends InputMethodService
         public abstract List<CharSequence> getAlternatives();
     }
 
+    /**
+     * The words a glide may have been, for the one chosen to be corrected to another.
+     */
+    public static class GlidedWordAlternatives extends WordAlternatives {
+        private final List<CharSequence> mWords;
+
+        public GlidedWordAlternatives(CharSequence chosenWord, List<CharSequence> words) {
+            super(chosenWord);
+            mWords = words;
+        }
+
+        @Override
+        public CharSequence getOriginalWord() {
+            return mChosenWord;
+        }
+
+        @Override
+        public List<CharSequence> getAlternatives() {
+            return mWords;
+        }
+    }
+
     public class TypedWordAlternatives extends WordAlternatives {
         private WordComposer word;
 
@@ -312,6 +362,7 @@ public class LatinIME extends InputMethodService
         public void handleMessage(Message msg) {
             switch (msg.what) {
                 case MSG_UPDATE_SUGGESTIONS:
+                    LatencyTracer.mark(LatencyTracer.STAGE_UPDATE_SUGGESTIONS);
                     updateSuggestions();
                     break;
                 case MSG_UPDATE_OLD_SUGGESTIONS:
@@ -341,6 +392,7 @@ public class LatinIME extends InputMethodService
 
     @Override
     public void onCreate() {
+        mCreateTime = SystemClock.uptimeMillis();
         LatinImeLogger.init(this);
         super.onCreate();
         //setStatusIcon(R.drawable.ime_qwerty);
@@ -359,6 +411,7 @@ public class LatinIME extends InputMethodService
         }
         mReCorrectionEnabled = prefs.getBoolean(PREF_RECORRECTION_ENABLED,
                 getResources().getBoolean(R.bool.default_recorrection_enabled));
+        LatencyTracer.setEnabled(prefs.getBoolean(PREF_LATENCY_TRACING, false));
 
         LatinIMEUtil.GCUtils.getInstance().reset();
         boolean tryGC = true;
@@ -377,20 +430,33 @@ public class LatinIME extends InputMethodService
         // register to receive ringer mode changes for silent mode
         IntentFilter filter = new IntentFilter(AudioManager.RINGER_MODE_CHANGED_ACTION);
         registerReceiver(mReceiver, filter);
-        if (VOICE_INSTALLED) {
-            mVoiceInput = new VoiceInput(this, this);
-            mHints = new Hints(this, new Hints.Display() {
-                public void showHint(int viewResource) {
-                    LayoutInflater inflater = (LayoutInflater) getSystemService(
-                            Context.LAYOUT_INFLATER_SERVICE);
-                    View view = inflater.inflate(viewResource, null);
-                    setCandidatesView(view);
-                    setCandidatesViewShown(true);
-                    mIsShowingHint = true;
-                }
-              });
-        }
         prefs.registerOnSharedPreferenceChangeListener(this);
+        // The dictionaries, then voice input, are set up in the background while the input
+        // view is shown
+    }
+
+    /**
+     * Sets up voice input, the last startup stage. It is also set up on demand if the user
+     * starts voice input before that.
+     */
+    private void initVoice() {
+        if (!VOICE_INSTALLED || mVoiceInput != null) return;
+        mVoiceInput = new VoiceInput(this, this);
+        mHints = new Hints(this, new Hints.Display() {
+            public void showHint(int viewResource) {
+                LayoutInflater inflater = (LayoutInflater) getSystemService(
+                        Context.LAYOUT_INFLATER_SERVICE);
+                View view = inflater.inflate(viewResource, null);
+                setCandidatesView(view);
+                setCandidatesViewShown(true);
+                mIsShowingHint = true;
+            }
+          });
+    }
+
+    private void logStartupStage(String stage) {
+        Log.i(TAG, "Startup stage \"" + stage + "\" done after "
+                + (SystemClock.uptimeMillis() - mCreateTime) + "ms");
     }
 
     /**
@@ -434,52 +500,77 @@ public class LatinIME extends InputMethodService
 
     private void initSuggest(String locale) {
         mInputLocale = locale;
+        CacheRegistry.getInstance().ensureHeadroom();
 
         Resources orig = getResources();
-        Configuration conf = orig.getConfiguration();
-        Locale saveLocale = conf.locale;
-        conf.locale = new Locale(locale);
-        orig.updateConfiguration(conf, orig.getDisplayMetrics());
-        if (mSuggest != null) {
-            mSuggest.close();
+        Locale saveLocale = LatinIMEUtil.ResourcesLocale.switchTo(orig, new Locale(locale));
+        try {
+            SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(this);
+            mQuickFixes = sp.getBoolean(PREF_QUICK_FIXES, true);
+
+            if (mDictionarySets == null) {
+                mDictionarySets = new DictionarySetCache(this, DICTIONARY_SET_CACHE_BUDGET);
+            }
+            // Unless the language was used recently, its dictionaries load in the background
+            // and only the typed word is suggested until onDictionarySetLoaded() is called.
+            DictionarySetCache.DictionarySet dictionarySet =
+                    mDictionarySets.obtain(mInputLocale);
+            mSuggest = dictionarySet.suggest;
+            mGestureDecoder.setSuggest(mSuggest);
+            updateAutoTextEnabled(saveLocale);
+            setLearnedDictionaries(dictionarySet);
+            updateCorrectionMode();
+            mWordSeparators = mResources.getString(R.string.word_separators);
+            mSentenceSeparators = mResources.getString(R.string.sentence_separators);
+        } finally {
+            LatinIMEUtil.ResourcesLocale.restore(orig, saveLocale);
         }
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(this);
-        mQuickFixes = sp.getBoolean(PREF_QUICK_FIXES, true);
+    }
 
-        int[] dictionaries = getDictionary(orig);
-        mSuggest = new Suggest(this, dictionaries);
-        updateAutoTextEnabled(saveLocale);
-        if (mUserDictionary != null) mUserDictionary.close();
-        mUserDictionary = new UserDictionary(this, mInputLocale);
+    /**
+     * Uses the learned dictionaries of the given set, if they are loaded yet, along with the
+     * contacts dictionary, which is shared by all the languages.
+     */
+    private void setLearnedDictionaries(DictionarySetCache.DictionarySet dictionarySet) {
+        mUserDictionary = dictionarySet.userDictionary;
+        mAutoDictionary = dictionarySet.autoDictionary;
+        mUserBigramDictionary = dictionarySet.userBigramDictionary;
+        if (mUserDictionary == null) return;
         if (mContactsDictionary == null) {
             mContactsDictionary = new ContactsDictionary(this, Suggest.DIC_CONTACTS);
+            CacheRegistry.getInstance().register("contacts", CacheRegistry.TIER_IN_USE,
+                    mContactsCache);
         }
-        if (mAutoDictionary != null) {
-            mAutoDictionary.close();
-        }
-        mAutoDictionary = new AutoDictionary(this, this, mInputLocale, Suggest.DIC_AUTO);
-        if (mUserBigramDictionary != null) {
-            mUserBigramDictionary.close();
-        }
-        mUserBigramDictionary = new UserBigramDictionary(this, this, mInputLocale,
-                Suggest.DIC_USER);
-        mSuggest.setUserBigramDictionary(mUserBigramDictionary);
-        mSuggest.setUserDictionary(mUserDictionary);
         mSuggest.setContactsDictionary(mContactsDictionary);
-        mSuggest.setAutoDictionary(mAutoDictionary);
+    }
+
+    /**
+     * Called by the {@link DictionarySetCache} once the dictionaries in use are all loaded.
+     */
+    /* package */ void onDictionarySetLoaded(DictionarySetCache.DictionarySet dictionarySet) {
+        setLearnedDictionaries(dictionarySet);
+        // Corrections need the main dictionary
         updateCorrectionMode();
-        mWordSeparators = mResources.getString(R.string.word_separators);
-        mSentenceSeparators = mResources.getString(R.string.sentence_separators);
+        if (!mStartupComplete) {
+            mStartupComplete = true;
+            logStartupStage("dictionaries");
+            initVoice();
+            updateVoiceButton();
+            logStartupStage("voice");
+        }
+    }
 
-        conf.locale = saveLocale;
-        orig.updateConfiguration(conf, orig.getDisplayMetrics());
+    /* package */ boolean isStartupComplete() {
+        return mStartupComplete;
     }
 
     @Override
     public void onDestroy() {
-        if (mUserDictionary != null) {
-            mUserDictionary.close();
+        if (mDictionarySets != null) {
+            mDictionarySets.close();
         }
+        CacheRegistry.getInstance().unregister(mContactsCache);
+        mKeyboardSwitcher.onDestroy();
         if (mContactsDictionary != null) {
             mContactsDictionary.close();
         }
@@ -492,8 +583,15 @@ public class LatinIME extends InputMethodService
         super.onDestroy();
     }
 
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        CacheRegistry.getInstance().onLowMemory();
+    }
+
     @Override
     public void onConfigurationChanged(Configuration conf) {
+        mKeyboardSwitcher.onConfigurationChanged();
         // If the system locale changes and is different from the saved
         // locale (mSystemLocale), then reload the input locale list from the
         // latin ime settings (shared prefs) and reset the input locale
@@ -554,6 +652,10 @@ public class LatinIME extends InputMethodService
         if (inputView == null) {
             return;
         }
+        if (!mHadInputView) {
+            mHadInputView = true;
+            logStartupStage("input view");
+        }
 
         if (mRefreshKeyboardRequired) {
             mRefreshKeyboardRequired = false;
@@ -677,6 +779,8 @@ public class LatinIME extends InputMethodService
         inputView.setPreviewEnabled(mPopupOn);
         inputView.setProximityCorrectionEnabled(true);
         mPredictionOn = mPredictionOn && (mCorrectionMode > 0 || mShowSuggestions);
+        // Glides are only decoded into words where the words are predicted
+        inputView.setGestureDecoder(mGlideTyping && mPredictionOn ? mGestureDecoder : null);
         // If we just entered a text field, maybe it has some old text that requires correction
         checkReCorrectionOnStart();
         checkTutorial(attribute.privateImeOptions);
@@ -713,7 +817,7 @@ public class LatinIME extends InputMethodService
         LatinImeLogger.commit();
         onAutoCompletionStateChanged(false);
 
-        if (VOICE_INSTALLED && !mConfigurationChanging) {
+        if (VOICE_INSTALLED && !mConfigurationChanging && mVoiceInput != null) {
             if (mAfterVoiceInput) {
                 mVoiceInput.flushAllTextModificationCounters();
                 mVoiceInput.logInputEnded();
@@ -1033,6 +1137,7 @@ public class LatinIME extends InputMethodService
                     inputConnection.commitText(mComposing, 1);
                 }
                 mCommittedLength = mComposing.length();
+                mLastCommittedWord = mComposing.toString();
                 TextEntryState.acceptedTyped(mComposing);
                 addToDictionaries(mComposing, AutoDictionary.FREQUENCY_FOR_TYPED);
             }
@@ -1138,6 +1243,7 @@ public class LatinIME extends InputMethodService
     }
 
     public boolean addWordToDictionary(String word) {
+        if (mUserDictionary == null) return false;
         mUserDictionary.addWord(word, 128);
         // Suggestion strip should be updated after the operation of adding word to the
         // user dictionary
@@ -1185,7 +1291,12 @@ public class LatinIME extends InputMethodService
     // Implementation of KeyboardViewListener
 
     public void onKey(int primaryCode, int[] keyCodes, int x, int y) {
+        LatencyTracer.mark(LatencyTracer.STAGE_ON_KEY);
         long when = SystemClock.uptimeMillis();
+        if (!mHadKeystroke) {
+            mHadKeystroke = true;
+            Log.i(TAG, "First keystroke " + (when - mCreateTime) + "ms after cold start");
+        }
         if (primaryCode != Keyboard.KEYCODE_DELETE ||
                 when > mLastKeyTime + QUICK_PRESS) {
             mDeleteCount = 0;
@@ -1242,7 +1353,7 @@ public class LatinIME extends InputMethodService
                 if (isWordSeparator(primaryCode)) {
                     handleSeparator(primaryCode);
                 } else {
-                    handleCharacter(primaryCode, keyCodes);
+                    handleCharacter(primaryCode, keyCodes, x, y);
                 }
                 // Cancel the just reverted state
                 mJustRevertedSeparator = null;
@@ -1274,6 +1385,40 @@ public class LatinIME extends InputMethodService
         mEnteredText = text;
     }
 
+    public void onGlide(List<CharSequence> words) {
+        if (words.isEmpty()) return;
+        if (VOICE_INSTALLED && mVoiceInputHighlighted) {
+            commitVoiceInput();
+        }
+        InputConnection ic = getCurrentInputConnection();
+        if (ic == null) return;
+        abortCorrection(false);
+        ic.beginBatchEdit();
+        if (mPredicting) {
+            commitTyped(ic);
+        }
+        // The list is overwritten by the next search of the suggestions
+        final ArrayList<CharSequence> alternatives = new ArrayList<CharSequence>(words.size());
+        for (CharSequence word : words) {
+            alternatives.add(word.toString());
+        }
+        final CharSequence chosenWord = alternatives.get(0);
+        mWord.reset();
+        pickSuggestion(chosenWord, false);
+        mWordHistory.add(new GlidedWordAlternatives(mLastCommittedWord, alternatives));
+        if (mAutoSpace) {
+            sendSpace();
+            mJustAddedAutoSpace = true;
+            // As after a suggestion is picked, a backspace does not revert
+            TextEntryState.typedCharacter((char) KEYCODE_SPACE, true);
+        } else {
+            mJustAddedAutoSpace = false;
+        }
+        ic.endBatchEdit();
+        mJustRevertedSeparator = null;
+        mEnteredText = null;
+    }
+
     public void onCancel() {
         // User released a finger outside any key
     }
@@ -1384,7 +1529,24 @@ public class LatinIME extends InputMethodService
         }
     }
 
-    private void handleCharacter(int primaryCode, int[] keyCodes) {
+    /**
+     * Returns how likely each of the codes of a touch of the keyboard is to be the one meant, or
+     * null if the keystroke has no alternatives to weight or was not a touch of the keyboard.
+     */
+    private int[] getNearbyLikelihoods(int[] keyCodes, int x, int y) {
+        if (keyCodes == null || keyCodes.length < 2
+                || keyCodes[1] == LatinKeyboardBaseView.NOT_A_KEY
+                || x == LatinKeyboardBaseView.NOT_A_TOUCH_COORDINATE
+                || y == LatinKeyboardBaseView.NOT_A_TOUCH_COORDINATE) {
+            return null;
+        }
+        final int[] likelihoods = new int[keyCodes.length];
+        mKeyboardSwitcher.getInputView().getNearbyLikelihoods(x, y, keyCodes, likelihoods);
+        return likelihoods;
+    }
+
+    private void handleCharacter(int primaryCode, int[] keyCodes, int x, int y) {
+        LatencyTracer.mark(LatencyTracer.STAGE_HANDLE_CHARACTER);
         if (VOICE_INSTALLED && mVoiceInputHighlighted) {
             commitVoiceInput();
         }
@@ -1430,7 +1592,7 @@ public class LatinIME extends InputMethodService
                 mWord.setFirstCharCapitalized(true);
             }
             mComposing.append((char) primaryCode);
-            mWord.add(primaryCode, keyCodes);
+            mWord.add(primaryCode, keyCodes, getNearbyLikelihoods(keyCodes, x, y));
             InputConnection ic = getCurrentInputConnection();
             if (ic != null) {
                 // If it's the first letter, make note of auto-caps state
@@ -1465,6 +1627,7 @@ public class LatinIME extends InputMethodService
         }
 
         boolean pickedDefault = false;
+        final boolean committingWord = mPredicting;
         // Handle separator
         InputConnection ic = getCurrentInputConnection();
         if (ic != null) {
@@ -1513,6 +1676,10 @@ public class LatinIME extends InputMethodService
         if (pickedDefault) {
             TextEntryState.backToAcceptedDefault(mWord.getTypedWord());
         }
+        // Only a space keeps the committed word as the previous word of the next one
+        if (committingWord && primaryCode == KEYCODE_SPACE) {
+            prefetchNextWordBigrams();
+        }
         updateShiftKeyState(getCurrentInputEditorInfo());
         if (ic != null) {
             ic.endBatchEdit();
@@ -1608,6 +1775,7 @@ public class LatinIME extends InputMethodService
     }
 
     private void startListening(boolean swipe) {
+        initVoice();
         if (!mHasUsedVoiceInput ||
                 (!mLocaleSupportedForVoiceInput && !mHasUsedVoiceInputUnsupportedLocale)) {
             // Calls reallyStartListening if user clicks OK, does nothing if user clicks Cancel.
@@ -1802,8 +1970,10 @@ public class LatinIME extends InputMethodService
         // TODO Maybe need better way of retrieving previous word
         CharSequence prevWord = EditingUtil.getPreviousWord(getCurrentInputConnection(),
                 mWordSeparators);
+        LatencyTracer.mark(LatencyTracer.STAGE_GET_SUGGESTIONS);
         List<CharSequence> stringList = mSuggest.getSuggestions(
                 mKeyboardSwitcher.getInputView(), word, false, prevWord);
+        LatencyTracer.mark(LatencyTracer.STAGE_GOT_SUGGESTIONS);
         // long stopTime = System.currentTimeMillis(); // TIME MEASUREMENT!
         // Log.d("LatinIME","Suggest Total Time - " + (stopTime - startTime));
 
@@ -1937,6 +2107,7 @@ public class LatinIME extends InputMethodService
             // TextEntryState.State.PICKED_SUGGESTION state.
             TextEntryState.typedCharacter((char) KEYCODE_SPACE, true);
             setNextSuggestions();
+            if (mAutoSpace) prefetchNextWordBigrams();
         } else if (!showingAddToDictionaryHint) {
             // If we're not showing the "Touch again to save", then show corrections again.
             // In case the cursor position doesn't change, make sure we show the suggestions again.
@@ -1998,6 +2169,7 @@ public class LatinIME extends InputMethodService
         saveWordInHistory(suggestion);
         mPredicting = false;
         mCommittedLength = suggestion.length();
+        mLastCommittedWord = suggestion.toString();
         ((LatinKeyboard) inputView.getKeyboard()).setPreferredLetters(null);
         // If we just corrected a word, then don't show punctuations
         if (!correcting) {
@@ -2121,6 +2293,17 @@ public class LatinIME extends InputMethodService
         setSuggestions(mSuggestPuncList, false, false, false);
     }
 
+    /**
+     * Looks up in advance the words that may follow the last committed word, so that the
+     * suggestions for the first letter of the next word come quickly. Must be called after the
+     * committed word was added to the dictionaries, as that invalidates earlier lookups.
+     */
+    private void prefetchNextWordBigrams() {
+        if (mSuggest != null && isPredictionOn()) {
+            mSuggest.prefetchBigrams(mLastCommittedWord);
+        }
+    }
+
     private void addToDictionaries(CharSequence suggestion, int frequencyDelta) {
         checkAddToDictionary(suggestion, frequencyDelta, false);
     }
@@ -2144,9 +2327,11 @@ public class LatinIME extends InputMethodService
             return;
         }
         if (suggestion != null) {
-            if (!addToBigramDictionary && mAutoDictionary.isValidWord(suggestion)
+            // The auto dictionary is null while the dictionaries are still loading
+            if (mAutoDictionary != null
+                    && (!addToBigramDictionary && mAutoDictionary.isValidWord(suggestion)
                     || (!mSuggest.isValidWord(suggestion.toString())
-                    && !mSuggest.isValidWord(suggestion.toString().toLowerCase()))) {
+                    && !mSuggest.isValidWord(suggestion.toString().toLowerCase())))) {
                 mAutoDictionary.addWord(suggestion.toString(), frequencyDelta);
             }
 
@@ -2246,6 +2431,9 @@ public class LatinIME extends InputMethodService
                 mEnableVoiceButton && mEnableVoice);
         initSuggest(mLanguageSwitcher.getInputLanguage());
         mLanguageSwitcher.persist();
+        // Swiping on to a neighbouring language should not have to load its dictionaries
+        mDictionarySets.preload(mLanguageSwitcher.getNextInputLanguage(),
+                mLanguageSwitcher.getPrevInputLanguage());
         updateShiftKeyState(getCurrentInputEditorInfo());
     }
 
@@ -2257,6 +2445,8 @@ public class LatinIME extends InputMethodService
         } else if (PREF_RECORRECTION_ENABLED.equals(key)) {
             mReCorrectionEnabled = sharedPreferences.getBoolean(PREF_RECORRECTION_ENABLED,
                     getResources().getBoolean(R.bool.default_recorrection_enabled));
+        } else if (PREF_LATENCY_TRACING.equals(key)) {
+            LatencyTracer.setEnabled(sharedPreferences.getBoolean(PREF_LATENCY_TRACING, false));
         }
     }
 
@@ -2412,7 +2602,7 @@ public class LatinIME extends InputMethodService
     }
 
     /* package */ void promoteToUserDictionary(String word, int frequency) {
-        if (mUserDictionary.isValidWord(word)) return;
+        if (mUserDictionary == null || mUserDictionary.isValidWord(word)) return;
         mUserDictionary.addWord(word, frequency);
     }
 
@@ -2461,6 +2651,36 @@ public class LatinIME extends InputMethodService
         startActivity(intent);
     }
 
+    private void updateVoiceMode(SharedPreferences sp) {
+        if (VOICE_INSTALLED) {
+            final String voiceMode = sp.getString(PREF_VOICE_MODE,
+                    getString(R.string.voice_mode_main));
+            boolean enableVoice = !voiceMode.equals(getString(R.string.voice_mode_off))
+                    && mEnableVoiceButton;
+            boolean voiceOnPrimary = voiceMode.equals(getString(R.string.voice_mode_main));
+            if (mKeyboardSwitcher != null &&
+                    (enableVoice != mEnableVoice || voiceOnPrimary != mVoiceOnPrimary)) {
+                mKeyboardSwitcher.setVoiceMode(enableVoice, voiceOnPrimary);
+            }
+            mEnableVoice = enableVoice;
+            mVoiceOnPrimary = voiceOnPrimary;
+        }
+    }
+
+    /**
+     * Shows the voice button on the keyboard of the current field once voice input is set up,
+     * as the field may have been started before, without it.
+     */
+    private void updateVoiceButton() {
+        if (mKeyboardSwitcher.getInputView() == null
+                || mKeyboardSwitcher.getKeyboardMode() == KeyboardSwitcher.MODE_NONE) {
+            return;
+        }
+        mEnableVoiceButton = shouldShowVoiceButton(makeFieldContext(),
+                getCurrentInputEditorInfo());
+        updateVoiceMode(PreferenceManager.getDefaultSharedPreferences(this));
+    }
+
     private void loadSettings() {
         // Get the settings preferences
         SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(this);
@@ -2470,6 +2690,7 @@ public class LatinIME extends InputMethodService
                 mResources.getBoolean(R.bool.default_popup_preview));
         mAutoCap = sp.getBoolean(PREF_AUTO_CAP, true);
         mQuickFixes = sp.getBoolean(PREF_QUICK_FIXES, true);
+        mGlideTyping = sp.getBoolean(PREF_GLIDE_TYPING, false);
         mHasUsedVoiceInput = sp.getBoolean(PREF_HAS_USED_VOICE_INPUT, false);
         mHasUsedVoiceInputUnsupportedLocale =
                 sp.getBoolean(PREF_HAS_USED_VOICE_INPUT_UNSUPPORTED_LOCALE, false);
@@ -2490,19 +2711,7 @@ public class LatinIME extends InputMethodService
 
         mShowSuggestions = sp.getBoolean(PREF_SHOW_SUGGESTIONS, true);
 
-        if (VOICE_INSTALLED) {
-            final String voiceMode = sp.getString(PREF_VOICE_MODE,
-                    getString(R.string.voice_mode_main));
-            boolean enableVoice = !voiceMode.equals(getString(R.string.voice_mode_off))
-                    && mEnableVoiceButton;
-            boolean voiceOnPrimary = voiceMode.equals(getString(R.string.voice_mode_main));
-            if (mKeyboardSwitcher != null &&
-                    (enableVoice != mEnableVoice || voiceOnPrimary != mVoiceOnPrimary)) {
-                mKeyboardSwitcher.setVoiceMode(enableVoice, voiceOnPrimary);
-            }
-            mEnableVoice = enableVoice;
-            mVoiceOnPrimary = voiceOnPrimary;
-        }
+        updateVoiceMode(sp);
         mAutoCorrectEnabled = sp.getBoolean(PREF_AUTO_COMPLETE,
                 mResources.getBoolean(R.bool.enable_autocorrect)) & mShowSuggestions;
         //mBigramSuggestionEnabled = sp.getBoolean(
@@ -2596,6 +2805,16 @@ public class LatinIME extends InputMethodService
         p.println("  mSoundOn=" + mSoundOn);
         p.println("  mVibrateOn=" + mVibrateOn);
         p.println("  mPopupOn=" + mPopupOn);
+        if (mSuggest != null) {
+            p.println("  Dictionary searches: " + mSuggest.getSearchStats());
+        }
+        final LatinKeyboardView inputView = mKeyboardSwitcher.getInputView();
+        if (inputView != null) {
+            p.println("  Keyboard drawing: " + inputView.getDrawStats());
+        }
+        p.println("  Keyboards: " + mKeyboardSwitcher.getKeyboardStats());
+        LatencyTracer.dump(p);
+        CacheRegistry.getInstance().dump(p);
     }
 
     // Characters per second measurement
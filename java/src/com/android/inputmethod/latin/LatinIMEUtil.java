@@ -19,10 +19,15 @@ package com.android.inputmethod.latin;
 import android.view.inputmethod.InputMethodManager;
 
 import android.content.Context;
+import android.content.res.Configuration;
+import android.content.res.Resources;
 import android.os.AsyncTask;
 import android.text.format.DateUtils;
 import android.util.Log;
 
+import java.util.Locale;
+import java.util.concurrent.locks.ReentrantLock;
+
 public class LatinIMEUtil {
 
     /**
@@ -58,7 +63,12 @@ public class LatinIMEUtil {
 
         public boolean tryGCOrWait(String metaData, Throwable t) {
             if (mGCTryCount == 0) {
+                // Drop the caches so that the collection can free them, which makes waiting for
+                // memory to be freed elsewhere unnecessary the first time
+                CacheRegistry.getInstance().onLowMemory();
                 System.gc();
+                mGCTryCount++;
+                return true;
             }
             if (++mGCTryCount > GC_TRY_COUNT) {
                 LatinImeLogger.logOnException(metaData, t);
@@ -76,6 +86,97 @@ public class LatinIMEUtil {
         }
     }
 
+    /**
+     * Switches the resources of the process to another locale, for the resources of that locale
+     * to be read, then back, holding a lock against the other switches. The resources are also
+     * read by threads in the background, which must not see the locale switched under them, but
+     * must not hold up a switch either: they check that no switch happened while they were
+     * reading, and drop what they read otherwise. Usage:
+     * <pre>
+     * final Locale saveLocale = ResourcesLocale.switchTo(res, locale);
+     * try {
+     *     ...
+     * } finally {
+     *     ResourcesLocale.restore(res, saveLocale);
+     * }
+     * </pre>
+     */
+    /* package */ static class ResourcesLocale {
+        private static final ReentrantLock sLock = new ReentrantLock();
+        // Bumped as the resources are switched and as they are switched back, so it is odd
+        // while they are switched. Only changed with the lock held.
+        private static volatile int sSwitchCount;
+
+        private ResourcesLocale() {
+        }
+
+        /**
+         * Takes the lock and switches the resources to the given locale, which
+         * {@link #restore(Resources, Locale)} undoes.
+         * @return the locale to switch back to
+         */
+        public static Locale switchTo(Resources res, Locale locale) {
+            sLock.lock();
+            if (sLock.getHoldCount() == 1) sSwitchCount++;
+            try {
+                final Configuration conf = res.getConfiguration();
+                final Locale saveLocale = conf.locale;
+                conf.locale = locale;
+                res.updateConfiguration(conf, res.getDisplayMetrics());
+                return saveLocale;
+            } catch (RuntimeException e) {
+                if (sLock.getHoldCount() == 1) sSwitchCount++;
+                sLock.unlock();
+                throw e;
+            }
+        }
+
+        /**
+         * Switches the resources to yet another locale between
+         * {@link #switchTo(Resources, Locale)} and {@link #restore(Resources, Locale)}, for
+         * reading the resources of several locales with a single switch back.
+         */
+        public static void switchAgain(Resources res, Locale locale) {
+            if (!sLock.isHeldByCurrentThread()) {
+                throw new IllegalStateException("The resources are not switched");
+            }
+            final Configuration conf = res.getConfiguration();
+            conf.locale = locale;
+            res.updateConfiguration(conf, res.getDisplayMetrics());
+        }
+
+        /**
+         * Switches the resources back to the given locale and releases the lock.
+         */
+        public static void restore(Resources res, Locale saveLocale) {
+            try {
+                final Configuration conf = res.getConfiguration();
+                conf.locale = saveLocale;
+                res.updateConfiguration(conf, res.getDisplayMetrics());
+            } finally {
+                if (sLock.getHoldCount() == 1) sSwitchCount++;
+                sLock.unlock();
+            }
+        }
+
+        /**
+         * Returns the stamp to give {@link #isReadValid(int)} after reading the resources in the
+         * background, or -1 if they are switched now and are not worth reading.
+         */
+        public static int startReading() {
+            final int count = sSwitchCount;
+            return (count & 1) != 0 ? -1 : count & Integer.MAX_VALUE;
+        }
+
+        /**
+         * Returns whether the resources were not switched since {@link #startReading()} returned
+         * the given stamp, so that what was read from them is of their own locale.
+         */
+        public static boolean isReadValid(int stamp) {
+            return stamp >= 0 && (sSwitchCount & Integer.MAX_VALUE) == stamp;
+        }
+    }
+
     public static boolean hasMultipleEnabledIMEs(Context context) {
         return ((InputMethodManager) context.getSystemService(
                 Context.INPUT_METHOD_SERVICE)).getEnabledInputMethodList().size() > 1;
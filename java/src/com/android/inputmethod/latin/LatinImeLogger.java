@@ -21,51 +21,362 @@ import com.android.inputmethod.latin.Dictionary.DataType;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.inputmethodservice.Keyboard;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.locks.LockSupport;
 
+/**
+ * Records the input events into a binary log, when logging is enabled in the debug settings,
+ * for offline analysis with the EventLogDecoder of the benchmarks.
+ *
+ * The events are written by the UI thread into a fixed ring buffer of primitive records, without
+ * allocating or locking, and a background thread drains them into a file of the application.
+ * Words are recorded as their String.hashCode, so that nothing typed is stored in clear; the
+ * decoder resolves them against a list of words such as the dictionary's. Events logged from
+ * other threads than the one that called {@link #init} are ignored, as the ring buffer has a
+ * single writer. If the drain thread falls behind by more than the ring buffer, the oldest
+ * events are lost, and counted in the log.
+ *
+ * The log file starts with a header:
+ *   int magic, byte version
+ * followed by blocks, one per drain:
+ *   int record count, long time of the first record in ms, varint lost events
+ * and the records of the block:
+ *   byte type, byte field flags, varint time since the previous record in ms,
+ *   then the fields that are not zero, in this order:
+ *   varint dictionary type, varint payload a, varint payload b, int word, int second word
+ * The varints are zigzag encoded, 7 bits per byte, least significant first.
+ */
 public class LatinImeLogger implements SharedPreferences.OnSharedPreferenceChangeListener {
+    private static final String TAG = "LatinImeLogger";
+
+    static final String PREF_ENABLE_LOG = "enable_logging";
+    static final String LOG_FILE_NAME = "event_log.bin";
+    // The log is moved here when it grows over MAX_LOG_SIZE, replacing the older one
+    static final String OLD_LOG_FILE_NAME = "event_log.old.bin";
+    private static final long MAX_LOG_SIZE = 1024 * 1024;
+
+    static final int MAGIC = 0x4c494d45; // "LIME"
+    static final int VERSION = 1;
+
+    // The types of the events, with the meaning of their fields
+    // word: before, word2: after, a: position in the suggestions, b: number of suggestions
+    static final int EVENT_MANUAL_SUGGESTION = 1;
+    // word: before, word2: after
+    static final int EVENT_AUTO_SUGGESTION = 2;
+    static final int EVENT_AUTO_SUGGESTION_CANCELED = 3;
+    static final int EVENT_DELETE = 4;
+    static final int EVENT_INPUT_CHAR = 5;
+    // word: the metadata, word2: the class name of the exception
+    static final int EVENT_EXCEPTION = 6;
+    // word: the warning
+    static final int EVENT_WARNING = 7;
+    // word: the previous word, a: its length
+    static final int EVENT_START_SUGGESTION = 8;
+    // dictionary type: the Suggest.DIC_* id, word: the word, a: DataType ordinal, b: its length
+    static final int EVENT_ADD_SUGGESTED_WORD = 9;
+    // a: width, b: height of the keyboard
+    static final int EVENT_SET_KEYBOARD = 10;
+    static final String[] EVENT_NAMES = {
+        null, "manualSuggestion", "autoSuggestion", "autoSuggestionCanceled", "delete",
+        "inputChar", "exception", "warning", "startSuggestion", "addSuggestedWord", "setKeyboard"
+    };
+
+    static final int FIELD_DIC_TYPE = 0x01;
+    static final int FIELD_A = 0x02;
+    static final int FIELD_B = 0x04;
+    static final int FIELD_WORD = 0x08;
+    static final int FIELD_WORD2 = 0x10;
+
+    // A power of two
+    private static final int RING_SIZE = 4096;
+    // The drain thread is woken up when the ring buffer is half full, and at least this often
+    private static final long DRAIN_INTERVAL_NANOS = 30L * 1000 * 1000 * 1000;
+
+    private static volatile boolean sEnabled;
+    private static Thread sWriterThread;
+    private static File sLogDir;
+    private static LatinImeLogger sListener;
+    private static volatile Drainer sDrainer;
+    // A drain thread that is finishing may still be writing when the next one starts
+    private static final Object sFileLock = new Object();
+
+    private static final byte[] sRingTypes = new byte[RING_SIZE];
+    private static final int[] sRingDicTypes = new int[RING_SIZE];
+    private static final long[] sRingTimes = new long[RING_SIZE];
+    private static final int[] sRingA = new int[RING_SIZE];
+    private static final int[] sRingB = new int[RING_SIZE];
+    private static final int[] sRingWords = new int[RING_SIZE];
+    private static final int[] sRingWords2 = new int[RING_SIZE];
+    // Events published by the writer. Only the writer increments it, after filling the record.
+    private static volatile long sWriteCount;
+    // The write count when the drain thread was last woken up, only used by the writer
+    private static long sWakeUpCount;
 
     public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+        if (PREF_ENABLE_LOG.equals(key)) {
+            setEnabled(sharedPreferences.getBoolean(PREF_ENABLE_LOG, false));
+        }
     }
 
     public static void init(Context context) {
+        sWriterThread = Thread.currentThread();
+        sLogDir = context.getFilesDir();
+        final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        if (sListener == null) {
+            // The preferences only keep a weak reference to the listener
+            sListener = new LatinImeLogger();
+            prefs.registerOnSharedPreferenceChangeListener(sListener);
+        }
+        setEnabled(prefs.getBoolean(PREF_ENABLE_LOG, false));
     }
 
+    private static synchronized void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+        if (enabled && sDrainer == null) {
+            sDrainer = new Drainer(new File(sLogDir, LOG_FILE_NAME),
+                    new File(sLogDir, OLD_LOG_FILE_NAME), sWriteCount);
+            sDrainer.start();
+        } else if (!enabled && sDrainer != null) {
+            // It drains the events logged so far before it stops
+            sDrainer.finish();
+            sDrainer = null;
+        }
+    }
+
+    /**
+     * Wakes up the drain thread, to write the events logged so far.
+     */
     public static void commit() {
+        final Drainer drainer = sDrainer;
+        if (drainer != null) LockSupport.unpark(drainer);
     }
 
     public static void onDestroy() {
+        setEnabled(false);
     }
 
     public static void logOnManualSuggestion(
             String before, String after, int position, List<CharSequence> suggestions) {
-   }
+        if (!sEnabled) return;
+        log(EVENT_MANUAL_SUGGESTION, 0, position, suggestions != null ? suggestions.size() : 0,
+                hashWord(before), hashWord(after));
+    }
 
     public static void logOnAutoSuggestion(String before, String after) {
+        if (!sEnabled) return;
+        log(EVENT_AUTO_SUGGESTION, 0, 0, 0, hashWord(before), hashWord(after));
     }
 
     public static void logOnAutoSuggestionCanceled() {
+        if (!sEnabled) return;
+        log(EVENT_AUTO_SUGGESTION_CANCELED, 0, 0, 0, 0, 0);
     }
 
     public static void logOnDelete() {
+        if (!sEnabled) return;
+        log(EVENT_DELETE, 0, 0, 0, 0, 0);
     }
 
     public static void logOnInputChar() {
+        if (!sEnabled) return;
+        log(EVENT_INPUT_CHAR, 0, 0, 0, 0, 0);
     }
 
     public static void logOnException(String metaData, Throwable e) {
+        if (!sEnabled) return;
+        log(EVENT_EXCEPTION, 0, 0, 0, hashWord(metaData),
+                e != null ? hashWord(e.getClass().getName()) : 0);
     }
 
     public static void logOnWarning(String warning) {
+        if (!sEnabled) return;
+        log(EVENT_WARNING, 0, 0, 0, hashWord(warning), 0);
     }
 
     public static void onStartSuggestion(CharSequence previousWords) {
+        if (!sEnabled) return;
+        log(EVENT_START_SUGGESTION, 0, previousWords != null ? previousWords.length() : 0, 0,
+                hashWord(previousWords), 0);
     }
 
-    public static void onAddSuggestedWord(String word, int typeId, DataType dataType) {
+    public static void onAddSuggestedWord(CharSequence word, int typeId, DataType dataType) {
+        if (!sEnabled) return;
+        log(EVENT_ADD_SUGGESTED_WORD, typeId, dataType != null ? dataType.ordinal() : 0,
+                word != null ? word.length() : 0, hashWord(word), 0);
     }
 
     public static void onSetKeyboard(Keyboard kb) {
+        if (!sEnabled) return;
+        log(EVENT_SET_KEYBOARD, 0, kb != null ? kb.getMinWidth() : 0,
+                kb != null ? kb.getHeight() : 0, 0, 0);
     }
 
+    /**
+     * Returns the String.hashCode of the characters, without making a String of them.
+     */
+    static int hashWord(CharSequence word) {
+        if (word == null) return 0;
+        int hash = 0;
+        final int length = word.length();
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + word.charAt(i);
+        }
+        return hash;
+    }
+
+    private static void log(int type, int dicType, int a, int b, int word, int word2) {
+        if (Thread.currentThread() != sWriterThread) return;
+        final long count = sWriteCount;
+        final int index = (int) count & (RING_SIZE - 1);
+        sRingTypes[index] = (byte) type;
+        sRingDicTypes[index] = dicType;
+        sRingTimes[index] = System.currentTimeMillis();
+        sRingA[index] = a;
+        sRingB[index] = b;
+        sRingWords[index] = word;
+        sRingWords2[index] = word2;
+        // Publishes the record to the drain thread
+        sWriteCount = count + 1;
+        if (count + 1 - sWakeUpCount >= RING_SIZE / 2) {
+            sWakeUpCount = count + 1;
+            commit();
+        }
+    }
+
+    /**
+     * Copies the published records out of the ring buffer, and appends them to the log file.
+     */
+    private static class Drainer extends Thread {
+        private final File mLogFile;
+        private final File mOldLogFile;
+        private long mReadCount;
+        private volatile boolean mFinishing;
+
+        // The records being written, copied out of the ring buffer
+        private final byte[] mTypes = new byte[RING_SIZE];
+        private final int[] mDicTypes = new int[RING_SIZE];
+        private final long[] mTimes = new long[RING_SIZE];
+        private final int[] mA = new int[RING_SIZE];
+        private final int[] mB = new int[RING_SIZE];
+        private final int[] mWords = new int[RING_SIZE];
+        private final int[] mWords2 = new int[RING_SIZE];
+
+        Drainer(File logFile, File oldLogFile, long readCount) {
+            super(TAG);
+            setPriority(Thread.MIN_PRIORITY);
+            mLogFile = logFile;
+            mOldLogFile = oldLogFile;
+            mReadCount = readCount;
+        }
+
+        void finish() {
+            mFinishing = true;
+            LockSupport.unpark(this);
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                final boolean finishing = mFinishing;
+                try {
+                    drain();
+                } catch (IOException e) {
+                    Log.e(TAG, "Could not write the event log", e);
+                }
+                if (finishing) return;
+                LockSupport.parkNanos(DRAIN_INTERVAL_NANOS);
+            }
+        }
+
+        private void drain() throws IOException {
+            final long end = sWriteCount;
+            long start = mReadCount;
+            if (end == start) return;
+            long lost = 0;
+            if (end - start > RING_SIZE) {
+                lost = end - start - RING_SIZE;
+                start = end - RING_SIZE;
+            }
+            final int count = (int) (end - start);
+            for (int i = 0; i < count; i++) {
+                final int index = (int) (start + i) & (RING_SIZE - 1);
+                mTypes[i] = sRingTypes[index];
+                mDicTypes[i] = sRingDicTypes[index];
+                mTimes[i] = sRingTimes[index];
+                mA[i] = sRingA[index];
+                mB[i] = sRingB[index];
+                mWords[i] = sRingWords[index];
+                mWords2[i] = sRingWords2[index];
+            }
+            mReadCount = end;
+            // The records the writer may have reused while they were copied are dropped, including
+            // the one it may be filling
+            final int overwritten = (int) Math.max(0, sWriteCount - RING_SIZE + 1 - start);
+            if (overwritten >= count) {
+                writeBlock(0, 0, lost + count);
+            } else {
+                writeBlock(overwritten, count, lost + overwritten);
+            }
+        }
+
+        private void writeBlock(int from, int to, long lost) throws IOException {
+            synchronized (sFileLock) {
+                writeBlockLocked(from, to, lost);
+            }
+        }
+
+        private void writeBlockLocked(int from, int to, long lost) throws IOException {
+            if (mLogFile.length() > MAX_LOG_SIZE) {
+                mOldLogFile.delete();
+                mLogFile.renameTo(mOldLogFile);
+            }
+            final boolean newFile = mLogFile.length() == 0;
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(mLogFile, true)));
+            try {
+                if (newFile) {
+                    out.writeInt(MAGIC);
+                    out.writeByte(VERSION);
+                }
+                out.writeInt(to - from);
+                long time = from < to ? mTimes[from] : System.currentTimeMillis();
+                out.writeLong(time);
+                writeVarint(out, lost);
+                for (int i = from; i < to; i++) {
+                    final int flags = (mDicTypes[i] != 0 ? FIELD_DIC_TYPE : 0)
+                            | (mA[i] != 0 ? FIELD_A : 0) | (mB[i] != 0 ? FIELD_B : 0)
+                            | (mWords[i] != 0 ? FIELD_WORD : 0)
+                            | (mWords2[i] != 0 ? FIELD_WORD2 : 0);
+                    out.writeByte(mTypes[i]);
+                    out.writeByte(flags);
+                    writeVarint(out, mTimes[i] - time);
+                    time = mTimes[i];
+                    if ((flags & FIELD_DIC_TYPE) != 0) writeVarint(out, mDicTypes[i]);
+                    if ((flags & FIELD_A) != 0) writeVarint(out, mA[i]);
+                    if ((flags & FIELD_B) != 0) writeVarint(out, mB[i]);
+                    if ((flags & FIELD_WORD) != 0) out.writeInt(mWords[i]);
+                    if ((flags & FIELD_WORD2) != 0) out.writeInt(mWords2[i]);
+                }
+            } finally {
+                out.close();
+            }
+        }
+
+        private static void writeVarint(DataOutputStream out, long value) throws IOException {
+            long zigzag = (value << 1) ^ (value >> 63);
+            while ((zigzag & ~0x7fL) != 0) {
+                out.writeByte((int) (zigzag & 0x7f) | 0x80);
+                zigzag >>>= 7;
+            }
+            out.writeByte((int) zigzag);
+        }
+    }
 }
@@ -36,6 +36,8 @@ import android.util.Log;
 import android.view.ViewConfiguration;
 import android.view.inputmethod.EditorInfo;
 
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 
@@ -68,6 +70,8 @@ public class LatinKeyboard extends Keyboard {
     private Key[] mNumberHintKeys;
     private Drawable[] mNumberHintIcons = new Drawable[NUMBER_HINT_COUNT];
     private int mSpaceKeyIndex = -1;
+    // The nearest keys while the touch is locked into the spacebar
+    private int[] mSpaceKeyOnly;
     private int mSpaceDragStartX;
     private int mSpaceDragLastDiff;
     private Locale mLocale;
@@ -84,10 +88,12 @@ public class LatinKeyboard extends Keyboard {
     private boolean mCurrentlyInSpace;
     private SlidingLocaleDrawable mSlidingLocaleIcon;
     private int[] mPrefLetterFrequencies;
+    // The preferred letter of the touch at mPrefLetterX, mPrefLetterY, or 0 if there is none,
+    // valid if mPrefLetterResolved
+    private boolean mPrefLetterResolved;
     private int mPrefLetter;
     private int mPrefLetterX;
     private int mPrefLetterY;
-    private int mPrefDistance;
 
     // TODO: generalize for any keyboardId
     private boolean mIsBlackSym;
@@ -115,6 +121,113 @@ public class LatinKeyboard extends Keyboard {
 
     private static int sSpacebarVerticalCorrection;
 
+    private static final SpaceBarCache sSpaceBarCache = new SpaceBarCache();
+
+    /**
+     * The space bars drawn, shared by the keyboards, so that switching keyboards, languages or
+     * the auto-completion indicator draws each space bar only once. They are looked up by what
+     * drawSpaceBar depends on: the language shown, whether arrows are drawn around it, the
+     * opacity, the indicator, the color of the symbols, the size of the space bar and the text
+     * size of the theme. Keyboards are also made in the background, so the cache is
+     * synchronized. It is registered with the {@link CacheRegistry} by the
+     * {@link KeyboardSwitcher}, which also sheds it as the configuration or the theme changes.
+     */
+    private static class SpaceBarCache implements CacheRegistry.Cache {
+        // A few locales, in and out of auto-completion, on the few space bar sizes
+        private static final int MAX_SPACE_BARS = 8;
+        // Of an ARGB_8888 pixel
+        private static final int BYTES_PER_PIXEL = 4;
+
+        private static final class SpaceBarId {
+            Locale mLocale;
+            boolean mHasArrows;
+            int mOpacity;
+            boolean mIsAutoCompletion;
+            boolean mIsBlack;
+            int mWidth;
+            int mHeight;
+            int mTextSize;
+
+            void set(Locale locale, boolean hasArrows, int opacity, boolean isAutoCompletion,
+                    boolean isBlack, int width, int height, int textSize) {
+                mLocale = locale;
+                mHasArrows = hasArrows;
+                mOpacity = opacity;
+                mIsAutoCompletion = isAutoCompletion;
+                mIsBlack = isBlack;
+                mWidth = width;
+                mHeight = height;
+                mTextSize = textSize;
+            }
+
+            @Override
+            public int hashCode() {
+                return (mLocale == null ? 0 : mLocale.hashCode()) * 31 + mWidth;
+            }
+
+            @Override
+            public boolean equals(Object o) {
+                if (!(o instanceof SpaceBarId)) return false;
+                final SpaceBarId other = (SpaceBarId) o;
+                return (mLocale == null ? other.mLocale == null : mLocale.equals(other.mLocale))
+                        && mHasArrows == other.mHasArrows && mOpacity == other.mOpacity
+                        && mIsAutoCompletion == other.mIsAutoCompletion
+                        && mIsBlack == other.mIsBlack && mWidth == other.mWidth
+                        && mHeight == other.mHeight && mTextSize == other.mTextSize;
+            }
+        }
+
+        // The space bars, least recently used first
+        private final LinkedHashMap<SpaceBarId, Drawable> mSpaceBars =
+                new LinkedHashMap<SpaceBarId, Drawable>(16, 0.75f, true);
+        private final SpaceBarId mProbe = new SpaceBarId();
+        // Read by the dump without the lock
+        private volatile long mSizeEstimate;
+
+        synchronized Drawable get(Locale locale, boolean hasArrows, int opacity,
+                boolean isAutoCompletion, boolean isBlack, int width, int height, int textSize) {
+            mProbe.set(locale, hasArrows, opacity, isAutoCompletion, isBlack, width, height,
+                    textSize);
+            return mSpaceBars.get(mProbe);
+        }
+
+        synchronized void put(Locale locale, boolean hasArrows, int opacity,
+                boolean isAutoCompletion, boolean isBlack, int width, int height, int textSize,
+                Drawable spaceBar) {
+            final SpaceBarId id = new SpaceBarId();
+            id.set(locale, hasArrows, opacity, isAutoCompletion, isBlack, width, height,
+                    textSize);
+            long size = mSizeEstimate;
+            if (mSpaceBars.put(id, spaceBar) == null) size += getSize(id);
+            final Iterator<SpaceBarId> it = mSpaceBars.keySet().iterator();
+            while (mSpaceBars.size() > MAX_SPACE_BARS && it.hasNext()) {
+                size -= getSize(it.next());
+                it.remove();
+            }
+            mSizeEstimate = size;
+        }
+
+        private static long getSize(SpaceBarId id) {
+            return (long) id.mWidth * id.mHeight * BYTES_PER_PIXEL;
+        }
+
+        public long getSizeEstimate() {
+            return mSizeEstimate;
+        }
+
+        public synchronized void shed() {
+            mSpaceBars.clear();
+            mSizeEstimate = 0;
+        }
+    }
+
+    /**
+     * Returns the space bars drawn by all the keyboards, which outlive them.
+     */
+    static CacheRegistry.Cache getSpaceBarCache() {
+        return sSpaceBarCache;
+    }
+
     public LatinKeyboard(Context context, int xmlLayoutResId) {
         this(context, xmlLayoutResId, 0);
     }
@@ -145,6 +258,7 @@ public class LatinKeyboard extends Keyboard {
         mIsAlphaKeyboard = xmlLayoutResId == R.xml.kbd_qwerty
                 || xmlLayoutResId == R.xml.kbd_qwerty_black;
         mSpaceKeyIndex = indexOf(LatinIME.KEYCODE_SPACE);
+        mSpaceKeyOnly = new int[] { mSpaceKeyIndex };
         initializeNumberHintResources(context);
         // TODO remove this initialization after cleanup
         mVerticalGap = super.getVerticalGap();
@@ -327,18 +441,21 @@ public class LatinKeyboard extends Keyboard {
     }
 
     public void setColorOfSymbolIcons(boolean isAutoCompletion, boolean isBlack) {
-        mIsBlackSym = isBlack;
-        if (isBlack) {
-            mShiftLockIcon = mRes.getDrawable(R.drawable.sym_bkeyboard_shift_locked);
-            mSpaceIcon = mRes.getDrawable(R.drawable.sym_bkeyboard_space);
-            mMicIcon = mRes.getDrawable(R.drawable.sym_bkeyboard_mic);
-            m123MicIcon = mRes.getDrawable(R.drawable.sym_bkeyboard_123_mic);
-        } else {
-            mShiftLockIcon = mRes.getDrawable(R.drawable.sym_keyboard_shift_locked);
-            mSpaceIcon = mRes.getDrawable(R.drawable.sym_keyboard_space);
-            mMicIcon = mRes.getDrawable(R.drawable.sym_keyboard_mic);
-            m123MicIcon = mRes.getDrawable(R.drawable.sym_keyboard_123_mic);
+        // The icons are loaded white, and only need to be loaded again as the color changes
+        if (isBlack != mIsBlackSym) {
+            if (isBlack) {
+                mShiftLockIcon = mRes.getDrawable(R.drawable.sym_bkeyboard_shift_locked);
+                mSpaceIcon = mRes.getDrawable(R.drawable.sym_bkeyboard_space);
+                mMicIcon = mRes.getDrawable(R.drawable.sym_bkeyboard_mic);
+                m123MicIcon = mRes.getDrawable(R.drawable.sym_bkeyboard_123_mic);
+            } else {
+                mShiftLockIcon = mRes.getDrawable(R.drawable.sym_keyboard_shift_locked);
+                mSpaceIcon = mRes.getDrawable(R.drawable.sym_keyboard_space);
+                mMicIcon = mRes.getDrawable(R.drawable.sym_keyboard_mic);
+                m123MicIcon = mRes.getDrawable(R.drawable.sym_keyboard_123_mic);
+            }
         }
+        mIsBlackSym = isBlack;
         updateDynamicKeys();
         if (mSpaceKey != null) {
             updateSpaceBarForLocale(isAutoCompletion, isBlack);
@@ -453,20 +570,38 @@ public class LatinKeyboard extends Keyboard {
     private void updateSpaceBarForLocale(boolean isAutoCompletion, boolean isBlack) {
         // If application locales are explicitly selected.
         if (mLocale != null) {
-            mSpaceKey.icon = new BitmapDrawable(mRes,
-                    drawSpaceBar(OPACITY_FULLY_OPAQUE, isAutoCompletion, isBlack));
+            mSpaceKey.icon = getSpaceBar(OPACITY_FULLY_OPAQUE, isAutoCompletion, isBlack);
         } else {
             // sym_keyboard_space_led can be shared with Black and White symbol themes.
             if (isAutoCompletion) {
-                mSpaceKey.icon = new BitmapDrawable(mRes,
-                        drawSpaceBar(OPACITY_FULLY_OPAQUE, isAutoCompletion, isBlack));
+                mSpaceKey.icon = getSpaceBar(OPACITY_FULLY_OPAQUE, isAutoCompletion, isBlack);
             } else {
-                mSpaceKey.icon = isBlack ? mRes.getDrawable(R.drawable.sym_bkeyboard_space)
-                        : mRes.getDrawable(R.drawable.sym_keyboard_space);
+                // As loaded for the color by setColorOfSymbolIcons
+                mSpaceKey.icon = mSpaceIcon;
             }
         }
     }
 
+    /**
+     * Returns the space bar drawn by drawSpaceBar, from the space bars drawn before if it was.
+     */
+    private Drawable getSpaceBar(int opacity, boolean isAutoCompletion, boolean isBlack) {
+        final Locale locale = mLocale != null ? mLanguageSwitcher.getInputLocale() : null;
+        final boolean hasArrows = mLocale != null && mLanguageSwitcher.getLocaleCount() > 1;
+        final int width = mSpaceKey.width;
+        final int height = mSpaceIcon.getIntrinsicHeight();
+        final int textSize = getTextSizeFromTheme(android.R.style.TextAppearance_Small, 14);
+        Drawable spaceBar = sSpaceBarCache.get(locale, hasArrows, opacity, isAutoCompletion,
+                isBlack, width, height, textSize);
+        if (spaceBar == null) {
+            spaceBar = new BitmapDrawable(mRes,
+                    drawSpaceBar(opacity, isAutoCompletion, isBlack, textSize));
+            sSpaceBarCache.put(locale, hasArrows, opacity, isAutoCompletion, isBlack, width,
+                    height, textSize, spaceBar);
+        }
+        return spaceBar;
+    }
+
     // Compute width of text with specified text size using paint.
     private static int getTextWidth(Paint paint, String text, float textSize, Rect bounds) {
         paint.setTextSize(textSize);
@@ -545,7 +680,8 @@ public class LatinKeyboard extends Keyboard {
         return language;
     }
 
-    private Bitmap drawSpaceBar(int opacity, boolean isAutoCompletion, boolean isBlack) {
+    private Bitmap drawSpaceBar(int opacity, boolean isAutoCompletion, boolean isBlack,
+            int textSize) {
         final int width = mSpaceKey.width;
         final int height = mSpaceIcon.getIntrinsicHeight();
         final Bitmap buffer = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
@@ -561,8 +697,7 @@ public class LatinKeyboard extends Keyboard {
 
             final boolean allowVariableTextSize = true;
             final String language = layoutSpaceBar(paint, mLanguageSwitcher.getInputLocale(),
-                    mButtonArrowLeftIcon, mButtonArrowRightIcon, width, height,
-                    getTextSizeFromTheme(android.R.style.TextAppearance_Small, 14),
+                    mButtonArrowLeftIcon, mButtonArrowRightIcon, width, height, textSize,
                     allowVariableTextSize);
 
             // Draw language text with shadow
@@ -651,16 +786,13 @@ public class LatinKeyboard extends Keyboard {
 
     void setPreferredLetters(int[] frequencies) {
         mPrefLetterFrequencies = frequencies;
-        mPrefLetter = 0;
+        mPrefLetterResolved = false;
     }
 
     void keyReleased() {
         mCurrentlyInSpace = false;
         mSpaceDragLastDiff = 0;
-        mPrefLetter = 0;
-        mPrefLetterX = 0;
-        mPrefLetterY = 0;
-        mPrefDistance = Integer.MAX_VALUE;
+        mPrefLetterResolved = false;
         if (mSpaceKey != null) {
             updateLocaleDrag(Integer.MAX_VALUE);
         }
@@ -698,13 +830,7 @@ public class LatinKeyboard extends Keyboard {
                 }
             }
         } else if (mPrefLetterFrequencies != null) {
-            // New coordinate? Reset
-            if (mPrefLetterX != x || mPrefLetterY != y) {
-                mPrefLetter = 0;
-                mPrefDistance = Integer.MAX_VALUE;
-            }
-            // Handle preferred next letter
-            final int[] pref = mPrefLetterFrequencies;
+            resolvePreferredLetter(x, y);
             if (mPrefLetter > 0) {
                 if (DEBUG_PREFERRED_LETTER) {
                     if (mPrefLetter == code && !key.isInsideSuper(x, y)) {
@@ -712,71 +838,80 @@ public class LatinKeyboard extends Keyboard {
                     }
                 }
                 return mPrefLetter == code;
-            } else {
-                final boolean inside = key.isInsideSuper(x, y);
-                int[] nearby = getNearestKeys(x, y);
-                List<Key> nearbyKeys = getKeys();
-                if (inside) {
-                    // If it's a preferred letter
-                    if (inPrefList(code, pref)) {
-                        // Check if its frequency is much lower than a nearby key
-                        mPrefLetter = code;
-                        mPrefLetterX = x;
-                        mPrefLetterY = y;
-                        for (int i = 0; i < nearby.length; i++) {
-                            Key k = nearbyKeys.get(nearby[i]);
-                            if (k != key && inPrefList(k.codes[0], pref)) {
-                                final int dist = distanceFrom(k, x, y);
-                                if (dist < (int) (k.width * OVERLAP_PERCENTAGE_LOW_PROB) &&
-                                        (pref[k.codes[0]] > pref[mPrefLetter] * 3))  {
-                                    mPrefLetter = k.codes[0];
-                                    mPrefDistance = dist;
-                                    if (DEBUG_PREFERRED_LETTER) {
-                                        Log.d(TAG, "CORRECTED ALTHOUGH PREFERRED !!!!!!");
-                                    }
-                                    break;
-                                }
-                            }
-                        }
+            }
+            return key.isInsideSuper(x, y);
+        }
 
-                        return mPrefLetter == code;
-                    }
-                }
+        // Lock into the spacebar
+        if (mCurrentlyInSpace) return false;
 
-                // Get the surrounding keys and intersect with the preferred list
-                // For all in the intersection
-                //   if distance from touch point is within a reasonable distance
-                //       make this the pref letter
-                // If no pref letter
-                //   return inside;
-                // else return thiskey == prefletter;
-
-                for (int i = 0; i < nearby.length; i++) {
-                    Key k = nearbyKeys.get(nearby[i]);
-                    if (inPrefList(k.codes[0], pref)) {
-                        final int dist = distanceFrom(k, x, y);
-                        if (dist < (int) (k.width * OVERLAP_PERCENTAGE_HIGH_PROB)
-                                && dist < mPrefDistance)  {
-                            mPrefLetter = k.codes[0];
-                            mPrefLetterX = x;
-                            mPrefLetterY = y;
-                            mPrefDistance = dist;
+        return key.isInsideSuper(x, y);
+    }
+
+    /**
+     * Works out the preferred letter of a touch, once for each point rather than for each key
+     * asked about, so that isInside is the same whichever key is asked first.
+     *
+     * If the touch is inside a preferred letter, that letter stays preferred unless a nearby
+     * preferred letter is much more frequent and its key close enough. Otherwise the preferred
+     * letter is the nearest one within reach, if any.
+     */
+    private void resolvePreferredLetter(int x, int y) {
+        if (mPrefLetterResolved && mPrefLetterX == x && mPrefLetterY == y) return;
+        mPrefLetterResolved = true;
+        mPrefLetterX = x;
+        mPrefLetterY = y;
+        mPrefLetter = 0;
+        final int[] pref = mPrefLetterFrequencies;
+        final int[] nearby = getNearestKeys(x, y);
+        final List<Key> nearbyKeys = getKeys();
+
+        // Get the surrounding keys and intersect with the preferred list
+        LatinKey insideKey = null;
+        for (int i = 0; i < nearby.length; i++) {
+            final Key k = nearbyKeys.get(nearby[i]);
+            final int code = k.codes[0];
+            if (code != KEYCODE_SHIFT && code != KEYCODE_DELETE && code != LatinIME.KEYCODE_SPACE
+                    && inPrefList(code, pref) && ((LatinKey) k).isInsideSuper(x, y)) {
+                insideKey = (LatinKey) k;
+                break;
+            }
+        }
+        if (insideKey != null) {
+            // Check if its frequency is much lower than a nearby key
+            mPrefLetter = insideKey.codes[0];
+            for (int i = 0; i < nearby.length; i++) {
+                final Key k = nearbyKeys.get(nearby[i]);
+                if (k != insideKey && inPrefList(k.codes[0], pref)) {
+                    final int dist = distanceFrom(k, x, y);
+                    if (dist < (int) (k.width * OVERLAP_PERCENTAGE_LOW_PROB) &&
+                            (pref[k.codes[0]] > pref[mPrefLetter] * 3))  {
+                        mPrefLetter = k.codes[0];
+                        if (DEBUG_PREFERRED_LETTER) {
+                            Log.d(TAG, "CORRECTED ALTHOUGH PREFERRED !!!!!!");
                         }
+                        break;
                     }
                 }
-                // Didn't find any
-                if (mPrefLetter == 0) {
-                    return inside;
-                } else {
-                    return mPrefLetter == code;
-                }
             }
+            return;
         }
 
-        // Lock into the spacebar
-        if (mCurrentlyInSpace) return false;
-
-        return key.isInsideSuper(x, y);
+        // For all in the intersection
+        //   if distance from touch point is within a reasonable distance
+        //       make this the pref letter
+        int prefDistance = Integer.MAX_VALUE;
+        for (int i = 0; i < nearby.length; i++) {
+            final Key k = nearbyKeys.get(nearby[i]);
+            if (inPrefList(k.codes[0], pref)) {
+                final int dist = distanceFrom(k, x, y);
+                if (dist < (int) (k.width * OVERLAP_PERCENTAGE_HIGH_PROB)
+                        && dist < prefDistance)  {
+                    mPrefLetter = k.codes[0];
+                    prefDistance = dist;
+                }
+            }
+        }
     }
 
     private boolean inPrefList(int code, int[] pref) {
@@ -795,7 +930,7 @@ public class LatinKeyboard extends Keyboard {
     @Override
     public int[] getNearestKeys(int x, int y) {
         if (mCurrentlyInSpace) {
-            return new int[] { mSpaceKeyIndex };
+            return mSpaceKeyOnly;
         } else {
             // Avoid dead pixels at edges of the keyboard
             return super.getNearestKeys(Math.max(0, Math.min(x, getMinWidth() - 1)),
@@ -917,9 +1052,12 @@ public class LatinKeyboard extends Keyboard {
         private final int mThreshold;
         private int mDiff;
         private boolean mHitThreshold;
-        private String mCurrentLanguage;
-        private String mNextLanguage;
-        private String mPrevLanguage;
+        // The names of the next, current and previous languages side by side, each centered in
+        // mWidth, drawn once for the locales they are of rather than on each frame of the drag
+        private Bitmap mNames;
+        private Locale mNamesCurrentLocale;
+        private Locale mNamesNextLocale;
+        private Locale mNamesPrevLocale;
 
         public SlidingLocaleDrawable(Drawable background, int width, int height) {
             mBackground = background;
@@ -928,7 +1066,7 @@ public class LatinKeyboard extends Keyboard {
             mHeight = height;
             mTextPaint = new TextPaint();
             mTextPaint.setTextSize(getTextSizeFromTheme(android.R.style.TextAppearance_Medium, 18));
-            mTextPaint.setColor(R.color.latinkeyboard_transparent);
+            mTextPaint.setColor(mRes.getColor(R.color.latinkeyboard_feedback_language_text));
             mTextPaint.setTextAlign(Align.CENTER);
             mTextPaint.setAlpha(OPACITY_FULLY_OPAQUE);
             mTextPaint.setAntiAlias(true);
@@ -943,7 +1081,6 @@ public class LatinKeyboard extends Keyboard {
         private void setDiff(int diff) {
             if (diff == Integer.MAX_VALUE) {
                 mHitThreshold = false;
-                mCurrentLanguage = null;
                 return;
             }
             mDiff = diff;
@@ -968,18 +1105,10 @@ public class LatinKeyboard extends Keyboard {
                 final Drawable lArrow = mLeftDrawable;
                 final Drawable rArrow = mRightDrawable;
                 canvas.clipRect(0, 0, width, height);
-                if (mCurrentLanguage == null) {
-                    final LanguageSwitcher languageSwitcher = mLanguageSwitcher;
-                    mCurrentLanguage = getLanguageName(languageSwitcher.getInputLocale());
-                    mNextLanguage = getLanguageName(languageSwitcher.getNextInputLocale());
-                    mPrevLanguage = getLanguageName(languageSwitcher.getPrevInputLocale());
+                final Bitmap names = getNames();
+                if (names != null) {
+                    canvas.drawBitmap(names, diff - width, 0, paint);
                 }
-                // Draw language text with shadow
-                final float baseline = mHeight * SPACEBAR_LANGUAGE_BASELINE - paint.descent();
-                paint.setColor(mRes.getColor(R.color.latinkeyboard_feedback_language_text));
-                canvas.drawText(mCurrentLanguage, width / 2 + diff, baseline, paint);
-                canvas.drawText(mNextLanguage, diff - width / 2, baseline, paint);
-                canvas.drawText(mPrevLanguage, diff + width + width / 2, baseline, paint);
 
                 setDefaultBounds(lArrow);
                 rArrow.setBounds(width - rArrow.getIntrinsicWidth(), 0, width,
@@ -994,6 +1123,38 @@ public class LatinKeyboard extends Keyboard {
             canvas.restore();
         }
 
+        /**
+         * Returns the names of the languages around the current one, drawing them if the
+         * languages changed since they last were, or null if they cannot be.
+         */
+        private Bitmap getNames() {
+            final LanguageSwitcher languageSwitcher = mLanguageSwitcher;
+            final Locale current = languageSwitcher.getInputLocale();
+            final Locale next = languageSwitcher.getNextInputLocale();
+            final Locale prev = languageSwitcher.getPrevInputLocale();
+            if (mNames != null && current == mNamesCurrentLocale && next == mNamesNextLocale
+                    && prev == mNamesPrevLocale) {
+                return mNames;
+            }
+            final int width = mWidth;
+            if (mNames == null) {
+                if (width <= 0 || mHeight <= 0) return null;
+                // Only the coverage of the text, drawn in the color of the paint
+                mNames = Bitmap.createBitmap(width * 3, mHeight, Bitmap.Config.ALPHA_8);
+            }
+            final Canvas canvas = new Canvas(mNames);
+            canvas.drawColor(0, PorterDuff.Mode.CLEAR);
+            final Paint paint = mTextPaint;
+            final float baseline = mHeight * SPACEBAR_LANGUAGE_BASELINE - paint.descent();
+            canvas.drawText(getLanguageName(next), width / 2, baseline, paint);
+            canvas.drawText(getLanguageName(current), width + width / 2, baseline, paint);
+            canvas.drawText(getLanguageName(prev), width * 2 + width / 2, baseline, paint);
+            mNamesCurrentLocale = current;
+            mNamesNextLocale = next;
+            mNamesPrevLocale = prev;
+            return mNames;
+        }
+
         @Override
         public int getOpacity() {
             return PixelFormat.TRANSLUCENT;
@@ -47,6 +47,7 @@ import android.widget.PopupWindow;
 import android.widget.TextView;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -127,6 +128,16 @@ public class LatinKeyboardBaseView extends View implements PointerTracker.UIProx
          */
         void onText(CharSequence text);
 
+        /**
+         * Called when the user lifted the finger at the end of a glide over the letters of a
+         * word, if glide typing is enabled.
+         *
+         * @param words
+         *            the words the glide may be, best first, or an empty list if it matched
+         *            none. The list is only valid during the call.
+         */
+        void onGlide(List<CharSequence> words);
+
         /**
          * Called when user released a finger outside any key.
          */
@@ -216,6 +227,7 @@ public class LatinKeyboardBaseView extends View implements PointerTracker.UIProx
     private OnKeyboardActionListener mKeyboardActionListener;
 
     private final ArrayList<PointerTracker> mPointerTrackers = new ArrayList<PointerTracker>();
+    private GestureDecoder mGestureDecoder;
 
     // TODO: Let the PointerTracker class manage this pointer queue
     private final PointerQueue mPointerQueue = new PointerQueue();
@@ -223,6 +235,11 @@ public class LatinKeyboardBaseView extends View implements PointerTracker.UIProx
     private final boolean mHasDistinctMultitouch;
     private int mOldPointerCount = 1;
 
+    // working area of onMoveEvent, the samples of a pointer in a move event
+    private int[] mMoveXs = new int[0];
+    private int[] mMoveYs = new int[0];
+    private long[] mMoveTimes = new long[0];
+
     protected KeyDetector mKeyDetector = new ProximityKeyDetector();
 
     // Swipe gesture detector
@@ -234,23 +251,55 @@ public class LatinKeyboardBaseView extends View implements PointerTracker.UIProx
     // Drawing
     /** Whether the keyboard bitmap needs to be redrawn before it's blitted. **/
     private boolean mDrawPending;
-    /** The dirty region in the keyboard bitmap */
-    private final Rect mDirtyRect = new Rect();
+    /** Whether all the keys are to be redrawn, rather than those of mDirtyKeys */
+    private boolean mAllKeysDirty;
+    /** The indices in mKeys of the keys to redraw, gathered until the next draw */
+    private final BitSet mDirtyKeys = new BitSet();
+    /** Counts of the draws of the bitmap and of the keys drawn in them, for the dump */
+    private int mBufferDrawCount;
+    private long mKeysDrawnCount;
+    private int mLastKeysDrawn;
     /** The keyboard bitmap for faster updates */
     private Bitmap mBuffer;
     /** Notes if the keyboard just changed, so that we could possibly reallocate the mBuffer. */
     private boolean mKeyboardChanged;
-    private Key mInvalidatedKey;
     /** The canvas for the above mutable keyboard bitmap */
     private Canvas mCanvas;
+    /** The faces of the keys drawn, blitted into the buffer when a key is drawn again */
+    private final KeyFaceCache mKeyFaceCache = new KeyFaceCache();
+    /** The canvas to draw a face of the above cache in */
+    private final Canvas mFaceCanvas = new Canvas();
+    /** Pixels around a key in its face, for the shadow of the label and the number hints */
+    private int mFaceMargin;
+    /**
+     * Drops the key faces when memory runs low, and the buffer and the popup keyboards as well
+     * unless shown
+     */
+    private final CacheRegistry.Cache mBufferCache = new CacheRegistry.Cache() {
+        public long getSizeEstimate() {
+            final Bitmap buffer = mBuffer;
+            return mKeyFaceCache.getSizeEstimate()
+                    + (buffer == null ? 0 : (long) buffer.getRowBytes() * buffer.getHeight());
+        }
+
+        public void shed() {
+            mKeyFaceCache.clear();
+            if (isShown()) return;
+            mBuffer = null;
+            mCanvas = null;
+            mMiniKeyboardCache.clear();
+        }
+    };
     private final Paint mPaint;
     private final Rect mPadding;
-    private final Rect mClipRegion = new Rect(0, 0, 0, 0);
     // This map caches key label text height in pixel as value and key label text size as map key.
     private final HashMap<Integer, Integer> mTextHeightCache = new HashMap<Integer, Integer>();
     // Distance from horizontal center of the key, proportional to key label text height.
     private final float KEY_LABEL_VERTICAL_ADJUSTMENT_FACTOR = 0.55f;
     private final String KEY_LABEL_HEIGHT_REFERENCE_CHAR = "H";
+    // The key faces kept, in bitmaps the size of the keyboard: the faces of the keyboards in and
+    // out of shift, and of one more keyboard, such as the symbols
+    private static final int KEY_FACE_CACHE_KEYBOARDS = 3;
 
     private final UIHandler mHandler = new UIHandler();
 
@@ -503,6 +552,7 @@ public class LatinKeyboardBaseView extends View implements PointerTracker.UIProx
 
         mPadding = new Rect(0, 0, 0, 0);
         mKeyBackground.getPadding(mPadding);
+        mFaceMargin = (int) Math.ceil(mShadowRadius) - NUMBER_HINT_VERTICAL_ADJUSTMENT_PIXEL;
 
         mSwipeThreshold = (int) (500 * res.getDisplayMetrics().density);
         // TODO: Refer frameworks/base/core/res/res/values/config.xml
@@ -514,6 +564,8 @@ public class LatinKeyboardBaseView extends View implements PointerTracker.UIProx
             @Override
             public boolean onFling(MotionEvent me1, MotionEvent me2, float velocityX,
                     float velocityY) {
+                // A long glide is quick enough to look like a swipe
+                if (isInGlide()) return false;
                 final float absX = Math.abs(velocityX);
                 final float absY = Math.abs(velocityY);
                 float deltaX = me2.getX() - me1.getX();
@@ -594,6 +646,7 @@ public class LatinKeyboardBaseView extends View implements PointerTracker.UIProx
         for (PointerTracker tracker : mPointerTrackers) {
             tracker.setKeyboard(mKeys, mKeyHysteresisDistance);
         }
+        if (mGestureDecoder != null) mGestureDecoder.setKeyboard(mKeys);
         requestLayout();
         // Hint to reallocate the buffer if the size changed
         mKeyboardChanged = true;
@@ -690,6 +743,25 @@ public class LatinKeyboardBaseView extends View implements PointerTracker.UIProx
         mKeyDetector.setProximityCorrectionEnabled(enabled);
     }
 
+    /**
+     * Enables glide typing, where the finger slides over the letters of a word, with the given
+     * decoder, or disables it if the decoder is null.
+     */
+    public void setGestureDecoder(GestureDecoder decoder) {
+        mGestureDecoder = decoder;
+        if (decoder != null) decoder.setKeyboard(mKeys);
+        for (PointerTracker tracker : mPointerTrackers) {
+            tracker.setGestureDecoder(decoder);
+        }
+    }
+
+    private boolean isInGlide() {
+        for (PointerTracker tracker : mPointerTrackers) {
+            if (tracker.isInGlide()) return true;
+        }
+        return false;
+    }
+
     /**
      * Returns true if proximity correction is enabled.
      */
@@ -697,6 +769,14 @@ public class LatinKeyboardBaseView extends View implements PointerTracker.UIProx
         return mKeyDetector.isProximityCorrectionEnabled();
     }
 
+    /**
+     * Computes how likely each of the codes sent for a touch of this view is to be the one meant.
+     * @see KeyDetector#getNearbyLikelihoods
+     */
+    public void getNearbyLikelihoods(int x, int y, int[] codes, int[] likelihoods) {
+        mKeyDetector.getNearbyLikelihoods(x, y, codes, likelihoods);
+    }
+
     protected CharSequence adjustCase(CharSequence label) {
         if (mKeyboard.isShifted() && label != null && label.length() < 3
                 && Character.isLowerCase(label.charAt(0))) {
@@ -766,119 +846,72 @@ public class LatinKeyboardBaseView extends View implements PointerTracker.UIProx
                 final int height = Math.max(1, getHeight());
                 mBuffer = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
                 mCanvas = new Canvas(mBuffer);
+                mKeyFaceCache.setMaxBytes(KEY_FACE_CACHE_KEYBOARDS
+                        * (long) mBuffer.getRowBytes() * mBuffer.getHeight());
+                CacheRegistry.getInstance().register("keyboard view buffer",
+                        CacheRegistry.TIER_UNUSED, mBufferCache);
             }
             invalidateAllKeys();
             mKeyboardChanged = false;
         }
-        final Canvas canvas = mCanvas;
-        canvas.clipRect(mDirtyRect, Op.REPLACE);
-
         if (mKeyboard == null) return;
 
+        final Canvas canvas = mCanvas;
         final Paint paint = mPaint;
-        final Drawable keyBackground = mKeyBackground;
-        final Rect clipRegion = mClipRegion;
-        final Rect padding = mPadding;
         final int kbdPaddingLeft = getPaddingLeft();
         final int kbdPaddingTop = getPaddingTop();
         final Key[] keys = mKeys;
-        final Key invalidKey = mInvalidatedKey;
+        final BitSet dirtyKeys = mDirtyKeys;
+        final boolean drawAllKeys = mAllKeysDirty;
 
-        paint.setColor(mKeyTextColor);
-        boolean drawSingleKey = false;
-        if (invalidKey != null && canvas.getClipBounds(clipRegion)) {
-            // TODO we should use Rect.inset and Rect.contains here.
-            // Is clipRegion completely contained within the invalidated key?
-            if (invalidKey.x + kbdPaddingLeft - 1 <= clipRegion.left &&
-                    invalidKey.y + kbdPaddingTop - 1 <= clipRegion.top &&
-                    invalidKey.x + invalidKey.width + kbdPaddingLeft + 1 >= clipRegion.right &&
-                    invalidKey.y + invalidKey.height + kbdPaddingTop + 1 >= clipRegion.bottom) {
-                drawSingleKey = true;
+        if (drawAllKeys) {
+            canvas.clipRect(0, 0, getWidth(), getHeight(), Op.REPLACE);
+        } else {
+            // Clear and draw only the keys invalidated since the last draw
+            canvas.clipRect(0, 0, 0, 0, Op.REPLACE);
+            for (int i = dirtyKeys.nextSetBit(0); i >= 0; i = dirtyKeys.nextSetBit(i + 1)) {
+                final Key key = keys[i];
+                canvas.clipRect(key.x + kbdPaddingLeft, key.y + kbdPaddingTop,
+                        key.x + key.width + kbdPaddingLeft, key.y + key.height + kbdPaddingTop,
+                        Op.UNION);
             }
         }
+        paint.setColor(mKeyTextColor);
         canvas.drawColor(0x00000000, PorterDuff.Mode.CLEAR);
+        final KeyFaceCache faceCache = mKeyFaceCache;
+        final boolean shifted = mKeyboard.isShifted();
+        final int margin = mFaceMargin;
         final int keyCount = keys.length;
+        int keysDrawn = 0;
         for (int i = 0; i < keyCount; i++) {
-            final Key key = keys[i];
-            if (drawSingleKey && invalidKey != key) {
+            if (!drawAllKeys && !dirtyKeys.get(i)) {
                 continue;
             }
-            int[] drawableState = key.getCurrentDrawableState();
-            keyBackground.setState(drawableState);
-
-            // Switch the character to uppercase if shift is pressed
-            String label = key.label == null? null : adjustCase(key.label).toString();
-
-            final Rect bounds = keyBackground.getBounds();
-            if (key.width != bounds.right || key.height != bounds.bottom) {
-                keyBackground.setBounds(0, 0, key.width, key.height);
-            }
-            canvas.translate(key.x + kbdPaddingLeft, key.y + kbdPaddingTop);
-            keyBackground.draw(canvas);
-
-            boolean shouldDrawIcon = true;
-            if (label != null) {
-                // For characters, use large font. For labels like "Done", use small font.
-                final int labelSize;
-                if (label.length() > 1 && key.codes.length < 2) {
-                    labelSize = mLabelTextSize;
-                    paint.setTypeface(Typeface.DEFAULT_BOLD);
-                } else {
-                    labelSize = mKeyTextSize;
-                    paint.setTypeface(mKeyTextStyle);
-                }
-                paint.setTextSize(labelSize);
-
-                Integer labelHeightValue = mTextHeightCache.get(labelSize);
-                final int labelHeight;
-                if (labelHeightValue != null) {
-                    labelHeight = labelHeightValue;
-                } else {
-                    Rect textBounds = new Rect();
-                    paint.getTextBounds(KEY_LABEL_HEIGHT_REFERENCE_CHAR, 0, 1, textBounds);
-                    labelHeight = textBounds.height();
-                    mTextHeightCache.put(labelSize, labelHeight);
+            final Key key = keys[i];
+            keysDrawn++;
+            final int[] drawableState = key.getCurrentDrawableState();
+            final int keyX = key.x + kbdPaddingLeft;
+            final int keyY = key.y + kbdPaddingTop;
+            Bitmap face = faceCache.get(key, drawableState, shifted);
+            if (face == null) {
+                face = faceCache.put(key, drawableState, shifted,
+                        key.width + 2 * margin, key.height + 2 * margin);
+                if (face != null) {
+                    final Canvas faceCanvas = mFaceCanvas;
+                    faceCanvas.setBitmap(face);
+                    faceCanvas.translate(margin, margin);
+                    drawKeyFace(faceCanvas, key, drawableState);
+                    faceCanvas.translate(-margin, -margin);
                 }
-
-                // Draw a drop shadow for the text
-                paint.setShadowLayer(mShadowRadius, 0, 0, mShadowColor);
-                final int centerX = (key.width + padding.left - padding.right) / 2;
-                final int centerY = (key.height + padding.top - padding.bottom) / 2;
-                final float baseline = centerY
-                        + labelHeight * KEY_LABEL_VERTICAL_ADJUSTMENT_FACTOR;
-                canvas.drawText(label, centerX, baseline, paint);
-                // Turn off drop shadow
-                paint.setShadowLayer(0, 0, 0, 0);
-
-                // Usually don't draw icon if label is not null, but we draw icon for the number
-                // hint and popup hint.
-                shouldDrawIcon = shouldDrawLabelAndIcon(key);
             }
-            if (key.icon != null && shouldDrawIcon) {
-                // Special handing for the upper-right number hint icons
-                final int drawableWidth;
-                final int drawableHeight;
-                final int drawableX;
-                final int drawableY;
-                if (shouldDrawIconFully(key)) {
-                    drawableWidth = key.width;
-                    drawableHeight = key.height;
-                    drawableX = 0;
-                    drawableY = NUMBER_HINT_VERTICAL_ADJUSTMENT_PIXEL;
-                } else {
-                    drawableWidth = key.icon.getIntrinsicWidth();
-                    drawableHeight = key.icon.getIntrinsicHeight();
-                    drawableX = (key.width + padding.left - padding.right - drawableWidth) / 2;
-                    drawableY = (key.height + padding.top - padding.bottom - drawableHeight) / 2;
-                }
-                canvas.translate(drawableX, drawableY);
-                key.icon.setBounds(0, 0, drawableWidth, drawableHeight);
-                key.icon.draw(canvas);
-                canvas.translate(-drawableX, -drawableY);
+            if (face != null) {
+                canvas.drawBitmap(face, keyX - margin, keyY - margin, null);
+            } else {
+                canvas.translate(keyX, keyY);
+                drawKeyFace(canvas, key, drawableState);
+                canvas.translate(-keyX, -keyY);
             }
-            canvas.translate(-key.x - kbdPaddingLeft, -key.y - kbdPaddingTop);
         }
-        mInvalidatedKey = null;
         // Overlay a dark rectangle to dim the keyboard
         if (mMiniKeyboard != null) {
             paint.setColor((int) (mBackgroundDimAmount * 0xFF) << 24);
@@ -905,7 +938,105 @@ public class LatinKeyboardBaseView extends View implements PointerTracker.UIProx
         }
 
         mDrawPending = false;
-        mDirtyRect.setEmpty();
+        mAllKeysDirty = false;
+        dirtyKeys.clear();
+        mBufferDrawCount++;
+        mKeysDrawnCount += keysDrawn;
+        mLastKeysDrawn = keysDrawn;
+    }
+
+    /**
+     * Returns the counts of the draws of the keyboard bitmap and of the keys drawn, which are
+     * all the keys after a change of the keyboard or of shift, and only those invalidated
+     * otherwise.
+     */
+    String getDrawStats() {
+        final int draws = mBufferDrawCount;
+        final long keysDrawn = mKeysDrawnCount;
+        return "draws=" + draws + " keysDrawn=" + keysDrawn + " keysPerDraw="
+                + (draws == 0 ? 0 : keysDrawn / draws) + " lastKeysDrawn=" + mLastKeysDrawn
+                + " keys=" + (mKeys == null ? 0 : mKeys.length);
+    }
+
+    /**
+     * Draws the face of a key, its background, label and icon, with the top left corner of the
+     * key at the origin of the canvas.
+     */
+    private void drawKeyFace(Canvas canvas, Key key, int[] drawableState) {
+        final Paint paint = mPaint;
+        final Drawable keyBackground = mKeyBackground;
+        final Rect padding = mPadding;
+        keyBackground.setState(drawableState);
+
+        // Switch the character to uppercase if shift is pressed
+        String label = key.label == null? null : adjustCase(key.label).toString();
+
+        final Rect bounds = keyBackground.getBounds();
+        if (key.width != bounds.right || key.height != bounds.bottom) {
+            keyBackground.setBounds(0, 0, key.width, key.height);
+        }
+        keyBackground.draw(canvas);
+
+        boolean shouldDrawIcon = true;
+        if (label != null) {
+            // For characters, use large font. For labels like "Done", use small font.
+            final int labelSize;
+            if (label.length() > 1 && key.codes.length < 2) {
+                labelSize = mLabelTextSize;
+                paint.setTypeface(Typeface.DEFAULT_BOLD);
+            } else {
+                labelSize = mKeyTextSize;
+                paint.setTypeface(mKeyTextStyle);
+            }
+            paint.setTextSize(labelSize);
+
+            Integer labelHeightValue = mTextHeightCache.get(labelSize);
+            final int labelHeight;
+            if (labelHeightValue != null) {
+                labelHeight = labelHeightValue;
+            } else {
+                Rect textBounds = new Rect();
+                paint.getTextBounds(KEY_LABEL_HEIGHT_REFERENCE_CHAR, 0, 1, textBounds);
+                labelHeight = textBounds.height();
+                mTextHeightCache.put(labelSize, labelHeight);
+            }
+
+            // Draw a drop shadow for the text
+            paint.setShadowLayer(mShadowRadius, 0, 0, mShadowColor);
+            final int centerX = (key.width + padding.left - padding.right) / 2;
+            final int centerY = (key.height + padding.top - padding.bottom) / 2;
+            final float baseline = centerY
+                    + labelHeight * KEY_LABEL_VERTICAL_ADJUSTMENT_FACTOR;
+            canvas.drawText(label, centerX, baseline, paint);
+            // Turn off drop shadow
+            paint.setShadowLayer(0, 0, 0, 0);
+
+            // Usually don't draw icon if label is not null, but we draw icon for the number
+            // hint and popup hint.
+            shouldDrawIcon = shouldDrawLabelAndIcon(key);
+        }
+        if (key.icon != null && shouldDrawIcon) {
+            // Special handing for the upper-right number hint icons
+            final int drawableWidth;
+            final int drawableHeight;
+            final int drawableX;
+            final int drawableY;
+            if (shouldDrawIconFully(key)) {
+                drawableWidth = key.width;
+                drawableHeight = key.height;
+                drawableX = 0;
+                drawableY = NUMBER_HINT_VERTICAL_ADJUSTMENT_PIXEL;
+            } else {
+                drawableWidth = key.icon.getIntrinsicWidth();
+                drawableHeight = key.icon.getIntrinsicHeight();
+                drawableX = (key.width + padding.left - padding.right - drawableWidth) / 2;
+                drawableY = (key.height + padding.top - padding.bottom - drawableHeight) / 2;
+            }
+            canvas.translate(drawableX, drawableY);
+            key.icon.setBounds(0, 0, drawableWidth, drawableHeight);
+            key.icon.draw(canvas);
+            canvas.translate(-drawableX, -drawableY);
+        }
     }
 
     // TODO: clean up this method.
@@ -1020,14 +1151,15 @@ public class LatinKeyboardBaseView extends View implements PointerTracker.UIProx
      * @see #invalidateKey(Key)
      */
     public void invalidateAllKeys() {
-        mDirtyRect.union(0, 0, getWidth(), getHeight());
+        mAllKeysDirty = true;
         mDrawPending = true;
         invalidate();
     }
 
     /**
      * Invalidates a key so that it will be redrawn on the next repaint. Use this method if only
-     * one key is changing it's content. Any changes that affect the position or size of the key
+     * a few keys are changing their content: the keys invalidated until the next repaint are
+     * all redrawn then, and only them. Any changes that affect the position or size of the key
      * may not be honored.
      * @param key key in the attached {@link Keyboard}.
      * @see #invalidateAllKeys
@@ -1035,11 +1167,14 @@ public class LatinKeyboardBaseView extends View implements PointerTracker.UIProx
     public void invalidateKey(Key key) {
         if (key == null)
             return;
-        mInvalidatedKey = key;
-        // TODO we should clean up this and record key's region to use in onBufferDraw.
-        mDirtyRect.union(key.x + getPaddingLeft(), key.y + getPaddingTop(),
-                key.x + key.width + getPaddingLeft(), key.y + key.height + getPaddingTop());
-        onBufferDraw();
+        final Key[] keys = mKeys;
+        int keyIndex = keys == null ? -1 : keys.length - 1;
+        while (keyIndex >= 0 && keys[keyIndex] != key) keyIndex--;
+        // A key of a previous keyboard, which is drawn again in full anyway
+        if (keyIndex < 0)
+            return;
+        mDirtyKeys.set(keyIndex);
+        mDrawPending = true;
         invalidate(key.x + getPaddingLeft(), key.y + getPaddingTop(),
                 key.x + key.width + getPaddingLeft(), key.y + key.height + getPaddingTop());
     }
@@ -1085,6 +1220,9 @@ public class LatinKeyboardBaseView extends View implements PointerTracker.UIProx
                 dismissPopupKeyboard();
             }
 
+            public void onGlide(List<CharSequence> words) {
+            }
+
             public void onCancel() {
                 dismissPopupKeyboard();
             }
@@ -1286,6 +1424,7 @@ public class LatinKeyboardBaseView extends View implements PointerTracker.UIProx
                 tracker.setKeyboard(keys, mKeyHysteresisDistance);
             if (listener != null)
                 tracker.setOnKeyboardActionListener(listener);
+            tracker.setGestureDecoder(mGestureDecoder);
             pointers.add(tracker);
         }
 
@@ -1296,6 +1435,9 @@ public class LatinKeyboardBaseView extends View implements PointerTracker.UIProx
     public boolean onTouchEvent(MotionEvent me) {
         final int pointerCount = me.getPointerCount();
         final int action = me.getActionMasked();
+        if (action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_POINTER_UP) {
+            LatencyTracer.startKeystroke(me.getEventTime());
+        }
 
         // TODO: cleanup this code into a multi-touch to single-touch event converter class?
         // If the device does not have distinct multi-touch support panel, ignore all multi-touch
@@ -1365,7 +1507,11 @@ public class LatinKeyboardBaseView extends View implements PointerTracker.UIProx
                 // Send an up event for the last pointer.
                 tracker.onUpEvent(tracker.getLastX(), tracker.getLastY(), eventTime);
             } else if (pointerCount == 1 && oldPointerCount == 1) {
-                tracker.onTouchEvent(action, x, y, eventTime);
+                if (action == MotionEvent.ACTION_MOVE) {
+                    onMoveEvent(tracker, me, 0);
+                } else {
+                    tracker.onTouchEvent(action, x, y, eventTime);
+                }
             } else {
                 Log.w(TAG, "Unknown touch panel behavior: pointer count is " + pointerCount
                         + " (old " + oldPointerCount + ")");
@@ -1377,7 +1523,7 @@ public class LatinKeyboardBaseView extends View implements PointerTracker.UIProx
         if (action == MotionEvent.ACTION_MOVE) {
             for (int i = 0; i < pointerCount; i++) {
                 PointerTracker tracker = getPointerTracker(me.getPointerId(i));
-                tracker.onMoveEvent((int)me.getX(i), (int)me.getY(i), eventTime);
+                onMoveEvent(tracker, me, i);
             }
         } else {
             PointerTracker tracker = getPointerTracker(id);
@@ -1399,6 +1545,29 @@ public class LatinKeyboardBaseView extends View implements PointerTracker.UIProx
         return true;
     }
 
+    /**
+     * Sends the samples of a pointer in a move event to its tracker, with those the panel batched
+     * into the event since the previous one, so that the tracker can handle them together.
+     */
+    private void onMoveEvent(PointerTracker tracker, MotionEvent me, int pointerIndex) {
+        final int historySize = me.getHistorySize();
+        final int count = historySize + 1;
+        if (mMoveXs.length < count) {
+            mMoveXs = new int[count];
+            mMoveYs = new int[count];
+            mMoveTimes = new long[count];
+        }
+        for (int i = 0; i < historySize; i++) {
+            mMoveXs[i] = (int)me.getHistoricalX(pointerIndex, i);
+            mMoveYs[i] = (int)me.getHistoricalY(pointerIndex, i);
+            mMoveTimes[i] = me.getHistoricalEventTime(i);
+        }
+        mMoveXs[historySize] = (int)me.getX(pointerIndex);
+        mMoveYs[historySize] = (int)me.getY(pointerIndex);
+        mMoveTimes[historySize] = me.getEventTime();
+        tracker.onMoveEvents(mMoveXs, mMoveYs, mMoveTimes, count);
+    }
+
     private void onDownEvent(PointerTracker tracker, int x, int y, long eventTime) {
         if (tracker.isOnModifierKey(x, y)) {
             // Before processing a down event of modifier key, all pointers already being tracked
@@ -1456,6 +1625,8 @@ public class LatinKeyboardBaseView extends View implements PointerTracker.UIProx
         mBuffer = null;
         mCanvas = null;
         mMiniKeyboardCache.clear();
+        mKeyFaceCache.clear();
+        CacheRegistry.getInstance().unregister(mBufferCache);
     }
 
     @Override
@@ -25,6 +25,8 @@ import android.inputmethodservice.Keyboard.Key;
 import android.util.Log;
 import android.view.MotionEvent;
 
+import java.util.List;
+
 public class PointerTracker {
     private static final String TAG = "PointerTracker";
     private static final boolean DEBUG = false;
@@ -74,6 +76,16 @@ public class PointerTracker {
     // pressed key
     private int mPreviousKey = NOT_A_KEY;
 
+    // For glide typing, the decoder shared by the pointers, or null if it is off
+    private GestureDecoder mGestureDecoder;
+    // true if this pointer's stroke is being decoded, which only one at a time can be
+    private boolean mInGesture;
+    // true once the stroke went over a second letter, and is not sent as a key any more
+    private boolean mInGlide;
+
+    // working area of onMoveEvents, the key of each sample of a move event
+    private int[] mMoveKeyIndices = new int[0];
+
     // This class keeps track of a key index and a position where this pointer is.
     private static class KeyState {
         private final KeyDetector mKeyDetector;
@@ -138,8 +150,7 @@ public class PointerTracker {
         }
 
         private int onMoveKeyInternal(int x, int y) {
-            mLastX = x;
-            mLastY = y;
+            setLastPosition(x, y);
             return mKeyDetector.getKeyIndexAndNearbyCodes(x, y, null);
         }
 
@@ -147,6 +158,11 @@ public class PointerTracker {
             return onMoveKeyInternal(x, y);
         }
 
+        public void setLastPosition(int x, int y) {
+            mLastX = x;
+            mLastY = y;
+        }
+
         public int onMoveToNewKey(int keyIndex, int x, int y) {
             mKeyIndex = keyIndex;
             mKeyX = x;
@@ -183,6 +199,15 @@ public class PointerTracker {
         mListener = listener;
     }
 
+    public void setGestureDecoder(GestureDecoder decoder) {
+        cancelGesture();
+        mGestureDecoder = decoder;
+    }
+
+    public boolean isInGlide() {
+        return mInGlide;
+    }
+
     public void setKeyboard(Key[] keys, float keyHysteresisDistance) {
         if (keys == null || keyHysteresisDistance < 0)
             throw new IllegalArgumentException();
@@ -243,6 +268,8 @@ public class PointerTracker {
 
     public void setAlreadyProcessed() {
         mKeyAlreadyProcessed = true;
+        // The events of this pointer may go to the mini-keyboard from now on
+        cancelGesture();
     }
 
     public void onTouchEvent(int action, int x, int y, long eventTime) {
@@ -279,6 +306,9 @@ public class PointerTracker {
                 keyIndex = mKeyState.getKeyIndex();
             }
         }
+        cancelGesture();
+        mInGesture = mGestureDecoder != null
+                && mGestureDecoder.begin(x, y, eventTime, keyIndex);
         if (isValidKeyIndex(keyIndex)) {
             if (mKeys[keyIndex].repeatable) {
                 repeatKey(keyIndex);
@@ -293,40 +323,138 @@ public class PointerTracker {
     public void onMoveEvent(int x, int y, long eventTime) {
         if (DEBUG_MOVE)
             debugLog("onMoveEvent:", x, y);
-        if (mKeyAlreadyProcessed)
+        if (mKeyAlreadyProcessed) {
+            cancelGesture();
             return;
-        KeyState keyState = mKeyState;
-        int keyIndex = keyState.onMoveKey(x, y);
+        }
+        final boolean keyChanged = onMoveToKey(x, y, eventTime, mKeyState.onMoveKey(x, y));
+        if (!mInGlide) {
+            onMoveFinished(keyChanged);
+        }
+    }
+
+    /**
+     * Handles the samples of a move event in order, those the panel batched into it since the
+     * previous event and then its current one. The keys of all the samples are found in one
+     * pass of the key detector and every sample goes to the gesture decoder, but the long press
+     * timer, the preview and the pressed key are only updated once, for the last key.
+     *
+     * @param xs The x-coordinates of the samples
+     * @param ys The y-coordinates of the samples
+     * @param eventTimes The times of the samples
+     * @param count The number of samples
+     */
+    public void onMoveEvents(int[] xs, int[] ys, long[] eventTimes, int count) {
+        if (count == 0)
+            return;
+        if (DEBUG_MOVE)
+            debugLog("onMoveEvents:", xs[count - 1], ys[count - 1]);
+        if (mKeyAlreadyProcessed) {
+            cancelGesture();
+            return;
+        }
+        if (mMoveKeyIndices.length < count)
+            mMoveKeyIndices = new int[count];
+        final int[] keyIndices = mMoveKeyIndices;
+        mKeyDetector.getKeyIndices(xs, ys, count, keyIndices);
+        boolean keyChanged = false;
+        for (int i = 0; i < count; i++) {
+            mKeyState.setLastPosition(xs[i], ys[i]);
+            keyChanged |= onMoveToKey(xs[i], ys[i], eventTimes[i], keyIndices[i]);
+        }
+        if (!mInGlide) {
+            onMoveFinished(keyChanged);
+        }
+    }
+
+    /**
+     * Moves the pointer to the key found for a sample, unless it is a minor move bounce, and
+     * feeds the sample to the gesture decoder.
+     * @return true if the key of the pointer changed
+     */
+    private boolean onMoveToKey(int x, int y, long eventTime, int keyIndex) {
+        final KeyState keyState = mKeyState;
+        if (mInGlide) {
+            mGestureDecoder.addPoint(x, y, eventTime, keyIndex);
+            return false;
+        }
+        boolean keyChanged = false;
         if (isValidKeyIndex(keyIndex)) {
             if (keyState.getKeyIndex() == NOT_A_KEY) {
                 keyState.onMoveToNewKey(keyIndex, x, y);
-                mHandler.startLongPressTimer(mLongPressKeyTimeout, keyIndex, this);
+                keyChanged = true;
             } else if (!isMinorMoveBounce(x, y, keyIndex)) {
                 resetMultiTap();
                 keyState.onMoveToNewKey(keyIndex, x, y);
-                mHandler.startLongPressTimer(mLongPressKeyTimeout, keyIndex, this);
+                keyChanged = true;
             }
         } else {
             if (keyState.getKeyIndex() != NOT_A_KEY) {
                 keyState.onMoveToNewKey(keyIndex, x ,y);
-                mHandler.cancelLongPressTimer();
+                keyChanged = true;
             } else if (!isMinorMoveBounce(x, y, keyIndex)) {
                 resetMultiTap();
                 keyState.onMoveToNewKey(keyIndex, x ,y);
+                keyChanged = true;
+            }
+        }
+        if (mInGesture) {
+            // The key after the hysteresis, so that a tap sliding off its key stays a tap
+            mGestureDecoder.addPoint(x, y, eventTime, keyState.getKeyIndex());
+            if (mGestureDecoder.isGlide()) {
+                startGlide();
+            }
+        }
+        return keyChanged;
+    }
+
+    private void onMoveFinished(boolean keyChanged) {
+        final int keyIndex = mKeyState.getKeyIndex();
+        if (keyChanged) {
+            if (isValidKeyIndex(keyIndex)) {
+                mHandler.startLongPressTimer(mLongPressKeyTimeout, keyIndex, this);
+            } else {
                 mHandler.cancelLongPressTimer();
             }
         }
-        showKeyPreviewAndUpdateKey(mKeyState.getKeyIndex());
+        showKeyPreviewAndUpdateKey(keyIndex);
+    }
+
+    private void startGlide() {
+        mInGlide = true;
+        resetMultiTap();
+        mHandler.cancelKeyTimers();
+        mHandler.cancelPopupPreview();
+        showKeyPreviewAndUpdateKey(NOT_A_KEY);
+    }
+
+    private void cancelGesture() {
+        if (mInGesture) mGestureDecoder.cancel();
+        mInGesture = false;
+        mInGlide = false;
     }
 
     public void onUpEvent(int x, int y, long eventTime) {
         if (DEBUG)
             debugLog("onUpEvent  :", x, y);
-        if (mKeyAlreadyProcessed)
+        if (mKeyAlreadyProcessed) {
+            cancelGesture();
             return;
+        }
         mHandler.cancelKeyTimers();
         mHandler.cancelPopupPreview();
         int keyIndex = mKeyState.onUpKey(x, y);
+        if (mInGlide) {
+            mInGesture = false;
+            mInGlide = false;
+            final List<CharSequence> words = mGestureDecoder.end(x, y, eventTime, keyIndex);
+            if (mListener != null) {
+                mListener.onGlide(words);
+                mListener.onRelease(NOT_A_KEY);
+            }
+            return;
+        }
+        cancelGesture();
         if (isMinorMoveBounce(x, y, keyIndex)) {
             // Use previous fixed key index and coordinates.
             keyIndex = mKeyState.getKeyIndex();
@@ -345,6 +473,7 @@ public class PointerTracker {
     public void onCancelEvent(int x, int y, long eventTime) {
         if (DEBUG)
             debugLog("onCancelEvt:", x, y);
+        cancelGesture();
         mHandler.cancelKeyTimers();
         mHandler.cancelPopupPreview();
         showKeyPreviewAndUpdateKey(NOT_A_KEY);
@@ -421,6 +550,7 @@ public class PointerTracker {
     }
 
     private void detectAndSendKey(int index, int x, int y, long eventTime) {
+        LatencyTracer.mark(LatencyTracer.STAGE_KEY_DETECTED);
         final OnKeyboardActionListener listener = mListener;
         final Key key = getKey(index);
 
@@ -16,6 +16,7 @@
 
 package com.android.inputmethod.latin;
 
+import android.inputmethodservice.Keyboard;
 import android.inputmethodservice.Keyboard.Key;
 
 import java.util.Arrays;
@@ -23,8 +24,174 @@ import java.util.Arrays;
 class ProximityKeyDetector extends KeyDetector {
     private static final int MAX_NEARBY_KEYS = 12;
 
-    // working area
-    private int[] mDistances = new int[MAX_NEARBY_KEYS];
+    private KeyGrid mGrid;
+
+    // working area, the keys near the touch and their distances, nearest first
+    private int[] mNearbyKeys = new int[0];
+    private int[] mDistances = new int[0];
+
+    /**
+     * The keys that can be near a touch, for each cell of a grid over the keyboard.
+     *
+     * The keyboard looks up its own lists of nearest keys in a grid of
+     * KEYBOARD_GRID_WIDTH by KEYBOARD_GRID_HEIGHT cells, sized for its own search distance, so
+     * that most of the keys of a list are too far from the touch to be used. Each of these cells
+     * is split here in SUBDIVISIONS by SUBDIVISIONS cells, which keep the keys of the list of the
+     * keyboard that can be inside or within the threshold of a touch in the cell, in the same
+     * order. The keys are still looked up through the keyboard first, and its list only replaced
+     * by the one of the cell if the keyboard returns the list the cell was made from: when the
+     * touch is locked into the spacebar, LatinKeyboard returns the spacebar alone.
+     */
+    static class KeyGrid {
+        // As in android.inputmethodservice.Keyboard
+        private static final int KEYBOARD_GRID_WIDTH = 10;
+        private static final int KEYBOARD_GRID_HEIGHT = 5;
+        private static final int SUBDIVISIONS = 4;
+        // Bounds of the cells on the edges of the grid, which also take the touches beyond it
+        private static final int FAR = Integer.MAX_VALUE / 4;
+
+        private final int mKeyboardCellWidth;
+        private final int mKeyboardCellHeight;
+        private final int mColumns;
+        private final int mRows;
+        // The list of the keyboard each cell was made from, and the keys kept of it
+        private final int[][] mSources;
+        private final int[][] mCandidates;
+
+        private KeyGrid(int keyboardCellWidth, int keyboardCellHeight) {
+            mKeyboardCellWidth = keyboardCellWidth;
+            mKeyboardCellHeight = keyboardCellHeight;
+            mColumns = KEYBOARD_GRID_WIDTH * SUBDIVISIONS;
+            mRows = KEYBOARD_GRID_HEIGHT * SUBDIVISIONS;
+            mSources = new int[mColumns * mRows][];
+            mCandidates = new int[mColumns * mRows][];
+        }
+
+        /**
+         * Makes the grid of a keyboard, or returns null if the keyboard has no size yet.
+         * @param thresholdSquare the square of the proximity threshold of the detector
+         */
+        static KeyGrid create(Keyboard keyboard, Key[] keys, int thresholdSquare) {
+            final int width = keyboard.getMinWidth();
+            final int height = keyboard.getHeight();
+            if (width <= 0 || height <= 0) return null;
+            final KeyGrid grid = new KeyGrid(divideRoundingUp(width, KEYBOARD_GRID_WIDTH),
+                    divideRoundingUp(height, KEYBOARD_GRID_HEIGHT));
+            final int[] centerX = new int[keys.length];
+            final int[] centerY = new int[keys.length];
+            for (int i = 0; i < keys.length; i++) {
+                // The center the key measures distances from, which LatinKey moves down by half
+                // the gap below it: with d(x, y) the square of the distance to the center,
+                // d(0, 0) - d(1, 0) = 2 * centerX - 1.
+                final int origin = keys[i].squaredDistanceFrom(0, 0);
+                centerX[i] = (origin - keys[i].squaredDistanceFrom(1, 0) + 1) / 2;
+                centerY[i] = (origin - keys[i].squaredDistanceFrom(0, 1) + 1) / 2;
+            }
+            final int[] kept = new int[keys.length];
+            for (int row = 0; row < grid.mRows; row++) {
+                final int top = grid.getCellY(row);
+                final int bottom = grid.getCellY(row + 1);
+                final int minY = row == 0 ? -FAR : top;
+                final int maxY = row == grid.mRows - 1 ? FAR : bottom - 1;
+                for (int column = 0; column < grid.mColumns; column++) {
+                    final int left = grid.getCellX(column);
+                    final int right = grid.getCellX(column + 1);
+                    final int minX = column == 0 ? -FAR : left;
+                    final int maxX = column == grid.mColumns - 1 ? FAR : right - 1;
+                    final int[] source = keyboard.getNearestKeys(left, top);
+                    int count = 0;
+                    for (int index : source) {
+                        final Key key = keys[index];
+                        final int nearestX = Math.max(minX, Math.min(centerX[index], maxX));
+                        final int nearestY = Math.max(minY, Math.min(centerY[index], maxY));
+                        if (key.squaredDistanceFrom(nearestX, nearestY) < thresholdSquare
+                                || canBeInside(key, minX, maxX, minY, maxY)) {
+                            kept[count++] = index;
+                        }
+                    }
+                    final int cell = row * grid.mColumns + column;
+                    grid.mSources[cell] = source;
+                    grid.mCandidates[cell] = count == source.length
+                            ? source : Arrays.copyOf(kept, count);
+                }
+            }
+            return grid;
+        }
+
+        /**
+         * Returns whether a key can be inside a touch in the given bounds. LatinKeyboard moves
+         * the touch on the shift, delete and space keys by less than half a key, and takes a
+         * preferred next letter a bit beyond its key, so the key is given half its size around
+         * it. Keys on the edges of the keyboard also take the touches beyond them.
+         */
+        private static boolean canBeInside(Key key, int minX, int maxX, int minY, int maxY) {
+            final int left = (key.edgeFlags & Keyboard.EDGE_LEFT) != 0
+                    ? -FAR : key.x - key.width / 2;
+            final int right = (key.edgeFlags & Keyboard.EDGE_RIGHT) != 0
+                    ? FAR : key.x + key.width + key.width / 2;
+            final int top = (key.edgeFlags & Keyboard.EDGE_TOP) != 0
+                    ? -FAR : key.y - key.height / 2;
+            final int bottom = (key.edgeFlags & Keyboard.EDGE_BOTTOM) != 0
+                    ? FAR : key.y + key.height + key.height / 2;
+            return left <= maxX && right >= minX && top <= maxY && bottom >= minY;
+        }
+
+        private int getCellX(int column) {
+            return column / SUBDIVISIONS * mKeyboardCellWidth
+                    + divideRoundingUp(column % SUBDIVISIONS * mKeyboardCellWidth, SUBDIVISIONS);
+        }
+
+        private int getCellY(int row) {
+            return row / SUBDIVISIONS * mKeyboardCellHeight
+                    + divideRoundingUp(row % SUBDIVISIONS * mKeyboardCellHeight, SUBDIVISIONS);
+        }
+
+        private static int divideRoundingUp(int value, int divisor) {
+            return (value + divisor - 1) / divisor;
+        }
+
+        /**
+         * Returns the column or row of the cell of a position, the inverse of getCellX and
+         * getCellY: the cells split the cells of the keyboard with their bounds rounded up.
+         */
+        private static int getCell(int position, int keyboardCellSize, int count) {
+            if (position <= 0) return 0;
+            final int keyboardCell = position / keyboardCellSize;
+            final int cell = keyboardCell * SUBDIVISIONS
+                    + (position - keyboardCell * keyboardCellSize) * SUBDIVISIONS
+                            / keyboardCellSize;
+            return Math.min(cell, count - 1);
+        }
+
+        /**
+         * Returns the keys to try for a touch, given the list of nearest keys of the keyboard.
+         */
+        int[] getCandidates(int x, int y, int[] nearestKeys) {
+            final int cell = getCell(y, mKeyboardCellHeight, mRows) * mColumns
+                    + getCell(x, mKeyboardCellWidth, mColumns);
+            return mSources[cell] == nearestKeys ? mCandidates[cell] : nearestKeys;
+        }
+    }
+
+    @Override
+    public Key[] setKeyboard(Keyboard keyboard, float correctionX, float correctionY) {
+        final Key[] keys = super.setKeyboard(keyboard, correctionX, correctionY);
+        if (mNearbyKeys.length < keys.length) {
+            mNearbyKeys = new int[keys.length];
+            mDistances = new int[keys.length];
+        }
+        mGrid = KeyGrid.create(keyboard, keys, mProximityThresholdSquare);
+        return keys;
+    }
+
+    @Override
+    public void setProximityThreshold(int threshold) {
+        final int oldThresholdSquare = mProximityThresholdSquare;
+        super.setProximityThreshold(threshold);
+        if (mKeyboard != null && mProximityThresholdSquare != oldThresholdSquare) {
+            mGrid = KeyGrid.create(mKeyboard, getKeys(), mProximityThresholdSquare);
+        }
+    }
 
     @Override
     protected int getMaxNearbyKeys() {
@@ -39,9 +206,13 @@ class ProximityKeyDetector extends KeyDetector {
         int primaryIndex = LatinKeyboardBaseView.NOT_A_KEY;
         int closestKey = LatinKeyboardBaseView.NOT_A_KEY;
         int closestKeyDist = mProximityThresholdSquare + 1;
-        int[] distances = mDistances;
-        Arrays.fill(distances, Integer.MAX_VALUE);
+        final int[] nearbyKeys = mNearbyKeys;
+        final int[] distances = mDistances;
+        int nearbyCount = 0;
         int [] nearestKeyIndices = mKeyboard.getNearestKeys(touchX, touchY);
+        if (mGrid != null) {
+            nearestKeyIndices = mGrid.getCandidates(touchX, touchY, nearestKeyIndices);
+        }
         final int keyCount = nearestKeyIndices.length;
         for (int i = 0; i < keyCount; i++) {
             final Key key = keys[nearestKeyIndices[i]];
@@ -55,8 +226,6 @@ class ProximityKeyDetector extends KeyDetector {
                     && (dist = key.squaredDistanceFrom(touchX, touchY)) < mProximityThresholdSquare)
                     || isInside)
                     && key.codes[0] > 32) {
-                // Find insertion point
-                final int nCodes = key.codes.length;
                 if (dist < closestKeyDist) {
                     closestKeyDist = dist;
                     closestKey = nearestKeyIndices[i];
@@ -64,19 +233,26 @@ class ProximityKeyDetector extends KeyDetector {
 
                 if (allKeys == null) continue;
 
-                for (int j = 0; j < distances.length; j++) {
-                    if (distances[j] > dist) {
-                        // Make space for nCodes codes
-                        System.arraycopy(distances, j, distances, j + nCodes,
-                                distances.length - j - nCodes);
-                        System.arraycopy(allKeys, j, allKeys, j + nCodes,
-                                allKeys.length - j - nCodes);
-                        System.arraycopy(key.codes, 0, allKeys, j, nCodes);
-                        Arrays.fill(distances, j, j + nCodes, dist);
-                        break;
-                    }
+                // Insert after the keys at the same distance, which came first
+                int j = nearbyCount++;
+                while (j > 0 && distances[j - 1] > dist) {
+                    nearbyKeys[j] = nearbyKeys[j - 1];
+                    distances[j] = distances[j - 1];
+                    j--;
                 }
+                nearbyKeys[j] = nearestKeyIndices[i];
+                distances[j] = dist;
+            }
+        }
+        if (allKeys != null) {
+            int codeCount = 0;
+            for (int i = 0; i < nearbyCount && codeCount < allKeys.length; i++) {
+                final int[] codes = keys[nearbyKeys[i]].codes;
+                final int nCodes = Math.min(codes.length, allKeys.length - codeCount);
+                System.arraycopy(codes, 0, allKeys, codeCount, nCodes);
+                codeCount += nCodes;
             }
+            Arrays.fill(allKeys, codeCount, allKeys.length, LatinKeyboardBaseView.NOT_A_KEY);
         }
         if (primaryIndex == LatinKeyboardBaseView.NOT_A_KEY) {
             primaryIndex = closestKey;
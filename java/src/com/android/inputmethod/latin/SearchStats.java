@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.inputmethod.latin;
+
+/**
+ * Counters of the work done by the dictionary searches, so that their pruning can be tuned on
+ * data. Each dictionary keeps its own, which {@link Suggest} adds up for every lookup of the
+ * suggestions, and over all the lookups.
+ *
+ * The counters are updated once per search, under the lock of the stats, as dictionaries may be
+ * searched on the bigram prefetch thread.
+ */
+public class SearchStats {
+    // Indices of the counters returned by the native dictionary, see dictionary.h
+    static final int NATIVE_NODES_VISITED = 0;
+    static final int NATIVE_DEPTH_PRUNED = 1;
+    static final int NATIVE_EDIT_DISTANCE_PRUNED = 2;
+    static final int NATIVE_WORDS_FOUND = 3;
+    static final int NATIVE_WORDS_KEPT = 4;
+    static final int NATIVE_STATS_COUNT = 5;
+
+    // Calls to Suggest.getSuggestions, and how many of them were served from its cache
+    public long lookups;
+    public long cachedLookups;
+    // Nodes of the dictionary tries looked at
+    public long nodesVisited;
+    // Branches cut because they are longer than the typed word allows
+    public long depthPruned;
+    // Branches cut because they differ from the typed word in too many characters
+    public long editDistancePruned;
+    // Words the searches found, and how many of them a dictionary inserted among the best ones
+    // it returns. Dictionaries that return all the words they find keep all of them.
+    public long wordsFound;
+    public long wordsKept;
+    // Words the dictionaries returned to Suggest, and how many of them it inserted among the
+    // suggestions, possibly pushing out words inserted before
+    public long candidatesOffered;
+    public long candidatesAccepted;
+    // Searches run again with a character skipped, to find a word missing one
+    public long skipPasses;
+    // Calls into the native dictionary code
+    public long nativeCalls;
+
+    public synchronized void reset() {
+        lookups = 0;
+        cachedLookups = 0;
+        nodesVisited = 0;
+        depthPruned = 0;
+        editDistancePruned = 0;
+        wordsFound = 0;
+        wordsKept = 0;
+        candidatesOffered = 0;
+        candidatesAccepted = 0;
+        skipPasses = 0;
+        nativeCalls = 0;
+    }
+
+    /**
+     * Adds the counters of another object to these.
+     */
+    public void add(SearchStats other) {
+        synchronized (other) {
+            addLocked(other, 1);
+        }
+    }
+
+    /**
+     * Subtracts the counters of another object from these.
+     */
+    public void subtract(SearchStats other) {
+        synchronized (other) {
+            addLocked(other, -1);
+        }
+    }
+
+    private synchronized void addLocked(SearchStats other, int sign) {
+        lookups += sign * other.lookups;
+        cachedLookups += sign * other.cachedLookups;
+        nodesVisited += sign * other.nodesVisited;
+        depthPruned += sign * other.depthPruned;
+        editDistancePruned += sign * other.editDistancePruned;
+        wordsFound += sign * other.wordsFound;
+        wordsKept += sign * other.wordsKept;
+        candidatesOffered += sign * other.candidatesOffered;
+        candidatesAccepted += sign * other.candidatesAccepted;
+        skipPasses += sign * other.skipPasses;
+        nativeCalls += sign * other.nativeCalls;
+    }
+
+    /**
+     * Adds the counters of one call into the native dictionary.
+     * @param stats the counters filled by the native code, indexed by NATIVE_*
+     */
+    synchronized void addNativeCall(int[] stats) {
+        nativeCalls++;
+        nodesVisited += stats[NATIVE_NODES_VISITED];
+        depthPruned += stats[NATIVE_DEPTH_PRUNED];
+        editDistancePruned += stats[NATIVE_EDIT_DISTANCE_PRUNED];
+        wordsFound += stats[NATIVE_WORDS_FOUND];
+        wordsKept += stats[NATIVE_WORDS_KEPT];
+    }
+
+    /**
+     * Adds the counters of one search of a dictionary written in Java.
+     */
+    synchronized void addSearch(int nodes, int depthCuts, int words, int skips) {
+        nodesVisited += nodes;
+        depthPruned += depthCuts;
+        wordsFound += words;
+        wordsKept += words;
+        skipPasses += skips;
+    }
+
+    synchronized void addSkipPass() {
+        skipPasses++;
+    }
+
+    /**
+     * Adds one call to Suggest.getSuggestions.
+     */
+    synchronized void addLookup(boolean cached, int offered, int accepted) {
+        lookups++;
+        if (cached) cachedLookups++;
+        candidatesOffered += offered;
+        candidatesAccepted += accepted;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "lookups=" + lookups + " cached=" + cachedLookups
+                + " nodes=" + nodesVisited + " depthPruned=" + depthPruned
+                + " editDistancePruned=" + editDistancePruned
+                + " found=" + wordsFound + " kept=" + wordsKept
+                + " offered=" + candidatesOffered + " accepted=" + candidatesAccepted
+                + " skipPasses=" + skipPasses + " nativeCalls=" + nativeCalls;
+    }
+}
@@ -16,6 +16,7 @@
 
 package com.android.inputmethod.latin;
 
+import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -65,6 +66,20 @@ public class Suggest implements Dictionary.WordCallback {
 
     static final int LARGE_DICTIONARY_THRESHOLD = 200 * 1000;
 
+    // Number of recent composing states whose suggestions are kept around, so that backspacing
+    // and retyping or re-selecting a word does not search the dictionaries again.
+    private static final int SUGGESTIONS_CACHE_SIZE = 32;
+
+    // Number of slots of the word validity cache. Must be a power of two.
+    private static final int VALID_WORD_CACHE_SIZE = 256;
+
+    // Whether to build a Bloom filter over the main dictionary, so that most invalid words are
+    // rejected without a native lookup.
+    private static final boolean USE_MAIN_DICTIONARY_FILTER = true;
+
+    // Number of recently committed words whose following words are kept, looked up in advance
+    private static final int BIGRAM_PREFETCH_CACHE_SIZE = 4;
+
     private BinaryDictionary mMainDict;
 
     private Dictionary mUserDictionary;
@@ -79,10 +94,16 @@ public class Suggest implements Dictionary.WordCallback {
 
     private static final int PREF_MAX_BIGRAMS = 60;
 
+    // Pooled builders kept on top of mPrefMaxSuggestions, for the typed word and AutoText
+    private static final int STRING_POOL_HEADROOM = 4;
+
     private boolean mAutoTextEnabled;
 
     private int[] mPriorities = new int[mPrefMaxSuggestions];
     private int[] mBigramPriorities = new int[PREF_MAX_BIGRAMS];
+    // Hashes of the words in mSuggestions and mBigramSuggestions, to find duplicates on insert
+    private int[] mHashes = new int[mPrefMaxSuggestions];
+    private int[] mBigramHashes = new int[PREF_MAX_BIGRAMS];
 
     // Handle predictive correction for only the first 1280 characters for performance reasons
     // If we support scripts that need latin characters beyond that, we should probably use some
@@ -90,12 +111,25 @@ public class Suggest implements Dictionary.WordCallback {
     // 1280 is the size of the BASE_CHARS array in ExpandableDictionary, which is a basic set of
     // latin characters.
     private int[] mNextLettersFrequencies = new int[1280];
+    // Letters with a non-zero frequency, so that only those have to be reset
+    private int[] mTouchedNextLetters = new int[1280];
+    private int mTouchedNextLettersCount;
     private ArrayList<CharSequence> mSuggestions = new ArrayList<CharSequence>();
     ArrayList<CharSequence> mBigramSuggestions  = new ArrayList<CharSequence>();
     private ArrayList<CharSequence> mStringPool = new ArrayList<CharSequence>();
     private boolean mHaveCorrection;
+    // Words offered by the dictionaries during the last lookup, and inserted in the suggestions
+    private int mCandidateCount;
+    private int mCandidatesAccepted;
+    // The work done by the dictionary searches of the last lookup, and of all of them
+    private final SearchStats mLastSearchStats = new SearchStats();
+    private final SearchStats mSearchStats = new SearchStats();
+    // The counters of the dictionaries when the last lookup started
+    private final SearchStats mDictionaryStatsBefore = new SearchStats();
     private CharSequence mOriginalWord;
-    private String mLowerOriginalWord;
+    private final StringBuilder mLowerOriginalWord = new StringBuilder(APPROX_MAX_WORD_LENGTH);
+    private final StringBuilder mLowerPrevWord = new StringBuilder(APPROX_MAX_WORD_LENGTH);
+    private final StringBuilder mLowerSuggestion = new StringBuilder(APPROX_MAX_WORD_LENGTH);
 
     // TODO: Remove these member variables by passing more context to addWord() callback method
     private boolean mIsFirstCharCapitalized;
@@ -103,27 +137,67 @@ public class Suggest implements Dictionary.WordCallback {
 
     private int mCorrectionMode = CORRECTION_BASIC;
 
+    private final SuggestionsCache mSuggestionsCache =
+            new SuggestionsCache(SUGGESTIONS_CACHE_SIZE);
+    private final ValidWordCache mValidWordCache = new ValidWordCache(VALID_WORD_CACHE_SIZE);
+    // Reused for the words returned by each dictionary lookup
+    private final Dictionary.ResultBlock mResults =
+            new Dictionary.ResultBlock(PREF_MAX_BIGRAMS, BinaryDictionary.MAX_WORD_LENGTH);
+    private final BigramPrefetcher mBigramPrefetcher =
+            new BigramPrefetcher(BIGRAM_PREFETCH_CACHE_SIZE, PREF_MAX_BIGRAMS);
+
     public Suggest(Context context, int[] dictionaryResId) {
         mMainDict = new BinaryDictionary(context, dictionaryResId, DIC_MAIN);
+        if (USE_MAIN_DICTIONARY_FILTER) mMainDict.buildWordFilter();
+        initPool();
+    }
+
+    /**
+     * Creates a suggestion engine whose main dictionary is loaded later by
+     * {@link #loadMainDictionary}. Until then, only the typed word and the words of the other
+     * dictionaries are suggested.
+     */
+    public Suggest() {
+        mMainDict = new BinaryDictionary(DIC_MAIN);
         initPool();
     }
 
     public Suggest(Context context, ByteBuffer byteBuffer) {
         mMainDict = new BinaryDictionary(context, byteBuffer, DIC_MAIN);
+        if (USE_MAIN_DICTIONARY_FILTER) mMainDict.buildWordFilter();
         initPool();
     }
 
     private void initPool() {
-        for (int i = 0; i < mPrefMaxSuggestions; i++) {
+        for (int i = 0; i < mPrefMaxSuggestions + STRING_POOL_HEADROOM; i++) {
             StringBuilder sb = new StringBuilder(getApproxMaxWordLength());
             mStringPool.add(sb);
         }
     }
 
     public void setAutoTextEnabled(boolean enabled) {
+        if (mAutoTextEnabled != enabled) mSuggestionsCache.clear();
         mAutoTextEnabled = enabled;
     }
 
+    /**
+     * Reads the main dictionary of a suggestion engine created without one. This may be called
+     * on a background thread, while suggestions are being looked up. Null streams, for a locale
+     * without a dictionary, leave the main dictionary unavailable instead of loading.
+     * @see BinaryDictionary#loadDictionary(InputStream[])
+     */
+    public void loadMainDictionary(InputStream[] dictionaryStreams) {
+        mMainDict.loadDictionary(dictionaryStreams);
+        if (USE_MAIN_DICTIONARY_FILTER) mMainDict.buildWordFilter();
+    }
+
+    /**
+     * Returns whether the main dictionary can be searched yet.
+     */
+    public Dictionary.Readiness getMainDictionaryReadiness() {
+        return mMainDict.getReadiness();
+    }
+
     public int getCorrectionMode() {
         return mCorrectionMode;
     }
@@ -136,6 +210,13 @@ public class Suggest implements Dictionary.WordCallback {
         return mMainDict.getSize() > LARGE_DICTIONARY_THRESHOLD;
     }
 
+    /**
+     * Returns the size in bytes of the main dictionary, which is held in native memory.
+     */
+    public int getMainDictionarySize() {
+        return mMainDict.getSize();
+    }
+
     public int getApproxMaxWordLength() {
         return APPROX_MAX_WORD_LENGTH;
     }
@@ -146,6 +227,9 @@ public class Suggest implements Dictionary.WordCallback {
      */
     public void setUserDictionary(Dictionary userDictionary) {
         mUserDictionary = userDictionary;
+        mSuggestionsCache.clear();
+        mValidWordCache.clear();
+        mBigramPrefetcher.clear();
     }
 
     /**
@@ -153,14 +237,22 @@ public class Suggest implements Dictionary.WordCallback {
      */
     public void setContactsDictionary(Dictionary userDictionary) {
         mContactsDictionary = userDictionary;
+        mSuggestionsCache.clear();
+        mValidWordCache.clear();
+        mBigramPrefetcher.clear();
     }
     
     public void setAutoDictionary(Dictionary autoDictionary) {
         mAutoDictionary = autoDictionary;
+        mSuggestionsCache.clear();
+        mValidWordCache.clear();
     }
 
     public void setUserBigramDictionary(Dictionary userBigramDictionary) {
         mUserBigramDictionary = userBigramDictionary;
+        mSuggestionsCache.clear();
+        mValidWordCache.clear();
+        mBigramPrefetcher.clear();
     }
 
     /**
@@ -174,16 +266,18 @@ public class Suggest implements Dictionary.WordCallback {
             throw new IllegalArgumentException("maxSuggestions must be between 1 and 100");
         }
         mPrefMaxSuggestions = maxSuggestions;
+        mSuggestionsCache.clear();
         mPriorities = new int[mPrefMaxSuggestions];
         mBigramPriorities = new int[PREF_MAX_BIGRAMS];
-        collectGarbage(mSuggestions, mPrefMaxSuggestions);
-        while (mStringPool.size() < mPrefMaxSuggestions) {
+        mHashes = new int[mPrefMaxSuggestions];
+        collectGarbage(mSuggestions, mPrefMaxSuggestions + STRING_POOL_HEADROOM);
+        while (mStringPool.size() < mPrefMaxSuggestions + STRING_POOL_HEADROOM) {
             StringBuilder sb = new StringBuilder(getApproxMaxWordLength());
             mStringPool.add(sb);
         }
     }
 
-    private boolean haveSufficientCommonality(String original, CharSequence suggestion) {
+    private boolean haveSufficientCommonality(CharSequence original, CharSequence suggestion) {
         final int originalLength = original.length();
         final int suggestionLength = suggestion.length();
         final int minLength = Math.min(originalLength, suggestionLength);
@@ -213,6 +307,8 @@ public class Suggest implements Dictionary.WordCallback {
     /**
      * Returns a list of words that match the list of character codes passed in.
      * This list will be overwritten the next time this function is called.
+     * Results for a composing state seen recently are served from a cache, as long as none of
+     * the dictionaries has changed since.
      * @param view a view for retrieving the context for AutoText
      * @param wordComposer contains what is currently being typed
      * @param prevWordForBigram previous word (used only for bigram)
@@ -221,62 +317,74 @@ public class Suggest implements Dictionary.WordCallback {
     public List<CharSequence> getSuggestions(View view, WordComposer wordComposer, 
             boolean includeTypedWordIfValid, CharSequence prevWordForBigram) {
         LatinImeLogger.onStartSuggestion(prevWordForBigram);
+        mCandidateCount = 0;
+        mCandidatesAccepted = 0;
+        mDictionaryStatsBefore.reset();
+        addDictionarySearchStats(mDictionaryStatsBefore);
+        final CharSequence prevWordForCache = prevWordForBigram;
+        final int generation = getDictionariesGeneration();
+        final SuggestionsCache.Entry cached = mSuggestionsCache.get(wordComposer,
+                prevWordForCache, mCorrectionMode, generation);
+        if (cached != null) {
+            restoreFromCache(cached);
+            updateSearchStats(true);
+            return mSuggestions;
+        }
+        boolean searchedBigrams = false;
         mHaveCorrection = false;
         mIsFirstCharCapitalized = wordComposer.isFirstCharCapitalized();
         mIsAllUpperCase = wordComposer.isAllUpperCase();
-        collectGarbage(mSuggestions, mPrefMaxSuggestions);
+        collectGarbage(mSuggestions, mPrefMaxSuggestions + STRING_POOL_HEADROOM);
         Arrays.fill(mPriorities, 0);
-        Arrays.fill(mNextLettersFrequencies, 0);
+        resetNextLettersFrequencies();
 
         // Save a lowercase version of the original word
         mOriginalWord = wordComposer.getTypedWord();
         if (mOriginalWord != null) {
-            final String mOriginalWordString = mOriginalWord.toString();
-            mOriginalWord = mOriginalWordString;
-            mLowerOriginalWord = mOriginalWordString.toLowerCase();
+            toLowerCase(mOriginalWord, mLowerOriginalWord);
             // Treating USER_TYPED as UNIGRAM suggestion for logging now.
-            LatinImeLogger.onAddSuggestedWord(mOriginalWordString, Suggest.DIC_USER_TYPED,
+            LatinImeLogger.onAddSuggestedWord(mOriginalWord, Suggest.DIC_USER_TYPED,
                     Dictionary.DataType.UNIGRAM);
         } else {
-            mLowerOriginalWord = "";
+            mLowerOriginalWord.setLength(0);
         }
 
         if (wordComposer.size() == 1 && (mCorrectionMode == CORRECTION_FULL_BIGRAM
                 || mCorrectionMode == CORRECTION_BASIC)) {
             // At first character typed, search only the bigrams
+            searchedBigrams = true;
             Arrays.fill(mBigramPriorities, 0);
             collectGarbage(mBigramSuggestions, PREF_MAX_BIGRAMS);
 
             if (!TextUtils.isEmpty(prevWordForBigram)) {
-                CharSequence lowerPrevWord = prevWordForBigram.toString().toLowerCase();
-                if (mMainDict.isValidWord(lowerPrevWord)) {
-                    prevWordForBigram = lowerPrevWord;
-                }
-                if (mUserBigramDictionary != null) {
-                    mUserBigramDictionary.getBigrams(wordComposer, prevWordForBigram, this,
-                            mNextLettersFrequencies);
-                }
-                if (mContactsDictionary != null) {
-                    mContactsDictionary.getBigrams(wordComposer, prevWordForBigram, this,
-                            mNextLettersFrequencies);
-                }
-                if (mMainDict != null) {
-                    mMainDict.getBigrams(wordComposer, prevWordForBigram, this,
-                            mNextLettersFrequencies);
+                prevWordForBigram = getPrevWordForBigramLookup(prevWordForBigram);
+                if (!addPrefetchedBigrams(prevWordForBigram, wordComposer.getCodesAt(0))) {
+                    if (mUserBigramDictionary != null) {
+                        mUserBigramDictionary.getBigrams(wordComposer, prevWordForBigram,
+                                mResults, mNextLettersFrequencies);
+                        addWords(mResults);
+                    }
+                    if (mContactsDictionary != null) {
+                        mContactsDictionary.getBigrams(wordComposer, prevWordForBigram,
+                                mResults, mNextLettersFrequencies);
+                        addWords(mResults);
+                    }
+                    if (mMainDict != null) {
+                        mMainDict.getBigrams(wordComposer, prevWordForBigram, mResults,
+                                mNextLettersFrequencies);
+                        addWords(mResults);
+                    }
                 }
                 char currentChar = wordComposer.getTypedWord().charAt(0);
                 char currentCharUpper = Character.toUpperCase(currentChar);
                 int count = 0;
                 int bigramSuggestionSize = mBigramSuggestions.size();
                 for (int i = 0; i < bigramSuggestionSize; i++) {
-                    if (mBigramSuggestions.get(i).charAt(0) == currentChar
-                            || mBigramSuggestions.get(i).charAt(0) == currentCharUpper) {
-                        int poolSize = mStringPool.size();
-                        StringBuilder sb = poolSize > 0 ?
-                                (StringBuilder) mStringPool.remove(poolSize - 1)
-                                : new StringBuilder(getApproxMaxWordLength());
-                        sb.setLength(0);
-                        sb.append(mBigramSuggestions.get(i));
+                    final CharSequence bigram = mBigramSuggestions.get(i);
+                    final char firstChar = bigram.charAt(0);
+                    if (firstChar == currentChar || firstChar == currentCharUpper) {
+                        StringBuilder sb = takeFromPool();
+                        sb.append(bigram);
                         mSuggestions.add(count++, sb);
                         if (count > mPrefMaxSuggestions) break;
                     }
@@ -287,10 +395,12 @@ public class Suggest implements Dictionary.WordCallback {
             // At second character typed, search the unigrams (scores being affected by bigrams)
             if (mUserDictionary != null || mContactsDictionary != null) {
                 if (mUserDictionary != null) {
-                    mUserDictionary.getWords(wordComposer, this, mNextLettersFrequencies);
+                    mUserDictionary.getWords(wordComposer, mResults, mNextLettersFrequencies);
+                    addWords(mResults);
                 }
                 if (mContactsDictionary != null) {
-                    mContactsDictionary.getWords(wordComposer, this, mNextLettersFrequencies);
+                    mContactsDictionary.getWords(wordComposer, mResults, mNextLettersFrequencies);
+                    addWords(mResults);
                 }
 
                 if (mSuggestions.size() > 0 && isValidWord(mOriginalWord)
@@ -299,14 +409,21 @@ public class Suggest implements Dictionary.WordCallback {
                     mHaveCorrection = true;
                 }
             }
-            mMainDict.getWords(wordComposer, this, mNextLettersFrequencies);
+            mMainDict.getWords(wordComposer, mResults, mNextLettersFrequencies);
+            addWords(mResults);
             if ((mCorrectionMode == CORRECTION_FULL || mCorrectionMode == CORRECTION_FULL_BIGRAM)
                     && mSuggestions.size() > 0) {
                 mHaveCorrection = true;
             }
         }
+        collectTouchedNextLetters();
         if (mOriginalWord != null) {
-            mSuggestions.add(0, mOriginalWord.toString());
+            // The typed word always comes first
+            final int typedIndex = indexOfSuggestion(mOriginalWord);
+            if (typedIndex >= 0) removeFromSuggestions(mSuggestions, typedIndex);
+            StringBuilder sb = takeFromPool();
+            sb.append(mOriginalWord);
+            mSuggestions.add(0, sb);
         }
 
         // Check if the first suggestion has a minimum number of characters in common
@@ -323,9 +440,9 @@ public class Suggest implements Dictionary.WordCallback {
             // Don't autotext the suggestions from the dictionaries
             if (mCorrectionMode == CORRECTION_BASIC) max = 1;
             while (i < mSuggestions.size() && i < max) {
-                String suggestedWord = mSuggestions.get(i).toString().toLowerCase();
+                toLowerCase(mSuggestions.get(i), mLowerSuggestion);
                 CharSequence autoText =
-                        AutoText.get(suggestedWord, 0, suggestedWord.length(), view);
+                        AutoText.get(mLowerSuggestion, 0, mLowerSuggestion.length(), view);
                 // Is there an AutoText correction?
                 boolean canAdd = autoText != null;
                 // Is that correction already the current prediction (or original word)?
@@ -336,52 +453,296 @@ public class Suggest implements Dictionary.WordCallback {
                 }
                 if (canAdd) {
                     mHaveCorrection = true;
-                    mSuggestions.add(i + 1, autoText);
-                    i++;
+                    // Only keep the highest ranked occurrence of the correction
+                    final int existing = indexOfSuggestion(autoText);
+                    if (existing < 0 || existing > i) {
+                        if (existing > i) removeFromSuggestions(mSuggestions, existing);
+                        mSuggestions.add(i + 1, autoText);
+                        i++;
+                    }
                 }
                 i++;
             }
         }
-        removeDupes();
+
+        final SuggestionsCache.Entry entry = mSuggestionsCache.put(wordComposer,
+                prevWordForCache, mCorrectionMode, generation);
+        entry.setSuggestions(mSuggestions);
+        entry.haveCorrection = mHaveCorrection;
+        entry.setNextLettersFrequencies(mNextLettersFrequencies, mTouchedNextLetters,
+                mTouchedNextLettersCount);
+        if (searchedBigrams) {
+            entry.setBigrams(mBigramSuggestions, mBigramPriorities);
+        }
+        updateSearchStats(false);
         return mSuggestions;
     }
 
-    public int[] getNextLettersFrequencies() {
-        return mNextLettersFrequencies;
+    /**
+     * Returns the words that can be glided along the given path of keys, best first. This list
+     * will be overwritten the next time this function or {@link #getSuggestions} is called.
+     * The path changes with each key the stroke reaches, so the results are not cached.
+     * @param path the keys the stroke passed over
+     * @return list of suggestions, which does not include a typed word
+     */
+    public List<CharSequence> getGestureSuggestions(GestureDecoder.Path path) {
+        mCandidateCount = 0;
+        mCandidatesAccepted = 0;
+        mDictionaryStatsBefore.reset();
+        addDictionarySearchStats(mDictionaryStatsBefore);
+        mHaveCorrection = false;
+        mIsFirstCharCapitalized = false;
+        mIsAllUpperCase = false;
+        collectGarbage(mSuggestions, mPrefMaxSuggestions + STRING_POOL_HEADROOM);
+        Arrays.fill(mPriorities, 0);
+        // The bigrams of the word being typed do not apply to the glided one
+        collectGarbage(mBigramSuggestions, PREF_MAX_BIGRAMS);
+        Arrays.fill(mBigramPriorities, 0);
+        mOriginalWord = null;
+        mLowerOriginalWord.setLength(0);
+
+        if (mUserDictionary != null) {
+            mUserDictionary.getWordsOnPath(path, mResults);
+            addWords(mResults);
+        }
+        if (mContactsDictionary != null) {
+            mContactsDictionary.getWordsOnPath(path, mResults);
+            addWords(mResults);
+        }
+        mMainDict.getWordsOnPath(path, mResults);
+        addWords(mResults);
+        mHaveCorrection = mSuggestions.size() > 0;
+        updateSearchStats(false);
+        return mSuggestions;
     }
 
-    private void removeDupes() {
-        final ArrayList<CharSequence> suggestions = mSuggestions;
-        if (suggestions.size() < 2) return;
-        int i = 1;
-        // Don't cache suggestions.size(), since we may be removing items
-        while (i < suggestions.size()) {
-            final CharSequence cur = suggestions.get(i);
-            // Compare each candidate with each previous candidate
-            for (int j = 0; j < i; j++) {
-                CharSequence previous = suggestions.get(j);
-                if (TextUtils.equals(cur, previous)) {
-                    removeFromSuggestions(i);
-                    i--;
-                    break;
+    private void restoreFromCache(SuggestionsCache.Entry entry) {
+        collectGarbage(mSuggestions, mPrefMaxSuggestions + STRING_POOL_HEADROOM);
+        // The bigram suggestions of the first character are used to rank the following ones
+        if (entry.hasBigrams) {
+            collectGarbage(mBigramSuggestions, PREF_MAX_BIGRAMS);
+            for (int i = 0; i < entry.bigramSuggestionsCount; i++) {
+                StringBuilder sb = takeFromPool();
+                sb.append(entry.bigramSuggestions[i]);
+                mBigramSuggestions.add(sb);
+            }
+            System.arraycopy(entry.bigramPriorities, 0, mBigramPriorities, 0,
+                    mBigramPriorities.length);
+        }
+        for (int i = 0; i < entry.suggestionsCount; i++) {
+            StringBuilder sb = takeFromPool();
+            sb.append(entry.suggestions[i]);
+            mSuggestions.add(sb);
+        }
+        mHaveCorrection = entry.haveCorrection;
+        resetNextLettersFrequencies();
+        for (int i = 0; i < entry.nextLettersCount; i++) {
+            final int letter = entry.nextLetters[i];
+            mNextLettersFrequencies[letter] = entry.nextLettersFrequencies[i];
+            mTouchedNextLetters[mTouchedNextLettersCount++] = letter;
+        }
+    }
+
+    /**
+     * Records which letters the dictionaries counted during the last lookup, so that the next
+     * one only resets those. The dictionaries write into the array directly, from Java as well
+     * as native code, hence the single pass here.
+     */
+    private void collectTouchedNextLetters() {
+        final int[] frequencies = mNextLettersFrequencies;
+        int count = 0;
+        for (int i = 0; i < frequencies.length; i++) {
+            if (frequencies[i] != 0) mTouchedNextLetters[count++] = i;
+        }
+        mTouchedNextLettersCount = count;
+    }
+
+    private void resetNextLettersFrequencies() {
+        for (int i = 0; i < mTouchedNextLettersCount; i++) {
+            mNextLettersFrequencies[mTouchedNextLetters[i]] = 0;
+        }
+        mTouchedNextLettersCount = 0;
+    }
+
+    /**
+     * Looks up in the background the words that may follow the given one, so that the first
+     * keystroke of the next word does not have to search the dictionaries for them. Call this
+     * once a word has been committed and the dictionaries have learned from it.
+     * @param prevWord the word that was just committed
+     */
+    public void prefetchBigrams(CharSequence prevWord) {
+        if (TextUtils.isEmpty(prevWord) || (mCorrectionMode != CORRECTION_FULL_BIGRAM
+                && mCorrectionMode != CORRECTION_BASIC)) {
+            return;
+        }
+        mBigramPrefetcher.prefetch(getPrevWordForBigramLookup(prevWord), mUserBigramDictionary,
+                mContactsDictionary, mMainDict, getBigramDictionariesGeneration());
+    }
+
+    // @VisibleForTesting
+    void waitForBigramPrefetch() {
+        mBigramPrefetcher.waitForLookups();
+    }
+
+    /**
+     * Returns the previous word in the case the bigram dictionaries are searched with: lower case
+     * if that is a valid word, as typed otherwise. The lower case version is only valid until
+     * the next call.
+     */
+    private CharSequence getPrevWordForBigramLookup(CharSequence prevWord) {
+        toLowerCase(prevWord, mLowerPrevWord);
+        return mMainDict.isValidWord(mLowerPrevWord) ? mLowerPrevWord : prevWord;
+    }
+
+    /**
+     * Adds the prefetched bigrams of the previous word, if any, in the same order and with the
+     * same filtering as a search of the dictionaries would. Only the main dictionary filters its
+     * bigrams by the alternatives of the first keystroke. As it returns a limited number of them,
+     * the best ones before filtering when prefetched but after filtering when searched, the
+     * prefetched ones are not used if the limit was reached.
+     * @return false if nothing was prefetched for this word and these dictionaries, or if the
+     * dictionaries have to be searched anyway
+     */
+    private boolean addPrefetchedBigrams(CharSequence prevWord, int[] firstCodes) {
+        synchronized (mBigramPrefetcher.getLock()) {
+            final BigramPrefetcher.Entry entry = mBigramPrefetcher.get(prevWord,
+                    getBigramDictionariesGeneration());
+            if (entry == null) return false;
+            final Dictionary.ResultBlock results = entry.results[BigramPrefetcher.MAIN];
+            if (results.count >= BinaryDictionary.MAX_BIGRAMS) return false;
+            addWords(entry.results[BigramPrefetcher.USER_BIGRAM]);
+            addWords(entry.results[BigramPrefetcher.CONTACTS]);
+            final int alternatives = Math.min(firstCodes.length, BinaryDictionary.MAX_ALTERNATIVES);
+            for (int i = 0; i < results.count; i++) {
+                final char firstChar = results.chars[results.offsets[i]];
+                for (int j = 0; j < alternatives; j++) {
+                    if (firstCodes[j] == firstChar) {
+                        addWord(results.chars, results.offsets[i], results.lengths[i],
+                                results.scores[i], results.dicTypeIds[i], results.dataTypes[i]);
+                        break;
+                    }
                 }
             }
-            i++;
+            return true;
+        }
+    }
+
+    private int getBigramDictionariesGeneration() {
+        int generation = mMainDict.getGeneration();
+        if (mContactsDictionary != null) generation += mContactsDictionary.getGeneration();
+        if (mUserBigramDictionary != null) generation += mUserBigramDictionary.getGeneration();
+        return generation;
+    }
+
+    /**
+     * Returns a value that changes whenever any of the dictionaries in use changes. Cached
+     * suggestions computed under a different value are discarded.
+     */
+    private int getDictionariesGeneration() {
+        int generation = mMainDict.getGeneration();
+        if (mUserDictionary != null) generation += mUserDictionary.getGeneration();
+        if (mAutoDictionary != null) generation += mAutoDictionary.getGeneration();
+        if (mContactsDictionary != null) generation += mContactsDictionary.getGeneration();
+        if (mUserBigramDictionary != null) generation += mUserBigramDictionary.getGeneration();
+        return generation;
+    }
+
+    private void addDictionarySearchStats(SearchStats stats) {
+        stats.add(mMainDict.getSearchStats());
+        if (mUserDictionary != null) stats.add(mUserDictionary.getSearchStats());
+        if (mAutoDictionary != null) stats.add(mAutoDictionary.getSearchStats());
+        if (mContactsDictionary != null) stats.add(mContactsDictionary.getSearchStats());
+        if (mUserBigramDictionary != null) stats.add(mUserBigramDictionary.getSearchStats());
+    }
+
+    /**
+     * Computes the work done by the lookup that is ending, as the difference between the
+     * counters of the dictionaries now and when it started. Searches running at the same time
+     * on the bigram prefetch thread are counted too.
+     */
+    private void updateSearchStats(boolean cached) {
+        mLastSearchStats.reset();
+        addDictionarySearchStats(mLastSearchStats);
+        mLastSearchStats.subtract(mDictionaryStatsBefore);
+        mLastSearchStats.addLookup(cached, mCandidateCount, mCandidatesAccepted);
+        mSearchStats.add(mLastSearchStats);
+    }
+
+    public int[] getNextLettersFrequencies() {
+        return mNextLettersFrequencies;
+    }
+
+    private int indexOfSuggestion(CharSequence word) {
+        final int size = mSuggestions.size();
+        for (int i = 0; i < size; i++) {
+            if (TextUtils.equals(mSuggestions.get(i), word)) return i;
         }
+        return -1;
     }
 
-    private void removeFromSuggestions(int index) {
-        CharSequence garbage = mSuggestions.remove(index);
+    private void removeFromSuggestions(ArrayList<CharSequence> suggestions, int index) {
+        CharSequence garbage = suggestions.remove(index);
         if (garbage != null && garbage instanceof StringBuilder) {
             mStringPool.add(garbage);
         }
     }
 
+    private StringBuilder takeFromPool() {
+        final int poolSize = mStringPool.size();
+        final StringBuilder sb = poolSize > 0
+                ? (StringBuilder) mStringPool.remove(poolSize - 1)
+                : new StringBuilder(getApproxMaxWordLength());
+        sb.setLength(0);
+        return sb;
+    }
+
+    private static void toLowerCase(CharSequence word, StringBuilder out) {
+        out.setLength(0);
+        final int length = word.length();
+        for (int i = 0; i < length; i++) {
+            out.append(Character.toLowerCase(word.charAt(i)));
+        }
+    }
+
+    private static int hash(CharSequence word) {
+        int hash = 0;
+        final int length = word.length();
+        for (int i = 0; i < length; i++) {
+            hash = hash * 31 + word.charAt(i);
+        }
+        return hash;
+    }
+
     public boolean hasMinimalCorrection() {
         return mHaveCorrection;
     }
 
-    private boolean compareCaseInsensitive(final String mLowerOriginalWord, 
+    /**
+     * Returns the number of words the dictionaries offered during the last call to
+     * {@link #getSuggestions}, which is 0 if the suggestions came from the cache. This is used
+     * to measure how much work a lookup did.
+     */
+    public int getCandidateCount() {
+        return mCandidateCount;
+    }
+
+    /**
+     * Returns the work done by the dictionary searches of the last call to
+     * {@link #getSuggestions}. The same object is updated by every call.
+     */
+    public SearchStats getLastSearchStats() {
+        return mLastSearchStats;
+    }
+
+    /**
+     * Returns the work done by the dictionary searches of all the calls to
+     * {@link #getSuggestions} so far.
+     */
+    public SearchStats getSearchStats() {
+        return mSearchStats;
+    }
+
+    private boolean compareCaseInsensitive(final CharSequence mLowerOriginalWord, 
             final char[] word, final int offset, final int length) {
         final int originalLength = mLowerOriginalWord.length();
         if (originalLength == length && Character.isUpperCase(word[offset])) {
@@ -395,19 +756,35 @@ public class Suggest implements Dictionary.WordCallback {
         return false;
     }
 
+    /**
+     * Merges all the words returned by a dictionary lookup into the suggestions.
+     */
+    private void addWords(Dictionary.ResultBlock results) {
+        final char[] chars = results.chars;
+        final int count = results.count;
+        for (int i = 0; i < count; i++) {
+            addWord(chars, results.offsets[i], results.lengths[i], results.scores[i],
+                    results.dicTypeIds[i], results.dataTypes[i]);
+        }
+    }
+
     public boolean addWord(final char[] word, final int offset, final int length, int freq,
             final int dicTypeId, final Dictionary.DataType dataType) {
+        mCandidateCount++;
         Dictionary.DataType dataTypeForLog = dataType;
         ArrayList<CharSequence> suggestions;
         int[] priorities;
+        int[] hashes;
         int prefMaxSuggestions;
         if(dataType == Dictionary.DataType.BIGRAM) {
             suggestions = mBigramSuggestions;
             priorities = mBigramPriorities;
+            hashes = mBigramHashes;
             prefMaxSuggestions = PREF_MAX_BIGRAMS;
         } else {
             suggestions = mSuggestions;
             priorities = mPriorities;
+            hashes = mHashes;
             prefMaxSuggestions = mPrefMaxSuggestions;
         }
 
@@ -450,15 +827,11 @@ public class Suggest implements Dictionary.WordCallback {
             return true;
         }
 
-        System.arraycopy(priorities, pos, priorities, pos + 1,
-                prefMaxSuggestions - pos - 1);
-        priorities[pos] = freq;
-        int poolSize = mStringPool.size();
-        StringBuilder sb = poolSize > 0 ? (StringBuilder) mStringPool.remove(poolSize - 1) 
-                : new StringBuilder(getApproxMaxWordLength());
-        sb.setLength(0);
+        StringBuilder sb = takeFromPool();
         if (mIsAllUpperCase) {
-            sb.append(new String(word, offset, length).toUpperCase());
+            for (int i = 0; i < length; i++) {
+                sb.append(Character.toUpperCase(word[offset + i]));
+            }
         } else if (mIsFirstCharCapitalized) {
             sb.append(Character.toUpperCase(word[offset]));
             if (length > 1) {
@@ -467,14 +840,38 @@ public class Suggest implements Dictionary.WordCallback {
         } else {
             sb.append(word, offset, length);
         }
+
+        // Dictionaries and skip passes may offer the same word several times. Keep only the
+        // highest ranked one.
+        final int hash = hash(sb);
+        final int size = suggestions.size();
+        for (int i = 0; i < size; i++) {
+            if (hashes[i] != hash || !TextUtils.equals(suggestions.get(i), sb)) continue;
+            if (i < pos) {
+                mStringPool.add(sb);
+                return true;
+            }
+            removeFromSuggestions(suggestions, i);
+            System.arraycopy(priorities, i + 1, priorities, i, prefMaxSuggestions - i - 1);
+            System.arraycopy(hashes, i + 1, hashes, i, prefMaxSuggestions - i - 1);
+            priorities[prefMaxSuggestions - 1] = 0;
+            break;
+        }
+
+        System.arraycopy(priorities, pos, priorities, pos + 1,
+                prefMaxSuggestions - pos - 1);
+        priorities[pos] = freq;
+        System.arraycopy(hashes, pos, hashes, pos + 1, prefMaxSuggestions - pos - 1);
+        hashes[pos] = hash;
         suggestions.add(pos, sb);
+        mCandidatesAccepted++;
         if (suggestions.size() > prefMaxSuggestions) {
             CharSequence garbage = suggestions.remove(prefMaxSuggestions);
             if (garbage instanceof StringBuilder) {
                 mStringPool.add(garbage);
             }
         } else {
-            LatinImeLogger.onAddSuggestedWord(sb.toString(), dicTypeId, dataTypeForLog);
+            LatinImeLogger.onAddSuggestedWord(sb, dicTypeId, dataTypeForLog);
         }
         return true;
     }
@@ -503,10 +900,19 @@ public class Suggest implements Dictionary.WordCallback {
         if (word == null || word.length() == 0) {
             return false;
         }
-        return mMainDict.isValidWord(word)
+        // The same words are checked several times around each commit, so remember the answers
+        // until one of the dictionaries changes.
+        final int generation = getDictionariesGeneration();
+        final int cached = mValidWordCache.get(word, generation);
+        if (cached != ValidWordCache.UNKNOWN) {
+            return cached == ValidWordCache.VALID;
+        }
+        final boolean valid = mMainDict.isValidWord(word)
                 || (mUserDictionary != null && mUserDictionary.isValidWord(word))
                 || (mAutoDictionary != null && mAutoDictionary.isValidWord(word))
                 || (mContactsDictionary != null && mContactsDictionary.isValidWord(word));
+        mValidWordCache.put(word, valid, generation);
+        return valid;
     }
     
     private void collectGarbage(ArrayList<CharSequence> suggestions, int prefMaxSuggestions) {
@@ -526,7 +932,26 @@ public class Suggest implements Dictionary.WordCallback {
         suggestions.clear();
     }
 
+    /**
+     * Drops the caches of the suggestions and of the valid words, with their buffers. The
+     * lookups allocate them again, and are slower until the caches are warm.
+     */
+    public void trimCaches() {
+        mSuggestionsCache.trim();
+        mValidWordCache.trim();
+    }
+
+    /**
+     * Returns an estimate of the bytes held by the caches that {@link #trimCaches} drops.
+     */
+    public long getCacheSizeEstimate() {
+        return mSuggestionsCache.getSizeEstimate() + mValidWordCache.getSizeEstimate();
+    }
+
     public void close() {
+        mBigramPrefetcher.close();
+        mSuggestionsCache.clear();
+        mValidWordCache.clear();
         if (mMainDict != null) {
             mMainDict.close();
         }
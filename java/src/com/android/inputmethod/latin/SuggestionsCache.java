@@ -0,0 +1,334 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.android.inputmethod.latin;
+
+import java.util.List;
+
+/**
+ * A small LRU cache of the suggestion lists computed by {@link Suggest}, keyed on the composing
+ * state: the code alternatives of each keystroke and their likelihoods, the typed word, the
+ * previous word, the correction mode and the capitalization flags. Lookups compare the key
+ * against the {@link WordComposer} in place, and evicted entries are refilled rather than
+ * reallocated, so once the cache is warm neither a hit nor a miss allocates.
+ *
+ * The whole cache is dropped whenever the generation passed in differs from the one the entries
+ * were computed with. {@link Suggest} derives that generation from its dictionaries.
+ */
+class SuggestionsCache {
+
+    static class Entry {
+        private boolean mInUse;
+        private int mHash;
+        // Rows are reused across states, so each one may be longer than the alternatives it holds
+        private int[][] mCodes = new int[0][];
+        private int[] mCodesLengths = new int[0];
+        private int mCodesCount;
+        // Only meaningful where mHasLikelihoods is set, with the length of the codes row
+        private int[][] mLikelihoods = new int[0][];
+        private boolean[] mHasLikelihoods = new boolean[0];
+        private final StringBuilder mTypedWord =
+                new StringBuilder(Suggest.APPROX_MAX_WORD_LENGTH);
+        private boolean mHasTypedWord;
+        private final StringBuilder mPrevWord =
+                new StringBuilder(Suggest.APPROX_MAX_WORD_LENGTH);
+        private boolean mHasPrevWord;
+        private int mCorrectionMode;
+        private boolean mFirstCharCapitalized;
+        private boolean mAllUpperCase;
+        private long mLastUsed;
+
+        StringBuilder[] suggestions = grow(new StringBuilder[0], INITIAL_SUGGESTIONS_CAPACITY);
+        int suggestionsCount;
+        boolean haveCorrection;
+        // Sparse snapshot of the next letters frequencies
+        int[] nextLetters = new int[INITIAL_NEXT_LETTERS_CAPACITY];
+        int[] nextLettersFrequencies = new int[INITIAL_NEXT_LETTERS_CAPACITY];
+        int nextLettersCount;
+        // Only set if the bigram search ran for this state
+        boolean hasBigrams;
+        StringBuilder[] bigramSuggestions = new StringBuilder[0];
+        int bigramSuggestionsCount;
+        int[] bigramPriorities = new int[0];
+
+        void setSuggestions(List<CharSequence> list) {
+            suggestions = copy(list, suggestions);
+            suggestionsCount = list.size();
+        }
+
+        /**
+         * Keeps the frequencies of the given letters only. The other entries are expected to be
+         * zero.
+         */
+        void setNextLettersFrequencies(int[] frequencies, int[] letters, int count) {
+            if (nextLetters.length < count) {
+                nextLetters = new int[Math.max(count, nextLetters.length * 2)];
+                nextLettersFrequencies = new int[nextLetters.length];
+            }
+            for (int i = 0; i < count; i++) {
+                nextLetters[i] = letters[i];
+                nextLettersFrequencies[i] = frequencies[letters[i]];
+            }
+            nextLettersCount = count;
+        }
+
+        void setBigrams(List<CharSequence> list, int[] priorities) {
+            bigramSuggestions = copy(list, bigramSuggestions);
+            bigramSuggestionsCount = list.size();
+            if (bigramPriorities.length != priorities.length) {
+                bigramPriorities = new int[priorities.length];
+            }
+            System.arraycopy(priorities, 0, bigramPriorities, 0, priorities.length);
+            hasBigrams = true;
+        }
+
+        long getSizeEstimate() {
+            long size = (mTypedWord.capacity() + mPrevWord.capacity()) * 2
+                    + (mCodesLengths.length + nextLetters.length + nextLettersFrequencies.length
+                    + bigramPriorities.length) * 4;
+            for (int[] row : mCodes) {
+                if (row != null) size += row.length * 4;
+            }
+            for (int[] row : mLikelihoods) {
+                if (row != null) size += row.length * 4;
+            }
+            for (StringBuilder suggestion : suggestions) {
+                size += suggestion.capacity() * 2;
+            }
+            for (StringBuilder suggestion : bigramSuggestions) {
+                size += suggestion.capacity() * 2;
+            }
+            return size;
+        }
+
+        private static StringBuilder[] copy(List<CharSequence> list, StringBuilder[] buffers) {
+            final int size = list.size();
+            if (buffers.length < size) {
+                buffers = grow(buffers, Math.max(size, buffers.length * 2));
+            }
+            for (int i = 0; i < size; i++) {
+                buffers[i].setLength(0);
+                buffers[i].append(list.get(i));
+            }
+            return buffers;
+        }
+
+        private static StringBuilder[] grow(StringBuilder[] buffers, int capacity) {
+            final StringBuilder[] grown = new StringBuilder[capacity];
+            System.arraycopy(buffers, 0, grown, 0, buffers.length);
+            for (int i = buffers.length; i < capacity; i++) {
+                grown[i] = new StringBuilder(Suggest.APPROX_MAX_WORD_LENGTH);
+            }
+            return grown;
+        }
+    }
+
+    // Enough for the nearby keys the key detector reports for one keystroke
+    private static final int MIN_CODES_ROW_LENGTH = 16;
+    // Typical sizes, so that recycled entries rarely have to grow
+    private static final int INITIAL_SUGGESTIONS_CAPACITY = 16;
+    private static final int INITIAL_NEXT_LETTERS_CAPACITY = 64;
+
+    private final Entry[] mEntries;
+    private int mGeneration;
+    private long mClock;
+
+    SuggestionsCache(int capacity) {
+        mEntries = new Entry[capacity];
+    }
+
+    /**
+     * Returns the cached entry for the given state, or null if there is none.
+     */
+    Entry get(WordComposer composer, CharSequence prevWord, int correctionMode, int generation) {
+        if (generation != mGeneration) {
+            clear();
+            mGeneration = generation;
+            return null;
+        }
+        final int hash = hash(composer, prevWord, correctionMode);
+        for (Entry entry : mEntries) {
+            if (entry != null && entry.mInUse && entry.mHash == hash
+                    && matches(entry, composer, prevWord, correctionMode)) {
+                entry.mLastUsed = ++mClock;
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Takes an entry for the given state, evicting the least recently used one if the cache is
+     * full. The caller is expected to fill in the values.
+     */
+    Entry put(WordComposer composer, CharSequence prevWord, int correctionMode, int generation) {
+        if (generation != mGeneration) {
+            clear();
+            mGeneration = generation;
+        }
+        int slot = 0;
+        for (int i = 0; i < mEntries.length; i++) {
+            if (mEntries[i] == null || !mEntries[i].mInUse) {
+                slot = i;
+                break;
+            }
+            if (mEntries[i].mLastUsed < mEntries[slot].mLastUsed) {
+                slot = i;
+            }
+        }
+        if (mEntries[slot] == null) mEntries[slot] = new Entry();
+        final Entry entry = mEntries[slot];
+        final int size = composer.size();
+        entry.mHash = hash(composer, prevWord, correctionMode);
+        if (entry.mCodes.length < size) {
+            final int[][] grown = new int[Math.max(size, entry.mCodes.length * 2)][];
+            System.arraycopy(entry.mCodes, 0, grown, 0, entry.mCodes.length);
+            entry.mCodes = grown;
+            entry.mCodesLengths = new int[grown.length];
+            final int[][] grownLikelihoods = new int[grown.length][];
+            System.arraycopy(entry.mLikelihoods, 0, grownLikelihoods, 0,
+                    entry.mLikelihoods.length);
+            entry.mLikelihoods = grownLikelihoods;
+            entry.mHasLikelihoods = new boolean[grown.length];
+        }
+        for (int i = 0; i < size; i++) {
+            final int[] codes = composer.getCodesAt(i);
+            if (entry.mCodes[i] == null || entry.mCodes[i].length < codes.length) {
+                entry.mCodes[i] = new int[Math.max(codes.length, MIN_CODES_ROW_LENGTH)];
+            }
+            System.arraycopy(codes, 0, entry.mCodes[i], 0, codes.length);
+            entry.mCodesLengths[i] = codes.length;
+            final int[] likelihoods = composer.getLikelihoodsAt(i);
+            entry.mHasLikelihoods[i] = likelihoods != null;
+            if (likelihoods == null) continue;
+            if (entry.mLikelihoods[i] == null || entry.mLikelihoods[i].length < codes.length) {
+                entry.mLikelihoods[i] = new int[entry.mCodes[i].length];
+            }
+            System.arraycopy(likelihoods, 0, entry.mLikelihoods[i], 0, codes.length);
+        }
+        entry.mCodesCount = size;
+        final CharSequence typedWord = composer.getTypedWord();
+        entry.mHasTypedWord = typedWord != null;
+        entry.mTypedWord.setLength(0);
+        if (typedWord != null) entry.mTypedWord.append(typedWord);
+        entry.mHasPrevWord = prevWord != null;
+        entry.mPrevWord.setLength(0);
+        if (prevWord != null) entry.mPrevWord.append(prevWord);
+        entry.mCorrectionMode = correctionMode;
+        entry.mFirstCharCapitalized = composer.isFirstCharCapitalized();
+        entry.mAllUpperCase = composer.isAllUpperCase();
+        entry.mLastUsed = ++mClock;
+        entry.suggestionsCount = 0;
+        entry.haveCorrection = false;
+        entry.nextLettersCount = 0;
+        entry.hasBigrams = false;
+        entry.bigramSuggestionsCount = 0;
+        entry.mInUse = true;
+        return entry;
+    }
+
+    void clear() {
+        for (int i = 0; i < mEntries.length; i++) {
+            if (mEntries[i] != null) mEntries[i].mInUse = false;
+        }
+    }
+
+    /**
+     * Drops the entries and their buffers, which are reallocated as the cache fills again.
+     */
+    void trim() {
+        for (int i = 0; i < mEntries.length; i++) {
+            mEntries[i] = null;
+        }
+    }
+
+    /**
+     * Returns an estimate of the bytes held by the buffers of the entries.
+     */
+    long getSizeEstimate() {
+        long size = 0;
+        for (Entry entry : mEntries) {
+            if (entry != null) size += entry.getSizeEstimate();
+        }
+        return size;
+    }
+
+    private static int hash(WordComposer composer, CharSequence prevWord, int correctionMode) {
+        int hash = correctionMode;
+        final int size = composer.size();
+        for (int i = 0; i < size; i++) {
+            final int[] codes = composer.getCodesAt(i);
+            final int[] likelihoods = composer.getLikelihoodsAt(i);
+            for (int j = 0; j < codes.length; j++) {
+                hash = hash * 31 + codes[j];
+                if (likelihoods != null) hash = hash * 31 + likelihoods[j];
+            }
+        }
+        hash = hash * 31 + hash(composer.getTypedWord());
+        hash = hash * 31 + hash(prevWord);
+        hash = hash * 2 + (composer.isFirstCharCapitalized() ? 1 : 0);
+        hash = hash * 2 + (composer.isAllUpperCase() ? 1 : 0);
+        return hash;
+    }
+
+    private static int hash(CharSequence s) {
+        if (s == null) return 0;
+        int hash = 1;
+        final int length = s.length();
+        for (int i = 0; i < length; i++) {
+            hash = hash * 31 + s.charAt(i);
+        }
+        return hash;
+    }
+
+    private static boolean matches(Entry entry, WordComposer composer, CharSequence prevWord,
+            int correctionMode) {
+        if (entry.mCorrectionMode != correctionMode
+                || entry.mFirstCharCapitalized != composer.isFirstCharCapitalized()
+                || entry.mAllUpperCase != composer.isAllUpperCase()) {
+            return false;
+        }
+        final int size = composer.size();
+        if (entry.mCodesCount != size) return false;
+        for (int i = 0; i < size; i++) {
+            final int[] codes = composer.getCodesAt(i);
+            final int[] cached = entry.mCodes[i];
+            if (codes.length != entry.mCodesLengths[i]) return false;
+            for (int j = 0; j < codes.length; j++) {
+                if (codes[j] != cached[j]) return false;
+            }
+            final int[] likelihoods = composer.getLikelihoodsAt(i);
+            if (entry.mHasLikelihoods[i] != (likelihoods != null)) return false;
+            if (likelihoods == null) continue;
+            final int[] cachedLikelihoods = entry.mLikelihoods[i];
+            for (int j = 0; j < codes.length; j++) {
+                if (likelihoods[j] != cachedLikelihoods[j]) return false;
+            }
+        }
+        return same(entry.mHasTypedWord, entry.mTypedWord, composer.getTypedWord())
+                && same(entry.mHasPrevWord, entry.mPrevWord, prevWord);
+    }
+
+    private static boolean same(boolean hasCached, StringBuilder cached, CharSequence s) {
+        if (!hasCached || s == null) return !hasCached && s == null;
+        final int length = cached.length();
+        if (s.length() != length) return false;
+        for (int i = 0; i < length; i++) {
+            if (cached.charAt(i) != s.charAt(i)) return false;
+        }
+        return true;
+    }
+}
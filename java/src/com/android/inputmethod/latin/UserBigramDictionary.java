@@ -19,6 +19,7 @@ package com.android.inputmethod.latin;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import android.content.ContentValues;
 import android.content.Context;
@@ -89,7 +90,9 @@ public class UserBigramDictionary extends ExpandableDictionary {
 
     private HashSet<Bigram> mPendingWrites = new HashSet<Bigram>();
     private final Object mPendingWritesLock = new Object();
-    private static volatile boolean sUpdatingDB = false;
+    // The writes of this dictionary's bigrams to the database in progress, counted before their
+    // bigrams leave mPendingWrites so that the dictionary is not unloaded before they are written
+    private final AtomicInteger mWritesInProgress = new AtomicInteger();
 
     private final static HashMap<String, String> sDictProjectionMap;
 
@@ -192,7 +195,9 @@ public class UserBigramDictionary extends ExpandableDictionary {
             // Nothing pending? Return
             if (mPendingWrites.isEmpty()) return;
             // Create a background thread to write the pending entries
-            new UpdateDbTask(getContext(), sOpenHelper, mPendingWrites, mLocale).execute();
+            mWritesInProgress.incrementAndGet();
+            new UpdateDbTask(getContext(), sOpenHelper, mPendingWrites, mLocale,
+                    mWritesInProgress).execute();
             // Create a new map for writing new entries into while the old one is written to db
             mPendingWrites = new HashSet<Bigram>();
         }
@@ -201,7 +206,7 @@ public class UserBigramDictionary extends ExpandableDictionary {
     /** Used for testing purpose **/
     void waitUntilUpdateDBDone() {
         synchronized (mPendingWritesLock) {
-            while (sUpdatingDB) {
+            while (mWritesInProgress.get() > 0) {
                 try {
                     Thread.sleep(100);
                 } catch (InterruptedException e) {
@@ -211,6 +216,13 @@ public class UserBigramDictionary extends ExpandableDictionary {
         }
     }
 
+    @Override
+    protected boolean canUnload() {
+        synchronized (mPendingWritesLock) {
+            return mPendingWrites.isEmpty() && mWritesInProgress.get() == 0;
+        }
+    }
+
     @Override
     public void loadDictionaryAsync() {
         // Load the words that correspond to the current input locale
@@ -303,12 +315,14 @@ public class UserBigramDictionary extends ExpandableDictionary {
         private final HashSet<Bigram> mMap;
         private final DatabaseHelper mDbHelper;
         private final String mLocale;
+        private final AtomicInteger mWritesInProgress;
 
         public UpdateDbTask(Context context, DatabaseHelper openHelper,
-                HashSet<Bigram> pendingWrites, String locale) {
+                HashSet<Bigram> pendingWrites, String locale, AtomicInteger writesInProgress) {
             mMap = pendingWrites;
             mLocale = locale;
             mDbHelper = openHelper;
+            mWritesInProgress = writesInProgress;
         }
 
         /** Prune any old data if the database is getting too big. */
@@ -340,12 +354,16 @@ public class UserBigramDictionary extends ExpandableDictionary {
         }
 
         @Override
-        protected void onPreExecute() {
-            sUpdatingDB = true;
+        protected Void doInBackground(Void... v) {
+            try {
+                writeBigrams();
+            } finally {
+                mWritesInProgress.decrementAndGet();
+            }
+            return null;
         }
 
-        @Override
-        protected Void doInBackground(Void... v) {
+        private void writeBigrams() {
             SQLiteDatabase db = mDbHelper.getWritableDatabase();
             db.execSQL("PRAGMA foreign_keys = ON;");
             // Write all the entries to the db
@@ -377,9 +395,6 @@ public class UserBigramDictionary extends ExpandableDictionary {
                 db.insert(FREQ_TABLE_NAME, null, getFrequencyContentValues(pairId, bi.frequency));
             }
             checkPruneData(db);
-            sUpdatingDB = false;
-
-            return null;
         }
 
         private ContentValues getContentValues(String word1, String word2, String locale) {
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.android.inputmethod.latin;
+
+/**
+ * A direct-mapped cache of word validity answers, as returned by {@link Suggest#isValidWord}.
+ * A word hashes to a single slot and replaces whatever was there, so lookups are constant time
+ * and, once each slot has been used, storing an answer does not allocate either.
+ *
+ * All the answers are dropped whenever the generation passed in differs from the one they
+ * were computed with.
+ */
+class ValidWordCache {
+
+    static final int UNKNOWN = -1;
+    static final int INVALID = 0;
+    static final int VALID = 1;
+
+    private final StringBuilder[] mWords;
+    private final boolean[] mFilled;
+    private final boolean[] mValid;
+    private final int mMask;
+    private int mGeneration;
+
+    /**
+     * @param capacity the number of slots, which must be a power of two
+     */
+    ValidWordCache(int capacity) {
+        mWords = new StringBuilder[capacity];
+        mFilled = new boolean[capacity];
+        mValid = new boolean[capacity];
+        mMask = capacity - 1;
+    }
+
+    /**
+     * Returns {@link #VALID} or {@link #INVALID} if the answer for the word is known, or
+     * {@link #UNKNOWN} otherwise.
+     */
+    int get(CharSequence word, int generation) {
+        if (generation != mGeneration) {
+            clear();
+            mGeneration = generation;
+            return UNKNOWN;
+        }
+        final int slot = hash(word) & mMask;
+        if (!mFilled[slot] || !same(mWords[slot], word)) return UNKNOWN;
+        return mValid[slot] ? VALID : INVALID;
+    }
+
+    void put(CharSequence word, boolean valid, int generation) {
+        if (generation != mGeneration) {
+            clear();
+            mGeneration = generation;
+        }
+        final int slot = hash(word) & mMask;
+        if (mWords[slot] == null) mWords[slot] = new StringBuilder(word.length());
+        mWords[slot].setLength(0);
+        mWords[slot].append(word);
+        mFilled[slot] = true;
+        mValid[slot] = valid;
+    }
+
+    void clear() {
+        for (int i = 0; i < mFilled.length; i++) {
+            mFilled[i] = false;
+        }
+    }
+
+    /**
+     * Drops the buffers of the words, which are reallocated as the cache fills again.
+     */
+    void trim() {
+        clear();
+        for (int i = 0; i < mWords.length; i++) {
+            mWords[i] = null;
+        }
+    }
+
+    /**
+     * Returns an estimate of the bytes held by the buffers of the words.
+     */
+    long getSizeEstimate() {
+        long size = 0;
+        for (StringBuilder word : mWords) {
+            if (word != null) size += word.capacity() * 2;
+        }
+        return size;
+    }
+
+    private static int hash(CharSequence s) {
+        int hash = 0;
+        final int length = s.length();
+        for (int i = 0; i < length; i++) {
+            hash = hash * 31 + s.charAt(i);
+        }
+        // Mix the high bits in, since only the low ones pick the slot
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean same(StringBuilder cached, CharSequence s) {
+        final int length = cached.length();
+        if (s.length() != length) return false;
+        for (int i = 0; i < length; i++) {
+            if (cached.charAt(i) != s.charAt(i)) return false;
+        }
+        return true;
+    }
+}
@@ -22,10 +22,34 @@ import java.util.ArrayList;
  * A place to store the currently composing word with information such as adjacent key codes as well
  */
 public class WordComposer {
+    /**
+     * The likelihood of the most likely key of a keystroke. Likelihoods are in percent of it.
+     */
+    static final int MAX_LIKELIHOOD = 100;
+
+    /**
+     * The dictionaries do not try the alternatives of a keystroke less likely than this, which
+     * are too far from the touch to be meant. The native dictionary has the same value.
+     */
+    static final int MIN_LIKELIHOOD = 5;
+
+    /**
+     * The dictionaries weight the alternatives of a keystroke at least this likely as they
+     * weight the key typed, as the touch was about as close to them. The native dictionary has
+     * the same value.
+     */
+    static final int TIE_LIKELIHOOD = 80;
+
     /**
      * The list of unicode values for each keystroke (including surrounding keys)
      */
     private final ArrayList<int[]> mCodes;
+
+    /**
+     * The likelihood of each of the codes of each keystroke, or null for a keystroke whose
+     * alternatives were not weighted, such as one not made by touching the keyboard
+     */
+    private final ArrayList<int[]> mLikelihoods;
     
     /**
      * The word chosen from the candidate list, until it is committed.
@@ -45,11 +69,13 @@ public class WordComposer {
 
     public WordComposer() {
         mCodes = new ArrayList<int[]>(12);
+        mLikelihoods = new ArrayList<int[]>(12);
         mTypedWord = new StringBuilder(20);
     }
 
     WordComposer(WordComposer copy) {
         mCodes = new ArrayList<int[]>(copy.mCodes);
+        mLikelihoods = new ArrayList<int[]>(copy.mLikelihoods);
         mPreferredWord = copy.mPreferredWord;
         mTypedWord = new StringBuilder(copy.mTypedWord);
         mCapsCount = copy.mCapsCount;
@@ -62,6 +88,7 @@ public class WordComposer {
      */
     public void reset() {
         mCodes.clear();
+        mLikelihoods.clear();
         mIsFirstCharCapitalized = false;
         mPreferredWord = null;
         mTypedWord.setLength(0);
@@ -85,15 +112,35 @@ public class WordComposer {
         return mCodes.get(index);
     }
 
+    /**
+     * Returns the likelihoods of the codes at a particular position in the word.
+     * @param index the position in the word
+     * @return the likelihood of each code, in percent of the most likely one, or null if all the
+     * codes are to be tried
+     */
+    public int[] getLikelihoodsAt(int index) {
+        return mLikelihoods.get(index);
+    }
+
     /**
      * Add a new keystroke, with codes[0] containing the pressed key's unicode and the rest of
      * the array containing unicode for adjacent keys, sorted by reducing probability/proximity.
      * @param codes the array of unicode values
      */
     public void add(int primaryCode, int[] codes) {
+        add(primaryCode, codes, null);
+    }
+
+    /**
+     * Add a new keystroke, with the likelihood of each of its codes to be the one meant.
+     * @param codes the array of unicode values
+     * @param likelihoods the likelihood of each code, in percent of the most likely one, or null
+     */
+    public void add(int primaryCode, int[] codes, int[] likelihoods) {
         mTypedWord.append((char) primaryCode);
-        correctPrimaryJuxtapos(primaryCode, codes);
+        correctPrimaryJuxtapos(primaryCode, codes, likelihoods);
         mCodes.add(codes);
+        mLikelihoods.add(likelihoods);
         if (Character.isUpperCase((char) primaryCode)) mCapsCount++;
     }
 
@@ -103,12 +150,18 @@ public class WordComposer {
      * the user released the finger on.
      * @param primaryCode the preferred character
      * @param codes array of codes based on distance from touch point
+     * @param likelihoods the likelihoods of the codes, swapped with them, or null
      */
-    private void correctPrimaryJuxtapos(int primaryCode, int[] codes) {
+    private void correctPrimaryJuxtapos(int primaryCode, int[] codes, int[] likelihoods) {
         if (codes.length < 2) return;
         if (codes[0] > 0 && codes[1] > 0 && codes[0] != primaryCode && codes[1] == primaryCode) {
             codes[1] = codes[0];
             codes[0] = primaryCode;
+            if (likelihoods != null) {
+                final int likelihood = likelihoods[1];
+                likelihoods[1] = likelihoods[0];
+                likelihoods[0] = likelihood;
+            }
         }
     }
 
@@ -119,6 +172,7 @@ public class WordComposer {
         final int codesSize = mCodes.size();
         if (codesSize > 0) {
             mCodes.remove(codesSize - 1);
+            mLikelihoods.remove(codesSize - 1);
             final int lastPos = mTypedWord.length() - 1;
             char last = mTypedWord.charAt(lastPos);
             mTypedWord.deleteCharAt(lastPos);
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.android.inputmethod.latin;
+
+/**
+ * A Bloom filter over the words of a {@link BinaryDictionary}. It can tell that a word is
+ * definitely not in the dictionary without looking at the dictionary itself, and may give false
+ * positives at a rate of about 1% with the default sizing.
+ *
+ * The bits are set by the native code while walking the dictionary, so the hash functions here
+ * have to match Dictionary::fillWordFilter.
+ */
+class WordFilter {
+
+    static final int NUM_HASHES = 7;
+    private static final int BITS_PER_WORD = 10;
+    private static final int HASH1_SEED = 0;
+    private static final int HASH2_SEED = 0x811C9DC5;
+    private static final int HASH2_PRIME = 16777619;
+
+    private final int[] mBits;
+    private final int mMask;
+
+    /**
+     * Creates an empty filter sized for the given number of words.
+     */
+    WordFilter(int wordCount) {
+        int numBits = 32;
+        while (numBits < wordCount * BITS_PER_WORD && numBits < (1 << 30)) {
+            numBits <<= 1;
+        }
+        mBits = new int[numBits >>> 5];
+        mMask = numBits - 1;
+    }
+
+    int[] getBits() {
+        return mBits;
+    }
+
+    int getNumBits() {
+        return mMask + 1;
+    }
+
+    /**
+     * Returns false if the word is certainly not in the dictionary, true if it might be.
+     */
+    boolean mightContain(CharSequence word) {
+        int hash1 = HASH1_SEED;
+        int hash2 = HASH2_SEED;
+        final int length = word.length();
+        for (int i = 0; i < length; i++) {
+            final char c = word.charAt(i);
+            hash1 = hash1 * 31 + c;
+            hash2 = (hash2 ^ c) * HASH2_PRIME;
+        }
+        for (int k = 0; k < NUM_HASHES; k++) {
+            final int index = (hash1 + k * hash2) & mMask;
+            if ((mBits[index >>> 5] & (1 << (index & 31))) == 0) return false;
+        }
+        return true;
+    }
+}
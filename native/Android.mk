@@ -16,3 +16,19 @@ LOCAL_MODULE := libjni_latinime
 LOCAL_MODULE_TAGS := user
 
 include $(BUILD_SHARED_LIBRARY)
+
+# The same library for the host, so that the engine can be benchmarked on a desktop JVM
+include $(CLEAR_VARS)
+
+LOCAL_C_INCLUDES += $(LOCAL_PATH)/src $(JNI_H_INCLUDE)
+
+LOCAL_SRC_FILES := \
+	jni/com_android_inputmethod_latin_BinaryDictionary.cpp \
+	src/dictionary.cpp \
+	src/char_utils.cpp
+
+LOCAL_MODULE := libjni_latinime
+
+LOCAL_MODULE_TAGS := optional
+
+include $(BUILD_HOST_SHARED_LIBRARY)
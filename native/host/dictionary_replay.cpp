@@ -0,0 +1,328 @@
+/*
+**
+** Copyright 2010, The Android Open Source Project
+**
+** Licensed under the Apache License, Version 2.0 (the "License");
+** you may not use this file except in compliance with the License.
+** You may obtain a copy of the License at
+**
+**     http://www.apache.org/licenses/LICENSE-2.0
+**
+** Unless required by applicable law or agreed to in writing, software
+** distributed under the License is distributed on an "AS IS" BASIS,
+** WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+** See the License for the specific language governing permissions and
+** limitations under the License.
+*/
+
+// Replays a trace of dictionary queries against a binary dictionary, without the JVM, so that
+// the lookups can be run under perf, valgrind or the sanitizers.
+//
+// Usage: dictionary_replay [-n passes] [-v] dict[,dict...] trace
+//
+// Each line of the trace is one query, as BinaryDictionary makes them:
+//   w KEY...            getSuggestions, retried with a skipped character if few words match
+//   b PREVWORD [KEY]    getBigrams of the previous word, filtered by the first keystroke
+//   l LIKELIHOODS...    the likelihoods of the alternatives of the keystrokes of the w query
+//                       before, one comma separated list per keystroke
+// where each KEY is the UTF-8 characters of one keystroke, the typed key first and then its
+// alternatives. Without an l line, the alternatives are not weighted. Lines starting with '#'
+// are comments. TypingReplay --write-trace writes traces.
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <time.h>
+#include <unistd.h>
+
+#include <algorithm>
+#include <string>
+#include <vector>
+
+#include "dictionary.h"
+
+using namespace latinime;
+
+// The values of BinaryDictionary.java
+#define MAX_WORD_LENGTH 48
+#define MAX_ALTERNATIVES 16
+#define MAX_WORDS 18
+#define MAX_BIGRAMS 60
+#define TYPED_LETTER_MULTIPLIER 2
+#define FULL_WORD_FREQ_MULTIPLIER 2
+#define MISSED_CHARACTERS_THRESHOLD 5
+// The size of the next letters array of Suggest.java
+#define NEXT_LETTERS_SIZE 1280
+
+struct Query {
+    bool bigram;
+    std::vector<unsigned short> prevWord;
+    // MAX_ALTERNATIVES codes per keystroke, padded with -1
+    std::vector<int> codes;
+    // The likelihood of each code, -1 where the alternatives are not weighted
+    std::vector<int> likelihoods;
+    int codesSize;
+};
+
+static void usage() {
+    fprintf(stderr, "Usage: dictionary_replay [-n passes] [-v] dict[,dict...] trace\n"
+            "  -n passes  number of times the trace is replayed (10)\n"
+            "  -v         print the words found by each query of the first pass\n");
+    exit(2);
+}
+
+static std::vector<unsigned short> decodeUtf8(const char *s) {
+    std::vector<unsigned short> chars;
+    const unsigned char *p = (const unsigned char *) s;
+    while (*p) {
+        unsigned int c = *p++;
+        if (c >= 0xE0 && p[0] && p[1]) {
+            c = ((c & 0x0F) << 12) | ((p[0] & 0x3F) << 6) | (p[1] & 0x3F);
+            p += 2;
+        } else if (c >= 0xC0 && p[0]) {
+            c = ((c & 0x1F) << 6) | (p[0] & 0x3F);
+            p++;
+        }
+        chars.push_back((unsigned short) c);
+    }
+    return chars;
+}
+
+static void printUtf8(const unsigned short *chars, int length) {
+    for (int i = 0; i < length; i++) {
+        unsigned int c = chars[i];
+        if (c < 0x80) {
+            putchar(c);
+        } else if (c < 0x800) {
+            putchar(0xC0 | (c >> 6));
+            putchar(0x80 | (c & 0x3F));
+        } else {
+            putchar(0xE0 | (c >> 12));
+            putchar(0x80 | ((c >> 6) & 0x3F));
+            putchar(0x80 | (c & 0x3F));
+        }
+    }
+}
+
+static unsigned char *readDictionary(const char *files, size_t *outSize) {
+    std::string list(files);
+    std::vector<unsigned char> data;
+    size_t start = 0;
+    while (start <= list.size()) {
+        size_t end = list.find(',', start);
+        if (end == std::string::npos) end = list.size();
+        const std::string name = list.substr(start, end - start);
+        FILE *f = fopen(name.c_str(), "rb");
+        if (f == NULL) {
+            perror(name.c_str());
+            exit(1);
+        }
+        unsigned char buffer[65536];
+        size_t count;
+        while ((count = fread(buffer, 1, sizeof(buffer), f)) > 0) {
+            data.insert(data.end(), buffer, buffer + count);
+        }
+        fclose(f);
+        start = end + 1;
+    }
+    // The dictionary keeps pointing into the buffer, which is never freed
+    unsigned char *dict = (unsigned char *) malloc(data.size());
+    memcpy(dict, &data[0], data.size());
+    *outSize = data.size();
+    return dict;
+}
+
+static std::vector<Query> readTrace(const char *file) {
+    FILE *f = fopen(file, "r");
+    if (f == NULL) {
+        perror(file);
+        exit(1);
+    }
+    std::vector<Query> queries;
+    char line[4096];
+    int lineNumber = 0;
+    while (fgets(line, sizeof(line), f) != NULL) {
+        lineNumber++;
+        char *save;
+        char *type = strtok_r(line, " \t\r\n", &save);
+        if (type == NULL || type[0] == '#') continue;
+        if (strcmp(type, "l") == 0) {
+            if (queries.empty() || queries.back().bigram) {
+                fprintf(stderr, "%s:%d: likelihoods without a w query\n", file, lineNumber);
+                exit(1);
+            }
+            Query &previous = queries.back();
+            char *list;
+            for (int i = 0; i < previous.codesSize
+                    && (list = strtok_r(NULL, " \t\r\n", &save)) != NULL; i++) {
+                char *end = list;
+                for (int j = 0; j < MAX_ALTERNATIVES && *end; j++) {
+                    previous.likelihoods[i * MAX_ALTERNATIVES + j] = strtol(end, &end, 10);
+                    if (*end == ',') end++;
+                }
+            }
+            continue;
+        }
+        Query query;
+        query.bigram = strcmp(type, "b") == 0;
+        if (!query.bigram && strcmp(type, "w") != 0) {
+            fprintf(stderr, "%s:%d: unknown query type %s\n", file, lineNumber, type);
+            exit(1);
+        }
+        if (query.bigram) {
+            char *prevWord = strtok_r(NULL, " \t\r\n", &save);
+            if (prevWord == NULL) {
+                fprintf(stderr, "%s:%d: no previous word\n", file, lineNumber);
+                exit(1);
+            }
+            query.prevWord = decodeUtf8(prevWord);
+        }
+        query.codes.assign(MAX_WORD_LENGTH * MAX_ALTERNATIVES, -1);
+        query.likelihoods.assign(MAX_WORD_LENGTH * MAX_ALTERNATIVES, -1);
+        query.codesSize = 0;
+        char *key;
+        while ((key = strtok_r(NULL, " \t\r\n", &save)) != NULL) {
+            if (query.codesSize == MAX_WORD_LENGTH - 1) break;
+            const std::vector<unsigned short> codes = decodeUtf8(key);
+            for (size_t i = 0; i < codes.size() && i < MAX_ALTERNATIVES; i++) {
+                query.codes[query.codesSize * MAX_ALTERNATIVES + i] = codes[i];
+            }
+            query.codesSize++;
+        }
+        if (query.bigram && query.codesSize > 1) query.codesSize = 1;
+        queries.push_back(query);
+    }
+    fclose(f);
+    return queries;
+}
+
+static long long nowNanos() {
+    struct timespec ts;
+    clock_gettime(CLOCK_MONOTONIC, &ts);
+    return ts.tv_sec * 1000000000LL + ts.tv_nsec;
+}
+
+static void addStats(Dictionary *dictionary, long long *stats) {
+    const int *last = dictionary->getStats();
+    for (int i = 0; i < STATS_COUNT; i++) stats[i] += last[i];
+}
+
+// Makes the same calls as BinaryDictionary.lookUpWords and lookUpBigrams, and adds up the
+// counters of their work in stats
+static int runQuery(Dictionary *dictionary, Query &query, unsigned short *outputChars,
+        int *frequencies, int *lengths, int *nextLetters, long long *stats) {
+    if (query.bigram) {
+        memset(frequencies, 0, MAX_BIGRAMS * sizeof(int));
+        memset(lengths, 0, MAX_BIGRAMS * sizeof(int));
+        const int count = dictionary->getBigrams(&query.prevWord[0], query.prevWord.size(),
+                &query.codes[0], query.codesSize, outputChars, frequencies, lengths,
+                MAX_WORD_LENGTH, MAX_BIGRAMS, MAX_ALTERNATIVES);
+        addStats(dictionary, stats);
+        return count;
+    }
+    memset(frequencies, 0, MAX_WORDS * sizeof(int));
+    memset(lengths, 0, MAX_WORDS * sizeof(int));
+    memset(nextLetters, 0, NEXT_LETTERS_SIZE * sizeof(int));
+    int count = dictionary->getSuggestions(&query.codes[0], &query.likelihoods[0],
+            query.codesSize, outputChars, frequencies, lengths, MAX_WORD_LENGTH, MAX_WORDS,
+            MAX_ALTERNATIVES, -1, nextLetters, NEXT_LETTERS_SIZE);
+    addStats(dictionary, stats);
+    if (count < MISSED_CHARACTERS_THRESHOLD) {
+        for (int skip = 0; skip < query.codesSize; skip++) {
+            int tempCount = dictionary->getSuggestions(&query.codes[0],
+                    &query.likelihoods[0], query.codesSize, outputChars, frequencies, lengths,
+                    MAX_WORD_LENGTH, MAX_WORDS, MAX_ALTERNATIVES, skip, NULL, 0);
+            addStats(dictionary, stats);
+            count = std::max(count, tempCount);
+            if (tempCount > 0) break;
+        }
+    }
+    return count;
+}
+
+static double percentile(const std::vector<long long> &sorted, double p) {
+    size_t index = std::min(sorted.size() - 1, (size_t) (sorted.size() * p));
+    return sorted[index] / 1000.0;
+}
+
+int main(int argc, char *argv[]) {
+    int passes = 10;
+    bool verbose = false;
+    int opt;
+    while ((opt = getopt(argc, argv, "n:v")) != -1) {
+        switch (opt) {
+        case 'n':
+            passes = atoi(optarg);
+            break;
+        case 'v':
+            verbose = true;
+            break;
+        default:
+            usage();
+        }
+    }
+    if (argc - optind != 2 || passes < 1) usage();
+
+    size_t size;
+    unsigned char *dict = readDictionary(argv[optind], &size);
+    std::vector<Query> queries = readTrace(argv[optind + 1]);
+    if (queries.empty()) {
+        fprintf(stderr, "No queries in %s\n", argv[optind + 1]);
+        return 1;
+    }
+    Dictionary *dictionary = new Dictionary(dict, TYPED_LETTER_MULTIPLIER,
+            FULL_WORD_FREQ_MULTIPLIER);
+
+    const int maxResults = std::max(MAX_WORDS, MAX_BIGRAMS);
+    unsigned short *outputChars = new unsigned short[MAX_WORD_LENGTH * maxResults];
+    int *frequencies = new int[maxResults];
+    int *lengths = new int[maxResults];
+    int *nextLetters = new int[NEXT_LETTERS_SIZE];
+    std::vector<long long> latencies;
+    latencies.reserve(queries.size() * passes);
+    long long words = 0;
+    long long stats[STATS_COUNT] = { 0 };
+
+    for (int pass = 0; pass < passes; pass++) {
+        for (size_t i = 0; i < queries.size(); i++) {
+            const long long start = nowNanos();
+            const int count = runQuery(dictionary, queries[i], outputChars, frequencies,
+                    lengths, nextLetters, stats);
+            latencies.push_back(nowNanos() - start);
+            words += count;
+            if (verbose && pass == 0) {
+                printf("%zu:", i + 1);
+                for (int j = 0; j < count; j++) {
+                    if (frequencies[j] < 1) break;
+                    putchar(' ');
+                    printUtf8(outputChars + j * MAX_WORD_LENGTH, lengths[j]);
+                    printf("/%d", frequencies[j]);
+                }
+                putchar('\n');
+            }
+        }
+    }
+
+    long long total = 0;
+    for (size_t i = 0; i < latencies.size(); i++) total += latencies[i];
+    std::sort(latencies.begin(), latencies.end());
+    printf("dictionary %zu bytes, %zu queries x %d passes, %.2f words per query\n", size,
+            queries.size(), passes, (double) words / latencies.size());
+    printf("latency us: mean %.2f p50 %.2f p90 %.2f p99 %.2f max %.2f\n",
+            total / 1000.0 / latencies.size(), percentile(latencies, 0.5),
+            percentile(latencies, 0.9), percentile(latencies, 0.99),
+            latencies.back() / 1000.0);
+    const double queryCount = latencies.size();
+    printf("per query: nodes %.1f depth pruned %.1f edit distance pruned %.1f"
+            " words found %.1f kept %.1f\n", stats[STATS_NODES_VISITED] / queryCount,
+            stats[STATS_DEPTH_PRUNED] / queryCount, stats[STATS_EDIT_DISTANCE_PRUNED] / queryCount,
+            stats[STATS_WORDS_FOUND] / queryCount, stats[STATS_WORDS_KEPT] / queryCount);
+
+    delete dictionary;
+    delete[] outputChars;
+    delete[] frequencies;
+    delete[] lengths;
+    delete[] nextLetters;
+    free(dict);
+    return 0;
+}
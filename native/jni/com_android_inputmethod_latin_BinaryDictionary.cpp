@@ -19,6 +19,7 @@
 #include <assert.h>
 #include <unistd.h>
 #include <fcntl.h>
+#include <stdint.h>
 
 #include <jni.h>
 #include "dictionary.h"
@@ -40,7 +41,7 @@ static void throwException(JNIEnv *env, const char* ex, const char* fmt, int dat
     }
 }
 
-static jint latinime_BinaryDictionary_open
+static jlong latinime_BinaryDictionary_open
         (JNIEnv *env, jobject object, jobject dictDirectBuffer,
          jint typedLetterMultiplier, jint fullWordMultiplier)
 {
@@ -50,67 +51,111 @@ static jint latinime_BinaryDictionary_open
         return 0;
     }
     Dictionary *dictionary = new Dictionary(dict, typedLetterMultiplier, fullWordMultiplier);
-    return (jint) dictionary;
+    return (jlong) (intptr_t) dictionary;
 }
 
 static int latinime_BinaryDictionary_getSuggestions(
-        JNIEnv *env, jobject object, jint dict, jintArray inputArray, jint arraySize,
-        jcharArray outputArray, jintArray frequencyArray, jint maxWordLength, jint maxWords,
-        jint maxAlternatives, jint skipPos, jintArray nextLettersArray, jint nextLettersSize)
+        JNIEnv *env, jobject object, jlong dict, jintArray inputArray,
+        jintArray likelihoodArray, jint arraySize, jcharArray outputArray,
+        jintArray frequencyArray, jintArray lengthArray, jint maxWordLength, jint maxWords,
+        jint maxAlternatives, jint skipPos, jintArray nextLettersArray, jint nextLettersSize,
+        jintArray statsArray)
 {
-    Dictionary *dictionary = (Dictionary*) dict;
+    Dictionary *dictionary = (Dictionary*) (intptr_t) dict;
     if (dictionary == NULL) return 0;
 
     int *frequencies = env->GetIntArrayElements(frequencyArray, NULL);
+    int *lengths = env->GetIntArrayElements(lengthArray, NULL);
     int *inputCodes = env->GetIntArrayElements(inputArray, NULL);
+    int *likelihoods = env->GetIntArrayElements(likelihoodArray, NULL);
     jchar *outputChars = env->GetCharArrayElements(outputArray, NULL);
     int *nextLetters = nextLettersArray != NULL ? env->GetIntArrayElements(nextLettersArray, NULL)
             : NULL;
 
-    int count = dictionary->getSuggestions(inputCodes, arraySize, (unsigned short*) outputChars,
-            frequencies, maxWordLength, maxWords, maxAlternatives, skipPos, nextLetters,
-            nextLettersSize);
+    int count = dictionary->getSuggestions(inputCodes, likelihoods, arraySize,
+            (unsigned short*) outputChars, frequencies, lengths, maxWordLength, maxWords,
+            maxAlternatives, skipPos, nextLetters, nextLettersSize);
 
     env->ReleaseIntArrayElements(frequencyArray, frequencies, 0);
+    env->ReleaseIntArrayElements(lengthArray, lengths, 0);
     env->ReleaseIntArrayElements(inputArray, inputCodes, JNI_ABORT);
+    env->ReleaseIntArrayElements(likelihoodArray, likelihoods, JNI_ABORT);
     env->ReleaseCharArrayElements(outputArray, outputChars, 0);
     if (nextLetters) {
         env->ReleaseIntArrayElements(nextLettersArray, nextLetters, 0);
     }
+    if (statsArray) {
+        env->SetIntArrayRegion(statsArray, 0, STATS_COUNT, dictionary->getStats());
+    }
+
+    return count;
+}
+
+static int latinime_BinaryDictionary_getGestureWords
+        (JNIEnv *env, jobject object, jlong dict, jintArray codesArray, jbooleanArray cornersArray,
+         jint pathLength, jcharArray outputArray, jintArray frequencyArray, jintArray lengthArray,
+         jint maxWordLength, jint maxWords, jintArray statsArray)
+{
+    Dictionary *dictionary = (Dictionary*) (intptr_t) dict;
+    if (dictionary == NULL) return 0;
+
+    int *codes = env->GetIntArrayElements(codesArray, NULL);
+    jboolean *corners = env->GetBooleanArrayElements(cornersArray, NULL);
+    jchar *outputChars = env->GetCharArrayElements(outputArray, NULL);
+    int *frequencies = env->GetIntArrayElements(frequencyArray, NULL);
+    int *lengths = env->GetIntArrayElements(lengthArray, NULL);
+
+    int count = dictionary->getGestureWords(codes, (unsigned char*) corners, pathLength,
+            (unsigned short*) outputChars, frequencies, lengths, maxWordLength, maxWords);
+
+    env->ReleaseIntArrayElements(codesArray, codes, JNI_ABORT);
+    env->ReleaseBooleanArrayElements(cornersArray, corners, JNI_ABORT);
+    env->ReleaseCharArrayElements(outputArray, outputChars, 0);
+    env->ReleaseIntArrayElements(frequencyArray, frequencies, 0);
+    env->ReleaseIntArrayElements(lengthArray, lengths, 0);
+    if (statsArray) {
+        env->SetIntArrayRegion(statsArray, 0, STATS_COUNT, dictionary->getStats());
+    }
 
     return count;
 }
 
 static int latinime_BinaryDictionary_getBigrams
-        (JNIEnv *env, jobject object, jint dict, jcharArray prevWordArray, jint prevWordLength,
+        (JNIEnv *env, jobject object, jlong dict, jcharArray prevWordArray, jint prevWordLength,
          jintArray inputArray, jint inputArraySize, jcharArray outputArray,
-         jintArray frequencyArray, jint maxWordLength, jint maxBigrams, jint maxAlternatives)
+         jintArray frequencyArray, jintArray lengthArray, jint maxWordLength, jint maxBigrams,
+         jint maxAlternatives, jintArray statsArray)
 {
-    Dictionary *dictionary = (Dictionary*) dict;
+    Dictionary *dictionary = (Dictionary*) (intptr_t) dict;
     if (dictionary == NULL) return 0;
 
     jchar *prevWord = env->GetCharArrayElements(prevWordArray, NULL);
     int *inputCodes = env->GetIntArrayElements(inputArray, NULL);
     jchar *outputChars = env->GetCharArrayElements(outputArray, NULL);
     int *frequencies = env->GetIntArrayElements(frequencyArray, NULL);
+    int *lengths = env->GetIntArrayElements(lengthArray, NULL);
 
     int count = dictionary->getBigrams((unsigned short*) prevWord, prevWordLength, inputCodes,
-            inputArraySize, (unsigned short*) outputChars, frequencies, maxWordLength, maxBigrams,
-            maxAlternatives);
+            inputArraySize, (unsigned short*) outputChars, frequencies, lengths, maxWordLength,
+            maxBigrams, maxAlternatives);
 
     env->ReleaseCharArrayElements(prevWordArray, prevWord, JNI_ABORT);
     env->ReleaseIntArrayElements(inputArray, inputCodes, JNI_ABORT);
     env->ReleaseCharArrayElements(outputArray, outputChars, 0);
     env->ReleaseIntArrayElements(frequencyArray, frequencies, 0);
+    env->ReleaseIntArrayElements(lengthArray, lengths, 0);
+    if (statsArray) {
+        env->SetIntArrayRegion(statsArray, 0, STATS_COUNT, dictionary->getStats());
+    }
 
     return count;
 }
 
 
 static jboolean latinime_BinaryDictionary_isValidWord
-        (JNIEnv *env, jobject object, jint dict, jcharArray wordArray, jint wordLength)
+        (JNIEnv *env, jobject object, jlong dict, jcharArray wordArray, jint wordLength)
 {
-    Dictionary *dictionary = (Dictionary*) dict;
+    Dictionary *dictionary = (Dictionary*) (intptr_t) dict;
     if (dictionary == NULL) return (jboolean) false;
 
     jchar *word = env->GetCharArrayElements(wordArray, NULL);
@@ -120,22 +165,48 @@ static jboolean latinime_BinaryDictionary_isValidWord
     return result;
 }
 
+static jint latinime_BinaryDictionary_getWordCount
+        (JNIEnv *env, jobject object, jlong dict)
+{
+    Dictionary *dictionary = (Dictionary*) (intptr_t) dict;
+    if (dictionary == NULL) return 0;
+    return dictionary->getWordCount();
+}
+
+static void latinime_BinaryDictionary_fillWordFilter
+        (JNIEnv *env, jobject object, jlong dict, jintArray bitsArray, jint numBits,
+         jint numHashes)
+{
+    Dictionary *dictionary = (Dictionary*) (intptr_t) dict;
+    if (dictionary == NULL) return;
+
+    int *bits = env->GetIntArrayElements(bitsArray, NULL);
+    dictionary->fillWordFilter(bits, numBits, numHashes);
+    env->ReleaseIntArrayElements(bitsArray, bits, 0);
+}
+
 static void latinime_BinaryDictionary_close
-        (JNIEnv *env, jobject object, jint dict)
+        (JNIEnv *env, jobject object, jlong dict)
 {
-    Dictionary *dictionary = (Dictionary*) dict;
-    delete (Dictionary*) dict;
+    Dictionary *dictionary = (Dictionary*) (intptr_t) dict;
+    delete (Dictionary*) (intptr_t) dict;
 }
 
 // ----------------------------------------------------------------------------
 
 static JNINativeMethod gMethods[] = {
-    {"openNative",           "(Ljava/nio/ByteBuffer;II)I",
+    {"openNative",           "(Ljava/nio/ByteBuffer;II)J",
                                           (void*)latinime_BinaryDictionary_open},
-    {"closeNative",          "(I)V",            (void*)latinime_BinaryDictionary_close},
-    {"getSuggestionsNative", "(I[II[C[IIIII[II)I",  (void*)latinime_BinaryDictionary_getSuggestions},
-    {"isValidWordNative",    "(I[CI)Z",         (void*)latinime_BinaryDictionary_isValidWord},
-    {"getBigramsNative",    "(I[CI[II[C[IIII)I",         (void*)latinime_BinaryDictionary_getBigrams}
+    {"closeNative",          "(J)V",            (void*)latinime_BinaryDictionary_close},
+    {"getSuggestionsNative", "(J[I[II[C[I[IIIII[II[I)I",
+                                          (void*)latinime_BinaryDictionary_getSuggestions},
+    {"isValidWordNative",    "(J[CI)Z",         (void*)latinime_BinaryDictionary_isValidWord},
+    {"getBigramsNative",     "(J[CI[II[C[I[IIII[I)I",
+                                          (void*)latinime_BinaryDictionary_getBigrams},
+    {"getGestureWordsNative", "(J[I[ZI[C[I[III[I)I",
+                                          (void*)latinime_BinaryDictionary_getGestureWords},
+    {"getWordCountNative",   "(J)I",            (void*)latinime_BinaryDictionary_getWordCount},
+    {"fillWordFilterNative", "(J[III)V",        (void*)latinime_BinaryDictionary_fillWordFilter}
 };
 
 static int registerNativeMethods(JNIEnv* env, const char* className,
@@ -32,6 +32,10 @@
 #define DICTIONARY_HEADER_SIZE 2
 #define NOT_VALID_WORD -99
 
+#define WORD_FILTER_HASH1_SEED 0
+#define WORD_FILTER_HASH2_SEED 0x811C9DC5
+#define WORD_FILTER_HASH2_PRIME 16777619
+
 namespace latinime {
 
 Dictionary::Dictionary(void *dict, int typedLetterMultiplier, int fullWordMultiplier)
@@ -39,6 +43,7 @@ Dictionary::Dictionary(void *dict, int typedLetterMultiplier, int fullWordMultip
     mDict = (unsigned char*) dict;
     mTypedLetterMultiplier = typedLetterMultiplier;
     mFullWordMultiplier = fullWordMultiplier;
+    memset(mStats, 0, sizeof(mStats));
     getVersionNumber();
 }
 
@@ -46,14 +51,16 @@ Dictionary::~Dictionary()
 {
 }
 
-int Dictionary::getSuggestions(int *codes, int codesSize, unsigned short *outWords, int *frequencies,
-        int maxWordLength, int maxWords, int maxAlternatives, int skipPos,
-        int *nextLetters, int nextLettersSize)
+int Dictionary::getSuggestions(int *codes, int *likelihoods, int codesSize,
+        unsigned short *outWords, int *frequencies, int *lengths, int maxWordLength, int maxWords,
+        int maxAlternatives, int skipPos, int *nextLetters, int nextLettersSize)
 {
     int suggWords;
     mFrequencies = frequencies;
+    mLengths = lengths;
     mOutputChars = outWords;
     mInputCodes = codes;
+    mInputLikelihoods = likelihoods;
     mInputLength = codesSize;
     mMaxAlternatives = maxAlternatives;
     mMaxWordLength = maxWordLength;
@@ -62,6 +69,7 @@ int Dictionary::getSuggestions(int *codes, int codesSize, unsigned short *outWor
     mMaxEditDistance = mInputLength < 5 ? 2 : mInputLength / 2;
     mNextLettersFrequencies = nextLetters;
     mNextLettersSize = nextLettersSize;
+    memset(mStats, 0, sizeof(mStats));
 
     if (checkIfDictVersionIsLatest()) {
         getWordsRec(DICTIONARY_HEADER_SIZE, 0, mInputLength * 3, false, 1, 0, 0);
@@ -158,16 +166,6 @@ Dictionary::getFreq(int *pos)
     return freq;
 }
 
-int
-Dictionary::wideStrLen(unsigned short *str)
-{
-    if (!str) return 0;
-    unsigned short *end = str;
-    while (*end)
-        end++;
-    return end - str;
-}
-
 bool
 Dictionary::addWord(unsigned short *word, int length, int frequency)
 {
@@ -177,13 +175,14 @@ Dictionary::addWord(unsigned short *word, int length, int frequency)
         for (int i = 0; i <= length; i++) s[i] = word[i];
         LOGI("Found word = %s, freq = %d : \n", s, frequency);
     }
+    mStats[STATS_WORDS_FOUND]++;
 
     // Find the right insertion point
     int insertAt = 0;
     while (insertAt < mMaxWords) {
         if (frequency > mFrequencies[insertAt]
                  || (mFrequencies[insertAt] == frequency
-                     && length < wideStrLen(mOutputChars + insertAt * mMaxWordLength))) {
+                     && length < mLengths[insertAt])) {
             break;
         }
         insertAt++;
@@ -193,6 +192,10 @@ Dictionary::addWord(unsigned short *word, int length, int frequency)
                (char*) mFrequencies + insertAt * sizeof(mFrequencies[0]),
                (mMaxWords - insertAt - 1) * sizeof(mFrequencies[0]));
         mFrequencies[insertAt] = frequency;
+        memmove((char*) mLengths + (insertAt + 1) * sizeof(mLengths[0]),
+               (char*) mLengths + insertAt * sizeof(mLengths[0]),
+               (mMaxWords - insertAt - 1) * sizeof(mLengths[0]));
+        mLengths[insertAt] = length;
         memmove((char*) mOutputChars + (insertAt + 1) * mMaxWordLength * sizeof(short),
                (char*) mOutputChars + (insertAt    ) * mMaxWordLength * sizeof(short),
                (mMaxWords - insertAt - 1) * sizeof(short) * mMaxWordLength);
@@ -202,6 +205,7 @@ Dictionary::addWord(unsigned short *word, int length, int frequency)
         }
         *dest = 0; // NULL terminate
         if (DEBUG_DICT) LOGI("Added word at %d\n", insertAt);
+        mStats[STATS_WORDS_KEPT]++;
         return true;
     }
     return false;
@@ -216,13 +220,14 @@ Dictionary::addWordBigram(unsigned short *word, int length, int frequency)
         for (int i = 0; i <= length; i++) s[i] = word[i];
         LOGI("Bigram: Found word = %s, freq = %d : \n", s, frequency);
     }
+    mStats[STATS_WORDS_FOUND]++;
 
     // Find the right insertion point
     int insertAt = 0;
     while (insertAt < mMaxBigrams) {
         if (frequency > mBigramFreq[insertAt]
                  || (mBigramFreq[insertAt] == frequency
-                     && length < wideStrLen(mBigramChars + insertAt * mMaxWordLength))) {
+                     && length < mBigramLengths[insertAt])) {
             break;
         }
         insertAt++;
@@ -233,6 +238,10 @@ Dictionary::addWordBigram(unsigned short *word, int length, int frequency)
                (char*) mBigramFreq + insertAt * sizeof(mBigramFreq[0]),
                (mMaxBigrams - insertAt - 1) * sizeof(mBigramFreq[0]));
         mBigramFreq[insertAt] = frequency;
+        memmove((char*) mBigramLengths + (insertAt + 1) * sizeof(mBigramLengths[0]),
+               (char*) mBigramLengths + insertAt * sizeof(mBigramLengths[0]),
+               (mMaxBigrams - insertAt - 1) * sizeof(mBigramLengths[0]));
+        mBigramLengths[insertAt] = length;
         memmove((char*) mBigramChars + (insertAt + 1) * mMaxWordLength * sizeof(short),
                (char*) mBigramChars + (insertAt    ) * mMaxWordLength * sizeof(short),
                (mMaxBigrams - insertAt - 1) * sizeof(short) * mMaxWordLength);
@@ -242,6 +251,7 @@ Dictionary::addWordBigram(unsigned short *word, int length, int frequency)
         }
         *dest = 0; // NULL terminate
         if (DEBUG_DICT) LOGI("Bigram: Added word at %d\n", insertAt);
+        mStats[STATS_WORDS_KEPT]++;
         return true;
     }
     return false;
@@ -285,17 +295,24 @@ Dictionary::getWordsRec(int pos, int depth, int maxDepth, bool completion, int s
 {
     // Optimization: Prune out words that are too long compared to how much was typed.
     if (depth > maxDepth) {
+        mStats[STATS_DEPTH_PRUNED]++;
         return;
     }
     if (diffs > mMaxEditDistance) {
+        mStats[STATS_EDIT_DISTANCE_PRUNED]++;
         return;
     }
     int count = getCount(&pos);
+    mStats[STATS_NODES_VISITED] += count;
     int *currentChars = NULL;
+    int *currentLikelihoods = NULL;
     if (mInputLength <= inputIndex) {
         completion = true;
     } else {
         currentChars = mInputCodes + (inputIndex * mMaxAlternatives);
+        if (mInputLikelihoods) {
+            currentLikelihoods = mInputLikelihoods + (inputIndex * mMaxAlternatives);
+        }
     }
 
     for (int i = 0; i < count; i++) {
@@ -332,8 +349,12 @@ Dictionary::getWordsRec(int pos, int depth, int maxDepth, bool completion, int s
         } else {
             int j = 0;
             while (currentChars[j] > 0) {
-                if (currentChars[j] == lowerC || currentChars[j] == c) {
-                    int addedWeight = j == 0 ? mTypedLetterMultiplier : 1;
+                int likelihood = currentLikelihoods ? currentLikelihoods[j] : -1;
+                // Too far from the touch to be meant
+                bool unlikely = likelihood >= 0 && likelihood < MIN_LIKELIHOOD;
+                if (!unlikely && (currentChars[j] == lowerC || currentChars[j] == c)) {
+                    int addedWeight = j == 0 || likelihood >= TIE_LIKELIHOOD
+                            ? mTypedLetterMultiplier : 1;
                     mWord[depth] = c;
                     if (mInputLength == inputIndex + 1) {
                         if (terminal) {
@@ -361,6 +382,87 @@ Dictionary::getWordsRec(int pos, int depth, int maxDepth, bool completion, int s
     }
 }
 
+int
+Dictionary::getGestureWords(int *codes, unsigned char *corners, int pathLength,
+        unsigned short *outWords, int *frequencies, int *lengths, int maxWordLength, int maxWords)
+{
+    mFrequencies = frequencies;
+    mLengths = lengths;
+    mOutputChars = outWords;
+    mMaxWordLength = maxWordLength;
+    mMaxWords = maxWords;
+    mPathCodes = codes;
+    mPathCorners = corners;
+    mPathLength = pathLength;
+    memset(mStats, 0, sizeof(mStats));
+    if (pathLength <= 0) return 0;
+
+    if (checkIfDictVersionIsLatest()) {
+        getGestureWordsRec(DICTIONARY_HEADER_SIZE, 0, -1, 0);
+    } else {
+        getGestureWordsRec(0, 0, -1, 0);
+    }
+
+    int count = 0;
+    while (count < mMaxWords && mFrequencies[count] > 0) count++;
+    return count;
+}
+
+// pathIndex is the index in the path of the key the last letter is on, -1 at the root, and
+// passes the number of keys matched that are not corners
+void
+Dictionary::getGestureWordsRec(int pos, int depth, int pathIndex, int passes)
+{
+    if (depth >= mMaxWordLength - 1) {
+        mStats[STATS_DEPTH_PRUNED]++;
+        return;
+    }
+    int count = getCount(&pos);
+    mStats[STATS_NODES_VISITED] += count;
+
+    for (int i = 0; i < count; i++) {
+        unsigned short c = getChar(&pos);
+        unsigned short lowerC = toLowerCase(c);
+        bool terminal = getTerminal(&pos);
+        int childrenAddress = getAddress(&pos);
+        int freq = 1;
+        if (terminal) freq = getFreq(&pos);
+
+        mWord[depth] = c;
+        if (c == QUOTE) {
+            if (childrenAddress != 0) {
+                getGestureWordsRec(childrenAddress, depth + 1, pathIndex, passes);
+            }
+            continue;
+        }
+        int next = -1;
+        int nextPasses = passes;
+        if (pathIndex < 0) {
+            if (mPathCodes[0] == lowerC) next = 0;
+        } else if (mPathCodes[pathIndex] == lowerC && depth > 0
+                && toLowerCase(mWord[depth - 1]) == lowerC) {
+            // A doubled letter on a single key
+            next = pathIndex;
+        } else {
+            for (int k = pathIndex + 1; k < mPathLength; k++) {
+                if (mPathCodes[k] == lowerC) {
+                    next = k;
+                    if (!mPathCorners[k]) nextPasses++;
+                    break;
+                }
+                if (mPathCorners[k]) break;
+            }
+        }
+        if (next < 0) continue;
+        if (terminal && next == mPathLength - 1) {
+            addWord(mWord, depth + 1, freq * (1 + nextPasses));
+        }
+        if (childrenAddress != 0) {
+            getGestureWordsRec(childrenAddress, depth + 1, next, nextPasses);
+        }
+    }
+}
+
 int
 Dictionary::getBigramAddress(int *pos, bool advance)
 {
@@ -388,16 +490,19 @@ Dictionary::getBigramFreq(int *pos)
 
 int
 Dictionary::getBigrams(unsigned short *prevWord, int prevWordLength, int *codes, int codesSize,
-        unsigned short *bigramChars, int *bigramFreq, int maxWordLength, int maxBigrams,
-        int maxAlternatives)
+        unsigned short *bigramChars, int *bigramFreq, int *bigramLengths, int maxWordLength,
+        int maxBigrams, int maxAlternatives)
 {
     mBigramFreq = bigramFreq;
+    mBigramLengths = bigramLengths;
     mBigramChars = bigramChars;
     mInputCodes = codes;
+    mInputLikelihoods = NULL;
     mInputLength = codesSize;
     mMaxWordLength = maxWordLength;
     mMaxBigrams = maxBigrams;
     mMaxAlternatives = maxAlternatives;
+    memset(mStats, 0, sizeof(mStats));
 
     if (mBigram == 1 && checkIfDictVersionIsLatest()) {
         int pos = isValidWordRec(DICTIONARY_HEADER_SIZE, prevWord, 0, prevWordLength);
@@ -448,6 +553,7 @@ Dictionary::searchForTerminalNode(int addressLookingFor, int frequency)
         pos = followDownBranchAddress; // pos start at count
         int count = mDict[pos] & 0xFF;
         LOGI("count - %d\n",count);
+        mStats[STATS_NODES_VISITED] += count;
         pos++;
         for (int i = 0; i < count; i++) {
             // pos at data
@@ -534,7 +640,8 @@ bool
 Dictionary::checkFirstCharacter(unsigned short *word)
 {
     // Checks whether this word starts with same character or neighboring characters of
-    // what user typed.
+    // what user typed. Nothing typed yet means all the bigrams are wanted.
+    if (mInputLength == 0) return true;
 
     int *inputCodes = mInputCodes;
     int maxAlt = mMaxAlternatives;
@@ -558,6 +665,55 @@ Dictionary::isValidWord(unsigned short *word, int length)
     }
 }
 
+int
+Dictionary::getWordCount()
+{
+    int count = 0;
+    walkWordsRec(checkIfDictVersionIsLatest() ? DICTIONARY_HEADER_SIZE : 0, WORD_FILTER_HASH1_SEED,
+            WORD_FILTER_HASH2_SEED, &count, NULL, 0, 0);
+    return count;
+}
+
+// Sets the bits of a Bloom filter for every word in the dictionary. numBits must be a power of
+// two. The hash functions have to match WordFilter.java.
+void
+Dictionary::fillWordFilter(int *bits, int numBits, int numHashes)
+{
+    int count = 0;
+    walkWordsRec(checkIfDictVersionIsLatest() ? DICTIONARY_HEADER_SIZE : 0, WORD_FILTER_HASH1_SEED,
+            WORD_FILTER_HASH2_SEED, &count, bits, (unsigned int) numBits - 1, numHashes);
+}
+
+// Visits every terminal node of the trie. Only reads mDict, so that it can run on a different
+// thread than the suggestion lookups.
+void
+Dictionary::walkWordsRec(int pos, unsigned int hash1, unsigned int hash2, int *count, int *bits,
+        unsigned int mask, int numHashes)
+{
+    int nodeCount = getCount(&pos);
+    for (int i = 0; i < nodeCount; i++) {
+        unsigned short c = getChar(&pos);
+        bool terminal = getTerminal(&pos);
+        int childrenAddress = getAddress(&pos);
+        if (terminal) getFreq(&pos);
+
+        unsigned int childHash1 = hash1 * 31 + c;
+        unsigned int childHash2 = (hash2 ^ c) * WORD_FILTER_HASH2_PRIME;
+        if (terminal) {
+            (*count)++;
+            if (bits) {
+                for (int k = 0; k < numHashes; k++) {
+                    unsigned int index = (childHash1 + k * childHash2) & mask;
+                    bits[index >> 5] |= (int) (1u << (index & 31));
+                }
+            }
+        }
+        if (childrenAddress != 0) {
+            walkWordsRec(childrenAddress, childHash1, childHash2, count, bits, mask, numHashes);
+        }
+    }
+}
+
 int
 Dictionary::isValidWordRec(int pos, unsigned short *word, int offset, int length) {
     // returns address of bigram data of that word
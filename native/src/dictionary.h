@@ -33,16 +33,43 @@ namespace latinime {
 #define FLAG_BIGRAM_CONTINUED 0x80
 #define FLAG_BIGRAM_FREQ 0x7F
 
+// Indices of the counters of the work done by the last search, see getStats()
+#define STATS_NODES_VISITED 0
+// Branches cut because they are longer than the typed word allows
+#define STATS_DEPTH_PRUNED 1
+// Branches cut because they differ from the typed word in too many characters
+#define STATS_EDIT_DISTANCE_PRUNED 2
+// Words found, and how many of them were inserted among the best ones, which may push out
+// words inserted before
+#define STATS_WORDS_FOUND 3
+#define STATS_WORDS_KEPT 4
+#define STATS_COUNT 5
+
+// The alternatives of a keystroke less likely than this, in percent of the most likely one, are
+// not tried, and those at least TIE_LIKELIHOOD likely are weighted as the key typed. A negative
+// likelihood means the alternatives of the keystroke are not weighted. Same as WordComposer.java.
+#define MIN_LIKELIHOOD 5
+#define TIE_LIKELIHOOD 80
+
 class Dictionary {
 public:
     Dictionary(void *dict, int typedLetterMultipler, int fullWordMultiplier);
-    int getSuggestions(int *codes, int codesSize, unsigned short *outWords, int *frequencies,
-            int maxWordLength, int maxWords, int maxAlternatives, int skipPos,
-            int *nextLetters, int nextLettersSize);
+    int getSuggestions(int *codes, int *likelihoods, int codesSize, unsigned short *outWords,
+            int *frequencies, int *lengths, int maxWordLength, int maxWords, int maxAlternatives,
+            int skipPos, int *nextLetters, int nextLettersSize);
     int getBigrams(unsigned short *word, int length, int *codes, int codesSize,
-            unsigned short *outWords, int *frequencies, int maxWordLength, int maxBigrams,
-            int maxAlternatives);
+            unsigned short *outWords, int *frequencies, int *lengths, int maxWordLength,
+            int maxBigrams, int maxAlternatives);
+    // Finds the words that can be glided along a path of keys, given by the lowercase code of
+    // each key and whether the stroke turned on it. Same rules as Dictionary.java.
+    int getGestureWords(int *codes, unsigned char *corners, int pathLength,
+            unsigned short *outWords, int *frequencies, int *lengths, int maxWordLength,
+            int maxWords);
     bool isValidWord(unsigned short *word, int length);
+    int getWordCount();
+    void fillWordFilter(int *bits, int numBits, int numHashes);
+    // The counters of the last search, indexed by STATS_*
+    const int *getStats() { return mStats; }
     void setAsset(void *asset) { mAsset = asset; }
     void *getAsset() { return mAsset; }
     ~Dictionary();
@@ -62,7 +89,6 @@ private:
     bool getTerminal(int *pos) { return (mDict[*pos] & FLAG_TERMINAL_MASK) > 0; }
     int getCount(int *pos) { return mDict[(*pos)++] & 0xFF; }
     unsigned short getChar(int *pos);
-    int wideStrLen(unsigned short *str);
 
     bool sameAsTyped(unsigned short *word, int length);
     bool checkFirstCharacter(unsigned short *word);
@@ -71,22 +97,31 @@ private:
     unsigned short toLowerCase(unsigned short c);
     void getWordsRec(int pos, int depth, int maxDepth, bool completion, int frequency,
             int inputIndex, int diffs);
+    void getGestureWordsRec(int pos, int depth, int pathIndex, int passes);
     int isValidWordRec(int pos, unsigned short *word, int offset, int length);
+    void walkWordsRec(int pos, unsigned int hash1, unsigned int hash2, int *count, int *bits,
+            unsigned int mask, int numHashes);
     void registerNextLetter(unsigned short c);
 
     unsigned char *mDict;
     void *mAsset;
 
     int *mFrequencies;
+    int *mLengths;
     int *mBigramFreq;
+    int *mBigramLengths;
     int mMaxWords;
     int mMaxBigrams;
     int mMaxWordLength;
     unsigned short *mOutputChars;
     unsigned short *mBigramChars;
     int *mInputCodes;
+    int *mInputLikelihoods;
     int mInputLength;
     int mMaxAlternatives;
+    int *mPathCodes;
+    unsigned char *mPathCorners;
+    int mPathLength;
     unsigned short mWord[128];
     int mSkipPos;
     int mMaxEditDistance;
@@ -97,6 +132,7 @@ private:
     int mNextLettersSize;
     int mVersion;
     int mBigram;
+    int mStats[STATS_COUNT];
 };
 
 // ----------------------------------------------------------------------------
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.android.inputmethod.latin;
+
+import android.inputmethodservice.Keyboard.Key;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.List;
+
+public class KeyDetectorPerformanceTests extends AndroidTestCase {
+    private static final String TAG = "KeyDetectorPerformanceTests";
+
+    // Relative frequencies of the letters a to z in English text, in tenths of a percent
+    private static final int[] LETTER_WEIGHTS = {
+        82, 15, 28, 43, 127, 22, 20, 61, 70, 2, 8, 40, 24,
+        67, 75, 19, 1, 60, 63, 91, 28, 10, 24, 2, 20, 1
+    };
+    // Pixels between two move events of a stroke
+    private static final int MOVE_STEP = 2;
+    private static final int STROKES = 200;
+
+    private LatinKeyboard mKeyboard;
+    private ProximityKeyDetector mDetector;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mKeyboard = new LatinKeyboard(getContext(), R.xml.kbd_qwerty);
+        mKeyboard.setLanguageSwitcher(new LanguageSwitcher(null), true, false);
+        final int[] frequencies = new int['z' + 1];
+        for (int i = 0; i < LETTER_WEIGHTS.length; i++) {
+            frequencies['a' + i] = LETTER_WEIGHTS[i];
+        }
+        mKeyboard.setPreferredLetters(frequencies);
+        mDetector = new ProximityKeyDetector();
+        final Key[] keys = mDetector.setKeyboard(mKeyboard, 0, 0);
+        // As in LatinKeyboardBaseView.computeProximityThreshold
+        int dimensionSum = 0;
+        for (Key key : keys) {
+            dimensionSum += Math.min(key.width, key.height) + key.gap;
+        }
+        mDetector.setProximityThreshold((int) (dimensionSum * 1.4f / keys.length));
+        mDetector.setProximityCorrectionEnabled(true);
+    }
+
+    /**
+     * The keys a touch is inside of must not depend on the order the keys are asked in.
+     */
+    public void testPreferredLetterIndependentOfOrder() {
+        final List<Key> keys = mKeyboard.getKeys();
+        final int size = keys.size();
+        final boolean[] forward = new boolean[size];
+        for (int y = 0; y < mKeyboard.getHeight(); y += MOVE_STEP) {
+            for (int x = 0; x < mKeyboard.getMinWidth(); x += MOVE_STEP) {
+                for (int i = 0; i < size; i++) {
+                    forward[i] = keys.get(i).isInside(x, y);
+                }
+                mKeyboard.keyReleased();
+                for (int i = size - 1; i >= 0; i--) {
+                    assertEquals("key " + i + " at " + x + "," + y, forward[i],
+                            keys.get(i).isInside(x, y));
+                }
+                mKeyboard.keyReleased();
+            }
+        }
+    }
+
+    /**
+     * The keys of the samples of a move event found in one batch must be those found one by one,
+     * including for the repeated samples the batch does not look up again.
+     */
+    public void testBatchedKeysMatchSingleLookups() {
+        final int width = mKeyboard.getMinWidth();
+        final int rowHeight = mKeyboard.getKeys().get(0).height;
+        final int count = width / MOVE_STEP * 2;
+        final int[] xs = new int[count];
+        final int[] ys = new int[count];
+        for (int row = 0; row < 4; row++) {
+            for (int i = 0; i < count; i++) {
+                // Each position twice, as a panel sampling faster than the finger reports it
+                xs[i] = i / 2 * MOVE_STEP;
+                ys[i] = rowHeight / 2 + row * rowHeight;
+            }
+            final int[] batched = new int[count];
+            mDetector.getKeyIndices(xs, ys, count, batched);
+            mKeyboard.keyReleased();
+            for (int i = 0; i < count; i++) {
+                assertEquals("sample " + i + " at " + xs[i] + "," + ys[i],
+                        mDetector.getKeyIndexAndNearbyCodes(xs[i], ys[i], null), batched[i]);
+            }
+            mKeyboard.keyReleased();
+        }
+    }
+
+    /**
+     * Strokes across the letter rows, with a move event every MOVE_STEP pixels, looked up as the
+     * keyboard view does. Check the log for the time of each event.
+     */
+    public void testMoveStreamPerformance() {
+        final int[] codes = mDetector.newCodeArray();
+        final int width = mKeyboard.getMinWidth();
+        final int rowHeight = mKeyboard.getKeys().get(0).height;
+        int events = 0;
+        int hits = 0;
+        final long start = SystemClock.elapsedRealtime();
+        for (int stroke = 0; stroke < STROKES; stroke++) {
+            // Alternately left to right and back, each stroke on a row of letters
+            final int y = rowHeight / 2 + (stroke % 3) * rowHeight;
+            for (int step = 0; step < width; step += MOVE_STEP) {
+                final int x = stroke % 2 == 0 ? step : width - 1 - step;
+                if (mDetector.getKeyIndexAndNearbyCodes(x, y, codes)
+                        != LatinKeyboardBaseView.NOT_A_KEY) {
+                    hits++;
+                }
+                events++;
+            }
+            mKeyboard.keyReleased();
+        }
+        final long elapsed = SystemClock.elapsedRealtime() - start;
+        Log.i(TAG, events + " move events in " + elapsed + " ms, "
+                + (elapsed * 1000f / events) + " us per event");
+        assertEquals(events, hits);
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2010 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.android.inputmethod.latin;
+
+import android.content.Intent;
+import android.inputmethodservice.Keyboard;
+import android.os.Handler;
+import android.os.Looper;
+import android.speech.SpeechRecognizer;
+import android.test.ServiceTestCase;
+import android.text.InputType;
+import android.view.inputmethod.EditorInfo;
+
+public class StartupTests extends ServiceTestCase<LatinIME> {
+    // How long the dictionaries may take to load
+    private static final long STARTUP_TIMEOUT = 10 * 1000;
+
+    public StartupTests() {
+        super(LatinIME.class);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        // The IME and its views post to the thread that creates them
+        if (Looper.myLooper() == null) Looper.prepare();
+        super.setUp();
+    }
+
+    /************************** Tests ************************/
+
+    /**
+     * Make sure the field started before voice input is set up gets the voice button once
+     * startup completes
+     */
+    public void testVoiceButtonOnceStartupComplete() {
+        if (!LatinIME.VOICE_INSTALLED || !SpeechRecognizer.isRecognitionAvailable(getContext())) {
+            return;
+        }
+        startService(new Intent(getContext(), LatinIME.class));
+        final LatinIME ime = getService();
+        final LatinKeyboardView inputView = (LatinKeyboardView) ime.onCreateInputView();
+        final EditorInfo attribute = new EditorInfo();
+        attribute.inputType = InputType.TYPE_CLASS_TEXT;
+        ime.onStartInputView(attribute, false);
+        // The dictionaries complete on this thread, which has not run its messages yet
+        assertFalse(ime.isStartupComplete());
+        assertFalse(hasVoiceKey(inputView.getKeyboard()));
+
+        waitForStartup(ime);
+        assertTrue(ime.isStartupComplete());
+        assertTrue(hasVoiceKey(inputView.getKeyboard()));
+    }
+
+    /************************** Helpers ************************/
+
+    /**
+     * Runs the messages of this thread until the IME completes its startup, or times out.
+     */
+    private static void waitForStartup(final LatinIME ime) {
+        final Handler handler = new Handler();
+        final long timeout = System.currentTimeMillis() + STARTUP_TIMEOUT;
+        handler.post(new Runnable() {
+            public void run() {
+                if (ime.isStartupComplete() || System.currentTimeMillis() > timeout) {
+                    Looper.myLooper().quit();
+                } else {
+                    handler.postDelayed(this, 50);
+                }
+            }
+        });
+        Looper.loop();
+    }
+
+    private static boolean hasVoiceKey(Keyboard keyboard) {
+        for (Keyboard.Key key : keyboard.getKeys()) {
+            if (key.codes.length > 0 && key.codes[0] == LatinKeyboardView.KEYCODE_VOICE) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
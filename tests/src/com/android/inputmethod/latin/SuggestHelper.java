@@ -17,6 +17,7 @@
 package com.android.inputmethod.latin;
 
 import android.content.Context;
+import android.os.Debug;
 import android.text.TextUtils;
 import android.util.Log;
 import com.android.inputmethod.latin.Suggest;
@@ -28,6 +29,7 @@ import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.channels.Channels;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 import java.util.StringTokenizer;
@@ -37,6 +39,8 @@ public class SuggestHelper {
     private UserBigramDictionary mUserBigram;
     private final String TAG;
 
+    private static final String[] KEY_ROWS = { "qwertyuiop", "asdfghjkl", "zxcvbnm" };
+
     /** Uses main dictionary only **/
     public SuggestHelper(String tag, Context context, int[] resId) {
         TAG = tag;
@@ -116,6 +120,73 @@ public class SuggestHelper {
         return word;
     }
 
+    /**
+     * Creates a composer for the typed word where the alternatives of each keystroke all have
+     * the given likelihood.
+     */
+    private WordComposer createWordComposer(CharSequence s, int likelihood) {
+        WordComposer word = new WordComposer();
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            int[] codes;
+            if (c < 'a' || c > 'z') {
+                codes = new int[] { c };
+            } else {
+                codes = adjacents[c - 'a'].clone();
+            }
+            int[] likelihoods = new int[codes.length];
+            for (int j = 0; j < codes.length; j++) {
+                if (codes[j] == -1) break;
+                likelihoods[j] = j == 0 ? WordComposer.MAX_LIKELIHOOD : likelihood;
+            }
+            word.add(c, codes, likelihoods);
+        }
+        return word;
+    }
+
+    /**
+     * Creates the path of a glide over the letters of the given word, on a qwerty keyboard of
+     * keys of 10 by 10, with the stroke going in straight lines from the center of a letter to
+     * the next and sampled every 2 units, 4 milliseconds apart.
+     */
+    private GestureDecoder.Path createGlidePath(CharSequence word) {
+        GestureDecoder.Path path = new GestureDecoder.Path();
+        long time = 0;
+        for (int i = 0; i < word.length(); i++) {
+            final int toX = getKeyCenterX(word.charAt(i));
+            final int toY = getKeyCenterY(word.charAt(i));
+            final int fromX = i > 0 ? getKeyCenterX(word.charAt(i - 1)) : toX;
+            final int fromY = i > 0 ? getKeyCenterY(word.charAt(i - 1)) : toY;
+            final int steps = Math.max(1, (Math.abs(toX - fromX) + Math.abs(toY - fromY)) / 2);
+            for (int step = i > 0 ? 1 : 0; step <= steps; step++) {
+                final int x = fromX + (toX - fromX) * step / steps;
+                final int y = fromY + (toY - fromY) * step / steps;
+                final int row = Math.min(y / 10, KEY_ROWS.length - 1);
+                final int column = (x - row * 5) / 10;
+                if (column >= 0 && column < KEY_ROWS[row].length()) {
+                    path.add(KEY_ROWS[row].charAt(column), x, y, time);
+                }
+                time += 4;
+            }
+        }
+        return path;
+    }
+
+    private static int getKeyCenterX(char c) {
+        for (int row = 0; row < KEY_ROWS.length; row++) {
+            final int column = KEY_ROWS[row].indexOf(c);
+            if (column >= 0) return column * 10 + row * 5 + 5;
+        }
+        throw new IllegalArgumentException("No key for " + c);
+    }
+
+    private static int getKeyCenterY(char c) {
+        for (int row = 0; row < KEY_ROWS.length; row++) {
+            if (KEY_ROWS[row].indexOf(c) >= 0) return row * 10 + 5;
+        }
+        throw new IllegalArgumentException("No key for " + c);
+    }
+
     private void showList(String title, List<CharSequence> suggestions) {
         Log.i(TAG, title);
         for (int i = 0; i < suggestions.size(); i++) {
@@ -136,6 +207,90 @@ public class SuggestHelper {
         return isDefaultSuggestion(suggestions, expected);
     }
 
+    /**
+     * Checks that a suggestion engine created without its main dictionary only suggests the
+     * typed word, then that it suggests the expected word once the dictionary is loaded.
+     */
+    boolean isDefaultSuggestionOnceLoaded(Context context, int[] resId, CharSequence typed,
+            CharSequence expected) {
+        Suggest suggest = new Suggest();
+        suggest.setAutoTextEnabled(false);
+        suggest.setCorrectionMode(Suggest.CORRECTION_FULL);
+        if (suggest.getMainDictionaryReadiness() != Dictionary.Readiness.LOADING) return false;
+        WordComposer word = createWordComposer(typed);
+        List<CharSequence> suggestions = suggest.getSuggestions(null, word, false, null);
+        if (suggestions.size() != 1 || !TextUtils.equals(suggestions.get(0), typed)) {
+            return false;
+        }
+        InputStream[] is = new InputStream[resId.length];
+        for (int i = 0; i < resId.length; i++) {
+            is[i] = context.getResources().openRawResource(resId[i]);
+        }
+        suggest.loadMainDictionary(is);
+        try {
+            if (suggest.getMainDictionaryReadiness() != Dictionary.Readiness.READY) return false;
+            suggestions = suggest.getSuggestions(null, word, false, null);
+            return isDefaultSuggestion(suggestions, expected);
+        } finally {
+            suggest.close();
+        }
+    }
+
+    /**
+     * Checks that a suggestion engine created without its main dictionary stops loading, and
+     * still suggests the typed word, once told there is no dictionary to load.
+     */
+    boolean isUnavailableWithoutDictionary(CharSequence typed) {
+        Suggest suggest = new Suggest();
+        try {
+            suggest.loadMainDictionary(null);
+            if (suggest.getMainDictionaryReadiness() != Dictionary.Readiness.UNAVAILABLE) {
+                return false;
+            }
+            WordComposer word = createWordComposer(typed);
+            List<CharSequence> suggestions = suggest.getSuggestions(null, word, false, null);
+            return suggestions.size() == 1 && TextUtils.equals(suggestions.get(0), typed);
+        } finally {
+            suggest.close();
+        }
+    }
+
+    boolean isProbedSizeExact(Context context, int[] resId) {
+        BinaryDictionary dictionary = new BinaryDictionary(context, resId, Suggest.DIC_MAIN);
+        try {
+            return dictionary.getSize() > 0
+                    && BinaryDictionary.getDictionarySize(context, resId) == dictionary.getSize();
+        } finally {
+            dictionary.close();
+        }
+    }
+
+    /**
+     * Looks up the suggestions of a word twice, and checks the counters of the work done: the
+     * first lookup searches the dictionary, the second one is served from the cache, and both
+     * are added to the totals.
+     */
+    boolean areSearchStatsCounted(CharSequence typed) {
+        final SearchStats total = new SearchStats();
+        total.subtract(mSuggest.getSearchStats());
+        mSuggest.getSuggestions(null, createWordComposer(typed), false, null);
+        final SearchStats last = mSuggest.getLastSearchStats();
+        if (last.lookups != 1 || last.cachedLookups != 0 || last.nativeCalls == 0
+                || last.nodesVisited == 0 || last.wordsKept > last.wordsFound
+                || last.candidatesAccepted > last.candidatesOffered) {
+            return false;
+        }
+        final long nodesVisited = last.nodesVisited;
+        mSuggest.getSuggestions(null, createWordComposer(typed), false, null);
+        if (last.lookups != 1 || last.cachedLookups != 1 || last.nativeCalls != 0
+                || last.nodesVisited != 0 || last.candidatesOffered != 0) {
+            return false;
+        }
+        total.add(mSuggest.getSearchStats());
+        return total.lookups == 2 && total.cachedLookups == 1
+                && total.nodesVisited == nodesVisited;
+    }
+
     boolean isDefaultCorrection(CharSequence typed, CharSequence expected) {
         WordComposer word = createWordComposer(typed);
         List<CharSequence> suggestions = mSuggest.getSuggestions(null, word, false, null);
@@ -151,6 +306,41 @@ public class SuggestHelper {
         return false;
     }
 
+    boolean isDefaultGlide(CharSequence glided, CharSequence expected) {
+        List<CharSequence> suggestions =
+                mSuggest.getGestureSuggestions(createGlidePath(glided));
+        return suggestions.size() > 0 && TextUtils.equals(suggestions.get(0), expected);
+    }
+
+    boolean isAGlideSuggestion(CharSequence glided, CharSequence expected) {
+        List<CharSequence> suggestions =
+                mSuggest.getGestureSuggestions(createGlidePath(glided));
+        for (int i = 0; i < suggestions.size(); i++) {
+            if (TextUtils.equals(suggestions.get(i), expected)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Uses a user dictionary holding the given words, which is only kept in memory.
+     */
+    void setUserWords(Context context, String... words) {
+        ExpandableDictionary dictionary = new ExpandableDictionary(context, Suggest.DIC_USER);
+        for (String word : words) {
+            dictionary.addWord(word, 128);
+        }
+        mSuggest.setUserDictionary(dictionary);
+    }
+
+    boolean isASuggestion(CharSequence typed, CharSequence expected, int likelihood) {
+        WordComposer word = createWordComposer(typed, likelihood);
+        List<CharSequence> suggestions = mSuggest.getSuggestions(null, word, false, null);
+        for (int i = 1; i < suggestions.size(); i++) {
+            if (TextUtils.equals(suggestions.get(i), expected)) return true;
+        }
+        return false;
+    }
+
     private void getBigramSuggestions(CharSequence previous, CharSequence typed) {
         if (!TextUtils.isEmpty(previous) && (typed.length() > 1)) {
             WordComposer firstChar = createWordComposer(Character.toString(typed.charAt(0)));
@@ -185,6 +375,73 @@ public class SuggestHelper {
         return false;
     }
 
+    boolean isSameAfterRetyping(CharSequence typed, CharSequence other) {
+        List<CharSequence> suggestions =
+                mSuggest.getSuggestions(null, createWordComposer(typed), false, null);
+        String[] first = new String[suggestions.size()];
+        for (int i = 0; i < first.length; i++) {
+            first[i] = suggestions.get(i).toString();
+        }
+        mSuggest.getSuggestions(null, createWordComposer(other), false, null);
+        suggestions = mSuggest.getSuggestions(null, createWordComposer(typed), false, null);
+        if (suggestions.size() != first.length) return false;
+        for (int i = 0; i < first.length; i++) {
+            if (!TextUtils.equals(suggestions.get(i), first[i])) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Compares the suggestions at the first character of the next word with and without the
+     * bigrams of the previous word looked up in advance. The previous word is passed capitalized
+     * the second time, so that the suggestions are not simply served from the cache.
+     */
+    boolean isSameAfterPrefetch(CharSequence previous, CharSequence typed) {
+        List<CharSequence> suggestions = mSuggest.getSuggestions(null,
+                createWordComposer(typed), false, previous);
+        String[] first = new String[suggestions.size()];
+        for (int i = 0; i < first.length; i++) {
+            first[i] = suggestions.get(i).toString();
+        }
+        mSuggest.prefetchBigrams(previous);
+        mSuggest.waitForBigramPrefetch();
+        String capitalized = Character.toUpperCase(previous.charAt(0))
+                + previous.toString().substring(1);
+        suggestions = mSuggest.getSuggestions(null, createWordComposer(typed), false, capitalized);
+        if (suggestions.size() != first.length) return false;
+        for (int i = 0; i < first.length; i++) {
+            if (!TextUtils.equals(suggestions.get(i), first[i])) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Looks up the suggestions for every prefix of the given words over and over, then returns
+     * the number of objects allocated by this thread during one more round. The warm-up lasts
+     * long enough for every recycled cache entry to have held every state once.
+     */
+    int countAllocationsWhileTyping(String... words) {
+        ArrayList<WordComposer> composers = new ArrayList<WordComposer>();
+        for (String word : words) {
+            for (int i = 1; i <= word.length(); i++) {
+                composers.add(createWordComposer(word.substring(0, i)));
+            }
+        }
+        final int size = composers.size();
+        for (int round = 0; round < size; round++) {
+            for (int i = 0; i < size; i++) {
+                mSuggest.getSuggestions(null, composers.get(i), false, null);
+            }
+        }
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        for (int i = 0; i < size; i++) {
+            mSuggest.getSuggestions(null, composers.get(i), false, null);
+        }
+        Debug.stopAllocCounting();
+        return Debug.getThreadAllocCount();
+    }
+
     boolean isValid(CharSequence typed) {
         return mSuggest.isValidWord(typed);
     }
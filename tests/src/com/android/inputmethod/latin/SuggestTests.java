@@ -136,6 +136,23 @@ public class SuggestTests extends AndroidTestCase {
         assertFalse(sh.isValid("sunday"));
     }
 
+    /**
+     * Make sure repeated validity checks, as cached by Suggest, give the same answers even when
+     * the same buffer is reused for different words.
+     */
+    public void testValidityRepeatedQueries() {
+        final StringBuilder word = new StringBuilder("yikes");
+        assertTrue(sh.isValid(word));
+        assertTrue(sh.isValid(word));
+        word.setLength(4);
+        assertFalse(sh.isValid(word));
+        assertFalse(sh.isValid(word));
+        word.append('s');
+        assertTrue(sh.isValid(word));
+        assertTrue(sh.isValid("Sunday"));
+        assertFalse(sh.isValid("sunday"));
+    }
+
     /**
      * Are accented forms of words suggested as corrections?
      */
@@ -148,6 +165,15 @@ public class SuggestTests extends AndroidTestCase {
         assertTrue(sh.isDefaultCorrection("maria", "Mar\u00EDa"));
     }
 
+    /**
+     * Make sure only the typed word is suggested until the main dictionary is loaded, and that
+     * suggestions cached meanwhile do not hide it afterwards
+     */
+    public void testSuggestionsWhileLoading() {
+        assertTrue(sh.isDefaultSuggestionOnceLoaded(getTestContext(), new int[] { R.raw.test },
+                "peopl", "people"));
+    }
+
     /**
      * Make sure bigrams are showing when first character is typed
      *  and don't show any when there aren't any
@@ -160,6 +186,15 @@ public class SuggestTests extends AndroidTestCase {
         assertFalse(sh.isDefaultNextSuggestion("about", "p", "business"));
     }
 
+    /**
+     * Make sure bigrams looked up in advance give the same suggestions at the first character
+     */
+    public void testBigramsPrefetch() {
+        assertTrue(sh.isSameAfterPrefetch("about", "p"));
+        assertTrue(sh.isSameAfterPrefetch("about", "b"));
+        assertTrue(sh.isSameAfterPrefetch("from", "s"));
+    }
+
     /**
      * Make sure bigrams score affects the original score
      */
@@ -169,4 +204,78 @@ public class SuggestTests extends AndroidTestCase {
         assertTrue(sh.isDefaultCorrection("sa", "said"));
         assertTrue(sh.isDefaultNextCorrection("from", "sa", "same"));
     }
+
+    /**
+     * Make sure looking up suggestions does not allocate once warmed up, whether the composing
+     * states are cached or not.
+     */
+    public void testNoAllocationsWhileTyping() {
+        // Few enough states to stay in the suggestions cache
+        assertEquals(0, sh.countAllocationsWhileTyping("people"));
+        // More states than the cache holds, so that every lookup goes to the dictionary
+        assertEquals(0, sh.countAllocationsWhileTyping("people", "about", "there", "which",
+                "would", "their", "could", "other", "after", "first"));
+    }
+
+    /**
+     * Make sure a cached composing state gives the same suggestions as the first lookup
+     */
+    public void testRetypedWordSuggestions() {
+        assertTrue(sh.isSameAfterRetyping("peopl", "peop"));
+        assertTrue(sh.isSameAfterRetyping("thei", "the"));
+        assertTrue(sh.isDefaultSuggestion("peopl", "people"));
+    }
+
+    /**
+     * Make sure a language without a dictionary does not look like it is still loading one
+     */
+    public void testNoDictionaryIsUnavailable() {
+        assertTrue(sh.isUnavailableWithoutDictionary("peopl"));
+    }
+
+    /**
+     * Tests that the size of a dictionary is known without loading it.
+     */
+    public void testDictionarySizeProbe() {
+        assertTrue(sh.isProbedSizeExact(getTestContext(), new int[] { R.raw.test }));
+    }
+
+    /**
+     * Tests that the work done by the dictionary searches is counted.
+     */
+    public void testSearchStats() {
+        assertTrue(sh.areSearchStatsCounted("peopl"));
+        assertTrue(sh.areSearchStatsCounted("qwxz"));
+    }
+
+    /**
+     * Tests that the alternatives of a keystroke too unlikely to be meant are not tried, and
+     * that the suggestions cached for the same keys with other likelihoods are not reused.
+     */
+    public void testUnlikelyAlternatives() {
+        assertTrue(sh.isASuggestion("tgis", "this", WordComposer.MAX_LIKELIHOOD));
+        assertFalse(sh.isASuggestion("tgis", "this", WordComposer.MIN_LIKELIHOOD - 1));
+        assertTrue(sh.isASuggestion("tgis", "this", WordComposer.MIN_LIKELIHOOD));
+    }
+
+    /**
+     * Tests the words found along the path of a glide: the stroke may cross keys on its way
+     * from a letter to the next, but the word must have a letter where it turns.
+     */
+    public void testGlideSuggestions() {
+        assertTrue(sh.isDefaultGlide("this", "this"));
+        assertTrue(sh.isDefaultGlide("people", "people"));
+        assertTrue(sh.isDefaultGlide("where", "where"));
+        // All the letters of "were" are on the path, but not the h where it turns
+        assertFalse(sh.isAGlideSuggestion("where", "were"));
+    }
+
+    /**
+     * Tests that the words of the dictionaries written in Java are found along a glide.
+     */
+    public void testGlideUserWords() {
+        assertFalse(sh.isAGlideSuggestion("glide", "glide"));
+        sh.setUserWords(getTestContext(), "glide");
+        assertTrue(sh.isDefaultGlide("glide", "glide"));
+    }
 }